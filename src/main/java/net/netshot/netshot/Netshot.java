@@ -53,28 +53,44 @@ import ch.qos.logback.core.rolling.RollingFileAppender;
 import ch.qos.logback.core.rolling.SizeBasedTriggeringPolicy;
 import ch.qos.logback.core.util.FileSize;
 import lombok.extern.slf4j.Slf4j;
+import net.netshot.netshot.aaa.ApiTokenCache;
 import net.netshot.netshot.aaa.Oidc;
 import net.netshot.netshot.aaa.PasswordPolicy;
 import net.netshot.netshot.aaa.Radius;
 import net.netshot.netshot.aaa.Tacacs;
 import net.netshot.netshot.aaa.UiUser;
 import net.netshot.netshot.cluster.ClusterManager;
+import net.netshot.netshot.compliance.CheckResult;
 import net.netshot.netshot.compliance.rules.JavaScriptRule;
 import net.netshot.netshot.compliance.rules.PythonRule;
 import net.netshot.netshot.database.Database;
+import net.netshot.netshot.database.DatabaseInstrumentation;
+import net.netshot.netshot.database.TaskPartitionManager;
 import net.netshot.netshot.device.DeviceDriver;
+import net.netshot.netshot.device.access.AccessManager;
 import net.netshot.netshot.device.access.Ssh;
+import net.netshot.netshot.device.access.SshSessionKeeper;
 import net.netshot.netshot.device.access.Telnet;
 import net.netshot.netshot.device.attribute.ConfigBinaryFileAttribute;
+import net.netshot.netshot.device.attribute.ConfigTextHistory;
 import net.netshot.netshot.device.collector.Collector;
 import net.netshot.netshot.device.collector.SnmpTrapReceiver;
 import net.netshot.netshot.device.collector.SshServer;
 import net.netshot.netshot.device.collector.SyslogServer;
+import net.netshot.netshot.device.collector.TftpServer;
 import net.netshot.netshot.device.script.helper.PythonFileSystem;
+import net.netshot.netshot.rest.ConfigDiffCache;
+import net.netshot.netshot.rest.DataExportJob;
 import net.netshot.netshot.rest.LoggerFilter;
+import net.netshot.netshot.rest.ReadAfterWriteFilter;
 import net.netshot.netshot.rest.RestService;
 import net.netshot.netshot.utils.BouncyCastleLoader;
+import net.netshot.netshot.utils.HttpClientPool;
 import net.netshot.netshot.vault.VaultManager;
+import net.netshot.netshot.work.DeviceLockManager;
+import net.netshot.netshot.work.TaskLimiter;
+import net.netshot.netshot.work.TaskLogBuffer;
+import net.netshot.netshot.work.tasks.PurgeDatabaseTask;
 import net.netshot.netshot.work.tasks.TakeSnapshotTask;
 //CHECKSTYLE:OFF: IllegalImport
 import sun.misc.Signal;
@@ -528,17 +544,32 @@ public class Netshot extends Thread {
 		log.info("Loading module configurations.");
 		PasswordPolicy.loadConfig();
 		UiUser.loadConfig();
+		ApiTokenCache.loadConfig();
 		Radius.loadConfig();
 		Tacacs.loadConfig();
 		Oidc.loadConfig();
 		TakeSnapshotTask.loadConfig();
+		PurgeDatabaseTask.loadConfig();
 		JavaScriptRule.loadConfig();
 		PythonRule.loadConfig();
+		CheckResult.loadConfig();
 		PythonFileSystem.loadConfig();
 		Ssh.loadConfig();
+		SshSessionKeeper.loadConfig();
+		AccessManager.loadConfig();
 		Telnet.loadConfig();
+		HttpClientPool.loadConfig();
 		Collector.loadConfig();
 		ConfigBinaryFileAttribute.loadConfig();
+		ConfigTextHistory.loadConfig();
+		ConfigDiffCache.loadConfig();
+		DataExportJob.loadConfig();
+		TaskLimiter.loadConfig();
+		TaskLogBuffer.loadConfig();
+		DeviceLockManager.loadConfig();
+		DatabaseInstrumentation.loadConfig();
+		TaskPartitionManager.loadConfig();
+		ReadAfterWriteFilter.loadConfig();
 		VaultManager.loadConfig();
 	}
 
@@ -618,6 +649,8 @@ public class Netshot extends Thread {
 
 			Netshot.loadModuleConfigs();
 
+			log.info("Creating the upcoming task partitions.");
+			TaskPartitionManager.init();
 			log.info("Loading the device drivers.");
 			DeviceDriver.refreshDrivers();
 			log.info("Starting the Syslog server.");
@@ -626,8 +659,8 @@ public class Netshot extends Thread {
 			SnmpTrapReceiver.init();
 			log.info("Starting the SSH/SCP/SFTP server.");
 			SshServer.init();
-			//log.info("Starting the TFTP server.");
-			//TftpServer.init();
+			log.info("Starting the TFTP server.");
+			TftpServer.init();
 
 			log.info("Starting the clustering manager.");
 			ClusterManager.init();
@@ -656,6 +689,10 @@ public class Netshot extends Thread {
 					SnmpTrapReceiver.reload();
 				}
 			});
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				log.info("Closing the idle SSH sessions.");
+				SshSessionKeeper.closeAll();
+			}, "NetshotShutdown"));
 			log.warn("Netshot is started");
 
 		}
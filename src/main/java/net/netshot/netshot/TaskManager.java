@@ -18,28 +18,37 @@
  */
 package net.netshot.netshot;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Properties;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.hibernate.HibernateException;
+import org.hibernate.LockMode;
 import org.hibernate.Session;
 import org.quartz.Job;
 import org.quartz.JobBuilder;
 import org.quartz.JobDetail;
+import org.quartz.JobKey;
 import org.quartz.Scheduler;
 import org.quartz.SchedulerException;
 import org.quartz.Trigger;
 import org.quartz.TriggerBuilder;
 import org.quartz.impl.StdSchedulerFactory;
+import org.quartz.impl.matchers.GroupMatcher;
 import org.slf4j.MarkerFactory;
 
 import lombok.Getter;
@@ -52,6 +61,7 @@ import net.netshot.netshot.work.MasterJob;
 import net.netshot.netshot.work.Task;
 import net.netshot.netshot.work.Task.Status;
 import net.netshot.netshot.work.TaskJob;
+import net.netshot.netshot.work.VirtualThreadPool;
 
 /**
  * The TaskManager schedules and runs the tasks.
@@ -67,11 +77,31 @@ public final class TaskManager {
 		@Getter
 		private int threadCount;
 
+		/** Whether to run the tasks in virtual threads. */
+		@Getter
+		private boolean virtualThreads;
+
+		/** Whether the runners claim the ready tasks by themselves (cluster mode). */
+		@Getter
+		private boolean pullTasks;
+
+		/** Lease time (seconds) of a claimed task, in pull mode. */
+		@Getter
+		private int taskLeaseTime;
+
+		/** Max interval (ms) between two claim attempts, in pull mode. */
+		@Getter
+		private int taskPullInterval;
+
 		/**
 		 * Load settings from config.
 		 */
 		private void load() {
 			this.threadCount = Netshot.getConfig("netshot.tasks.threadcount", 10, 1, 65535);
+			this.virtualThreads = Netshot.getConfig("netshot.tasks.virtualthreads", false);
+			this.pullTasks = Netshot.getConfig("netshot.cluster.tasks.pull", false);
+			this.taskLeaseTime = Netshot.getConfig("netshot.cluster.tasks.leasetime", 60, 10, 86400);
+			this.taskPullInterval = Netshot.getConfig("netshot.cluster.tasks.pullinterval", 5000, 100, 600000);
 		}
 	}
 
@@ -103,11 +133,39 @@ public final class TaskManager {
 			double value = this.random.nextDouble() * this.total;
 			return this.map.higherEntry(value).getValue();
 		}
+
+		/**
+		 * Select a stable runner for the given hash (rendezvous hashing), so that
+		 * the same hash maps to the same runner as long as it is available.
+		 * @param hash the hash (e.g. of the device)
+		 * @return the runner ID
+		 */
+		public String getPreferredRunnerId(long hash) {
+			String bestRunnerId = null;
+			long bestScore = 0;
+			for (String runnerId : this.map.values()) {
+				long score = hash * 0x9E3779B97F4A7C15L ^ runnerId.hashCode();
+				score ^= score >>> 31;
+				score *= 0xBF58476D1CE4E5B9L;
+				score ^= score >>> 29;
+				if (bestRunnerId == null || score > bestScore) {
+					bestRunnerId = runnerId;
+					bestScore = score;
+				}
+			}
+			return bestRunnerId;
+		}
 	}
 
 	/** Settings for this class. */
 	public static final Settings SETTINGS = new Settings();
 
+	/** JDBC batch size for bulk task inserts (matches the allocation size of task IDs). */
+	private static final int BULK_BATCH_SIZE = 50;
+
+	/** Max number of task IDs per set-based update. */
+	private static final int BULK_UPDATE_SIZE = 1000;
+
 	/** The master scheduler (used in master mode to dispatch jobs). */
 	private static Scheduler masterScheduler;
 
@@ -120,6 +178,28 @@ public final class TaskManager {
 	/** Available runners. */
 	private static RunnerSet runnerSet;
 
+	/** IDs of the live cluster members (whatever their runner priority). */
+	private static volatile Set<String> liveMemberIds = Set.of();
+
+	/**
+	 * Share of the local capacity to use when claiming tasks (pull mode): 0 if
+	 * the local member doesn't have the best runner priority, otherwise its
+	 * runner weight relative to the heaviest runner.
+	 */
+	private static volatile double localRunnerShare = 0;
+
+	/** Lock to wake up the task claimer (pull mode). */
+	private static final Object CLAIM_LOCK = new Object();
+
+	/** Whether the task claimer was requested to look for ready tasks. */
+	private static boolean claimRequested;
+
+	/**
+	 * Renews the leases of the local tasks (pull mode), apart from the claimer thread
+	 * so that a slow claim or scheduling doesn't let the leases expire.
+	 */
+	private static ScheduledExecutorService leaseRenewer;
+
 	/**
 	 * Initializes the task manager.
 	 */
@@ -141,7 +221,14 @@ public final class TaskManager {
 		}
 		try {
 			Properties params = new Properties();
-			params.put(StdSchedulerFactory.PROP_THREAD_POOL_CLASS, "org.quartz.simpl.SimpleThreadPool");
+			if (TaskManager.SETTINGS.virtualThreads) {
+				// Concurrency is then bounded by TaskLimiter
+				log.info("Tasks will run in virtual threads.");
+				params.put(StdSchedulerFactory.PROP_THREAD_POOL_CLASS, VirtualThreadPool.class.getName());
+			}
+			else {
+				params.put(StdSchedulerFactory.PROP_THREAD_POOL_CLASS, "org.quartz.simpl.SimpleThreadPool");
+			}
 			params.put("org.quartz.threadPool.threadCount", Integer.toString(TaskManager.SETTINGS.threadCount));
 			params.put(StdSchedulerFactory.PROP_SCHED_INSTANCE_NAME, "NetshotRunnerScheduler");
 			params.put("org.quartz.scheduler.skipUpdateCheck", "true");
@@ -153,6 +240,19 @@ public final class TaskManager {
 			log.error(MarkerFactory.getMarker("FATAL"), "Unable to instantiate the Runner Task Manager", e);
 			throw new RuntimeException("Unable to instantiate the Runner Task Manager.", e);
 		}
+		if (TaskManager.SETTINGS.pullTasks && !Mode.SINGLE.equals(TaskManager.mode)) {
+			log.info("The tasks will be claimed by the cluster runners (pull mode).");
+			Thread claimer = new Thread(TaskManager::runTaskClaimer, "NetshotTaskClaimer");
+			claimer.start();
+			long renewPeriod = TaskManager.SETTINGS.taskLeaseTime * 1000L / 3;
+			TaskManager.leaseRenewer = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "NetshotTaskLeaseRenewer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			TaskManager.leaseRenewer.scheduleWithFixedDelay(TaskManager::checkTaskLeases,
+				renewPeriod, renewPeriod, TimeUnit.MILLISECONDS);
+		}
 	}
 
 	/**
@@ -184,6 +284,7 @@ public final class TaskManager {
 	 */
 	public static void scheduleNewTasks() {
 		log.debug("Looking for new tasks to assign to available runners");
+		boolean released = false;
 		Session session = Database.getSession();
 		try {
 			session.beginTransaction();
@@ -192,6 +293,11 @@ public final class TaskManager {
 				.list();
 			for (Task task : tasks) {
 				task.onSchedule();
+				if (TaskManager.isReleasedDirectly(task)) {
+					TaskManager.releaseTask(task);
+					released = true;
+					continue;
+				}
 				task.setScheduled();
 				session.persist(task);
 				try {
@@ -210,6 +316,23 @@ public final class TaskManager {
 		finally {
 			session.close();
 		}
+		if (released) {
+			TaskManager.requestTasksClaim();
+		}
+	}
+
+	/**
+	 * Checks whether a task can be released to the runners right away, without
+	 * going through the master scheduler: in pull mode, for a task due now.
+	 * @param task the task
+	 * @return true to release the task directly
+	 */
+	private static boolean isReleasedDirectly(Task task) {
+		if (!TaskManager.SETTINGS.pullTasks || !Mode.CLUSTER_MASTER.equals(TaskManager.mode)) {
+			return false;
+		}
+		Date when = task.getNextExecutionDate();
+		return when == null || !when.after(new Date());
 	}
 
 	/**
@@ -224,6 +347,32 @@ public final class TaskManager {
 		task.setWaiting();
 	}
 
+	/**
+	 * Releases a task to the runners (pull mode): the task is set as waiting, without
+	 * lease, so that any runner can claim it. The task gets a preferred runner if
+	 * it has a runner hash (e.g. tasks on the same device), which claims it first.
+	 * @param task the task
+	 */
+	public static void releaseTask(Task task) {
+		String runnerId = TaskManager.getPreferredRunnerId(task);
+		log.info("Task {} (hash {}) is being released to the runners (preferred runner {}).",
+			task.getId(), task.getRunnerHash(), runnerId);
+		task.setRunnerId(runnerId);
+		task.setLeaseExpiry(null);
+		task.setWaiting();
+	}
+
+	/**
+	 * Gets the runner which should claim the given task first (pull mode).
+	 * @param task the task
+	 * @return the preferred runner ID, null if any
+	 */
+	private static String getPreferredRunnerId(Task task) {
+		long hash = task.getRunnerHash();
+		RunnerSet runners = TaskManager.runnerSet;
+		return (hash == 0 || runners == null) ? null : runners.getPreferredRunnerId(hash);
+	}
+
 	/**
 	 * Sets the possible task runners (to be called from ClusterManager).
 	 * @param members the list of cluster members.
@@ -244,14 +393,26 @@ public final class TaskManager {
 			}
 		}
 		RunnerSet newRunnerSet = new RunnerSet();
+		int maxWeight = 0;
+		int localWeight = 0;
 		for (ClusterMember member : activeMembers) {
 			if (member.getRunnerPriority() == maxPriority) {
 				newRunnerSet.add(member.getRunnerWeight(), member.getInstanceId());
+				maxWeight = Math.max(maxWeight, member.getRunnerWeight());
+				if (member.getInstanceId().equals(ClusterManager.getLocalInstanceId())) {
+					localWeight = member.getRunnerWeight();
+				}
 			}
 		}
+		Set<String> newLiveMemberIds = new HashSet<>();
+		for (ClusterMember member : activeMembers) {
+			newLiveMemberIds.add(member.getInstanceId());
+		}
+		TaskManager.liveMemberIds = newLiveMemberIds;
 		synchronized (TaskManager.masterScheduler) {
 			TaskManager.runnerSet = newRunnerSet;
 		}
+		TaskManager.localRunnerShare = maxWeight > 0 ? (double) localWeight / maxWeight : 0;
 		TaskManager.reassignOrphanTasks();
 	}
 
@@ -317,28 +478,28 @@ public final class TaskManager {
 	}
 
 	/**
-	 * Add the given task to the given scheduler.
-	 * @param task the task to schedule
-	 * @param runnerTask true to mark a runner task rather than a master task
-	 * @param checkExistence checks that the task is not already in the scheduler
-	 * @param forceNow force immediate execution or use task's execution time
-	 * @throws SchedulerException
+	 * Build the Quartz job of a task.
+	 * @param task the task
+	 * @param runnerTask true for a runner task rather than a master task
+	 * @return the job
 	 */
-	private static void addTaskToScheduler(Task task, boolean runnerTask,
-		boolean checkExistence, boolean forceNow) throws SchedulerException {
-		Scheduler scheduler = runnerTask ? runnerScheduler : masterScheduler;
-		if (checkExistence) {
-			if (scheduler.checkExists(task.getIdentity())) {
-				log.debug("Task already in the scheduler");
-				return;
-			}
-		}
+	private static JobDetail buildJob(Task task, boolean runnerTask) {
 		Class<? extends Job> jobClass = runnerTask ? TaskJob.class : MasterJob.class;
 		JobDetail job = JobBuilder
 			.newJob(jobClass)
 			.withIdentity(task.getIdentity())
 			.build();
 		job.getJobDataMap().put(TaskJob.NETSHOT_TASK, task.getId());
+		return job;
+	}
+
+	/**
+	 * Build the Quartz trigger of a task.
+	 * @param task the task
+	 * @param forceNow force immediate execution or use task's execution time
+	 * @return the trigger
+	 */
+	private static Trigger buildTrigger(Task task, boolean forceNow) {
 		TriggerBuilder<Trigger> triggerBuilder = TriggerBuilder
 			.newTrigger()
 			.withPriority(task.getPriority());
@@ -349,7 +510,27 @@ public final class TaskManager {
 		else {
 			triggerBuilder.startAt(when);
 		}
-		scheduler.scheduleJob(job, triggerBuilder.build());
+		return triggerBuilder.build();
+	}
+
+	/**
+	 * Add the given task to the given scheduler.
+	 * @param task the task to schedule
+	 * @param runnerTask true to mark a runner task rather than a master task
+	 * @param checkExistence checks that the task is not already in the scheduler
+	 * @param forceNow force immediate execution or use task's execution time
+	 * @throws SchedulerException
+	 */
+	private static void addTaskToScheduler(Task task, boolean runnerTask,
+		boolean checkExistence, boolean forceNow) throws SchedulerException {
+		Scheduler scheduler = runnerTask ? runnerScheduler : masterScheduler;
+		if (checkExistence) {
+			if (scheduler.checkExists(task.getIdentity())) {
+				log.debug("Task already in the scheduler");
+				return;
+			}
+		}
+		scheduler.scheduleJob(buildJob(task, runnerTask), buildTrigger(task, forceNow));
 		log.trace("Task successfully added to the scheduler.");
 	}
 
@@ -395,11 +576,18 @@ public final class TaskManager {
 	 * @throws HibernateException Hibernate exception
 	 */
 	private static void addTaskMasterMode(Task task) throws SchedulerException, HibernateException {
+		boolean releasedDirectly = TaskManager.isReleasedDirectly(task);
 		Session session = Database.getSession();
 		try {
 			session.beginTransaction();
 			task.onSchedule();
-			task.setScheduled();
+			if (releasedDirectly) {
+				// Pull mode, the runners will claim the task
+				TaskManager.releaseTask(task);
+			}
+			else {
+				task.setScheduled();
+			}
 			if (task.getId() == 0) {
 				session.persist(task);
 			}
@@ -418,6 +606,10 @@ public final class TaskManager {
 		finally {
 			session.close();
 		}
+		if (releasedDirectly) {
+			TaskManager.requestTasksClaim();
+			return;
+		}
 		addTaskToScheduler(task, false, false, false);
 	}
 
@@ -477,6 +669,186 @@ public final class TaskManager {
 		}
 	}
 
+	/**
+	 * Persists new tasks in bulk (typically the pre-created children of a group-based task),
+	 * in a single transaction, using JDBC batching (task IDs come from a pooled sequence,
+	 * so that inserts can be batched). The tasks are persisted as they are, i.e. they are
+	 * not scheduled (see {@link #addTasks(List)} for that).
+	 *
+	 * @param tasks the tasks to persist (not persisted yet)
+	 * @throws HibernateException the Hibernate exception
+	 */
+	public static void persistTasks(List<? extends Task> tasks) throws HibernateException {
+		log.debug("Persisting {} task(s) in bulk.", tasks.size());
+		Session session = Database.getSession();
+		try {
+			session.setJdbcBatchSize(BULK_BATCH_SIZE);
+			session.beginTransaction();
+			int count = 0;
+			for (Task task : tasks) {
+				session.persist(task);
+				count++;
+				if (count % BULK_BATCH_SIZE == 0) {
+					session.flush();
+					session.clear();
+				}
+			}
+			session.getTransaction().commit();
+		}
+		catch (Exception e) {
+			Database.rollbackSilently(session);
+			log.error("Error while persisting tasks in bulk.", e);
+			throw e;
+		}
+		finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Promotes already persisted, {@link Status#DELAYED}, tasks in bulk: the status is changed
+	 * by a set-based update (by chunks of task IDs) and the jobs are added to the scheduler
+	 * at once, rather than one transaction and one scheduling call per task as
+	 * {@link #addTask(Task)} does. A task whose status was changed meanwhile (e.g. cancelled)
+	 * is left alone. In case of scheduling error, the status of the promoted tasks is already
+	 * committed and none of their jobs is kept: the caller has to mark them as failed.
+	 *
+	 * @param tasks the tasks to promote (already persisted, in DELAYED status)
+	 * @return the number of promoted tasks
+	 * @throws SchedulerException the scheduler exception
+	 * @throws HibernateException the Hibernate exception
+	 */
+	public static int addTasks(List<? extends Task> tasks) throws SchedulerException, HibernateException {
+		log.debug("Adding {} task(s) to the system in bulk.", tasks.size());
+		if (tasks.isEmpty()) {
+			return 0;
+		}
+		Status targetStatus = Mode.CLUSTER_MEMBER.equals(TaskManager.mode) ? Status.NEW : Status.SCHEDULED;
+		List<Task> promotedTasks = new ArrayList<>();
+		List<Task> releasedTasks = new ArrayList<>();
+		Session session = Database.getSession();
+		try {
+			session.beginTransaction();
+			for (int i = 0; i < tasks.size(); i += BULK_UPDATE_SIZE) {
+				List<? extends Task> chunk = tasks.subList(i, Math.min(tasks.size(), i + BULK_UPDATE_SIZE));
+				List<Long> ids = new ArrayList<>();
+				List<Long> scheduledIds = new ArrayList<>();
+				// Pull mode: tasks due now go straight to the runners, by preferred runner
+				Map<String, List<Long>> releasedIds = new HashMap<>();
+				Set<Task> releasing = new HashSet<>();
+				for (Task task : chunk) {
+					ids.add(task.getId());
+					if (TaskManager.isReleasedDirectly(task)) {
+						releasing.add(task);
+						releasedIds.computeIfAbsent(TaskManager.getPreferredRunnerId(task), k -> new ArrayList<>())
+							.add(task.getId());
+					}
+					else {
+						scheduledIds.add(task.getId());
+					}
+				}
+				int updated = 0;
+				if (!scheduledIds.isEmpty()) {
+					updated += session
+						.createMutationQuery("update Task t set t.status = :target where t.id in :ids and t.status = :delayed")
+						.setParameter("target", targetStatus)
+						.setParameter("delayed", Status.DELAYED)
+						.setParameter("ids", scheduledIds)
+						.executeUpdate();
+				}
+				for (Map.Entry<String, List<Long>> released : releasedIds.entrySet()) {
+					updated += session
+						.createMutationQuery("update Task t set t.status = :waiting, t.runnerId = :runnerId, "
+							+ "t.leaseExpiry = null where t.id in :ids and t.status = :delayed")
+						.setParameter("waiting", Status.WAITING)
+						.setParameter("runnerId", released.getKey())
+						.setParameter("delayed", Status.DELAYED)
+						.setParameter("ids", released.getValue())
+						.executeUpdate();
+				}
+				Set<Long> promotedIds;
+				if (updated == chunk.size()) {
+					promotedIds = null;
+				}
+				else {
+					promotedIds = new HashSet<>(session
+						.createQuery("select t.id from Task t where t.id in :ids and (t.status = :target or t.status = :waiting)",
+							Long.class)
+						.setParameter("ids", ids)
+						.setParameter("target", targetStatus)
+						.setParameter("waiting", Status.WAITING)
+						.list());
+				}
+				for (Task task : chunk) {
+					if (promotedIds == null || promotedIds.contains(task.getId())) {
+						if (releasing.contains(task)) {
+							releasedTasks.add(task);
+						}
+						else {
+							promotedTasks.add(task);
+						}
+					}
+				}
+			}
+			session.getTransaction().commit();
+		}
+		catch (Exception e) {
+			Database.rollbackSilently(session);
+			log.error("Error while promoting tasks in bulk.", e);
+			throw e;
+		}
+		finally {
+			session.close();
+		}
+
+		for (Task task : promotedTasks) {
+			task.setStatus(targetStatus);
+		}
+		if (!releasedTasks.isEmpty()) {
+			for (Task task : releasedTasks) {
+				task.onSchedule();
+				TaskManager.releaseTask(task);
+			}
+			log.debug("{} task(s) released to the runners.", releasedTasks.size());
+			TaskManager.requestTasksClaim();
+		}
+		if (Mode.CLUSTER_MEMBER.equals(TaskManager.mode)) {
+			ClusterManager.requestTasksAssignment();
+			return promotedTasks.size();
+		}
+		if (promotedTasks.isEmpty()) {
+			return releasedTasks.size();
+		}
+		boolean runnerTask = Mode.SINGLE.equals(TaskManager.mode);
+		Map<JobDetail, Set<? extends Trigger>> jobs = new HashMap<>();
+		for (Task task : promotedTasks) {
+			task.onSchedule();
+			jobs.put(buildJob(task, runnerTask), Set.of(buildTrigger(task, false)));
+		}
+		Scheduler scheduler = runnerTask ? runnerScheduler : masterScheduler;
+		try {
+			scheduler.scheduleJobs(jobs, false);
+		}
+		catch (SchedulerException | RuntimeException e) {
+			// Don't leave part of the jobs behind, the caller marks all the tasks as failed
+			List<JobKey> jobKeys = new ArrayList<>();
+			for (JobDetail job : jobs.keySet()) {
+				jobKeys.add(job.getKey());
+			}
+			try {
+				if (scheduler != null) {
+					scheduler.deleteJobs(jobKeys);
+				}
+			}
+			catch (SchedulerException | RuntimeException de) {
+				log.warn("Error while removing the jobs of {} tasks after a scheduling error.", jobKeys.size(), de);
+			}
+			throw e;
+		}
+		log.trace("{} tasks successfully added to the scheduler.", jobs.size());
+		return promotedTasks.size() + releasedTasks.size();
+	}
+
 	/**
 	 * Repeat task.
 	 *
@@ -505,6 +877,10 @@ public final class TaskManager {
 	 * Retrieve the tasks assigned to the local instance and add them to the runner scheduler.
 	 */
 	public static void scheduleLocalTasks() {
+		if (TaskManager.SETTINGS.pullTasks && !Mode.SINGLE.equals(TaskManager.mode)) {
+			TaskManager.requestTasksClaim();
+			return;
+		}
 		log.debug("Will retrieve the waiting tasks assigned to the local cluster member.");
 		Session session = Database.getSession();
 		try {
@@ -530,6 +906,193 @@ public final class TaskManager {
 		}
 	}
 
+	/**
+	 * Wakes up the task claimer (pull mode), e.g. when new tasks are ready
+	 * or when a local task is done.
+	 */
+	public static void requestTasksClaim() {
+		synchronized (TaskManager.CLAIM_LOCK) {
+			TaskManager.claimRequested = true;
+			TaskManager.CLAIM_LOCK.notifyAll();
+		}
+	}
+
+	/**
+	 * Checks whether the given task may be run locally, i.e. in pull mode,
+	 * that it is still claimed by the local runner.
+	 * @param task the task
+	 * @return true if the task can be run
+	 */
+	public static boolean isClaimedLocally(Task task) {
+		if (!TaskManager.SETTINGS.pullTasks || Mode.SINGLE.equals(TaskManager.mode)) {
+			return true;
+		}
+		return Status.WAITING.equals(task.getStatus()) && task.getLeaseExpiry() != null
+			&& task.getRunnerId() != null && task.getRunnerId().equals(ClusterManager.getLocalInstanceId());
+	}
+
+	/**
+	 * Checks whether the given task has a job in one of the local schedulers.
+	 * @param task the task
+	 * @return true if a job exists (or if it can't be checked)
+	 */
+	public static boolean isInScheduler(Task task) {
+		try {
+			return (masterScheduler != null && masterScheduler.checkExists(task.getIdentity()))
+				|| (runnerScheduler != null && runnerScheduler.checkExists(task.getIdentity()));
+		}
+		catch (SchedulerException e) {
+			log.error("Error while checking task existence in the scheduler", e);
+			return true;
+		}
+	}
+
+	/**
+	 * Task claimer main loop (pull mode): claims ready tasks up to the local capacity.
+	 */
+	private static void runTaskClaimer() {
+		while (true) {
+			try {
+				synchronized (TaskManager.CLAIM_LOCK) {
+					if (!TaskManager.claimRequested) {
+						TaskManager.CLAIM_LOCK.wait(TaskManager.SETTINGS.taskPullInterval);
+					}
+					TaskManager.claimRequested = false;
+				}
+				TaskManager.claimTasks();
+			}
+			catch (InterruptedException e) {
+				log.error("The task claimer was interrupted", e);
+				return;
+			}
+			catch (Exception e) {
+				log.error("Error while claiming tasks", e);
+			}
+		}
+	}
+
+	/**
+	 * Lease renewer task (pull mode), never throws so that the renewals go on.
+	 */
+	private static void checkTaskLeases() {
+		try {
+			TaskManager.renewTaskLeases();
+		}
+		catch (Exception e) {
+			log.error("Error while renewing the task leases", e);
+		}
+	}
+
+	/**
+	 * Renews the leases of the tasks claimed by the local runner, and handles the
+	 * expired leases (runner not available anymore): the tasks which weren't started
+	 * yet are released, to be claimed again; the running tasks are set as failed
+	 * rather than run a second time, but only when their runner has left the cluster
+	 * (a live runner may just be late renewing its leases, e.g. GC pause).
+	 * @throws HibernateException the Hibernate exception
+	 */
+	static void renewTaskLeases() throws HibernateException {
+		Session session = Database.getSession();
+		try {
+			session.beginTransaction();
+			Date now = new Date();
+			int renewedCount = session
+				.createMutationQuery("update Task t set t.leaseExpiry = :expiry where t.runnerId = :myId "
+					+ "and t.leaseExpiry is not null and (t.status = :waiting or t.status = :running)")
+				.setParameter("expiry", new Date(now.getTime() + TaskManager.SETTINGS.taskLeaseTime * 1000L))
+				.setParameter("myId", ClusterManager.getLocalInstanceId())
+				.setParameter("waiting", Task.Status.WAITING)
+				.setParameter("running", Task.Status.RUNNING)
+				.executeUpdate();
+			int releasedCount = session
+				.createMutationQuery("update versioned Task t set t.leaseExpiry = null "
+					+ "where t.leaseExpiry < :now and t.status = :waiting")
+				.setParameter("now", now)
+				.setParameter("waiting", Task.Status.WAITING)
+				.executeUpdate();
+			int failedCount = 0;
+			Set<String> liveIds = TaskManager.liveMemberIds;
+			if (!liveIds.isEmpty()) {
+				failedCount = session
+					.createMutationQuery("update versioned Task t set t.status = :failure, t.leaseExpiry = null "
+						+ "where t.leaseExpiry < :now and t.status = :running "
+						+ "and (t.runnerId is null or t.runnerId not in :liveIds)")
+					.setParameter("now", now)
+					.setParameter("failure", Task.Status.FAILURE)
+					.setParameter("running", Task.Status.RUNNING)
+					.setParameterList("liveIds", liveIds)
+					.executeUpdate();
+			}
+			session.getTransaction().commit();
+			log.debug("{} task lease(s) renewed", renewedCount);
+			if (releasedCount > 0) {
+				log.warn("{} task(s) released after lease expiry, to be claimed again", releasedCount);
+			}
+			if (failedCount > 0) {
+				log.warn("{} running task(s) set as failed after lease expiry (runner lost)", failedCount);
+			}
+		}
+		catch (HibernateException e) {
+			Database.rollbackSilently(session);
+			throw e;
+		}
+		finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Claims ready tasks (pull mode), up to the free local capacity (weighted by the
+	 * runner weight), and adds them to the runner scheduler. The tasks are locked with
+	 * SKIP LOCKED so that concurrent runners claim different tasks without waiting.
+	 * The tasks preferring the local runner come first, then by priority.
+	 * @throws SchedulerException the scheduler exception
+	 * @throws HibernateException the Hibernate exception
+	 */
+	private static void claimTasks() throws SchedulerException, HibernateException {
+		double share = TaskManager.localRunnerShare;
+		int freeSlots = TaskManager.SETTINGS.threadCount
+			- TaskManager.runnerScheduler.getJobKeys(GroupMatcher.anyJobGroup()).size();
+		int limit = (int) Math.ceil(freeSlots * share);
+		if (limit <= 0) {
+			return;
+		}
+		String localId = ClusterManager.getLocalInstanceId();
+		Date leaseExpiry = new Date(System.currentTimeMillis() + TaskManager.SETTINGS.taskLeaseTime * 1000L);
+		List<Task> tasks;
+		Session session = Database.getSession();
+		try {
+			session.beginTransaction();
+			tasks = session.createQuery(
+				"select t from Task t where t.status = :waiting and t.leaseExpiry is null "
+					+ "order by case when t.runnerId = :myId then 0 else 1 end, t.priority desc, t.id",
+				Task.class)
+				.setParameter("waiting", Task.Status.WAITING)
+				.setParameter("myId", localId)
+				.setMaxResults(limit)
+				.setHibernateLockMode(LockMode.UPGRADE_SKIPLOCKED)
+				.list();
+			for (Task task : tasks) {
+				task.setRunnerId(localId);
+				task.setLeaseExpiry(leaseExpiry);
+			}
+			session.getTransaction().commit();
+		}
+		catch (HibernateException e) {
+			Database.rollbackSilently(session);
+			throw e;
+		}
+		finally {
+			session.close();
+		}
+		if (tasks.size() > 0) {
+			log.info("{} task(s) claimed by the local runner", tasks.size());
+		}
+		for (Task task : tasks) {
+			addTaskToScheduler(task, true, true, true);
+		}
+	}
+
 	/**
 	 * Finds and reassigns tasks currently assigned to a failed runner.
 	 */
@@ -538,6 +1101,10 @@ public final class TaskManager {
 			log.debug("Skipping reassignment of orphan tasks (not in MASTER mode)");
 			return;
 		}
+		if (TaskManager.SETTINGS.pullTasks) {
+			log.debug("Skipping reassignment of orphan tasks (pull mode, the expired leases are released)");
+			return;
+		}
 		log.info("Looking for orphan tasks after change on the list of runners.");
 		Session session = Database.getSession();
 		int reassignedCount = 0;
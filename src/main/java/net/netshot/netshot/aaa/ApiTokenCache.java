@@ -0,0 +1,201 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.aaa;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.netshot.netshot.Netshot;
+import net.netshot.netshot.utils.Metrics;
+
+/**
+ * Short-lived cache of valid API tokens, to avoid the (deliberately slow) token
+ * hashing and the DB lookup on each API request.
+ * Entries are keyed by a HMAC of the presented token, with a random key generated
+ * at startup, so the clear tokens are not kept in memory.
+ * Only valid tokens are cached (a new token is usable right away). Entries are
+ * invalidated when a token is removed, locally and (via ClusterManager) on the
+ * other cluster members.
+ */
+@Slf4j
+public final class ApiTokenCache {
+
+	/**
+	 * Settings/config for the current class.
+	 */
+	public static final class Settings {
+		/** How long (ms) a validated token is cached for (0 to disable the cache). */
+		@Getter
+		private int cacheTtlMs;
+
+		/** Max number of cached tokens. */
+		@Getter
+		private int cacheSize;
+
+		/**
+		 * Load settings from config.
+		 */
+		private void load() {
+			this.cacheTtlMs = Netshot.getConfig("netshot.aaa.apitoken.cachettlms", 30000, 0, Integer.MAX_VALUE);
+			this.cacheSize = Netshot.getConfig("netshot.aaa.apitoken.cachesize", 1000, 0, 1000000);
+		}
+	}
+
+	/** Settings for this class. */
+	public static final Settings SETTINGS = new Settings();
+
+	/**
+	 * Load the settings from configuration.
+	 */
+	public static void loadConfig() {
+		ApiTokenCache.SETTINGS.load();
+		ApiTokenCache.invalidateAll();
+	}
+
+	private record CachedApiToken(ApiToken apiToken, long expiresAt) {
+		boolean isValid() {
+			return System.currentTimeMillis() < this.expiresAt;
+		}
+	}
+
+	private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+	/** Random HMAC key. */
+	private static final SecretKeySpec DIGEST_KEY;
+
+	static {
+		byte[] key = new byte[32];
+		new SecureRandom().nextBytes(key);
+		DIGEST_KEY = new SecretKeySpec(key, HMAC_ALGORITHM);
+	}
+
+	private static final ConcurrentHashMap<String, CachedApiToken> CACHE = new ConcurrentHashMap<>();
+
+	/** Incremented on each invalidation, not to cache a token loaded before it was removed. */
+	private static final AtomicLong GENERATION = new AtomicLong();
+
+	private static final Metrics.Counter HIT_COUNTER = Metrics.counter("aaa.apitoken.cache.hits");
+	private static final Metrics.Counter MISS_COUNTER = Metrics.counter("aaa.apitoken.cache.misses");
+
+	static {
+		Metrics.gauge("aaa.apitoken.cache.size", CACHE::size);
+	}
+
+	private ApiTokenCache() {
+	}
+
+	/**
+	 * Compute the cache key of a token.
+	 * @param token = the clear token
+	 * @return the key
+	 */
+	private static String digest(String token) {
+		try {
+			Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+			mac.init(DIGEST_KEY);
+			return HexFormat.of().formatHex(mac.doFinal(token.getBytes(StandardCharsets.UTF_8)));
+		}
+		catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Unable to compute API token digest", e);
+		}
+	}
+
+	/**
+	 * Get the current generation, to be passed to {@link #put} after loading the token.
+	 * @return the current generation
+	 */
+	public static long getGeneration() {
+		return GENERATION.get();
+	}
+
+	/**
+	 * Look for a validated token in the cache.
+	 * @param token = the clear token, as presented by the client
+	 * @return the API token, or null if not cached
+	 */
+	public static ApiToken get(String token) {
+		if (SETTINGS.getCacheTtlMs() <= 0) {
+			return null;
+		}
+		String key = ApiTokenCache.digest(token);
+		CachedApiToken cached = CACHE.get(key);
+		if (cached != null) {
+			if (cached.isValid()) {
+				HIT_COUNTER.increment();
+				return cached.apiToken();
+			}
+			CACHE.remove(key, cached);
+		}
+		MISS_COUNTER.increment();
+		return null;
+	}
+
+	/**
+	 * Add a validated token to the cache.
+	 * @param token = the clear token, as presented by the client
+	 * @param apiToken = the matching API token
+	 * @param generation = the generation, as read before loading the API token
+	 */
+	public static void put(String token, ApiToken apiToken, long generation) {
+		if (SETTINGS.getCacheTtlMs() <= 0) {
+			return;
+		}
+		if (CACHE.size() >= SETTINGS.getCacheSize()) {
+			CACHE.values().removeIf(cached -> !cached.isValid());
+			if (CACHE.size() >= SETTINGS.getCacheSize()) {
+				log.debug("API token cache is full, not caching the token");
+				return;
+			}
+		}
+		String key = ApiTokenCache.digest(token);
+		CACHE.put(key, new CachedApiToken(apiToken, System.currentTimeMillis() + SETTINGS.getCacheTtlMs()));
+		if (GENERATION.get() != generation) {
+			// Invalidated in between
+			CACHE.remove(key);
+		}
+	}
+
+	/**
+	 * Remove the given API token from the local cache.
+	 * @param apiTokenId = the ID of the API token
+	 */
+	public static void invalidate(long apiTokenId) {
+		GENERATION.incrementAndGet();
+		CACHE.values().removeIf(cached -> cached.apiToken().getId() == apiTokenId);
+		log.debug("API token {} removed from local cache", apiTokenId);
+	}
+
+	/**
+	 * Clear the local cache.
+	 */
+	public static void invalidateAll() {
+		GENERATION.incrementAndGet();
+		CACHE.clear();
+	}
+
+}
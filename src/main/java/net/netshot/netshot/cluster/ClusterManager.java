@@ -18,10 +18,10 @@
  */
 package net.netshot.netshot.cluster;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.sql.Connection;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
@@ -32,18 +32,16 @@ import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectReader;
-import com.fasterxml.jackson.databind.ObjectWriter;
-
 import lombok.extern.slf4j.Slf4j;
 import net.netshot.netshot.Netshot;
 import net.netshot.netshot.TaskManager;
 import net.netshot.netshot.TaskManager.Mode;
+import net.netshot.netshot.aaa.ApiTokenCache;
 import net.netshot.netshot.cluster.ClusterMember.MastershipStatus;
+import net.netshot.netshot.cluster.messages.ApiTokenChangedMessage;
 import net.netshot.netshot.cluster.messages.AssignTasksMessage;
 import net.netshot.netshot.cluster.messages.AutoSnapshotMessage;
+import net.netshot.netshot.cluster.messages.CacheInvalidationMessage;
 import net.netshot.netshot.cluster.messages.ClusterMessage;
 import net.netshot.netshot.cluster.messages.HelloClusterMessage;
 import net.netshot.netshot.cluster.messages.LoadTasksMessage;
@@ -52,7 +50,7 @@ import net.netshot.netshot.cluster.messages.VaultInstanceChangedMessage;
 import net.netshot.netshot.database.Database;
 import net.netshot.netshot.device.DeviceDriver;
 import net.netshot.netshot.rest.RestService;
-import net.netshot.netshot.rest.RestViews.ClusteringView;
+import net.netshot.netshot.utils.Metrics;
 import net.netshot.netshot.vault.VaultManager;
 import net.netshot.netshot.work.tasks.TakeSnapshotTask;
 import org.postgresql.PGConnection;
@@ -68,7 +66,7 @@ public class ClusterManager extends Thread {
 	private static final String NOTIFICATION_CHANNEL = "clustering";
 
 	/** Netshot clustering version. */
-	protected static final int CLUSTERING_VERSION = 1;
+	protected static final int CLUSTERING_VERSION = 2;
 
 	/** Timers. */
 	private static final int HELLO_INTERVAL = 6000;
@@ -76,19 +74,22 @@ public class ClusterManager extends Thread {
 	private static final int HELLO_HOLDTIME = 30000;
 	private static final int HELLO_DRIFTTIME = 30000;
 	private static final int NEGOTIATION_DURATION = 25000;
-	private static final int RECEIVE_TIMEOUT = 2000;
+	private static final int RECEIVE_TIMEOUT = 1000;
+
+	/** Duration of the local message loop (from sending to receiving our own notification). */
+	private static final Metrics.Timer LOOP_TIMER = Metrics.timer("cluster.messages.rtt");
 
 	/** Cluster Manager static instance. */
 	private static ClusterManager nsClusterManager;
 
 	/** Whether a driver reload was just requested. */
-	private boolean driverReloadRequested;
+	private volatile boolean driverReloadRequested;
 
 	/** Whether the task manager is requesting other servers to load and execute waiting tasks. */
-	private boolean loadTasksRequested;
+	private volatile boolean loadTasksRequested;
 
 	/** Whether a member is requesting the cluster master to assign new tasks. */
-	private boolean assignTasksRequested;
+	private volatile boolean assignTasksRequested;
 
 	/** IDs of devices to request auto snapshots for. */
 	private Set<Long> autoSnapshotDeviceIds = new HashSet<>();
@@ -96,6 +97,27 @@ public class ClusterManager extends Thread {
 	/** IDs of Vault instances whose cache should be invalidated cluster-wide. */
 	private Set<Long> vaultInstanceReloadIds = new HashSet<>();
 
+	/** IDs of API tokens to be removed from the authentication cache cluster-wide. */
+	private Set<Long> apiTokenInvalidationIds = new HashSet<>();
+
+	/** Names of the database cache regions to be evicted cluster-wide. */
+	private Set<String> cacheInvalidationRegions = new HashSet<>();
+
+	/**
+	 * Names of the database table spaces whose cached query results should be invalidated
+	 * cluster-wide (guarded by cacheInvalidationRegions, both go into the same message).
+	 */
+	private Set<String> cacheInvalidationSpaces = new HashSet<>();
+
+	/** Whether a hello message should be sent right away (e.g. after a local status change). */
+	private volatile boolean helloRequested;
+
+	/** Lock to wake up the sender thread. */
+	private final Object senderLock = new Object();
+
+	/** Whether there are pending requests for the sender thread. */
+	private boolean sendRequested;
+
 	/**
 	 * Initializes the cluster manager.
 	 */
@@ -108,6 +130,7 @@ public class ClusterManager extends Thread {
 		TaskManager.setMode(Mode.CLUSTER_MEMBER);
 		nsClusterManager = new ClusterManager();
 		nsClusterManager.start();
+		nsClusterManager.sender.start();
 	}
 
 	/**
@@ -146,6 +169,7 @@ public class ClusterManager extends Thread {
 	public static void requestDriverReload() {
 		if (nsClusterManager != null) {
 			nsClusterManager.driverReloadRequested = true;
+			nsClusterManager.wakeUpSender();
 		}
 	}
 
@@ -155,6 +179,7 @@ public class ClusterManager extends Thread {
 	public static void requestTasksLoad() {
 		if (nsClusterManager != null) {
 			nsClusterManager.loadTasksRequested = true;
+			nsClusterManager.wakeUpSender();
 		}
 		TaskManager.scheduleLocalTasks();
 	}
@@ -165,6 +190,7 @@ public class ClusterManager extends Thread {
 	public static void requestTasksAssignment() {
 		if (nsClusterManager != null) {
 			nsClusterManager.assignTasksRequested = true;
+			nsClusterManager.wakeUpSender();
 		}
 	}
 
@@ -177,6 +203,7 @@ public class ClusterManager extends Thread {
 			synchronized (nsClusterManager.autoSnapshotDeviceIds) {
 				nsClusterManager.autoSnapshotDeviceIds.add(deviceId);
 			}
+			nsClusterManager.wakeUpSender();
 		}
 	}
 
@@ -190,14 +217,59 @@ public class ClusterManager extends Thread {
 			synchronized (nsClusterManager.vaultInstanceReloadIds) {
 				nsClusterManager.vaultInstanceReloadIds.add(vaultInstanceId);
 			}
+			nsClusterManager.wakeUpSender();
 		}
 	}
 
-	/** JSON reader. */
-	private ObjectReader jsonReader;
+	/**
+	 * Request all cluster members to remove the given API token from their
+	 * local authentication cache (e.g. after it was deleted).
+	 * @param apiTokenId the ID of the API token
+	 */
+	public static void requestApiTokenInvalidation(long apiTokenId) {
+		if (nsClusterManager != null) {
+			synchronized (nsClusterManager.apiTokenInvalidationIds) {
+				nsClusterManager.apiTokenInvalidationIds.add(apiTokenId);
+			}
+			nsClusterManager.wakeUpSender();
+		}
+	}
+
+	/**
+	 * Request all cluster members to evict the given region of their
+	 * second-level database cache (e.g. after an entity of this region was changed).
+	 * @param regionName the name of the cache region
+	 */
+	public static void requestCacheRegionInvalidation(String regionName) {
+		if (nsClusterManager != null) {
+			synchronized (nsClusterManager.cacheInvalidationRegions) {
+				if (!nsClusterManager.cacheInvalidationRegions.add(regionName)) {
+					return;
+				}
+			}
+			nsClusterManager.wakeUpSender();
+		}
+	}
+
+	/**
+	 * Request all cluster members to invalidate the cached query results
+	 * based on the given table space (e.g. after a row was inserted or changed
+	 * in this table).
+	 * @param spaceName the name of the table space
+	 */
+	public static void requestCacheSpaceInvalidation(String spaceName) {
+		if (nsClusterManager != null) {
+			synchronized (nsClusterManager.cacheInvalidationRegions) {
+				if (!nsClusterManager.cacheInvalidationSpaces.add(spaceName)) {
+					return;
+				}
+			}
+			nsClusterManager.wakeUpSender();
+		}
+	}
 
-	/** JSON writer. */
-	private ObjectWriter jsonWriter;
+	/** Message encoder/decoder. */
+	private ClusterMessageCodec messageCodec;
 
 	/** Local cluster member. */
 	private ClusterMember localMember;
@@ -209,7 +281,10 @@ public class ClusterManager extends Thread {
 	private Map<String, ClusterMember> members;
 
 	/** Time (epoch) of last hello message sent. */
-	private long lastSentHelloTime;
+	private volatile long lastSentHelloTime;
+
+	/** Thread sending the messages. */
+	private MessageSender sender;
 
 	/**
 	 * Default constructor.
@@ -217,10 +292,8 @@ public class ClusterManager extends Thread {
 	public ClusterManager() {
 		// Set thread name
 		this.setName("NetshotClusterManager");
+		this.sender = new MessageSender();
 
-		ObjectMapper jsonMapper = new ObjectMapper();
-		this.jsonReader = jsonMapper.readerWithView(ClusteringView.class);
-		this.jsonWriter = jsonMapper.writerWithView(ClusteringView.class);
 		this.members = new ConcurrentHashMap<>();
 		this.master = null;
 		this.lastSentHelloTime = 0L;
@@ -273,6 +346,7 @@ public class ClusterManager extends Thread {
 		this.localMember = new ClusterMember(localId, Netshot.getHostname(), ClusterManager.CLUSTERING_VERSION,
 			masterPriority, runnerPriority, runnerWeight, Netshot.VERSION, jvmVersion, DeviceDriver.getAllDriverHash());
 		this.members.put(localId, this.localMember);
+		this.messageCodec = new ClusterMessageCodec(localId);
 	}
 
 	/**
@@ -282,21 +356,23 @@ public class ClusterManager extends Thread {
 	 * @throws SQLException
 	 */
 	private void sendMessage(Connection connection, ClusterMessage message) throws SQLException {
+		List<String> payloads;
+		try {
+			// Large messages are split into several notifications
+			payloads = this.messageCodec.encode(message);
+		}
+		catch (IOException e) {
+			log.error("Can't serialize cluster message {}", message.getClass().getSimpleName(), e);
+			return;
+		}
 		try (Statement statement = connection.createStatement()) {
-			String content = this.jsonWriter.forType(ClusterMessage.class).writeValueAsString(message);
-			// Can't make it work with a prepared statement so escape the quotes
-			content = content.replace("'", "''");
-			if (content.length() > 7999) {
-				log.error("Cluster message {} is too long, cannot send it", message.getClass().getSimpleName());
-			}
-			else {
+			for (String payload : payloads) {
+				// Can't make it work with a prepared statement so escape the quotes
+				String content = payload.replace("'", "''");
 				log.trace("Sending message to {}: {}", ClusterManager.NOTIFICATION_CHANNEL, content);
 				statement.execute(String.format("NOTIFY %s, '%s'", ClusterManager.NOTIFICATION_CHANNEL, content));
 			}
 		}
-		catch (JsonProcessingException e) {
-			log.error("Can't serialize Hello cluster message");
-		}
 	}
 
 	/**
@@ -313,9 +389,14 @@ public class ClusterManager extends Thread {
 			for (PGNotification notification : notifications) {
 				log.trace("Received notification (name {}): {}", notification.getName(), notification.getParameter());
 				try {
-					ClusterMessage message = this.jsonReader.forType(ClusterMessage.class)
-						.readValue(notification.getParameter());
+					ClusterMessage message = this.messageCodec.decode(notification.getParameter());
+					if (message == null) {
+						// Chunk of a message not completely received yet
+						continue;
+					}
 					if (message.getInstanceId().equals(this.localMember.getInstanceId())) {
+						// Our own message looped back through the database
+						LOOP_TIMER.record(Math.max(0L, System.currentTimeMillis() - message.getCurrentTime()) * 1000000L);
 						if (message instanceof HelloClusterMessage helloMessage) {
 							String receivedHostname = helloMessage.getMemberInfo().getHostname();
 							if (!this.localMember.getHostname().equals(receivedHostname)) {
@@ -329,17 +410,188 @@ public class ClusterManager extends Thread {
 					}
 					messages.add(message);
 				}
-				catch (JsonProcessingException e) {
+				catch (IOException e) {
 					log.error("Error while parsing PGSQL notification as cluster message", e);
 				}
 			}
 		}
+		this.messageCodec.expirePartialMessages(System.currentTimeMillis());
 		return messages;
 	}
 
 
 	/**
-	 * Main cluster thread code.
+	 * Wake up the sender thread.
+	 */
+	private void wakeUpSender() {
+		synchronized (this.senderLock) {
+			this.sendRequested = true;
+			this.senderLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Request a hello message to be sent right away (e.g. after a local status change).
+	 */
+	private void requestHello() {
+		this.helloRequested = true;
+		this.wakeUpSender();
+	}
+
+	/**
+	 * Compute the time the next hello message is due.
+	 * @return the time (epoch) of next hello message
+	 */
+	private long getNextHelloTime() {
+		if (MastershipStatus.NEGOTIATING.equals(this.localMember.getStatus())) {
+			return this.lastSentHelloTime + NEGOTIATING_HELLO_INTERVAL;
+		}
+		return this.lastSentHelloTime + HELLO_INTERVAL;
+	}
+
+	/**
+	 * Wait until there is something to send, or the next hello message is due.
+	 * @throws InterruptedException if interrupted
+	 */
+	private void waitForMessagesToSend() throws InterruptedException {
+		synchronized (this.senderLock) {
+			while (!this.sendRequested) {
+				long waitTime = this.getNextHelloTime() - System.currentTimeMillis();
+				if (waitTime <= 0) {
+					break;
+				}
+				this.senderLock.wait(waitTime);
+			}
+			this.sendRequested = false;
+		}
+	}
+
+	/**
+	 * Build the messages to be sent, based on the pending requests.
+	 * @return the messages to send
+	 */
+	private List<ClusterMessage> collectMessagesToSend() {
+		List<ClusterMessage> messages = new ArrayList<>();
+		if (this.helloRequested || System.currentTimeMillis() >= this.getNextHelloTime()) {
+			this.helloRequested = false;
+			synchronized (this) {
+				try {
+					// Snapshot of the local member, which is updated by the listener thread
+					messages.add(new HelloClusterMessage((ClusterMember) this.localMember.clone()));
+				}
+				catch (CloneNotSupportedException e) {
+					// Shouldn't happen
+				}
+			}
+			this.lastSentHelloTime = System.currentTimeMillis();
+		}
+		// Broadcast-to-everyone requests: sent regardless of local mastership status,
+		// since any node can NOTIFY the shared channel and every peer is listening
+		// (unlike the member->master requests below, which only non-master members send).
+		if (this.driverReloadRequested) {
+			this.driverReloadRequested = false;
+			messages.add(new ReloadDriversMessage(this.localMember));
+		}
+		if (this.loadTasksRequested) {
+			this.loadTasksRequested = false;
+			messages.add(new LoadTasksMessage(this.localMember));
+		}
+		synchronized (this.vaultInstanceReloadIds) {
+			if (this.vaultInstanceReloadIds.size() > 0) {
+				VaultInstanceChangedMessage vaultReloadMessage = new VaultInstanceChangedMessage(this.localMember);
+				vaultReloadMessage.addVaultInstanceIds(this.vaultInstanceReloadIds);
+				messages.add(vaultReloadMessage);
+			}
+			this.vaultInstanceReloadIds.clear();
+		}
+		synchronized (this.apiTokenInvalidationIds) {
+			if (this.apiTokenInvalidationIds.size() > 0) {
+				ApiTokenChangedMessage apiTokenMessage = new ApiTokenChangedMessage(this.localMember);
+				apiTokenMessage.addApiTokenIds(this.apiTokenInvalidationIds);
+				messages.add(apiTokenMessage);
+			}
+			this.apiTokenInvalidationIds.clear();
+		}
+		synchronized (this.cacheInvalidationRegions) {
+			if (this.cacheInvalidationRegions.size() > 0 || this.cacheInvalidationSpaces.size() > 0) {
+				CacheInvalidationMessage cacheMessage = new CacheInvalidationMessage(this.localMember);
+				cacheMessage.addRegionNames(this.cacheInvalidationRegions);
+				cacheMessage.addSpaceNames(this.cacheInvalidationSpaces);
+				messages.add(cacheMessage);
+			}
+			this.cacheInvalidationRegions.clear();
+			this.cacheInvalidationSpaces.clear();
+		}
+		if (!MastershipStatus.MASTER.equals(this.localMember.getStatus())) {
+			if (this.assignTasksRequested) {
+				this.assignTasksRequested = false;
+				messages.add(new AssignTasksMessage(this.localMember));
+			}
+			synchronized (this.autoSnapshotDeviceIds) {
+				if (this.autoSnapshotDeviceIds.size() > 0) {
+					AutoSnapshotMessage snapshotMessage = new AutoSnapshotMessage(this.localMember);
+					snapshotMessage.addDeviceIds(this.autoSnapshotDeviceIds);
+					messages.add(snapshotMessage);
+				}
+				this.autoSnapshotDeviceIds.clear();
+			}
+		}
+		else {
+			this.assignTasksRequested = false;
+		}
+		return messages;
+	}
+
+	/**
+	 * Sender thread: sends the hello messages and the pending requests,
+	 * as soon as they are requested.
+	 */
+	private final class MessageSender extends Thread {
+
+		private MessageSender() {
+			this.setName("NetshotClusterSender");
+		}
+
+		@Override
+		public void run() {
+			// Reconnection with exponential backoff
+			int bhFactor = 0;
+			while (true) {
+				try {
+					Thread.sleep(500 * bhFactor);
+				}
+				catch (InterruptedException e) {
+					log.error("Cluster message sender got InterruptedException", e);
+				}
+				try (Connection dbConnection = Database.getConnection(false)) {
+					while (true) {
+						ClusterManager.this.waitForMessagesToSend();
+						for (ClusterMessage message : ClusterManager.this.collectMessagesToSend()) {
+							ClusterManager.this.sendMessage(dbConnection, message);
+						}
+						if (bhFactor > 0) {
+							bhFactor = 0;
+							log.info("Cluster message sender recovered from exception state");
+						}
+					}
+				}
+				catch (SQLException | InterruptedException e) {
+					log.error("Cluster message sender got exception", e);
+					bhFactor *= 2;
+					if (bhFactor < 1) {
+						bhFactor = 1;
+					}
+					else if (bhFactor > 32) {
+						bhFactor = 32;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Main cluster thread code: listens to and processes the messages
+	 * from the other members, and runs the master election.
 	 */
 	@Override
 	public void run() {
@@ -364,66 +616,8 @@ public class ClusterManager extends Thread {
 				}
 
 				while (true) {
-					// Wait a bit
-					Thread.sleep(1000);
-					// Main loop
-					long nextHelloTime = lastSentHelloTime + HELLO_INTERVAL;
-					if (MastershipStatus.NEGOTIATING.equals(this.localMember.getStatus())) {
-						nextHelloTime = lastSentHelloTime + NEGOTIATING_HELLO_INTERVAL;
-					}
-					if (System.currentTimeMillis() > nextHelloTime) {
-						HelloClusterMessage helloMessage = new HelloClusterMessage(this.localMember);
-						this.sendMessage(dbConnection, helloMessage);
-						this.lastSentHelloTime = System.currentTimeMillis();
-					}
-					// Broadcast-to-everyone requests: sent regardless of local mastership status,
-					// since any node can NOTIFY the shared channel and every peer is listening
-					// (unlike the member->master requests below, which only non-master members send).
-					if (this.driverReloadRequested) {
-						ReloadDriversMessage reloadMessage = new ReloadDriversMessage(this.localMember);
-						this.sendMessage(dbConnection, reloadMessage);
-					}
-					this.driverReloadRequested = false;
-					if (this.loadTasksRequested) {
-						LoadTasksMessage taskMessage = new LoadTasksMessage(this.localMember);
-						this.sendMessage(dbConnection, taskMessage);
-					}
-					this.loadTasksRequested = false;
-					VaultInstanceChangedMessage vaultReloadMessage = null;
-					synchronized (this.vaultInstanceReloadIds) {
-						if (this.vaultInstanceReloadIds.size() > 0) {
-							vaultReloadMessage = new VaultInstanceChangedMessage(this.localMember);
-							vaultReloadMessage.addVaultInstanceIds(this.vaultInstanceReloadIds);
-						}
-						this.vaultInstanceReloadIds.clear();
-					}
-					if (vaultReloadMessage != null) {
-						this.sendMessage(dbConnection, vaultReloadMessage);
-					}
-					if (!MastershipStatus.MASTER.equals(this.localMember.getStatus())) {
-						if (this.assignTasksRequested) {
-							AssignTasksMessage taskMessage = new AssignTasksMessage(this.localMember);
-							this.sendMessage(dbConnection, taskMessage);
-						}
-						this.assignTasksRequested = false;
-						AutoSnapshotMessage snapshotMessage = null;
-						synchronized (this.autoSnapshotDeviceIds) {
-							if (this.autoSnapshotDeviceIds.size() > 0) {
-								snapshotMessage = new AutoSnapshotMessage(this.localMember);
-								snapshotMessage.addDeviceIds(this.autoSnapshotDeviceIds);
-							}
-							this.autoSnapshotDeviceIds.clear();
-						}
-						if (snapshotMessage != null) {
-							this.sendMessage(dbConnection, snapshotMessage);
-						}
-					}
-					try (
-						Statement fakeStatement = dbConnection.createStatement();
-						ResultSet fakeResultSet = fakeStatement.executeQuery("SELECT 1");
-					) {
-						fakeResultSet.next();
-					}
+					// Returns as soon as notifications are received, or after the timeout
+					// to check the timers anyway
 					List<ClusterMessage> messages = this.receiveMessages(pgConnection);
 					synchronized (this) {
 						final long currentTime = System.currentTimeMillis();
@@ -512,6 +706,17 @@ public class ClusterManager extends Thread {
 									VaultManager.invalidate(vaultInstanceId);
 								}
 							}
+							else if (message instanceof ApiTokenChangedMessage apiTokenMessage) {
+								for (long apiTokenId : apiTokenMessage.getApiTokenIds()) {
+									ApiTokenCache.invalidate(apiTokenId);
+								}
+							}
+							else if (message instanceof CacheInvalidationMessage cacheMessage) {
+								Database.invalidateCacheSpaces(cacheMessage.getSpaceNames());
+								if (cacheMessage.getRegionNames().size() > 0) {
+									Database.evictCacheRegions(cacheMessage.getRegionNames());
+								}
+							}
 							else {
 								log.warn("Unknown clustering message type received");
 							}
@@ -571,6 +776,7 @@ public class ClusterManager extends Thread {
 										// Negotiation done, upgrade to master
 										log.warn("Local cluster member is switching to MASTER status");
 										this.localMember.setStatus(MastershipStatus.MASTER);
+										this.requestHello();
 										this.master = this.localMember;
 										TaskManager.setMode(Mode.CLUSTER_MASTER);
 										TaskManager.rescheduleAll();
@@ -580,6 +786,7 @@ public class ClusterManager extends Thread {
 								else {
 									log.warn("Local cluster member is switching to NEGOTIATING status");
 									this.localMember.setStatus(MastershipStatus.NEGOTIATING);
+									this.requestHello();
 								}
 							}
 						}
@@ -589,6 +796,7 @@ public class ClusterManager extends Thread {
 								// Master conflict - Downgrade to normal member
 								log.warn("Local cluster member is switching to MEMBER status");
 								this.localMember.setStatus(MastershipStatus.MEMBER);
+								this.requestHello();
 								TaskManager.setMode(Mode.CLUSTER_MEMBER);
 							}
 						}
@@ -599,7 +807,7 @@ public class ClusterManager extends Thread {
 					}
 				}
 			}
-			catch (SQLException | InterruptedException e) {
+			catch (SQLException e) {
 				log.error("ClusterManager got exception", e);
 				bhFactor *= 2;
 				if (bhFactor < 1) {
@@ -0,0 +1,232 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import lombok.extern.slf4j.Slf4j;
+import net.netshot.netshot.cluster.messages.ChunkClusterMessage;
+import net.netshot.netshot.cluster.messages.ClusterMessage;
+import net.netshot.netshot.rest.RestViews.ClusteringView;
+import net.netshot.netshot.utils.Metrics;
+
+/**
+ * Encodes cluster messages to PostgreSQL notification payloads, and decodes
+ * them back. Messages which don't fit in a single notification (limited to
+ * 8000 bytes) are compressed and split into chunks, which are reassembled on
+ * the receiving side. Each payload gets a sequence number, so that the
+ * receivers can detect lost notifications.
+ */
+@Slf4j
+public class ClusterMessageCodec {
+
+	/** Max size (in bytes) of a notification payload. */
+	public static final int MAX_PAYLOAD_SIZE = 7999;
+
+	/** Size of the (Base64) data in each chunk, leaving room for the chunk envelope. */
+	protected static final int CHUNK_DATA_SIZE = 7000;
+
+	/** Time (ms) after which an incomplete chunked message is dropped. */
+	protected static final long REASSEMBLY_TIMEOUT = 30000;
+
+	/** Chunked messages being received. */
+	private static final class PartialMessage {
+		private final String[] chunks;
+		private final long firstReceivedTime;
+		private int receivedCount;
+
+		private PartialMessage(int chunkCount, long firstReceivedTime) {
+			this.chunks = new String[chunkCount];
+			this.firstReceivedTime = firstReceivedTime;
+		}
+	}
+
+	/** Counters. */
+	private static final Metrics.Counter CHUNKED_COUNTER = Metrics.counter("cluster.messages.chunked");
+	private static final Metrics.Counter GAP_COUNTER = Metrics.counter("cluster.messages.lost");
+	private static final Metrics.Counter INCOMPLETE_COUNTER = Metrics.counter("cluster.messages.incomplete");
+
+	/** Local instance ID. */
+	private final String localInstanceId;
+
+	/** JSON reader. */
+	private final ObjectReader jsonReader;
+
+	/** JSON writer. */
+	private final ObjectWriter jsonWriter;
+
+	/** Last sequence number sent by the local instance. */
+	private long lastSentSequenceNumber;
+
+	/** Last sequence number received from each instance. */
+	private final Map<String, Long> lastReceivedSequenceNumbers = new HashMap<>();
+
+	/** Chunked messages being received, by instance ID and message ID. */
+	private final Map<String, PartialMessage> partialMessages = new HashMap<>();
+
+	/**
+	 * Constructor.
+	 * @param localInstanceId = ID of the local cluster member
+	 */
+	public ClusterMessageCodec(String localInstanceId) {
+		this.localInstanceId = localInstanceId;
+		ObjectMapper jsonMapper = new ObjectMapper();
+		this.jsonReader = jsonMapper.readerWithView(ClusteringView.class).forType(ClusterMessage.class);
+		this.jsonWriter = jsonMapper.writerWithView(ClusteringView.class).forType(ClusterMessage.class);
+	}
+
+	/**
+	 * Serialize a message and assign it the next sequence number.
+	 * @param message = the message
+	 * @return the payload, or null if it is too large
+	 * @throws JsonProcessingException in case of serialization error
+	 */
+	private String encodeSingle(ClusterMessage message) throws JsonProcessingException {
+		message.setSequenceNumber(this.lastSentSequenceNumber + 1);
+		String payload = this.jsonWriter.writeValueAsString(message);
+		if (payload.getBytes(StandardCharsets.UTF_8).length > MAX_PAYLOAD_SIZE) {
+			return null;
+		}
+		this.lastSentSequenceNumber += 1;
+		return payload;
+	}
+
+	/**
+	 * Encode a message to notification payloads (only one unless the message is too large).
+	 * @param message = the message to encode
+	 * @return the list of payloads to send, in order
+	 * @throws IOException in case of serialization error
+	 */
+	public synchronized List<String> encode(ClusterMessage message) throws IOException {
+		List<String> payloads = new ArrayList<>();
+		String payload = this.encodeSingle(message);
+		if (payload != null) {
+			payloads.add(payload);
+			return payloads;
+		}
+		// Too large for one notification: compress and split
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (OutputStream deflater = new DeflaterOutputStream(buffer)) {
+			this.jsonWriter.writeValue(deflater, message);
+		}
+		String data = Base64.getEncoder().encodeToString(buffer.toByteArray());
+		int chunkCount = (data.length() + CHUNK_DATA_SIZE - 1) / CHUNK_DATA_SIZE;
+		for (int i = 0; i < chunkCount; i++) {
+			ChunkClusterMessage chunk = new ChunkClusterMessage(message.getInstanceId(), message.getMessageId(),
+				i, chunkCount, data.substring(i * CHUNK_DATA_SIZE, Math.min(data.length(), (i + 1) * CHUNK_DATA_SIZE)));
+			payload = this.encodeSingle(chunk);
+			if (payload == null) {
+				throw new IOException("Unexpected cluster message chunk size");
+			}
+			payloads.add(payload);
+		}
+		log.debug("Cluster message {} ({}) split into {} chunks", message.getMessageId(),
+			message.getClass().getSimpleName(), chunkCount);
+		CHUNKED_COUNTER.increment();
+		return payloads;
+	}
+
+	/**
+	 * Decode a notification payload. Messages from the local instance are
+	 * returned as is (including chunks), without being reassembled.
+	 * @param payload = the received payload
+	 * @return the message, or null if the payload is a chunk of a message which is not complete yet
+	 * @throws IOException in case of parsing error
+	 */
+	public synchronized ClusterMessage decode(String payload) throws IOException {
+		ClusterMessage message = this.jsonReader.readValue(payload);
+		String instanceId = message.getInstanceId();
+		if (instanceId == null || instanceId.equals(this.localInstanceId)) {
+			return message;
+		}
+		Long lastSequenceNumber = this.lastReceivedSequenceNumbers.put(instanceId, message.getSequenceNumber());
+		if (lastSequenceNumber != null) {
+			if (message.getSequenceNumber() > lastSequenceNumber + 1) {
+				long lostCount = message.getSequenceNumber() - lastSequenceNumber - 1;
+				log.warn("{} cluster message(s) from instance {} were lost (sequence number {} after {})",
+					lostCount, instanceId, message.getSequenceNumber(), lastSequenceNumber);
+				GAP_COUNTER.add(lostCount);
+			}
+			else if (message.getSequenceNumber() <= lastSequenceNumber) {
+				log.info("Sequence number of instance {} was reset (restarted instance?)", instanceId);
+			}
+		}
+		if (!(message instanceof ChunkClusterMessage chunk)) {
+			return message;
+		}
+		if (chunk.getChunkCount() < 1 || chunk.getChunkIndex() < 0 || chunk.getChunkIndex() >= chunk.getChunkCount()) {
+			throw new IOException("Invalid cluster message chunk index");
+		}
+		String key = instanceId + "/" + chunk.getChunkedMessageId();
+		PartialMessage partial = this.partialMessages.computeIfAbsent(key,
+			k -> new PartialMessage(chunk.getChunkCount(), System.currentTimeMillis()));
+		if (partial.chunks.length != chunk.getChunkCount()) {
+			this.partialMessages.remove(key);
+			throw new IOException("Inconsistent cluster message chunk count");
+		}
+		if (partial.chunks[chunk.getChunkIndex()] == null) {
+			partial.chunks[chunk.getChunkIndex()] = chunk.getData();
+			partial.receivedCount++;
+		}
+		if (partial.receivedCount < partial.chunks.length) {
+			return null;
+		}
+		this.partialMessages.remove(key);
+		byte[] data = Base64.getDecoder().decode(String.join("", partial.chunks));
+		try (InputStream inflater = new InflaterInputStream(new ByteArrayInputStream(data))) {
+			return this.jsonReader.readValue(inflater);
+		}
+	}
+
+	/**
+	 * Drop the chunked messages which couldn't be completely received in time.
+	 * @param currentTime = the current time
+	 */
+	public synchronized void expirePartialMessages(long currentTime) {
+		Iterator<Map.Entry<String, PartialMessage>> partialIt = this.partialMessages.entrySet().iterator();
+		while (partialIt.hasNext()) {
+			Map.Entry<String, PartialMessage> entry = partialIt.next();
+			PartialMessage partial = entry.getValue();
+			if (partial.firstReceivedTime + REASSEMBLY_TIMEOUT < currentTime) {
+				log.warn("Dropping incomplete cluster message {} ({} of {} chunks received)",
+					entry.getKey(), partial.receivedCount, partial.chunks.length);
+				INCOMPLETE_COUNTER.increment();
+				partialIt.remove();
+			}
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.cluster.messages;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import jakarta.xml.bind.annotation.XmlElement;
+import jakarta.xml.bind.annotation.XmlRootElement;
+import lombok.Getter;
+import lombok.Setter;
+import net.netshot.netshot.cluster.ClusterMember;
+
+/**
+ * Cluster message requesting other servers to remove the given API tokens
+ * from their local authentication cache (e.g. after an admin deleted them).
+ */
+@XmlRootElement
+public class ApiTokenChangedMessage extends ClusterMessage {
+
+	/** IDs of the API tokens to remove from cache. */
+	@Getter(onMethod = @__({
+		@XmlElement,
+		@JsonSerialize(using = CompactIdSetSerializer.class),
+		@JsonDeserialize(using = CompactIdSetDeserializer.class)
+	}))
+	@Setter
+	Set<Long> apiTokenIds = new HashSet<>();
+
+	/**
+	 * Constructor.
+	 * @param memberInfo = info about the cluster member
+	 */
+	public ApiTokenChangedMessage(ClusterMember memberInfo) {
+		super(memberInfo.getInstanceId());
+	}
+
+	/**
+	 * Hidden constructor.
+	 */
+	protected ApiTokenChangedMessage() {
+	}
+
+	public void addApiTokenIds(Collection<Long> newApiTokenIds) {
+		this.apiTokenIds.addAll(newApiTokenIds);
+	}
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.cluster.messages;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import jakarta.xml.bind.annotation.XmlElement;
+import jakarta.xml.bind.annotation.XmlRootElement;
+import lombok.Getter;
+import lombok.Setter;
+import net.netshot.netshot.cluster.ClusterMember;
+
+/**
+ * Cluster message requesting other servers to evict the given regions
+ * of their local second-level (database) cache, after entities of these
+ * regions were changed, and to invalidate the cached query results based
+ * on the given table spaces, after rows of these tables were written.
+ */
+@XmlRootElement
+public class CacheInvalidationMessage extends ClusterMessage {
+
+	/** Names of the cache regions to evict. */
+	@Getter(onMethod = @__({
+		@XmlElement
+	}))
+	@Setter
+	Set<String> regionNames = new HashSet<>();
+
+	/** Names of the changed table spaces. */
+	@Getter(onMethod = @__({
+		@XmlElement
+	}))
+	@Setter
+	Set<String> spaceNames = new HashSet<>();
+
+	/**
+	 * Constructor.
+	 * @param memberInfo = info about the cluster member
+	 */
+	public CacheInvalidationMessage(ClusterMember memberInfo) {
+		super(memberInfo.getInstanceId());
+	}
+
+	/**
+	 * Hidden constructor.
+	 */
+	protected CacheInvalidationMessage() {
+	}
+
+	public void addRegionNames(Collection<String> newRegionNames) {
+		this.regionNames.addAll(newRegionNames);
+	}
+
+	public void addSpaceNames(Collection<String> newSpaceNames) {
+		this.spaceNames.addAll(newSpaceNames);
+	}
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.cluster.messages;
+
+import com.fasterxml.jackson.annotation.JsonView;
+
+import jakarta.xml.bind.annotation.XmlElement;
+import jakarta.xml.bind.annotation.XmlRootElement;
+import lombok.Getter;
+import lombok.Setter;
+import net.netshot.netshot.rest.RestViews.ClusteringView;
+
+/**
+ * Part of a cluster message which is too large to fit in a single
+ * PostgreSQL notification. The original message is serialized, compressed
+ * and Base64-encoded, then split over several chunks, to be reassembled
+ * by the receivers.
+ */
+@XmlRootElement
+public class ChunkClusterMessage extends ClusterMessage {
+
+	/** ID of the original (chunked) message. */
+	@Getter(onMethod = @__({
+		@XmlElement, @JsonView(ClusteringView.class)
+	}))
+	@Setter
+	private long chunkedMessageId;
+
+	/** Index of this chunk (starting at 0). */
+	@Getter(onMethod = @__({
+		@XmlElement, @JsonView(ClusteringView.class)
+	}))
+	@Setter
+	private int chunkIndex;
+
+	/** Total number of chunks of the original message. */
+	@Getter(onMethod = @__({
+		@XmlElement, @JsonView(ClusteringView.class)
+	}))
+	@Setter
+	private int chunkCount;
+
+	/** Part of the encoded original message. */
+	@Getter(onMethod = @__({
+		@XmlElement, @JsonView(ClusteringView.class)
+	}))
+	@Setter
+	private String data;
+
+	/**
+	 * Constructor.
+	 * @param instanceId = ID of the instance
+	 * @param chunkedMessageId = ID of the original message
+	 * @param chunkIndex = index of the chunk
+	 * @param chunkCount = total number of chunks
+	 * @param data = part of the encoded original message
+	 */
+	public ChunkClusterMessage(String instanceId, long chunkedMessageId, int chunkIndex, int chunkCount, String data) {
+		super(instanceId);
+		this.chunkedMessageId = chunkedMessageId;
+		this.chunkIndex = chunkIndex;
+		this.chunkCount = chunkCount;
+		this.data = data;
+	}
+
+	/**
+	 * Hidden constructor.
+	 */
+	protected ChunkClusterMessage() {
+	}
+
+	@Override
+	public String toString() {
+		return "ChunkClusterMessage [chunkedMessageId=" + chunkedMessageId + ", chunkIndex=" + chunkIndex
+			+ ", chunkCount=" + chunkCount + "]";
+	}
+}
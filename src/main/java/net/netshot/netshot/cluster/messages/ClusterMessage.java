@@ -47,6 +47,9 @@ import net.netshot.netshot.rest.RestViews.ClusteringView;
 	@Type(value = AssignTasksMessage.class, name = "AssignTasks"),
 	@Type(value = AutoSnapshotMessage.class, name = "AutoSnapshot"),
 	@Type(value = VaultInstanceChangedMessage.class, name = "VaultInstanceChanged"),
+	@Type(value = ApiTokenChangedMessage.class, name = "ApiTokenChanged"),
+	@Type(value = CacheInvalidationMessage.class, name = "CacheInvalidation"),
+	@Type(value = ChunkClusterMessage.class, name = "Chunk"),
 })
 public abstract class ClusterMessage {
 
@@ -83,6 +86,16 @@ public abstract class ClusterMessage {
 	@Setter
 	private long messageId;
 
+	/**
+	 * Sequence number of the notification, assigned by the sender on each
+	 * sent notification (to let the receivers detect lost messages).
+	 */
+	@Getter(onMethod = @__({
+		@XmlElement, @JsonView(ClusteringView.class)
+	}))
+	@Setter
+	private long sequenceNumber;
+
 	/**
 	 * Default constructor.
 	 * @param instanceId = ID of the instance
@@ -106,6 +119,6 @@ public abstract class ClusterMessage {
 	@Override
 	public String toString() {
 		return "ClusterMessage [currentTime=" + currentTime + ", instanceId=" + instanceId + ", messageId=" + messageId
-			+ ", upTime=" + upTime + "]";
+			+ ", sequenceNumber=" + sequenceNumber + ", upTime=" + upTime + "]";
 	}
 }
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.cluster.messages;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JacksonException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+
+/**
+ * Custom JSON deserializer for the sets of IDs written by {@link CompactIdSetSerializer}.
+ * Plain JSON arrays of IDs are also accepted.
+ */
+public final class CompactIdSetDeserializer extends JsonDeserializer<Set<Long>> {
+
+	@Override
+	public Set<Long> deserialize(JsonParser p, DeserializationContext ctxt) throws IOException, JacksonException {
+		if (p.isExpectedStartArrayToken()) {
+			Set<Long> ids = new HashSet<>();
+			while (p.nextToken() != JsonToken.END_ARRAY) {
+				ids.add(p.getLongValue());
+			}
+			return ids;
+		}
+		try {
+			return CompactIdSetSerializer.decode(p.getValueAsString());
+		}
+		catch (IllegalArgumentException e) {
+			return ctxt.reportInputMismatch(this, "Invalid compact ID set: %s", e.getMessage());
+		}
+	}
+
+}
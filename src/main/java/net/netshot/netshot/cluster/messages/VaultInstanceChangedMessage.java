@@ -22,6 +22,9 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
 import jakarta.xml.bind.annotation.XmlElement;
 import jakarta.xml.bind.annotation.XmlRootElement;
 import lombok.Getter;
@@ -38,7 +41,9 @@ public class VaultInstanceChangedMessage extends ClusterMessage {
 
 	/** IDs of the Vault instances whose cache should be invalidated. */
 	@Getter(onMethod = @__({
-		@XmlElement
+		@XmlElement,
+		@JsonSerialize(using = CompactIdSetSerializer.class),
+		@JsonDeserialize(using = CompactIdSetDeserializer.class)
 	}))
 	@Setter
 	Set<Long> vaultInstanceIds = new HashSet<>();
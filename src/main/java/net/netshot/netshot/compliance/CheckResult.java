@@ -20,7 +20,9 @@ package net.netshot.netshot.compliance;
 
 import java.io.Serializable;
 import java.util.Date;
+import java.util.Objects;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.hibernate.annotations.OnDelete;
 import org.hibernate.annotations.OnDeleteAction;
@@ -39,18 +41,51 @@ import jakarta.xml.bind.annotation.XmlElement;
 import jakarta.xml.bind.annotation.XmlRootElement;
 import lombok.Getter;
 import lombok.Setter;
+import net.netshot.netshot.Netshot;
 import net.netshot.netshot.device.Device;
 import net.netshot.netshot.rest.RestViews.DefaultView;
 
 /**
  * A CheckResult object is the result of a compliance test for a given rule,
  * tested against a given device.
+ * The result keeps a fingerprint of the inputs of the check (device data and
+ * rule version), so that the rule isn't evaluated again as long as the inputs
+ * don't change.
  */
 @Entity
 @XmlRootElement
 @XmlAccessorType(XmlAccessType.NONE)
 public class CheckResult {
 
+	/**
+	 * Settings/config for the current class.
+	 */
+	public static final class Settings {
+		/** Max age of a reused result, in hours (0 for no limit). */
+		@Getter
+		private int maxReuseAge;
+
+		/**
+		 * Load settings from config.
+		 */
+		private void load() {
+			this.maxReuseAge = Netshot.getConfig("netshot.compliance.reuse.maxage", 24, 0, 87600);
+		}
+	}
+
+	/** Settings for this class. */
+	public static final Settings SETTINGS = new Settings();
+
+	/** JDBC batch size to write the check results. */
+	public static final int BATCH_SIZE = 50;
+
+	/**
+	 * Load the settings from configuration.
+	 */
+	public static void loadConfig() {
+		CheckResult.SETTINGS.load();
+	}
+
 	/**
 	 * The Class Key.
 	 */
@@ -206,6 +241,13 @@ public class CheckResult {
 	@Setter
 	private CheckResult.ResultOption result = CheckResult.ResultOption.NOTAPPLICABLE;
 
+	/** Fingerprint of the inputs of the check. */
+	@Getter(onMethod = @__({
+		@Column(length = 64)
+	}))
+	@Setter
+	private String fingerprint;
+
 	/**
 	 * Instantiates a new check result.
 	 */
@@ -250,6 +292,78 @@ public class CheckResult {
 		this.comment = StringUtils.abbreviate(comment, 9900);
 	}
 
+	/**
+	 * Copy the outcome of another check (of the same rule against the same device).
+	 *
+	 * @param other the other check result
+	 */
+	public void update(CheckResult other) {
+		this.checkDate = other.checkDate;
+		this.result = other.result;
+		this.comment = other.comment;
+		this.fingerprint = other.fingerprint;
+	}
+
+	/**
+	 * Checks whether another check result has the same outcome (result and comment).
+	 *
+	 * @param other the other check result
+	 * @return true if the outcome is the same
+	 */
+	public boolean hasSameOutcome(CheckResult other) {
+		// Stored comments are abbreviated
+		return Objects.equals(this.result, other.result)
+			&& Objects.equals(StringUtils.abbreviate(this.comment, 9900), StringUtils.abbreviate(other.comment, 9900));
+	}
+
+	/**
+	 * Checks whether this result can be reused rather than evaluating the rule again.
+	 *
+	 * @param newFingerprint the fingerprint of the current inputs
+	 * @return true if the inputs didn't change
+	 */
+	public boolean isReusable(String newFingerprint) {
+		if (this.fingerprint == null || !this.fingerprint.equals(newFingerprint)) {
+			return false;
+		}
+		int maxAge = SETTINGS.getMaxReuseAge();
+		if (maxAge > 0 && this.checkDate != null
+				&& this.checkDate.getTime() < System.currentTimeMillis() - maxAge * 3600L * 1000L) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Compute the fingerprint of the device data a rule can read, from cheap
+	 * scalars only (no lazy collection is loaded): the last config, and the
+	 * version and change date of the device, which change on any update of
+	 * the device fields or of its collections (attributes, modules, interfaces,
+	 * diagnostic results, etc.) except the check results.
+	 *
+	 * @param device the device
+	 * @return the fingerprint
+	 */
+	public static String computeDeviceFingerprint(Device device) {
+		return DigestUtils.sha256Hex("%s|%d|%d".formatted(
+			device.getLastConfig() == null ? "" : device.getLastConfig().getId(),
+			device.getVersion(),
+			device.getChangeDate() == null ? 0 : device.getChangeDate().getTime()));
+	}
+
+	/**
+	 * Compute the fingerprint of the inputs of a rule check.
+	 *
+	 * @param deviceFingerprint the fingerprint of the device data (see computeDeviceFingerprint)
+	 * @param rule the rule
+	 * @param exempted whether the device is currently exempted from the rule
+	 * @return the fingerprint
+	 */
+	public static String computeFingerprint(String deviceFingerprint, Rule rule, boolean exempted) {
+		return DigestUtils.sha256Hex("%s|%d|%d|%b|%b".formatted(deviceFingerprint, rule.getId(),
+			rule.getVersion(), rule.isEnabled(), exempted));
+	}
+
 	/**
 	 * Gets the rule.
 	 *
@@ -18,16 +18,21 @@
  */
 package net.netshot.netshot.compliance;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.hibernate.Session;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.NaturalId;
 import org.hibernate.annotations.OnDelete;
 import org.hibernate.annotations.OnDeleteAction;
 
 import com.fasterxml.jackson.annotation.JsonView;
 
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
@@ -52,6 +57,8 @@ import net.netshot.netshot.work.TaskContext;
  * A policy is a set of rules, applied to a group of devices.
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
 @XmlRootElement
 @XmlAccessorType(XmlAccessType.NONE)
 public class Policy {
@@ -148,9 +155,89 @@ public class Policy {
 	 * @param taskContext the task context
 	 */
 	public void check(Device device, Session session, TaskContext taskContext) {
+		this.check(device, CheckResult.computeDeviceFingerprint(device), true, session, taskContext,
+			new CheckStats());
+	}
+
+	/**
+	 * Counters of a compliance check run.
+	 */
+	public static final class CheckStats {
+		/** Number of evaluated rules. */
+		@Getter
+		private int evaluatedCount;
+
+		/** Number of new results. */
+		@Getter
+		private int insertedCount;
+
+		/** Number of updated results. */
+		@Getter
+		private int updatedCount;
+
+		/** Number of results of which only the check date was refreshed. */
+		@Getter
+		private int refreshedCount;
+
+		/** Number of results left untouched. */
+		@Getter
+		private int unchangedCount;
+
+		@Override
+		public String toString() {
+			return "%d rule(s) evaluated, %d result(s) written (%d new, %d updated, %d refreshed), %d unchanged".formatted(
+				this.evaluatedCount, this.insertedCount + this.updatedCount + this.refreshedCount,
+				this.insertedCount, this.updatedCount, this.refreshedCount, this.unchangedCount);
+		}
+	}
+
+	/**
+	 * Check a given device against the policy, reusing the previous results
+	 * of the rules whose inputs didn't change since the last check.
+	 * Existing results are updated in place; when the outcome didn't change,
+	 * only their check date is refreshed.
+	 *
+	 * @param device the device
+	 * @param deviceFingerprint the fingerprint of the device data (see CheckResult.computeDeviceFingerprint)
+	 * @param force true to evaluate all the rules
+	 * @param session the session
+	 * @param taskContext the task context
+	 * @param stats the counters to update
+	 */
+	public void check(Device device, String deviceFingerprint, boolean force, Session session,
+			TaskContext taskContext, CheckStats stats) {
+		Map<Long, CheckResult> previousResults = new HashMap<>();
+		for (CheckResult previousResult : device.getComplianceCheckResults()) {
+			previousResults.put(previousResult.getRule().getId(), previousResult);
+		}
 		for (Rule rule : rules) {
+			String fingerprint = CheckResult.computeFingerprint(deviceFingerprint, rule, device.isExempted(rule));
+			CheckResult previousResult = previousResults.get(rule.getId());
+			if (!force && previousResult != null && previousResult.isReusable(fingerprint)) {
+				taskContext.debug("Inputs of rule {} (policy {}) unchanged, keeping the previous result.",
+					rule.getName(), this.getName());
+				stats.unchangedCount++;
+				continue;
+			}
 			taskContext.info("Evaluating rule {} (policy {})...", rule.getName(), this.getName());
-			device.getComplianceCheckResults().add(rule.check(device, session, taskContext));
+			CheckResult result = rule.check(device, session, taskContext);
+			result.setFingerprint(fingerprint);
+			stats.evaluatedCount++;
+			if (previousResult == null) {
+				device.getComplianceCheckResults().add(result);
+				stats.insertedCount++;
+			}
+			else if (force && fingerprint.equals(previousResult.getFingerprint())
+					&& previousResult.hasSameOutcome(result)) {
+				// Forced evaluation giving the same outcome from the same inputs,
+				// only the check date is refreshed
+				previousResult.setCheckDate(result.getCheckDate());
+				stats.refreshedCount++;
+			}
+			else {
+				previousResult.update(result);
+				stats.updatedCount++;
+			}
 		}
 	}
 
@@ -20,11 +20,14 @@ package net.netshot.netshot.compliance;
 
 import java.util.regex.PatternSyntaxException;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.OnDelete;
 import org.hibernate.annotations.OnDeleteAction;
 
 import com.fasterxml.jackson.annotation.JsonView;
 
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
@@ -49,6 +52,8 @@ import net.netshot.netshot.rest.RestViews.DefaultView;
  * A software rule defines constraints that apply to the software versions.
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
 @XmlRootElement
 @XmlAccessorType(XmlAccessType.NONE)
 public class SoftwareRule implements Comparable<SoftwareRule> {
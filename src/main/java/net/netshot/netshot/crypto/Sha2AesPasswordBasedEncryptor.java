@@ -20,26 +20,37 @@ package net.netshot.netshot.crypto;
 
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.PBEParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
 import lombok.extern.slf4j.Slf4j;
+import net.netshot.netshot.utils.Metrics;
+import net.netshot.netshot.utils.WeightedLruCache;
 
 /**
  * SHA2/AES-based encryption/decryption util class.
+ * This is equivalent to PBEWithHmacSHA256AndAES_256, but the AES keys derived from
+ * the password (PBKDF2, which is costly on purpose) are cached by salt, so that
+ * decrypting many values (e.g. all the credential sets) mostly costs one AES operation
+ * per value. Also the values encrypted by a given instance of Netshot share the same salt.
  */
 @Slf4j
 public final class Sha2AesPasswordBasedEncryptor extends PasswordBasedEncryptor {
 
-	private static final String DEFAULT_ALGORITHM = "PBEWithHmacSHA256AndAES_256";
+	private static final String KEY_ALGORITHM = "PBKDF2WithHmacSHA256";
+	private static final String CIPHER_ALGORITHM = "AES/CBC/PKCS5Padding";
+	private static final int KEY_LENGTH = 256;
 	private static final Charset MESSAGE_CHARSET = StandardCharsets.UTF_8;
 	private static final Charset ENCRYPTED_CHARSET = StandardCharsets.US_ASCII;
 
@@ -47,6 +58,24 @@ public final class Sha2AesPasswordBasedEncryptor extends PasswordBasedEncryptor
 	private static final int DEFAULT_IV_SIZE = 16;
 	private static final int DEFAULT_KEY_ITERATIONS = 1000;
 
+	/** Max number of derived keys to keep in cache. */
+	private static final int KEY_CACHE_SIZE = 4096;
+
+	/** Key of the derived key cache. */
+	private record KeyCacheKey(String password, String salt, int iterations) {
+	}
+
+	/** Cache of derived keys. */
+	private static final WeightedLruCache<KeyCacheKey, SecretKey> KEY_CACHE =
+		new WeightedLruCache<>(KEY_CACHE_SIZE, key -> 1);
+
+	/** Salt used to encrypt new values, by password. */
+	private static final Map<String, byte[]> ENCRYPTION_SALTS = new ConcurrentHashMap<>();
+
+	static {
+		Metrics.gauge("crypto.keycache.hits", KEY_CACHE::getHitCount);
+		Metrics.gauge("crypto.keycache.misses", KEY_CACHE::getMissCount);
+	}
 
 	private int saltSize = DEFAULT_SALT_SIZE;
 	private int ivSize = DEFAULT_IV_SIZE;
@@ -63,6 +92,37 @@ public final class Sha2AesPasswordBasedEncryptor extends PasswordBasedEncryptor
 		return salt;
 	}
 
+	/**
+	 * Clear the cache of derived keys.
+	 */
+	public static void clearKeyCache() {
+		KEY_CACHE.clear();
+	}
+
+	/**
+	 * Get the AES key derived from the password and given salt, from cache if possible.
+	 * @param salt = the salt
+	 * @return the key
+	 * @throws GeneralSecurityException on derivation error
+	 */
+	private SecretKey getKey(byte[] salt) throws GeneralSecurityException {
+		KeyCacheKey cacheKey = new KeyCacheKey(this.password,
+			Base64.getEncoder().encodeToString(salt), this.keyIterations);
+		SecretKey key = KEY_CACHE.get(cacheKey);
+		if (key == null) {
+			SecretKeyFactory keyFactory = SecretKeyFactory.getInstance(KEY_ALGORITHM);
+			PBEKeySpec keySpec = new PBEKeySpec(this.password.toCharArray(), salt, this.keyIterations, KEY_LENGTH);
+			try {
+				key = new SecretKeySpec(keyFactory.generateSecret(keySpec).getEncoded(), "AES");
+			}
+			finally {
+				keySpec.clearPassword();
+			}
+			KEY_CACHE.put(cacheKey, key);
+		}
+		return key;
+	}
+
 	private byte[] generateIv() {
 		SecureRandom secureRandom = new SecureRandom();
 		byte[] iv = new byte[this.ivSize];
@@ -72,7 +132,8 @@ public final class Sha2AesPasswordBasedEncryptor extends PasswordBasedEncryptor
 
 	@Override
 	public String encrypt(String input) {
-		return this.encrypt(input, this.generateSalt(), this.generateIv());
+		byte[] salt = ENCRYPTION_SALTS.computeIfAbsent(this.password, p -> this.generateSalt());
+		return this.encrypt(input, salt, this.generateIv());
 	}
 
 	public String encrypt(String input, byte[] salt, byte[] iv) {
@@ -82,15 +143,8 @@ public final class Sha2AesPasswordBasedEncryptor extends PasswordBasedEncryptor
 
 		try {
 			final byte[] inputBytes = input.getBytes(MESSAGE_CHARSET);
-			Cipher cipher = Cipher.getInstance(DEFAULT_ALGORITHM);
-			SecretKeyFactory keyFactory = SecretKeyFactory.getInstance(DEFAULT_ALGORITHM);
-
-			PBEKeySpec keySpec = new PBEKeySpec(this.password.toCharArray());
-			SecretKey key = keyFactory.generateSecret(keySpec);
-			IvParameterSpec ivSpec = new IvParameterSpec(iv);
-			PBEParameterSpec paramSpec = new PBEParameterSpec(salt, this.keyIterations, ivSpec);
-
-			cipher.init(Cipher.ENCRYPT_MODE, key, paramSpec);
+			Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+			cipher.init(Cipher.ENCRYPT_MODE, this.getKey(salt), new IvParameterSpec(iv));
 			byte[] encrypted = cipher.doFinal(inputBytes);
 			byte[] saltedEncrypted = new byte[salt.length + iv.length + encrypted.length];
 			System.arraycopy(salt, 0, saltedEncrypted, 0, salt.length);
@@ -107,15 +161,8 @@ public final class Sha2AesPasswordBasedEncryptor extends PasswordBasedEncryptor
 	public String decrypt(byte[] inputBytes, byte[] salt, byte[] iv) {
 
 		try {
-			Cipher cipher = Cipher.getInstance(DEFAULT_ALGORITHM);
-			SecretKeyFactory keyFactory = SecretKeyFactory.getInstance(DEFAULT_ALGORITHM);
-
-			PBEKeySpec keySpec = new PBEKeySpec(this.password.toCharArray());
-			SecretKey key = keyFactory.generateSecret(keySpec);
-			IvParameterSpec ivSpec = new IvParameterSpec(iv);
-			PBEParameterSpec paramSpec = new PBEParameterSpec(salt, this.keyIterations, ivSpec);
-
-			cipher.init(Cipher.DECRYPT_MODE, key, paramSpec);
+			Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+			cipher.init(Cipher.DECRYPT_MODE, this.getKey(salt), new IvParameterSpec(iv));
 			byte[] decrypted = cipher.doFinal(inputBytes);
 			return new String(decrypted, MESSAGE_CHARSET);
 		}
@@ -40,11 +40,17 @@ public class CustomConnectionProvider extends AbstractMultiTenantConnectionProvi
 
 	private ConnectionProvider defaultProvider;
 
-	public void registerConnectionProvider(TenantIdentifier identifier, Map<String, Object> props, boolean asDefaultProvider) {
+	/**
+	 * Create a pooled (C3P0) connection provider, using the pooler settings from the configuration.
+	 * @param sourceName = name of the C3P0 data source (to be found in the C3P0 registry)
+	 * @param props = connection properties (URL, driver, credentials)
+	 * @return the configured connection provider
+	 */
+	static C3P0ConnectionProvider createPooledProvider(String sourceName, Map<String, Object> props) {
 		C3P0ConnectionProvider provider = new C3P0ConnectionProvider();
 		provider.injectServices((StandardServiceRegistryImpl) new StandardServiceRegistryBuilder().build());
 		Map<String, Object> configProps = new HashMap<>(props);
-		configProps.put("hibernate.c3p0.dataSourceName", identifier.getSourceName());
+		configProps.put("hibernate.c3p0.dataSourceName", sourceName);
 
 		configProps.put(C3p0Settings.C3P0_MIN_SIZE,
 			Netshot.getConfig("netshot.db.pooler.minpoolsize", 5, 0, Integer.MAX_VALUE));
@@ -68,6 +74,15 @@ public class CustomConnectionProvider extends AbstractMultiTenantConnectionProvi
 			Netshot.getConfig("netshot.db.pooler.unreturnedconnectiontimeout", 1800, 0, Integer.MAX_VALUE));
 		configProps.put("hibernate.c3p0.debugUnreturnedConnectionStackTraces", "true");
 		provider.configure(configProps);
+		return provider;
+	}
+
+	public void registerConnectionProvider(TenantIdentifier identifier, Map<String, Object> props, boolean asDefaultProvider) {
+		this.registerConnectionProvider(identifier,
+			CustomConnectionProvider.createPooledProvider(identifier.getSourceName(), props), asDefaultProvider);
+	}
+
+	public void registerConnectionProvider(TenantIdentifier identifier, ConnectionProvider provider, boolean asDefaultProvider) {
 		this.providerMap.put(identifier, provider);
 		if (asDefaultProvider) {
 			this.defaultProvider = provider;
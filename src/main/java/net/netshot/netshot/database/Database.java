@@ -28,6 +28,7 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
@@ -39,6 +40,7 @@ import java.util.zip.ZipInputStream;
 
 import javax.sql.DataSource;
 
+import org.hibernate.Cache;
 import org.hibernate.Hibernate;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
@@ -49,6 +51,10 @@ import org.hibernate.boot.MetadataSources;
 import org.hibernate.boot.SessionFactoryBuilder;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
 import org.hibernate.proxy.HibernateProxy;
 import org.hibernate.service.ServiceRegistry;
 import org.slf4j.MarkerFactory;
@@ -85,6 +91,7 @@ import net.netshot.netshot.device.NetworkAddress;
 import net.netshot.netshot.device.NetworkInterface;
 import net.netshot.netshot.device.PhysicalAddress;
 import net.netshot.netshot.device.StaticDeviceGroup;
+import net.netshot.netshot.device.access.CredentialHint;
 import net.netshot.netshot.device.access.DeviceAccess;
 import net.netshot.netshot.device.attribute.ConfigAttribute;
 import net.netshot.netshot.device.attribute.ConfigBinaryAttribute;
@@ -132,6 +139,12 @@ public final class Database {
 	/** The service registry. */
 	private static ServiceRegistry serviceRegistry;
 
+	/** Whether read replicas are configured. */
+	private static boolean readReplicas;
+
+	/** Set (per thread) when the read-only sessions must read from the primary. */
+	private static final ThreadLocal<Boolean> PRIMARY_READS = new ThreadLocal<>();
+
 	/**
 	 * List classes in a given package.
 	 *
@@ -247,6 +260,17 @@ public final class Database {
 			serviceProperties.setProperty(AvailableSettings.FORMAT_SQL, "true");
 			// Dates/times stored in UTC in the DB, without timezone, up to Java to convert to server local time
 			serviceProperties.setProperty(AvailableSettings.JDBC_TIME_ZONE, "UTC");
+			serviceProperties.setProperty(AvailableSettings.AUTO_SESSION_EVENTS_LISTENER,
+				DatabaseInstrumentation.TimingListener.class.getName());
+			// In-process second-level and query cache, for the slow-changing entities
+			if (Netshot.getConfig("netshot.db.cache.enabled", true)) {
+				serviceProperties.setProperty(AvailableSettings.USE_SECOND_LEVEL_CACHE, "true");
+				serviceProperties.setProperty(AvailableSettings.USE_QUERY_CACHE, "true");
+				serviceProperties.setProperty(AvailableSettings.CACHE_REGION_FACTORY, LocalCacheRegionFactory.class.getName());
+			}
+			else {
+				serviceProperties.setProperty(AvailableSettings.USE_SECOND_LEVEL_CACHE, "false");
+			}
 
 			// Use the custom Multi Tenant connection provider (to handle read vs read-write connections)
 			final CustomConnectionProvider connectionProvider = new CustomConnectionProvider();
@@ -258,12 +282,22 @@ public final class Database {
 			connectionProviderProperties.put("hibernate.connection.password", getPassword());
 
 			connectionProviderProperties.put(AvailableSettings.JAKARTA_JDBC_URL, getUrl());
-			connectionProvider.registerConnectionProvider(TenantIdentifier.READ_WRITE, connectionProviderProperties, true);
+			final ConnectionProvider primaryProvider = CustomConnectionProvider.createPooledProvider(
+				TenantIdentifier.READ_WRITE.getSourceName(), connectionProviderProperties);
+			connectionProvider.registerConnectionProvider(TenantIdentifier.READ_WRITE, primaryProvider, true);
 
+			// Read-only sessions are routed to the read replicas (space-separated URLs)
 			String readDbUrl = getReadUrl();
-			if (readDbUrl != null) {
-				connectionProviderProperties.put(AvailableSettings.JAKARTA_JDBC_URL, readDbUrl);
-				connectionProvider.registerConnectionProvider(TenantIdentifier.READ_ONLY, connectionProviderProperties, true);
+			if (readDbUrl != null && !readDbUrl.isBlank()) {
+				final ReplicaRoutingConnectionProvider replicaProvider =
+					new ReplicaRoutingConnectionProvider(primaryProvider);
+				for (String replicaUrl : readDbUrl.trim().split("\\s+")) {
+					connectionProviderProperties.put(AvailableSettings.JAKARTA_JDBC_URL, replicaUrl);
+					replicaProvider.addReplica(connectionProviderProperties);
+				}
+				connectionProvider.registerConnectionProvider(TenantIdentifier.READ_ONLY, replicaProvider, false);
+				replicaProvider.start(getDriverClass().contains("postgresql"));
+				readReplicas = true;
 			}
 
 			serviceProperties.put(AvailableSettings.MULTI_TENANT_CONNECTION_PROVIDER, connectionProvider);
@@ -299,6 +333,7 @@ public final class Database {
 				.addAnnotatedClass(Network6Address.class)
 				.addAnnotatedClass(NetworkInterface.class)
 				.addAnnotatedClass(DeviceAccess.class)
+				.addAnnotatedClass(CredentialHint.class)
 				.addAnnotatedClass(DeviceSnmpv1Community.class)
 				.addAnnotatedClass(DeviceSnmpv2cCommunity.class)
 				.addAnnotatedClass(DeviceSnmpv3Community.class)
@@ -354,7 +389,12 @@ public final class Database {
 
 			SessionFactoryBuilder sessionFactoryBuilder = metadata.getSessionFactoryBuilder();
 			sessionFactoryBuilder.applyInterceptor(new DatabaseInterceptor());
+			// Instrumentation (statements, DB time and loaded entities per REST method or task)
+			sessionFactoryBuilder.applyStatementInspector(new DatabaseInstrumentation.Inspector());
 			sessionFactory = sessionFactoryBuilder.build();
+			sessionFactory.unwrap(SessionFactoryImplementor.class).getServiceRegistry()
+				.getService(EventListenerRegistry.class)
+				.appendListeners(EventType.POST_LOAD, new DatabaseInstrumentation.LoadListener());
 
 		}
 		catch (HibernateException e) {
@@ -384,9 +424,9 @@ public final class Database {
 	}
 
 	/**
-	 * Retrieve the read-only DB URL.
+	 * Retrieve the read-only DB URL(s).
 	 * 
-	 * @return the configured DB URL.
+	 * @return the configured DB URL(s), space-separated.
 	 */
 	private static String getReadUrl() {
 		return Netshot.getConfig("netshot.db.readurl");
@@ -435,6 +475,75 @@ public final class Database {
 			.openSession();
 	}
 
+	/**
+	 * Evict the given regions of the second-level cache, as well as the
+	 * cached query results (e.g. after entities were changed by another cluster member).
+	 *
+	 * @param regionNames = the names of the cache regions to evict
+	 */
+	public static void evictCacheRegions(Collection<String> regionNames) {
+		if (sessionFactory == null) {
+			return;
+		}
+		Cache cache = sessionFactory.getCache();
+		for (String regionName : regionNames) {
+			log.debug("Evicting cache region {}", regionName);
+			cache.evictRegion(regionName);
+		}
+		cache.evictQueryRegions();
+	}
+
+	/**
+	 * Invalidate the cached query results based on the given table spaces
+	 * (e.g. after rows of these tables were written by another cluster member).
+	 *
+	 * @param spaceNames = the names of the changed table spaces
+	 */
+	public static void invalidateCacheSpaces(Collection<String> spaceNames) {
+		if (sessionFactory == null || spaceNames.isEmpty()) {
+			return;
+		}
+		if (sessionFactory.unwrap(SessionFactoryImplementor.class).getCache().getRegionFactory()
+				instanceof LocalCacheRegionFactory regionFactory) {
+			log.debug("Invalidating cached query results of table spaces {}", spaceNames);
+			regionFactory.invalidateSpaces(spaceNames);
+		}
+	}
+
+	/**
+	 * Check whether read replicas are configured.
+	 *
+	 * @return true if read-only sessions may be served by read replicas
+	 */
+	public static boolean hasReadReplicas() {
+		return readReplicas;
+	}
+
+	/**
+	 * Force (or stop forcing) the read-only sessions opened by the current thread
+	 * to read from the primary database rather than from a (possibly lagging) replica,
+	 * e.g. to read back data which was just written.
+	 *
+	 * @param primary = true to read from the primary
+	 */
+	public static void setPrimaryReads(boolean primary) {
+		if (primary) {
+			PRIMARY_READS.set(Boolean.TRUE);
+		}
+		else {
+			PRIMARY_READS.remove();
+		}
+	}
+
+	/**
+	 * Check whether the current thread must read from the primary database.
+	 *
+	 * @return true to read from the primary
+	 */
+	public static boolean isPrimaryReadRequired() {
+		return PRIMARY_READS.get() != null;
+	}
+
 	/**
 	 * Gets a stateless database session.
 	 *
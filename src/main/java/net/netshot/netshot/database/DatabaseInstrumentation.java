@@ -0,0 +1,249 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.database;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.SessionEventListener;
+import org.hibernate.event.spi.PostLoadEvent;
+import org.hibernate.event.spi.PostLoadEventListener;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.netshot.netshot.Netshot;
+import net.netshot.netshot.utils.Metrics;
+
+/**
+ * Database usage instrumentation: attributes the SQL statements, the time spent
+ * executing them and the loaded entities to the current unit of work
+ * (REST method or task), tracked per thread.
+ * A statement executed many times within the same unit of work is flagged as
+ * a likely N+1 select pattern.
+ * Per unit type, the following metrics are exposed: db.[rest|tasks].[name].statements,
+ * .entities, .time (DB time per unit of work) and .nplusone.
+ */
+@Slf4j
+public final class DatabaseInstrumentation {
+
+	/**
+	 * Settings/config for the current class.
+	 */
+	public static final class Settings {
+		/** Whether the instrumentation is enabled. */
+		@Getter
+		private boolean enabled;
+
+		/** Number of executions of the same statement, within a unit of work, to flag it as N+1. */
+		@Getter
+		private int repeatThreshold;
+
+		/**
+		 * Load settings from config.
+		 */
+		private void load() {
+			this.enabled = Netshot.getConfig("netshot.db.instrumentation.enabled", true);
+			this.repeatThreshold = Netshot.getConfig("netshot.db.instrumentation.repeatthreshold", 20, 2, Integer.MAX_VALUE);
+		}
+	}
+
+	/** Settings for this class. */
+	public static final Settings SETTINGS = new Settings();
+
+	/** Unit of work of the current thread. */
+	private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<>();
+
+	/**
+	 * Load the settings from configuration.
+	 */
+	public static void loadConfig() {
+		DatabaseInstrumentation.SETTINGS.load();
+	}
+
+	/**
+	 * Database usage of a unit of work (REST call, task execution).
+	 */
+	public static final class UnitOfWork {
+		/** Metric name prefix (e.g. db.rest.getDevices). */
+		private final String metricPrefix;
+
+		/** Description, for logs (e.g. task identifier). */
+		private final String label;
+
+		/** Number of executed statements. */
+		@Getter
+		private int statementCount;
+
+		/** Number of loaded entities. */
+		@Getter
+		private int entityCount;
+
+		/** Time spent executing statements. */
+		@Getter
+		private long dbTimeNanos;
+
+		/** Start of the statement being executed. */
+		private long statementStart;
+
+		/** Number of executions per statement. */
+		private final Map<String, Integer> statementExecutions = new HashMap<>();
+
+		/** Statements flagged as likely N+1. */
+		@Getter
+		private final Set<String> repeatedStatements = new LinkedHashSet<>();
+
+		private UnitOfWork(String metricPrefix, String label) {
+			this.metricPrefix = metricPrefix;
+			this.label = label;
+		}
+
+		private void onStatement(String sql) {
+			this.statementCount++;
+			int executions = this.statementExecutions.merge(sql, 1, Integer::sum);
+			if (executions == SETTINGS.getRepeatThreshold()) {
+				this.repeatedStatements.add(sql);
+				Metrics.counter(this.metricPrefix + ".nplusone").increment();
+				log.warn("{}: statement executed {} times, likely N+1 select pattern: {}",
+					this.label, executions, sql);
+			}
+		}
+
+		/**
+		 * Get a text summary of the database usage.
+		 * @return the summary
+		 */
+		public String getSummary() {
+			StringBuilder summary = new StringBuilder();
+			summary.append("Database usage: %d statement(s), %d entity(ies) loaded, %d ms".formatted(
+				this.statementCount, this.entityCount, this.dbTimeNanos / 1000000L));
+			for (String sql : this.repeatedStatements) {
+				summary.append("\nLikely N+1 statement (executed %d times): %s".formatted(
+					this.statementExecutions.get(sql), sql));
+			}
+			return summary.toString();
+		}
+	}
+
+	/**
+	 * Statement inspector (registered in Hibernate), counting the statements.
+	 */
+	public static final class Inspector implements StatementInspector {
+		@Override
+		public String inspect(String sql) {
+			UnitOfWork unit = CURRENT.get();
+			if (unit != null) {
+				unit.onStatement(sql);
+			}
+			return sql;
+		}
+	}
+
+	/**
+	 * Session event listener (registered in Hibernate), measuring the statement execution times.
+	 */
+	public static final class TimingListener implements SessionEventListener {
+		@Override
+		public void jdbcExecuteStatementStart() {
+			UnitOfWork unit = CURRENT.get();
+			if (unit != null) {
+				unit.statementStart = System.nanoTime();
+			}
+		}
+
+		@Override
+		public void jdbcExecuteStatementEnd() {
+			UnitOfWork unit = CURRENT.get();
+			if (unit != null && unit.statementStart > 0) {
+				unit.dbTimeNanos += System.nanoTime() - unit.statementStart;
+				unit.statementStart = 0;
+			}
+		}
+
+		@Override
+		public void jdbcExecuteBatchStart() {
+			this.jdbcExecuteStatementStart();
+		}
+
+		@Override
+		public void jdbcExecuteBatchEnd() {
+			this.jdbcExecuteStatementEnd();
+		}
+	}
+
+	/**
+	 * Post-load event listener (registered in Hibernate), counting the loaded entities.
+	 */
+	public static final class LoadListener implements PostLoadEventListener {
+		@Override
+		public void onPostLoad(PostLoadEvent event) {
+			UnitOfWork unit = CURRENT.get();
+			if (unit != null) {
+				unit.entityCount++;
+			}
+		}
+	}
+
+	private DatabaseInstrumentation() {
+	}
+
+	/**
+	 * Start tracking the database usage of the current thread.
+	 * @param type = type of unit of work (rest, tasks)
+	 * @param name = name of the unit of work (REST method, task type), for metrics
+	 * @param label = description of the unit of work, for logs
+	 * @return the unit of work (null if the instrumentation is disabled)
+	 */
+	public static UnitOfWork begin(String type, String name, String label) {
+		if (!SETTINGS.isEnabled()) {
+			CURRENT.remove();
+			return null;
+		}
+		UnitOfWork unit = new UnitOfWork("db.%s.%s".formatted(type, name), label);
+		CURRENT.set(unit);
+		return unit;
+	}
+
+	/**
+	 * Get the unit of work of the current thread, still being tracked.
+	 * @return the current unit of work (null if none)
+	 */
+	public static UnitOfWork current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Stop tracking the database usage of the current thread, and record the metrics.
+	 * @return the finished unit of work (null if none)
+	 */
+	public static UnitOfWork end() {
+		UnitOfWork unit = CURRENT.get();
+		if (unit == null) {
+			return null;
+		}
+		CURRENT.remove();
+		Metrics.counter(unit.metricPrefix + ".statements").add(unit.statementCount);
+		Metrics.counter(unit.metricPrefix + ".entities").add(unit.entityCount);
+		Metrics.timer(unit.metricPrefix + ".time").record(unit.dbTimeNanos);
+		return unit;
+	}
+
+}
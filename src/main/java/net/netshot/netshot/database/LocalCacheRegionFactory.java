@@ -0,0 +1,228 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.database;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.hibernate.boot.spi.SessionFactoryOptions;
+import org.hibernate.cache.cfg.spi.DomainDataRegionBuildingContext;
+import org.hibernate.cache.cfg.spi.DomainDataRegionConfig;
+import org.hibernate.cache.spi.support.DomainDataStorageAccess;
+import org.hibernate.cache.spi.support.RegionFactoryTemplate;
+import org.hibernate.cache.spi.support.StorageAccess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+
+import lombok.extern.slf4j.Slf4j;
+import net.netshot.netshot.Netshot;
+import net.netshot.netshot.cluster.ClusterManager;
+import net.netshot.netshot.utils.Metrics;
+
+/**
+ * In-process Hibernate second-level cache, for the slow-changing entities
+ * (domains, groups, policies, rules, etc.) and the cacheable queries.
+ * Each region is a size-bounded LRU map. The cached entities use the
+ * nonstrict-read-write strategy, so any local change of an entity removes
+ * it from the cache; these removals are propagated to the other cluster members
+ * (via ClusterManager), which then evict the whole region and the query results.
+ * Any write to a table (including inserts, which don't touch the entity regions)
+ * updates its timestamp in the timestamps region, which invalidates the cached
+ * query results based on this table; these table spaces are also propagated,
+ * so that the other members invalidate their own query results.
+ * Hits and misses are counted per region (db.cache.[region].*).
+ */
+@Slf4j
+public class LocalCacheRegionFactory extends RegionFactoryTemplate {
+
+	/** Max number of entries per region. */
+	private int maxEntries;
+
+	/** Storage of the update timestamps of the table spaces. */
+	private TimestampsStorageAccess timestampsStorage;
+
+	/**
+	 * Size-bounded storage of a cache region.
+	 */
+	private static class LruStorageAccess implements DomainDataStorageAccess {
+
+		/** Name of the region. */
+		private final String regionName;
+
+		/** Whether local removals should be propagated to the other cluster members. */
+		private final boolean clustered;
+
+		/** The cached data, in access order. */
+		private final Map<Object, Object> data;
+
+		private final Metrics.Counter hits;
+
+		private final Metrics.Counter misses;
+
+		private LruStorageAccess(String regionName, int maxEntries, boolean clustered) {
+			this.regionName = regionName;
+			this.clustered = clustered;
+			this.data = new LinkedHashMap<>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+					return maxEntries > 0 && this.size() > maxEntries;
+				}
+			};
+			String metricPrefix = "db.cache.%s.".formatted(regionName);
+			this.hits = Metrics.counter(metricPrefix + "hits");
+			this.misses = Metrics.counter(metricPrefix + "misses");
+			Metrics.gauge(metricPrefix + "size", this::size);
+			Metrics.gauge(metricPrefix + "hitratio", () -> {
+				long hitCount = this.hits.getCount();
+				long total = hitCount + this.misses.getCount();
+				return total == 0 ? 0 : 100.0 * hitCount / total;
+			});
+		}
+
+		private synchronized int size() {
+			return this.data.size();
+		}
+
+		@Override
+		public synchronized Object getFromCache(Object key, SharedSessionContractImplementor session) {
+			Object value = this.data.get(key);
+			if (value == null) {
+				this.misses.increment();
+			}
+			else {
+				this.hits.increment();
+			}
+			return value;
+		}
+
+		@Override
+		public synchronized void putIntoCache(Object key, Object value, SharedSessionContractImplementor session) {
+			this.data.put(key, value);
+		}
+
+		@Override
+		public synchronized boolean contains(Object key) {
+			return this.data.containsKey(key);
+		}
+
+		@Override
+		public void removeFromCache(Object key, SharedSessionContractImplementor session) {
+			this.evictData(key);
+			if (this.clustered) {
+				ClusterManager.requestCacheRegionInvalidation(this.regionName);
+			}
+		}
+
+		@Override
+		public void clearCache(SharedSessionContractImplementor session) {
+			this.evictData();
+			if (this.clustered) {
+				ClusterManager.requestCacheRegionInvalidation(this.regionName);
+			}
+		}
+
+		@Override
+		public synchronized void evictData() {
+			this.data.clear();
+		}
+
+		@Override
+		public synchronized void evictData(Object key) {
+			this.data.remove(key);
+		}
+
+		@Override
+		public void release() {
+			this.evictData();
+		}
+	}
+
+	/**
+	 * Storage of the timestamps region: the keys are the table spaces,
+	 * and each local update is propagated to the other cluster members.
+	 */
+	private static final class TimestampsStorageAccess extends LruStorageAccess {
+
+		private TimestampsStorageAccess(String regionName) {
+			// Not bounded: one entry per table, and a missing timestamp would make stale query results valid
+			super(regionName, 0, false);
+		}
+
+		@Override
+		public void putIntoCache(Object key, Object value, SharedSessionContractImplementor session) {
+			super.putIntoCache(key, value, session);
+			if (key instanceof String space) {
+				ClusterManager.requestCacheSpaceInvalidation(space);
+			}
+		}
+
+		/**
+		 * Update the timestamp of the given spaces, without propagating.
+		 * @param spaces = the table spaces
+		 * @param timestamp = the new timestamp
+		 */
+		private void invalidateLocally(Collection<String> spaces, long timestamp) {
+			for (String space : spaces) {
+				super.putIntoCache(space, timestamp, null);
+			}
+		}
+	}
+
+	/**
+	 * Invalidate the cached query results based on the given table spaces,
+	 * after these were changed by another cluster member.
+	 * @param spaces = the names of the changed table spaces
+	 */
+	public void invalidateSpaces(Collection<String> spaces) {
+		if (this.timestampsStorage != null) {
+			this.timestampsStorage.invalidateLocally(spaces, this.nextTimestamp());
+		}
+	}
+
+	@Override
+	protected void prepareForUse(SessionFactoryOptions settings, @SuppressWarnings("rawtypes") Map configValues) {
+		this.maxEntries = Netshot.getConfig("netshot.db.cache.maxentries", 10000, 0, Integer.MAX_VALUE);
+		log.info("Using local second-level cache, max {} entries per region", this.maxEntries);
+	}
+
+	@Override
+	protected void releaseFromUse() {
+	}
+
+	@Override
+	protected DomainDataStorageAccess createDomainDataStorageAccess(DomainDataRegionConfig regionConfig,
+			DomainDataRegionBuildingContext buildingContext) {
+		return new LruStorageAccess(regionConfig.getRegionName(), this.maxEntries, true);
+	}
+
+	@Override
+	protected StorageAccess createQueryResultsRegionStorageAccess(String regionName,
+			SessionFactoryImplementor sessionFactory) {
+		return new LruStorageAccess(regionName, this.maxEntries, false);
+	}
+
+	@Override
+	protected StorageAccess createTimestampsRegionStorageAccess(String regionName,
+			SessionFactoryImplementor sessionFactory) {
+		this.timestampsStorage = new TimestampsStorageAccess(regionName);
+		return this.timestampsStorage;
+	}
+
+}
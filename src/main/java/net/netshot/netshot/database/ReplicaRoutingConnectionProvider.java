@@ -0,0 +1,314 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.UnknownUnwrapTypeException;
+
+import com.mchange.v2.c3p0.C3P0Registry;
+import com.mchange.v2.c3p0.PooledDataSource;
+import lombok.extern.slf4j.Slf4j;
+import net.netshot.netshot.Netshot;
+import net.netshot.netshot.utils.Metrics;
+
+/**
+ * Connection provider for read-only sessions, spreading the connections over
+ * a set of read replicas (round-robin).
+ * A background thread regularly measures the replay lag of each replica; a replica
+ * lagging behind the primary by more than the configured bound (or unreachable) is
+ * skipped. When no replica is usable, or when the current thread requires
+ * up-to-date data (read-your-writes, see Database.setPrimaryReads),
+ * the connection is taken from the primary.
+ */
+@Slf4j
+public class ReplicaRoutingConnectionProvider implements ConnectionProvider {
+
+	/**
+	 * Query to compute the replay lag (ms) of a replica (0 if it's not in recovery or fully replayed).
+	 * The replayed and received positions are only compared to each other, so a standby which lost
+	 * its WAL receiver (disconnected from the primary) would look up-to-date: NULL is returned
+	 * in that case (the status is only visible with pg_read_all_stats, otherwise the receiver
+	 * process must at least be running), as well as when nothing was replayed yet.
+	 */
+	private static final String LAG_QUERY =
+		"SELECT CASE WHEN NOT pg_is_in_recovery() THEN 0 "
+		+ "WHEN NOT EXISTS (SELECT 1 FROM pg_stat_wal_receiver "
+		+ "WHERE COALESCE(status, 'streaming') = 'streaming') THEN NULL "
+		+ "WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+		+ "ELSE EXTRACT(EPOCH FROM (now() - pg_last_xact_replay_timestamp())) * 1000 END";
+
+	/** Max time (ms) to wait for a connection from a replica pool, before falling back to another source. */
+	private static final int REPLICA_CHECKOUT_TIMEOUT = 5000;
+
+	/**
+	 * A read replica.
+	 */
+	private static final class Replica {
+		/** Name (also name of the C3P0 data source). */
+		private final String name;
+
+		/** Connection provider (pool) to the replica. */
+		private final ConnectionProvider provider;
+
+		/** Last measured replay lag, in ms (-1 if unknown or unreachable). */
+		private volatile long lag = -1;
+
+		/** Time of the last lag measurement. */
+		private volatile long lastCheck;
+
+		/** Connections given for this replica. */
+		private final Metrics.Counter reads;
+
+		private Replica(String name, ConnectionProvider provider) {
+			this.name = name;
+			this.provider = provider;
+			this.reads = Metrics.counter("db.replicas.%s.reads".formatted(name));
+		}
+	}
+
+	/** The read replicas. */
+	private final List<Replica> replicas = new ArrayList<>();
+
+	/** The primary (read-write) connection provider, used as fallback. */
+	private final ConnectionProvider primaryProvider;
+
+	/** Provider of each connection currently given, to release it to the right pool. */
+	private final Map<Connection, ConnectionProvider> connectionProviders =
+		Collections.synchronizedMap(new IdentityHashMap<>());
+
+	/** Round-robin index. */
+	private final AtomicInteger nextReplica = new AtomicInteger();
+
+	/** Max acceptable replay lag (ms). */
+	private final long maxLag;
+
+	/** Interval (ms) between two lag measurements. */
+	private final long checkInterval;
+
+	/** Read connections taken from the primary because no replica was usable. */
+	private final Metrics.Counter lagFallbacks = Metrics.counter("db.replicas.fallback.lag");
+
+	/** Read connections taken from the primary for read-your-writes consistency. */
+	private final Metrics.Counter primaryReads = Metrics.counter("db.replicas.fallback.readafterwrite");
+
+	/**
+	 * Constructor.
+	 * @param primaryProvider = the primary (read-write) connection provider
+	 */
+	public ReplicaRoutingConnectionProvider(ConnectionProvider primaryProvider) {
+		this.primaryProvider = primaryProvider;
+		this.maxLag = Netshot.getConfig("netshot.db.replicas.maxlag", 10000, 0, Integer.MAX_VALUE);
+		this.checkInterval = Netshot.getConfig("netshot.db.replicas.checkinterval", 2000, 100, 3600000);
+	}
+
+	/**
+	 * Add a read replica.
+	 * @param props = connection properties (URL, driver, credentials) of the replica
+	 */
+	public void addReplica(Map<String, Object> props) {
+		String name = "%s%d".formatted(TenantIdentifier.READ_ONLY.getSourceName(), this.replicas.size() + 1);
+		Map<String, Object> replicaProps = new HashMap<>(props);
+		replicaProps.put("hibernate.c3p0.checkoutTimeout", REPLICA_CHECKOUT_TIMEOUT);
+		Replica replica = new Replica(name,
+			CustomConnectionProvider.createPooledProvider(name, replicaProps));
+		this.replicas.add(replica);
+		String metricPrefix = "db.replicas.%s.".formatted(name);
+		Metrics.gauge(metricPrefix + "lag", () -> replica.lag);
+		Metrics.gauge(metricPrefix + "pool.busy", () -> {
+			PooledDataSource dataSource = C3P0Registry.pooledDataSourceByName(name);
+			try {
+				return dataSource == null ? 0 : dataSource.getNumBusyConnectionsDefaultUser();
+			}
+			catch (SQLException e) {
+				return 0;
+			}
+		});
+		Metrics.gauge(metricPrefix + "pool.idle", () -> {
+			PooledDataSource dataSource = C3P0Registry.pooledDataSourceByName(name);
+			try {
+				return dataSource == null ? 0 : dataSource.getNumIdleConnectionsDefaultUser();
+			}
+			catch (SQLException e) {
+				return 0;
+			}
+		});
+	}
+
+	/**
+	 * Start monitoring the replay lag of the replicas.
+	 * @param monitorLag = false to consider the replicas as always up-to-date
+	 *     (e.g. when the database doesn't support the lag query)
+	 */
+	public void start(boolean monitorLag) {
+		if (!monitorLag) {
+			for (Replica replica : this.replicas) {
+				replica.lag = 0;
+				replica.lastCheck = Long.MAX_VALUE;
+			}
+			return;
+		}
+		Thread monitor = new Thread(this::monitorReplicas, "NetshotReplicaMonitor");
+		monitor.setDaemon(true);
+		monitor.start();
+	}
+
+	/**
+	 * Lag monitoring loop.
+	 */
+	private void monitorReplicas() {
+		while (true) {
+			for (Replica replica : this.replicas) {
+				this.checkReplica(replica);
+			}
+			try {
+				Thread.sleep(this.checkInterval);
+			}
+			catch (InterruptedException e) {
+				log.warn("Replica monitor interrupted");
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Measure the replay lag of a replica.
+	 * @param replica = the replica to check
+	 */
+	private void checkReplica(Replica replica) {
+		long lag = -1;
+		try {
+			Connection connection = replica.provider.getConnection();
+			try (Statement statement = connection.createStatement();
+					ResultSet resultSet = statement.executeQuery(LAG_QUERY)) {
+				if (resultSet.next()) {
+					double value = resultSet.getDouble(1);
+					if (resultSet.wasNull()) {
+						if (replica.lag >= 0 || replica.lastCheck == 0) {
+							log.warn("Read replica {} is not streaming from the primary, its lag is unknown", replica.name);
+						}
+					}
+					else {
+						lag = Math.round(value);
+					}
+				}
+			}
+			finally {
+				replica.provider.closeConnection(connection);
+			}
+		}
+		catch (SQLException e) {
+			if (replica.lag >= 0 || replica.lastCheck == 0) {
+				log.warn("Unable to check the replay lag of read replica {}", replica.name, e);
+			}
+		}
+		boolean wasUsable = this.isUsable(replica);
+		replica.lag = lag;
+		replica.lastCheck = System.currentTimeMillis();
+		boolean usable = this.isUsable(replica);
+		if (usable && !wasUsable) {
+			log.info("Read replica {} is now used (replay lag {} ms)", replica.name, lag);
+		}
+		else if (!usable && wasUsable) {
+			log.warn("Read replica {} is skipped (replay lag {} ms, max {} ms)", replica.name, lag, this.maxLag);
+		}
+	}
+
+	/**
+	 * Check whether a replica can currently serve reads.
+	 * @param replica = the replica
+	 * @return true if the replica was recently checked and its lag is within bounds
+	 */
+	private boolean isUsable(Replica replica) {
+		if (replica.lag < 0 || replica.lag > this.maxLag) {
+			return false;
+		}
+		// The lag information is outdated if the monitor missed a few checks
+		return System.currentTimeMillis() - replica.lastCheck < 3 * this.checkInterval + REPLICA_CHECKOUT_TIMEOUT;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		if (Database.isPrimaryReadRequired()) {
+			this.primaryReads.increment();
+			return this.primaryProvider.getConnection();
+		}
+		int count = this.replicas.size();
+		int start = Math.floorMod(this.nextReplica.getAndIncrement(), count);
+		for (int i = 0; i < count; i++) {
+			Replica replica = this.replicas.get((start + i) % count);
+			if (!this.isUsable(replica)) {
+				continue;
+			}
+			try {
+				Connection connection = replica.provider.getConnection();
+				this.connectionProviders.put(connection, replica.provider);
+				replica.reads.increment();
+				return connection;
+			}
+			catch (SQLException e) {
+				log.warn("Unable to get a connection from read replica {}, skipping it", replica.name, e);
+				replica.lag = -1;
+			}
+		}
+		this.lagFallbacks.increment();
+		return this.primaryProvider.getConnection();
+	}
+
+	@Override
+	public void closeConnection(Connection connection) throws SQLException {
+		ConnectionProvider provider = this.connectionProviders.remove(connection);
+		if (provider == null) {
+			provider = this.primaryProvider;
+		}
+		provider.closeConnection(connection);
+	}
+
+	@Override
+	public boolean supportsAggressiveRelease() {
+		return false;
+	}
+
+	@Override
+	public boolean isUnwrappableAs(Class<?> unwrapType) {
+		return ConnectionProvider.class.equals(unwrapType)
+			|| ReplicaRoutingConnectionProvider.class.isAssignableFrom(unwrapType);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T unwrap(Class<T> unwrapType) {
+		if (this.isUnwrappableAs(unwrapType)) {
+			return (T) this;
+		}
+		throw new UnknownUnwrapTypeException(unwrapType);
+	}
+
+}
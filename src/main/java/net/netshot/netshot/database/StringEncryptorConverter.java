@@ -28,23 +28,25 @@ public class StringEncryptorConverter implements AttributeConverter<String, Stri
 
 	private static String cryptPassword;
 
+	/** The encryptor (stateless, derived keys are cached). */
+	private static Sha2AesPasswordBasedEncryptor encryptor;
+
 	static {
 		cryptPassword = Netshot.getConfig("netshot.db.encryptionpassword", null);
 		if (cryptPassword == null) {
 			// With capital P, for historical reasons
 			cryptPassword = Netshot.getConfig("netshot.db.encryptionPassword", "NETSHOT");
 		}
+		encryptor = new Sha2AesPasswordBasedEncryptor(cryptPassword);
 	}
 
 	@Override
 	public String convertToDatabaseColumn(String attribute) {
-		Sha2AesPasswordBasedEncryptor encryptor = new Sha2AesPasswordBasedEncryptor(cryptPassword);
 		return encryptor.encrypt(attribute);
 	}
 
 	@Override
 	public String convertToEntityAttribute(String dbData) {
-		Sha2AesPasswordBasedEncryptor encryptor = new Sha2AesPasswordBasedEncryptor(cryptPassword);
 		return encryptor.decrypt(dbData);
 	}
 
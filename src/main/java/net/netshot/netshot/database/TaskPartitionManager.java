@@ -0,0 +1,406 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.netshot.netshot.Netshot;
+import net.netshot.netshot.utils.Metrics;
+import net.netshot.netshot.work.Task;
+
+/**
+ * Maintenance of the monthly partitions of the task table (PostgreSQL range
+ * partitioning on the creation date, see changeset 0.25.0_48).
+ * The partitions are created a few months ahead, so that the default partition
+ * normally remains empty. Old tasks are purged by dropping whole partitions,
+ * rather than deleting them one by one.
+ * Only one Netshot server (of a cluster) at a time works on the partitions.
+ */
+@Slf4j
+public final class TaskPartitionManager {
+
+	/**
+	 * Settings/config for the current class.
+	 */
+	public static final class Settings {
+		/** Number of monthly partitions to create ahead of the current month. */
+		@Getter
+		private int premakeMonths;
+
+		/** Interval (seconds) between two partition checks. */
+		@Getter
+		private int checkInterval;
+
+		/**
+		 * Load settings from config.
+		 */
+		private void load() {
+			this.premakeMonths = Netshot.getConfig("netshot.db.taskpartitions.premake", 3, 1, 36);
+			this.checkInterval = Netshot.getConfig("netshot.db.taskpartitions.checkinterval", 21600, 60, 604800);
+		}
+	}
+
+	/** Settings for this class. */
+	public static final Settings SETTINGS = new Settings();
+
+	/** Name prefix of the monthly partitions (followed by yyyyMM). */
+	private static final String PARTITION_PREFIX = "task_p";
+
+	/** Name of the default partition. */
+	private static final String DEFAULT_PARTITION = "task_default";
+
+	/** Format of the month in the partition names. */
+	private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+
+	/** Format of the partition bounds. */
+	private static final DateTimeFormatter BOUND_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+	/** Key of the advisory lock taken while working on the partitions. */
+	private static final long LOCK_KEY = 0x4e65747368547050L;
+
+	/** Number of tasks removed by dropping partitions. */
+	private static final Metrics.Counter DROPPED_TASKS = Metrics.counter("db.taskpartitions.droppedtasks");
+
+	/** Periodically creates the upcoming partitions. */
+	private static ScheduledExecutorService maintainer;
+
+	private TaskPartitionManager() {
+	}
+
+	/**
+	 * Load the settings from configuration.
+	 */
+	public static void loadConfig() {
+		TaskPartitionManager.SETTINGS.load();
+	}
+
+	/**
+	 * Create the missing partitions, then schedule the regular checks.
+	 */
+	public static synchronized void init() {
+		TaskPartitionManager.createPartitions();
+		if (maintainer == null) {
+			maintainer = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "Task partition maintainer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			maintainer.scheduleWithFixedDelay(TaskPartitionManager::createPartitions,
+				SETTINGS.getCheckInterval(), SETTINGS.getCheckInterval(), TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Get the name of the partition of the given month.
+	 * @param month = the month
+	 * @return the partition name
+	 */
+	private static String getPartitionName(YearMonth month) {
+		return PARTITION_PREFIX + month.format(MONTH_FORMAT);
+	}
+
+	/**
+	 * Get the month of a monthly partition.
+	 * @param partitionName = the partition name
+	 * @return the month, or null if this is not a monthly partition
+	 */
+	private static YearMonth getPartitionMonth(String partitionName) {
+		if (!partitionName.startsWith(PARTITION_PREFIX)) {
+			return null;
+		}
+		try {
+			return YearMonth.parse(partitionName.substring(PARTITION_PREFIX.length()), MONTH_FORMAT);
+		}
+		catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Try to take the (transaction-level) lock on the partitions.
+	 * @param connection = the DB connection, in a transaction
+	 * @return true if the lock was taken, false if another server holds it
+	 * @throws SQLException on DB error
+	 */
+	private static boolean tryLock(Connection connection) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement("SELECT pg_try_advisory_xact_lock(?)")) {
+			statement.setLong(1, LOCK_KEY);
+			try (ResultSet result = statement.executeQuery()) {
+				return result.next() && result.getBoolean(1);
+			}
+		}
+	}
+
+	/**
+	 * List the partitions of the task table.
+	 * @param connection = the DB connection
+	 * @return the partition names, or null if the task table is not partitioned
+	 * @throws SQLException on DB error
+	 */
+	private static List<String> listPartitions(Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			try (ResultSet result = statement.executeQuery(
+					"SELECT count(*) FROM pg_partitioned_table WHERE partrelid = to_regclass('task')")) {
+				if (!result.next() || result.getLong(1) == 0) {
+					return null;
+				}
+			}
+			List<String> partitions = new ArrayList<>();
+			try (ResultSet result = statement.executeQuery(
+					"SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid "
+						+ "WHERE i.inhparent = to_regclass('task') ORDER BY c.relname")) {
+				while (result.next()) {
+					partitions.add(result.getString(1));
+				}
+			}
+			return partitions;
+		}
+	}
+
+	/**
+	 * Create the partitions from the current month to the configured number of months ahead.
+	 */
+	public static void createPartitions() {
+		Session session = Database.getSession();
+		try {
+			session.beginTransaction();
+			session.doWork(connection -> {
+				if (!tryLock(connection)) {
+					log.debug("The task partitions are being maintained by another server.");
+					return;
+				}
+				List<String> partitions = listPartitions(connection);
+				if (partitions == null) {
+					log.debug("The task table is not partitioned.");
+					return;
+				}
+				// Dates are stored in UTC
+				YearMonth month = YearMonth.now(ZoneOffset.UTC);
+				for (int i = 0; i <= SETTINGS.getPremakeMonths(); i++) {
+					if (!partitions.contains(getPartitionName(month))) {
+						createPartition(connection, month);
+					}
+					month = month.plusMonths(1);
+				}
+			});
+			session.getTransaction().commit();
+		}
+		catch (Exception e) {
+			Database.rollbackSilently(session);
+			log.error("Error while creating the task partitions.", e);
+		}
+		finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Create the partition of the given month. The tasks of this month which were
+	 * stored in the default partition meanwhile are moved to the new partition.
+	 * @param connection = the DB connection, in a transaction
+	 * @param month = the month
+	 * @throws SQLException on DB error
+	 */
+	private static void createPartition(Connection connection, YearMonth month) throws SQLException {
+		String name = getPartitionName(month);
+		String from = month.atDay(1).atStartOfDay().format(BOUND_FORMAT);
+		String to = month.plusMonths(1).atDay(1).atStartOfDay().format(BOUND_FORMAT);
+		String range = "creation_date >= '%s' AND creation_date < '%s'".formatted(from, to);
+		String create = "CREATE TABLE %s PARTITION OF task FOR VALUES FROM ('%s') TO ('%s')".formatted(name, from, to);
+		long misplaced = 0;
+		try (Statement statement = connection.createStatement()) {
+			try (ResultSet result = statement.executeQuery(
+					"SELECT count(*) FROM %s WHERE %s".formatted(DEFAULT_PARTITION, range))) {
+				if (result.next()) {
+					misplaced = result.getLong(1);
+				}
+			}
+			if (misplaced == 0) {
+				statement.execute(create);
+			}
+			else {
+				// The new partition can't overlap with rows of the default partition
+				statement.execute("ALTER TABLE task DETACH PARTITION %s".formatted(DEFAULT_PARTITION));
+				statement.execute(create);
+				statement.execute("INSERT INTO %s SELECT * FROM %s WHERE %s".formatted(name, DEFAULT_PARTITION, range));
+				statement.execute("DELETE FROM %s WHERE %s".formatted(DEFAULT_PARTITION, range));
+				statement.execute("ALTER TABLE task ATTACH PARTITION %s DEFAULT".formatted(DEFAULT_PARTITION));
+			}
+		}
+		log.info("Created task partition {} ({} to {}), {} task(s) moved from the default partition.",
+			name, from, to, misplaced);
+	}
+
+	/**
+	 * Try to take the (session-level) lock on the partitions, to be held over
+	 * several transactions.
+	 * @param connection = the DB connection
+	 * @return true if the lock was taken, false if another server holds it
+	 * @throws SQLException on DB error
+	 */
+	private static boolean trySessionLock(Connection connection) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement("SELECT pg_try_advisory_lock(?)")) {
+			statement.setLong(1, LOCK_KEY);
+			try (ResultSet result = statement.executeQuery()) {
+				return result.next() && result.getBoolean(1);
+			}
+		}
+	}
+
+	/**
+	 * Release the session-level lock on the partitions.
+	 * @param connection = the DB connection
+	 * @throws SQLException on DB error
+	 */
+	private static void releaseSessionLock(Connection connection) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement("SELECT pg_advisory_unlock(?)")) {
+			statement.setLong(1, LOCK_KEY);
+			statement.execute();
+		}
+	}
+
+	/**
+	 * Drop the monthly partitions which only hold tasks finished (executed) before the
+	 * given date. The partitions holding other tasks are kept, for these to be purged
+	 * individually. Each partition is dropped in its own transaction, so that the
+	 * task table is only locked for a short time.
+	 * @param when = the date limit
+	 * @return the number of removed tasks
+	 * @throws HibernateException on DB error
+	 */
+	public static int dropExpiredPartitions(Date when) throws HibernateException {
+		LocalDateTime limit = LocalDateTime.ofInstant(when.toInstant(), ZoneOffset.UTC);
+		int count = 0;
+		try (Connection connection = Database.getConnection()) {
+			boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(true);
+			try {
+				if (!trySessionLock(connection)) {
+					log.debug("The task partitions are being maintained by another server.");
+					return 0;
+				}
+				try {
+					List<String> partitions = listPartitions(connection);
+					if (partitions == null) {
+						return 0;
+					}
+					connection.setAutoCommit(false);
+					for (String partition : partitions) {
+						YearMonth month = getPartitionMonth(partition);
+						if (month == null || month.plusMonths(1).atDay(1).atStartOfDay().isAfter(limit)) {
+							continue;
+						}
+						try {
+							int dropped = dropPartition(connection, partition, when);
+							connection.commit();
+							DROPPED_TASKS.add(dropped);
+							count += dropped;
+						}
+						catch (SQLException e) {
+							connection.rollback();
+							throw e;
+						}
+					}
+				}
+				finally {
+					connection.setAutoCommit(true);
+					releaseSessionLock(connection);
+				}
+			}
+			finally {
+				connection.setAutoCommit(autoCommit);
+			}
+		}
+		catch (SQLException e) {
+			throw new HibernateException("Error while dropping the expired task partitions", e);
+		}
+		return count;
+	}
+
+	/**
+	 * Drop a partition, if all its tasks are finished since before the given date.
+	 * The rows depending on the tasks are removed first (as the delete trigger would do),
+	 * then the partition is dropped, which locks the whole task table until the
+	 * transaction is committed.
+	 * Note that the partition can't be detached concurrently beforehand, as PostgreSQL
+	 * doesn't allow it on a table with a default partition.
+	 * @param connection = the DB connection, in a transaction
+	 * @param partition = the partition name
+	 * @param when = the date limit
+	 * @return the number of removed tasks
+	 * @throws SQLException on DB error
+	 */
+	private static int dropPartition(Connection connection, String partition, Date when) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(
+				"SELECT count(*), count(*) FILTER (WHERE status IS NULL OR status NOT IN (?, ?, ?) "
+					+ "OR execution_date IS NULL OR execution_date >= ?) FROM %s".formatted(partition))) {
+			statement.setInt(1, Task.Status.CANCELLED.getValue());
+			statement.setInt(2, Task.Status.FAILURE.getValue());
+			statement.setInt(3, Task.Status.SUCCESS.getValue());
+			// Dates are stored in UTC
+			statement.setTimestamp(4, new Timestamp(when.getTime()),
+				Calendar.getInstance(TimeZone.getTimeZone(ZoneOffset.UTC)));
+			try (ResultSet result = statement.executeQuery()) {
+				result.next();
+				long total = result.getLong(1);
+				long kept = result.getLong(2);
+				if (kept > 0) {
+					log.debug("Task partition {} still has {} task(s) to keep.", partition, kept);
+					return 0;
+				}
+				String ids = "SELECT id FROM %s".formatted(partition);
+				try (Statement cleanup = connection.createStatement()) {
+					cleanup.execute("DELETE FROM task_device_list_members WHERE task_id IN (%s)".formatted(ids));
+					cleanup.execute("DELETE FROM scan_subnets_task_subnets WHERE scan_subnets_task IN (%s)".formatted(ids));
+					cleanup.execute("DELETE FROM discover_device_type_task_credential_sets "
+						+ "WHERE discover_device_type_task IN (%s)".formatted(ids));
+					cleanup.execute("UPDATE task SET parent_task_id = NULL WHERE parent_task_id IN (%s)".formatted(ids));
+					cleanup.execute("DELETE FROM debug_log WHERE id IN (SELECT debug_log FROM %s)".formatted(partition));
+					// Last, as it takes an exclusive lock on the task table
+					cleanup.execute("DROP TABLE %s".formatted(partition));
+				}
+				log.info("Dropped task partition {} ({} task(s)).", partition, total);
+				return (int) total;
+			}
+		}
+	}
+}
@@ -35,6 +35,7 @@ import org.hibernate.Session;
 import org.hibernate.annotations.JdbcTypeCode;
 import org.hibernate.annotations.OnDelete;
 import org.hibernate.annotations.OnDeleteAction;
+import org.hibernate.annotations.OptimisticLock;
 import org.hibernate.annotations.SQLRestriction;
 import org.hibernate.annotations.Type;
 import org.hibernate.type.SqlTypes;
@@ -198,9 +199,10 @@ public class Device {
 	@Setter
 	private String comments = "";
 
-	/** The compliance check results. */
+	/** The compliance check results (their changes don't increment the device version). */
 	@Getter(onMethod = @__({
-		@OneToMany(mappedBy = "key.device", orphanRemoval = true, cascade = {CascadeType.PERSIST, CascadeType.MERGE})
+		@OneToMany(mappedBy = "key.device", orphanRemoval = true, cascade = {CascadeType.PERSIST, CascadeType.MERGE}),
+		@OptimisticLock(excluded = true)
 	}))
 	@Setter
 	private Set<CheckResult> complianceCheckResults = new HashSet<>();
@@ -24,13 +24,19 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.hibernate.Session;
 
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import net.netshot.netshot.Netshot;
 import net.netshot.netshot.device.Device;
 import net.netshot.netshot.device.DeviceDriver.AccessDefinition;
+import net.netshot.netshot.device.DeviceDriver.DriverProtocol;
 import net.netshot.netshot.device.NetworkAddress;
 import net.netshot.netshot.device.credentials.DeviceCredentialSet;
 import net.netshot.netshot.utils.HttpsCaTrustMode;
@@ -46,10 +52,46 @@ import net.netshot.netshot.work.TaskContext;
  * Resolution is lazy and per-access: connecting (and iterating candidate
  * credential sets) only happens the first time a given client is actually
  * used, not before the driver script starts running.
+ * <p>
+ * Candidates from the auto-try pool of a SSH access (where authentication
+ * happens at connection time) are probed a few at a time in parallel, and the
+ * credential set which last worked in the same subnet (see {@link CredentialHint})
+ * is tried first.
  */
 @Slf4j
 public class AccessManager {
 
+	/**
+	 * Settings/config for the current class.
+	 */
+	public static final class Settings {
+		/** Max number of auto-try credential sets to probe at once (SSH only). */
+		@Getter
+		private int probeParallelism;
+
+		/** Max number of authentication failures against a device per task attempt (0 for no limit). */
+		@Getter
+		private int maxAuthFailures;
+
+		/**
+		 * Load settings from config.
+		 */
+		private void load() {
+			this.probeParallelism = Netshot.getConfig("netshot.access.probe.parallelism", 3, 1, 32);
+			this.maxAuthFailures = Netshot.getConfig("netshot.access.probe.maxauthfailures", 0, 0, 1000);
+		}
+	}
+
+	/** Settings for this class. */
+	public static final Settings SETTINGS = new Settings();
+
+	/**
+	 * Load the settings from configuration.
+	 */
+	public static void loadConfig() {
+		AccessManager.SETTINGS.load();
+	}
+
 	/**
 	 * Builds a {@link Client} for a given access/credential-set pair. Supplied
 	 * by the caller (JsCliHelper/JsSnmpHelper/JsHttpHelper), since only they
@@ -98,6 +140,9 @@ public class AccessManager {
 	 */
 	private final List<Resolution> resolutions = new ArrayList<>();
 
+	/** Number of authentication failures against the device, across all resolutions. */
+	private int authFailureCount = 0;
+
 	/**
 	 * Instantiates a new access manager for one task attempt.
 	 * @param session the Hibernate session (may be null, e.g. for ad-hoc/test runs)
@@ -271,6 +316,39 @@ public class AccessManager {
 		}
 	}
 
+	/**
+	 * Gets the number of authentication attempts still allowed against the device.
+	 * @return the number of remaining attempts
+	 */
+	private int getRemainingAuthAttempts() {
+		if (SETTINGS.getMaxAuthFailures() <= 0) {
+			return Integer.MAX_VALUE;
+		}
+		return Math.max(0, SETTINGS.getMaxAuthFailures() - this.authFailureCount);
+	}
+
+	/**
+	 * Remembers a credential set which worked via the auto-try pool as the one to try
+	 * first for the same access on the devices of the same subnet.
+	 * Unlike {@link #pinSuccessfulCredential}, the hint is written in its own short
+	 * transaction (skipped without session, e.g. for ad-hoc runs).
+	 * @param accessDef the access whose credential worked
+	 * @param credentialSet the credential set that worked
+	 */
+	private void recordCredentialHint(AccessDefinition accessDef, DeviceCredentialSet credentialSet) {
+		if (this.session == null) {
+			return;
+		}
+		try {
+			CredentialHint.record(this.device.getMgmtDomain(), this.resolveAddress(accessDef),
+				accessDef.getName(), credentialSet);
+		}
+		catch (Exception e) {
+			log.warn("Unable to record the credential hint for access '{}' of device {}.",
+				accessDef.getName(), this.device.getId(), e);
+		}
+	}
+
 	/**
 	 * Builds the SSH host key verifier for a given access, reflecting its configured
 	 * {@link DeviceAccess.SshHostKeyVerification} mode and currently trusted keys (or the
@@ -439,9 +517,24 @@ public class AccessManager {
 					autoPool = Collections.emptyList();
 				}
 			}
+			DeviceCredentialSet hinted = null;
+			try {
+				hinted = CredentialHint.findCredentialSet(this.session, this.device.getMgmtDomain(),
+					this.resolveAddress(accessDef), accessDef.getName());
+			}
+			catch (Exception e) {
+				log.debug("Unable to read the credential hint for access '{}'.", accessDef.getName(), e);
+			}
+			int firstIndex = candidates.size();
 			for (DeviceCredentialSet cs : autoPool) {
 				if (credentialClass.isInstance(cs)) {
-					candidates.add(new Candidate(accessDef, cs, true));
+					if (hinted != null && cs.getId() == hinted.getId()) {
+						// Last known to work in the same subnet: try it first
+						candidates.add(firstIndex, new Candidate(accessDef, cs, true));
+					}
+					else {
+						candidates.add(new Candidate(accessDef, cs, true));
+					}
 				}
 			}
 		}
@@ -539,7 +632,19 @@ public class AccessManager {
 			if (this.candidates.isEmpty()) {
 				return AttemptOutcome.EXHAUSTED;
 			}
-			Candidate candidate = this.candidates.remove(0);
+			if (AccessManager.this.getRemainingAuthAttempts() == 0) {
+				AccessManager.this.taskContext.warn(
+					"Giving up after {} authentication failures, to avoid locking the account out.",
+					AccessManager.this.authFailureCount);
+				this.candidates.clear();
+				return AttemptOutcome.EXHAUSTED;
+			}
+			Candidate candidate = this.candidates.get(0);
+			if (candidate.fromAutoPool && candidate.accessDef.getProtocol() == DriverProtocol.SSH
+					&& SETTINGS.getProbeParallelism() > 1 && this.countAutoPoolCandidates(candidate.accessDef) > 1) {
+				return this.tryNextInParallel();
+			}
+			this.candidates.remove(0);
 			Client client = null;
 			try {
 				client = this.factory.build(candidate.accessDef, candidate.credentialSet);
@@ -558,6 +663,7 @@ public class AccessManager {
 			}
 			catch (InvalidCredentialsException e) {
 				this.anyAuthFailureSeen = true;
+				AccessManager.this.authFailureCount++;
 				AccessManager.this.taskContext.warn("Authentication failed for access '{}' using credentials '{}'.",
 					candidate.accessDef.getName(), candidate.credentialSet.getName());
 				AccessManager.this.waitBetweenAttempts();
@@ -566,6 +672,7 @@ public class AccessManager {
 			catch (IOException e) {
 				if (e.getCause() instanceof InvalidCredentialsException) {
 					this.anyAuthFailureSeen = true;
+					AccessManager.this.authFailureCount++;
 					AccessManager.this.taskContext.warn("Authentication failed for access '{}' using credentials '{}'.",
 						candidate.accessDef.getName(), candidate.credentialSet.getName());
 					AccessManager.this.waitBetweenAttempts();
@@ -588,6 +695,132 @@ public class AccessManager {
 			}
 		}
 
+		/**
+		 * Counts the remaining consecutive auto-try candidates for the given access,
+		 * at the head of the candidate list.
+		 * @param accessDef the access
+		 * @return the number of candidates
+		 */
+		private int countAutoPoolCandidates(AccessDefinition accessDef) {
+			int count = 0;
+			for (Candidate c : this.candidates) {
+				if (c.accessDef != accessDef || !c.fromAutoPool) {
+					break;
+				}
+				count++;
+			}
+			return count;
+		}
+
+		/**
+		 * Attempts the next few auto-try candidates of the same access at once (up to
+		 * the configured parallelism, and to the remaining allowed authentication failures).
+		 * The clients are built sequentially (building may read the device entity), only
+		 * the connections run in parallel. The first candidate (in list order) that
+		 * connects wins, the other connected clients are closed.
+		 * @return the outcome (SUCCESS if one candidate worked)
+		 * @throws IOException propagated when nothing more can reasonably be tried
+		 */
+		private AttemptOutcome tryNextInParallel() throws IOException {
+			AccessDefinition accessDef = this.candidates.get(0).accessDef;
+			int batchSize = Math.min(Math.min(SETTINGS.getProbeParallelism(),
+				AccessManager.this.getRemainingAuthAttempts()), this.countAutoPoolCandidates(accessDef));
+			List<Candidate> batch = new ArrayList<>(this.candidates.subList(0, batchSize));
+			this.candidates.subList(0, batchSize).clear();
+			AccessManager.this.taskContext.debug("Probing {} credential sets at once for access '{}'.",
+				batch.size(), accessDef.getName());
+
+			List<Client> clients = new ArrayList<>();
+			IOException connectError = null;
+			for (Candidate candidate : batch) {
+				try {
+					clients.add(this.factory.build(candidate.accessDef, candidate.credentialSet));
+				}
+				catch (IOException e) {
+					clients.add(null);
+					connectError = e;
+				}
+			}
+			List<Future<?>> futures = new ArrayList<>();
+			try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+				for (Client client : clients) {
+					futures.add(client == null ? null : executor.submit(() -> {
+						client.connect();
+						return null;
+					}));
+				}
+			}
+
+			int winner = -1;
+			boolean authFailed = false;
+			for (int i = 0; i < batch.size(); i++) {
+				Candidate candidate = batch.get(i);
+				Client client = clients.get(i);
+				if (client == null) {
+					continue;
+				}
+				Throwable error = null;
+				try {
+					futures.get(i).get();
+				}
+				catch (ExecutionException e) {
+					error = e.getCause();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					error = new IOException("Interrupted while connecting", e);
+				}
+				if (error == null) {
+					if (winner < 0) {
+						winner = i;
+					}
+					else {
+						client.disconnect();
+					}
+				}
+				else if (error instanceof InvalidCredentialsException
+						|| error.getCause() instanceof InvalidCredentialsException) {
+					authFailed = true;
+					AccessManager.this.authFailureCount++;
+					AccessManager.this.taskContext.warn("Authentication failed for access '{}' using credentials '{}'.",
+						candidate.accessDef.getName(), candidate.credentialSet.getName());
+				}
+				else {
+					log.warn("Unable to connect to access '{}' on {}.", candidate.accessDef.getName(),
+						AccessManager.this.address == null ? "?" : AccessManager.this.address.getIp(), error);
+					AccessManager.this.taskContext.warn("Unable to connect to access '{}': {}",
+						candidate.accessDef.getName(), error.getMessage());
+					connectError = error instanceof IOException ioError ? ioError : new IOException(error);
+				}
+			}
+
+			if (authFailed) {
+				this.anyAuthFailureSeen = true;
+			}
+			if (winner >= 0) {
+				Candidate candidate = batch.get(winner);
+				Client client = clients.get(winner);
+				this.currentClient = client;
+				this.currentCredentialSet = candidate.credentialSet;
+				this.currentAccessDef = candidate.accessDef;
+				this.currentFromAutoPool = candidate.fromAutoPool;
+				if (client instanceof Ssh ssh) {
+					String learnedKeys = ssh.getLearnedSshHostKeys();
+					if (learnedKeys != null) {
+						AccessManager.this.recordLearnedSshHostKey(candidate.accessDef, learnedKeys);
+					}
+				}
+				return AttemptOutcome.SUCCESS;
+			}
+			if (connectError != null) {
+				// Protocol-level failure: abort remaining candidates for this same access
+				this.candidates.removeIf(c -> c.accessDef == accessDef);
+				return this.tryNext();
+			}
+			AccessManager.this.waitBetweenAttempts();
+			return AttemptOutcome.AUTH_FAILED;
+		}
+
 		/** @return true if there is at least one more candidate to try. */
 		public boolean hasNext() {
 			return !this.candidates.isEmpty();
@@ -714,6 +947,7 @@ public class AccessManager {
 			this.pinned = true;
 			if (this.currentFromAutoPool) {
 				AccessManager.this.pinSuccessfulCredential(this.currentAccessDef, this.currentCredentialSet);
+				AccessManager.this.recordCredentialHint(this.currentAccessDef, this.currentCredentialSet);
 			}
 			AccessManager.this.removeSiblingAccesses(this.currentAccessDef);
 		}
@@ -0,0 +1,217 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.device.access;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Date;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import jakarta.persistence.Temporal;
+import jakarta.persistence.TemporalType;
+import jakarta.persistence.UniqueConstraint;
+import lombok.Getter;
+import lombok.Setter;
+import net.netshot.netshot.database.Database;
+import net.netshot.netshot.device.Domain;
+import net.netshot.netshot.device.NetworkAddress;
+import net.netshot.netshot.device.credentials.DeviceCredentialSet;
+
+/**
+ * Last credential set known to work for a given access, on the devices of a given
+ * subnet (/24 in IPv4, /64 in IPv6) of a domain. Used to try that credential set first
+ * when probing the auto-try pool for a device of the same subnet (typically a newly
+ * discovered one), rather than walking the whole pool in its default order.
+ * Per device, the working credential set is pinned to the access (see {@code AccessManager}).
+ */
+@Entity
+@Table(name = "credential_hint", uniqueConstraints = {
+	@UniqueConstraint(columnNames = { "domain", "subnet", "access_name" })
+})
+public final class CredentialHint {
+
+	/** Access name used for SNMP-based discovery. */
+	public static final String DISCOVERY_ACCESS = "discovery";
+
+	/** Prefix length of the IPv4 subnets. */
+	private static final int IPV4_PREFIX_LENGTH = 24;
+
+	/** Prefix length of the IPv6 subnets. */
+	private static final int IPV6_PREFIX_LENGTH = 64;
+
+	@Getter(onMethod = @__({
+		@Id, @GeneratedValue(strategy = GenerationType.IDENTITY)
+	}))
+	@Setter
+	private long id;
+
+	/** The domain. */
+	@Getter(onMethod = @__({
+		@ManyToOne,
+		@OnDelete(action = OnDeleteAction.CASCADE)
+	}))
+	@Setter
+	private Domain domain;
+
+	/** The subnet, e.g. 10.1.2.0/24. */
+	@Getter(onMethod = @__({
+		@Column(length = 64)
+	}))
+	@Setter
+	private String subnet;
+
+	/** The access name (e.g. "ssh"). */
+	@Getter(onMethod = @__({
+		@Column(name = "access_name")
+	}))
+	@Setter
+	private String accessName;
+
+	/** The credential set which last worked. */
+	@Getter(onMethod = @__({
+		@ManyToOne,
+		@OnDelete(action = OnDeleteAction.CASCADE)
+	}))
+	@Setter
+	private DeviceCredentialSet credentialSet;
+
+	/** When the credential set last worked. */
+	@Getter(onMethod = @__({
+		@Temporal(TemporalType.TIMESTAMP)
+	}))
+	@Setter
+	private Date lastSuccess;
+
+	protected CredentialHint() {
+		// Reserved for Hibernate
+	}
+
+	public CredentialHint(Domain domain, String subnet, String accessName) {
+		this.domain = domain;
+		this.subnet = subnet;
+		this.accessName = accessName;
+	}
+
+	/**
+	 * Compute the subnet (as stored in hints) of an address.
+	 * @param address = the address
+	 * @return the subnet, or null if the address is null
+	 */
+	public static String getSubnet(NetworkAddress address) {
+		if (address == null || address.getInetAddress() == null) {
+			return null;
+		}
+		InetAddress inetAddress = address.getInetAddress();
+		byte[] bytes = inetAddress.getAddress();
+		int prefixLength = inetAddress instanceof Inet4Address ? IPV4_PREFIX_LENGTH : IPV6_PREFIX_LENGTH;
+		for (int i = 0; i < bytes.length; i++) {
+			int bits = prefixLength - i * 8;
+			if (bits <= 0) {
+				bytes[i] = 0;
+			}
+			else if (bits < 8) {
+				bytes[i] &= (byte) (0xFF << (8 - bits));
+			}
+		}
+		try {
+			return InetAddress.getByAddress(bytes).getHostAddress() + "/" + prefixLength;
+		}
+		catch (UnknownHostException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Find the credential set which last worked for the given access, in the
+	 * subnet of the given address.
+	 * @param session = the DB session
+	 * @param domain = the domain
+	 * @param address = the address of the device
+	 * @param accessName = the access name
+	 * @return the credential set, or null if none is known
+	 */
+	public static DeviceCredentialSet findCredentialSet(Session session, Domain domain,
+			NetworkAddress address, String accessName) {
+		String subnet = CredentialHint.getSubnet(address);
+		if (session == null || domain == null || subnet == null) {
+			return null;
+		}
+		return session
+			.createQuery("select h.credentialSet from CredentialHint h where h.domain = :domain "
+				+ "and h.subnet = :subnet and h.accessName = :accessName", DeviceCredentialSet.class)
+			.setParameter("domain", domain)
+			.setParameter("subnet", subnet)
+			.setParameter("accessName", accessName)
+			.uniqueResult();
+	}
+
+	/**
+	 * Remember that the given credential set worked for the given access, in the
+	 * subnet of the given address. The hint is upserted in its own short transaction,
+	 * so that concurrent tasks on the same subnet neither wait for each other
+	 * nor fail on the unique constraint.
+	 * @param domain = the domain
+	 * @param address = the address of the device
+	 * @param accessName = the access name
+	 * @param credentialSet = the credential set which worked
+	 */
+	public static void record(Domain domain, NetworkAddress address,
+			String accessName, DeviceCredentialSet credentialSet) {
+		String subnet = CredentialHint.getSubnet(address);
+		if (domain == null || subnet == null || credentialSet == null) {
+			return;
+		}
+		Session session = Database.getSession();
+		try {
+			session.beginTransaction();
+			session
+				.createMutationQuery("insert into CredentialHint (domain, subnet, accessName, credentialSet, lastSuccess) "
+					+ "values (:domain, :subnet, :accessName, :credentialSet, :lastSuccess) "
+					+ "on conflict (domain, subnet, accessName) do update "
+					+ "set credentialSet = excluded.credentialSet, lastSuccess = excluded.lastSuccess")
+				.setParameter("domain", domain)
+				.setParameter("subnet", subnet)
+				.setParameter("accessName", accessName)
+				.setParameter("credentialSet", credentialSet)
+				.setParameter("lastSuccess", new Date())
+				.executeUpdate();
+			session.getTransaction().commit();
+		}
+		catch (HibernateException e) {
+			Database.rollbackSilently(session);
+			throw e;
+		}
+		finally {
+			session.close();
+		}
+	}
+
+}
@@ -29,16 +29,11 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.SSLContext;
-
 import org.apache.commons.lang3.StringUtils;
-import org.glassfish.jersey.client.ClientConfig;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import jakarta.ws.rs.ProcessingException;
-import jakarta.ws.rs.client.ClientBuilder;
 import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.client.Invocation;
 import jakarta.ws.rs.client.WebTarget;
@@ -56,8 +51,8 @@ import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import net.netshot.netshot.device.DeviceDriver;
 import net.netshot.netshot.device.credentials.DeviceHttpAccount;
+import net.netshot.netshot.utils.HttpClientPool;
 import net.netshot.netshot.utils.HttpsCaTrustMode;
-import net.netshot.netshot.utils.HttpsTrustPolicy;
 import net.netshot.netshot.vault.VaultException;
 import net.netshot.netshot.vault.VaultManager;
 import net.netshot.netshot.vault.VaultableSecret;
@@ -185,7 +180,7 @@ public class Http implements Client {
 	private final boolean tls;
 	private final TaskContext taskContext;
 
-	/** The underlying JAX-RS (Jersey) client - built lazily on first connect(). */
+	/** The underlying JAX-RS (Jersey) client - taken from the shared pool on first connect(). */
 	private jakarta.ws.rs.client.Client jerseyClient;
 
 	/**
@@ -235,30 +230,17 @@ public class Http implements Client {
 		if (this.jerseyClient != null) {
 			return;
 		}
-		try {
-			ClientConfig config = new ClientConfig();
-			ClientBuilder builder = ClientBuilder.newBuilder().withConfig(config);
-			if (this.tls) {
-				SSLContext sslContext = HttpsTrustPolicy.buildSslContext(this.caTrustMode, this.customCaCertificate);
-				builder.sslContext(sslContext);
-				HostnameVerifier hostnameVerifier = HttpsTrustPolicy.buildHostnameVerifier(this.caTrustMode);
-				if (hostnameVerifier != null) {
-					builder.hostnameVerifier(hostnameVerifier);
-				}
-			}
-			this.jerseyClient = builder.build();
-		}
-		catch (Exception e) {
-			throw new IOException("Unable to initialize the HTTP client.", e);
-		}
+		this.jerseyClient = HttpClientPool.getClient(this.host, this.port, this.tls,
+			this.caTrustMode, this.customCaCertificate, "device", null);
 	}
 
 	@Override
 	public void disconnect() {
+		// The client is shared (see HttpClientPool), keeping the connections alive for the next tasks
 		if (this.jerseyClient != null) {
-			this.jerseyClient.close();
-			this.jerseyClient = null;
+			HttpClientPool.release(this.jerseyClient);
 		}
+		this.jerseyClient = null;
 	}
 
 	/**
@@ -386,39 +368,42 @@ public class Http implements Client {
 			this.taskContext.trace("{}", auth.getData() == null ? Map.of() : auth.getData());
 		}
 		Invocation.Builder invocationBuilder = this.buildInvocation(uri, Map.of(), Map.of(), Map.of());
-		Response response;
-		try {
-			response = invocationBuilder.method(method, entity);
-		}
-		catch (ProcessingException e) {
-			log.warn("Cookie-auth login request to {} failed.", uri, e);
-			if (this.taskContext.isTracing()) {
-				this.taskContext.trace("I/O exception: {}", e.getMessage());
-			}
-			throw new IOException("Cookie-auth login request failed: " + e.getMessage(), e);
-		}
-		try {
-			int status = response.getStatus();
-			if (this.taskContext.isTracing()) {
-				this.taskContext.trace("Received the following cookie-auth login response:");
-				this.taskContext.trace("Status: {}", status);
+		// The request slot is held until the response is consumed
+		try (HttpClientPool.Permit permit = HttpClientPool.acquire(this.host, this.port)) {
+			Response response;
+			try {
+				response = invocationBuilder.method(method, entity);
 			}
-			if (status < 200 || status >= 300) {
-				throw new IOException("Cookie-auth login failed (HTTP status " + status + ").");
+			catch (ProcessingException e) {
+				log.warn("Cookie-auth login request to {} failed.", uri, e);
+				if (this.taskContext.isTracing()) {
+					this.taskContext.trace("I/O exception: {}", e.getMessage());
+				}
+				throw new IOException("Cookie-auth login request failed: " + e.getMessage(), e);
 			}
-			for (NewCookie cookie : response.getCookies().values()) {
-				this.sessionCookies.put(cookie.getName(), cookie.getValue());
+			try {
+				int status = response.getStatus();
+				if (this.taskContext.isTracing()) {
+					this.taskContext.trace("Received the following cookie-auth login response:");
+					this.taskContext.trace("Status: {}", status);
+				}
+				if (status < 200 || status >= 300) {
+					throw new IOException("Cookie-auth login failed (HTTP status " + status + ").");
+				}
+				for (NewCookie cookie : response.getCookies().values()) {
+					this.sessionCookies.put(cookie.getName(), cookie.getValue());
+				}
+				if (this.taskContext.isTracing()) {
+					// Cookie names only - the values are session credentials, replayed
+					// on every later request, so they are kept out of the trace log.
+					this.taskContext.trace("Captured {} session cookie(s): {}", this.sessionCookies.size(),
+						this.sessionCookies.keySet());
+				}
 			}
-			if (this.taskContext.isTracing()) {
-				// Cookie names only - the values are session credentials, replayed
-				// on every later request, so they are kept out of the trace log.
-				this.taskContext.trace("Captured {} session cookie(s): {}", this.sessionCookies.size(),
-					this.sessionCookies.keySet());
+			finally {
+				response.close();
 			}
 		}
-		finally {
-			response.close();
-		}
 		this.cookieSessionAttempted = true;
 		return this.sessionCookies;
 	}
@@ -573,7 +558,7 @@ public class Http implements Client {
 			.orElse(MediaType.APPLICATION_JSON);
 
 		String upperMethod = method == null ? "GET" : method.toUpperCase();
-		try {
+		try (HttpClientPool.Permit permit = HttpClientPool.acquire(this.host, this.port)) {
 			Response response;
 			if (body != null && !"GET".equals(upperMethod) && !"HEAD".equals(upperMethod)) {
 				response = invocationBuilder.method(upperMethod, Entity.entity(body, contentType));
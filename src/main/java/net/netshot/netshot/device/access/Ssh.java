@@ -607,6 +607,25 @@ public class Ssh extends Cli {
 	 * @throws IOException in case of I/O error
 	 */
 	public void connect(boolean openChannel) throws IOException {
+		ClientSession keptSession = SshSessionKeeper.take(this.getSessionKeeperKey());
+		if (keptSession != null) {
+			this.session = keptSession;
+			this.taskContext.debug("Reusing the SSH session kept open after the previous task.");
+			if (!openChannel) {
+				return;
+			}
+			try {
+				this.openChannel();
+				return;
+			}
+			catch (IOException e) {
+				this.taskContext.debug("Unable to open a channel in the kept SSH session ({}), reconnecting.",
+					e.getMessage());
+				this.channel = null;
+				this.session.close(true);
+				this.session = null;
+			}
+		}
 		try {
 			ServerKeyVerifier verifier = this.hostKeyVerifier == null
 				? AcceptAllServerKeyVerifier.INSTANCE : this.hostKeyVerifier;
@@ -935,52 +954,73 @@ public class Ssh extends Cli {
 			}
 
 			if (openChannel) {
-				PtyChannelConfigurationHolder ptyConfig = null;
-				if (this.sshConfig.usePty) {
-					ptyConfig = new PtyChannelConfigurationHolder() {
-						@Override
-						public String getPtyType() {
-							return Ssh.this.sshConfig.terminalType;
-						}
+				this.openChannel();
+			}
+		}
+		catch (GeneralSecurityException e) {
+			throw new IOException(e);
+		}
 
-						@Override
-						public int getPtyColumns() {
-							return Ssh.this.sshConfig.terminalCols;
-						}
+	}
 
-						@Override
-						public int getPtyLines() {
-							return Ssh.this.sshConfig.terminalRows;
-						}
+	/**
+	 * Open the shell channel in the current (authenticated) session.
+	 *
+	 * @throws IOException in case of I/O error
+	 */
+	private void openChannel() throws IOException {
+		PtyChannelConfigurationHolder ptyConfig = null;
+		if (this.sshConfig.usePty) {
+			ptyConfig = new PtyChannelConfigurationHolder() {
+				@Override
+				public String getPtyType() {
+					return Ssh.this.sshConfig.terminalType;
+				}
 
-						@Override
-						public int getPtyWidth() {
-							return Ssh.this.sshConfig.terminalWidth;
-						}
+				@Override
+				public int getPtyColumns() {
+					return Ssh.this.sshConfig.terminalCols;
+				}
 
-						@Override
-						public int getPtyHeight() {
-							return Ssh.this.sshConfig.terminalHeight;
-						}
+				@Override
+				public int getPtyLines() {
+					return Ssh.this.sshConfig.terminalRows;
+				}
 
-						@Override
-						public Map<PtyMode, Integer> getPtyModes() {
-							return DEFAULT_PTY_MODES;
-						}
-					};
+				@Override
+				public int getPtyWidth() {
+					return Ssh.this.sshConfig.terminalWidth;
 				}
-				this.channel = this.session.createShellChannel(ptyConfig, Collections.emptyMap());
-				this.channel.setUsePty(this.sshConfig.usePty);
-				this.channel.setRedirectErrorStream(true);
-				this.channel.open().verify(Duration.ofMillis(this.connectionTimeout));
-				this.inStream = this.channel.getInvertedOut();
-				this.outStream = new PrintStream(this.channel.getInvertedIn());
-			}
-		}
-		catch (GeneralSecurityException e) {
-			throw new IOException(e);
+
+				@Override
+				public int getPtyHeight() {
+					return Ssh.this.sshConfig.terminalHeight;
+				}
+
+				@Override
+				public Map<PtyMode, Integer> getPtyModes() {
+					return DEFAULT_PTY_MODES;
+				}
+			};
 		}
+		this.channel = this.session.createShellChannel(ptyConfig, Collections.emptyMap());
+		this.channel.setUsePty(this.sshConfig.usePty);
+		this.channel.setRedirectErrorStream(true);
+		this.channel.open().verify(Duration.ofMillis(this.connectionTimeout));
+		this.inStream = this.channel.getInvertedOut();
+		this.outStream = new PrintStream(this.channel.getInvertedIn());
+	}
 
+	/**
+	 * Gets the key to find/keep the session in the {@link SshSessionKeeper}.
+	 *
+	 * @return the key, or null if session reuse is disabled
+	 */
+	private SshSessionKeeper.Key getSessionKeeperKey() {
+		if (!SshSessionKeeper.isEnabled()) {
+			return null;
+		}
+		return SshSessionKeeper.getKey(this.host, this.port, this.username, this.password, this.privateKey);
 	}
 
 	/*(non-Javadoc)
@@ -995,7 +1035,10 @@ public class Ssh extends Cli {
 				this.channel = null;
 			}
 			if (this.session != null) {
-				this.session.close();
+				// Keep the authenticated session open for the next task (if enabled)
+				if (!SshSessionKeeper.release(this.getSessionKeeperKey(), this.session)) {
+					this.session.close();
+				}
 				this.session = null;
 			}
 		}
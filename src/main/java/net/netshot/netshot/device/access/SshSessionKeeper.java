@@ -0,0 +1,276 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.device.access;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sshd.client.session.ClientSession;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.netshot.netshot.Netshot;
+import net.netshot.netshot.utils.Metrics;
+
+/**
+ * Keeps authenticated SSH sessions open for a short idle time after use, so that
+ * the next task against the same device (same host, port and credentials) only has
+ * to open a new shell channel, rather than going through TCP connection, key
+ * exchange and authentication (and the related AAA load) again.
+ * Each task still gets its own fresh channel, hence its own CLI state.
+ * Disabled by default.
+ */
+@Slf4j
+public final class SshSessionKeeper {
+
+	/**
+	 * Settings/config for the current class.
+	 */
+	public static final class Settings {
+		/** Max idle time (in seconds) of a kept session, 0 to disable session reuse. */
+		@Getter
+		private int idleTime;
+
+		/** Max number of idle sessions kept open. */
+		@Getter
+		private int maxSessions;
+
+		/**
+		 * Load settings from config.
+		 */
+		private void load() {
+			this.idleTime = Netshot.getConfig("netshot.cli.ssh.sessionreuse.idletime", 0, 0, 3600);
+			this.maxSessions = Netshot.getConfig("netshot.cli.ssh.sessionreuse.maxsessions", 200, 1, 100000);
+		}
+	}
+
+	/** Settings for this class. */
+	public static final Settings SETTINGS = new Settings();
+
+	/**
+	 * Identifies what a kept session can be reused for.
+	 * @param host = the host
+	 * @param port = the port
+	 * @param username = the username
+	 * @param secretDigest = digest of the password/private key
+	 */
+	public record Key(String host, int port, String username, String secretDigest) {
+	}
+
+	/** An idle session. */
+	private record IdleSession(ClientSession session, long since) {
+	}
+
+	/** Idle sessions, in release order (oldest first). */
+	private static final Map<Key, IdleSession> SESSIONS = new LinkedHashMap<>();
+
+	/** Periodically closes the expired sessions. */
+	private static ScheduledExecutorService cleaner;
+
+	static {
+		Metrics.gauge("ssh.sessionreuse.idle", SshSessionKeeper::getIdleCount);
+	}
+
+	private SshSessionKeeper() {
+	}
+
+	/**
+	 * Load (or reload) the settings from configuration. The kept sessions are
+	 * closed, as they were opened with the previous (SSH) settings.
+	 */
+	public static synchronized void loadConfig() {
+		SshSessionKeeper.SETTINGS.load();
+		SshSessionKeeper.closeAll();
+		if (SETTINGS.getIdleTime() > 0 && cleaner == null) {
+			cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "SSH session keeper");
+				thread.setDaemon(true);
+				return thread;
+			});
+			cleaner.scheduleWithFixedDelay(SshSessionKeeper::closeExpired, 5, 5, TimeUnit.SECONDS);
+		}
+		else if (SETTINGS.getIdleTime() == 0 && cleaner != null) {
+			cleaner.shutdown();
+			cleaner = null;
+		}
+	}
+
+	/**
+	 * Checks whether session reuse is enabled.
+	 * @return true if enabled
+	 */
+	public static boolean isEnabled() {
+		return SETTINGS.getIdleTime() > 0;
+	}
+
+	/**
+	 * Build the key for the given connection parameters.
+	 * @param host = the host
+	 * @param port = the port
+	 * @param username = the username
+	 * @param password = the password or passphrase
+	 * @param privateKey = the private key
+	 * @return the key
+	 */
+	public static Key getKey(String host, int port, String username, String password, String privateKey) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			if (password != null) {
+				digest.update(password.getBytes(StandardCharsets.UTF_8));
+			}
+			digest.update((byte) 0);
+			if (privateKey != null) {
+				digest.update(privateKey.getBytes(StandardCharsets.UTF_8));
+			}
+			return new Key(host, port, username, HexFormat.of().formatHex(digest.digest()));
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	/**
+	 * Checks that a session is still usable.
+	 * @param session = the session
+	 * @return true if healthy
+	 */
+	private static boolean isHealthy(ClientSession session) {
+		return session.isOpen() && !session.isClosing() && session.isAuthenticated();
+	}
+
+	/**
+	 * Take (for exclusive use) a kept session matching the given key.
+	 * @param key = the key
+	 * @return the session, or null if there is no usable one
+	 */
+	public static ClientSession take(Key key) {
+		if (!isEnabled() || key == null) {
+			return null;
+		}
+		IdleSession idle;
+		synchronized (SESSIONS) {
+			idle = SESSIONS.remove(key);
+		}
+		if (idle == null) {
+			Metrics.counter("ssh.sessionreuse.misses").increment();
+			return null;
+		}
+		if (System.currentTimeMillis() - idle.since() > SETTINGS.getIdleTime() * 1000L
+				|| !isHealthy(idle.session())) {
+			closeQuietly(idle.session());
+			Metrics.counter("ssh.sessionreuse.misses").increment();
+			return null;
+		}
+		Metrics.counter("ssh.sessionreuse.hits").increment();
+		return idle.session();
+	}
+
+	/**
+	 * Hand back a session after use, to be kept open for the next task.
+	 * @param key = the key
+	 * @param session = the session (no channel should be left open)
+	 * @return true if the session is kept, false if the caller should close it
+	 */
+	public static boolean release(Key key, ClientSession session) {
+		if (!isEnabled() || key == null || session == null || !isHealthy(session)) {
+			return false;
+		}
+		IdleSession previous;
+		IdleSession evicted = null;
+		synchronized (SESSIONS) {
+			previous = SESSIONS.put(key, new IdleSession(session, System.currentTimeMillis()));
+			if (SESSIONS.size() > SETTINGS.getMaxSessions()) {
+				Iterator<IdleSession> oldest = SESSIONS.values().iterator();
+				evicted = oldest.next();
+				oldest.remove();
+			}
+		}
+		if (previous != null && previous.session() != session) {
+			closeQuietly(previous.session());
+		}
+		if (evicted != null) {
+			closeQuietly(evicted.session());
+		}
+		return evicted == null || evicted.session() != session;
+	}
+
+	/**
+	 * Close the idle sessions which expired or are no longer healthy.
+	 */
+	private static void closeExpired() {
+		long expiry = System.currentTimeMillis() - SETTINGS.getIdleTime() * 1000L;
+		Map<Key, IdleSession> expired = new LinkedHashMap<>();
+		synchronized (SESSIONS) {
+			Iterator<Map.Entry<Key, IdleSession>> it = SESSIONS.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<Key, IdleSession> entry = it.next();
+				if (entry.getValue().since() < expiry || !isHealthy(entry.getValue().session())) {
+					expired.put(entry.getKey(), entry.getValue());
+					it.remove();
+				}
+			}
+		}
+		for (Map.Entry<Key, IdleSession> entry : expired.entrySet()) {
+			log.debug("Closing idle SSH session to {}:{}.", entry.getKey().host(), entry.getKey().port());
+			closeQuietly(entry.getValue().session());
+		}
+	}
+
+	/**
+	 * Close all the idle sessions (e.g. on reload or shutdown).
+	 */
+	public static void closeAll() {
+		Map<Key, IdleSession> all;
+		synchronized (SESSIONS) {
+			all = new LinkedHashMap<>(SESSIONS);
+			SESSIONS.clear();
+		}
+		for (IdleSession idle : all.values()) {
+			closeQuietly(idle.session());
+		}
+	}
+
+	/**
+	 * Gets the number of idle sessions.
+	 * @return the number of idle sessions
+	 */
+	public static int getIdleCount() {
+		synchronized (SESSIONS) {
+			return SESSIONS.size();
+		}
+	}
+
+	private static void closeQuietly(ClientSession session) {
+		try {
+			session.close();
+		}
+		catch (Exception e) {
+			log.debug("Error while closing idle SSH session.", e);
+		}
+	}
+
+}
@@ -19,11 +19,22 @@
 package net.netshot.netshot.device.attribute;
 
 import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
 
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+
 import com.fasterxml.jackson.annotation.JsonView;
 
 import jakarta.persistence.Column;
@@ -37,13 +48,20 @@ import lombok.extern.slf4j.Slf4j;
 import net.netshot.netshot.Netshot;
 import net.netshot.netshot.device.Config;
 import net.netshot.netshot.rest.RestViews.DefaultView;
+import net.netshot.netshot.utils.Metrics;
+import net.netshot.netshot.utils.StreamDigest;
 
+/**
+ * Binary file attached to a config (e.g. software image or binary backup).
+ * Files are stored in a content-addressed layout (by SHA-256 hash), so that
+ * identical files (same file in successive configs, or on different devices)
+ * are stored once. Files stored before that are still found by their unique ID.
+ */
 @Slf4j
 @Entity
 @DiscriminatorValue("F")
 public final class ConfigBinaryFileAttribute extends ConfigAttribute {
 
-
 	/**
 	 * Settings/config for the current class.
 	 */
@@ -78,6 +96,18 @@ public final class ConfigBinaryFileAttribute extends ConfigAttribute {
 	/** Settings for this class. */
 	public static final Settings SETTINGS = new Settings();
 
+	/** Prefix of the checksum. */
+	private static final String CHECKSUM_PREFIX = "sha256:";
+
+	/** Subfolder of the storage folder for content-addressed files. */
+	private static final String CONTENT_FOLDER = "sha256";
+
+	/**
+	 * Unreferenced content files which were reused within this period are not removed,
+	 * as a snapshot may be about to reference them.
+	 */
+	private static final Duration REUSE_GRACE_PERIOD = Duration.ofHours(1);
+
 	/**
 	 * Load the main policy from configuration.
 	 */
@@ -130,6 +160,14 @@ public final class ConfigBinaryFileAttribute extends ConfigAttribute {
 	@Setter
 	private String checksum;
 
+	/** Whether the file is stored by content hash (rather than by uid). */
+	@Getter
+	@Setter
+	private boolean contentAddressed;
+
+	/** Whether the file was actually written to the storage by this instance. */
+	private boolean fileWritten;
+
 	protected ConfigBinaryFileAttribute() {
 	}
 
@@ -151,6 +189,17 @@ public final class ConfigBinaryFileAttribute extends ConfigAttribute {
 				"Cannot get a file path to save binary file attribute. "
 				+ "Is netshot.snapshots.binary.path defined?");
 		}
+		if (this.contentAddressed) {
+			String hash = this.checksum.substring(CHECKSUM_PREFIX.length());
+			if (!hash.matches("^[0-9a-f]{64}$")) {
+				throw new IllegalStateException("Invalid checksum of binary file attribute");
+			}
+			return ConfigBinaryFileAttribute.SETTINGS.storageFolderPath
+				.resolve(CONTENT_FOLDER)
+				.resolve(hash.substring(0, 2))
+				.resolve("%s.data".formatted(hash))
+				.normalize();
+		}
 		return ConfigBinaryFileAttribute.SETTINGS.storageFolderPath
 			.resolve("%s.data".formatted(this.getUid()))
 			.normalize();
@@ -168,6 +217,97 @@ public final class ConfigBinaryFileAttribute extends ConfigAttribute {
 			.normalize();
 	}
 
+	/**
+	 * Checks whether the file was actually written to the storage folder by storeFile
+	 * (rather than found there already).
+	 * @return true if the file was written
+	 */
+	@Transient
+	public boolean isFileWritten() {
+		return this.fileWritten;
+	}
+
+	/**
+	 * Store the received file, by content hash. The file is not written again if the
+	 * previous config of the device has the same content, or if the same content
+	 * is already stored for another config.
+	 * @param tempPath = the received file, moved to the storage folder or removed
+	 * @param digest = the digest computed while receiving the file
+	 * @param previous = the same attribute in the previous config of the device, or null
+	 * @throws IOException
+	 */
+	public void storeFile(Path tempPath, StreamDigest digest, ConfigAttribute previous) throws IOException {
+		this.fileSize = digest.getSize();
+		this.checksum = CHECKSUM_PREFIX + digest.getSha256Hex();
+		this.contentAddressed = true;
+		this.fileWritten = false;
+		Path targetPath = this.getFilePath();
+		if (previous instanceof ConfigBinaryFileAttribute previousFile && previousFile.isContentAddressed()
+				&& Objects.equals(previousFile.getChecksum(), this.checksum) && Files.exists(targetPath)) {
+			log.debug("Binary file {} is unchanged since the previous config, not storing it again", this.checksum);
+			Files.deleteIfExists(tempPath);
+			Metrics.counter("binaryfiles.unchanged").increment();
+			return;
+		}
+		Files.createDirectories(targetPath.getParent());
+		try {
+			Files.move(tempPath, targetPath);
+			this.fileWritten = true;
+			Metrics.counter("binaryfiles.stored").increment();
+			Metrics.counter("binaryfiles.stored.bytes").add(this.fileSize);
+		}
+		catch (FileAlreadyExistsException e) {
+			log.debug("Binary file {} is already stored, reusing it", this.checksum);
+			Files.deleteIfExists(tempPath);
+			Files.setLastModifiedTime(targetPath, FileTime.from(Instant.now()));
+			Metrics.counter("binaryfiles.deduplicated").increment();
+		}
+	}
+
+	/**
+	 * Remove the stored files of binary file attributes which have been (or are about to be)
+	 * removed from the database. Content-addressed files are kept as long as another
+	 * attribute references the same content.
+	 * @param session = the DB session
+	 * @param attributes = the removed attributes
+	 * @param keepRecent = true to keep the recently reused content files
+	 */
+	public static void removeFiles(Session session, Collection<ConfigBinaryFileAttribute> attributes,
+			boolean keepRecent) {
+		Set<String> checkedChecksums = new HashSet<>();
+		Instant reuseLimit = Instant.now().minus(REUSE_GRACE_PERIOD);
+		for (ConfigBinaryFileAttribute attribute : attributes) {
+			Path filePath = attribute.getFilePath();
+			try {
+				if (attribute.isContentAddressed()) {
+					if (!checkedChecksums.add(attribute.getChecksum())) {
+						continue;
+					}
+					Long referenceCount = session
+						.createQuery("select count(cfa) from ConfigBinaryFileAttribute cfa "
+							+ "where cfa.contentAddressed = true and cfa.checksum = :checksum", Long.class)
+						.setParameter("checksum", attribute.getChecksum())
+						.uniqueResult();
+					if (referenceCount != null && referenceCount > 0) {
+						log.debug("Binary file {} is still referenced {} time(s), keeping it",
+							filePath, referenceCount);
+						continue;
+					}
+					if (keepRecent && Files.exists(filePath)
+							&& Files.getLastModifiedTime(filePath).toInstant().isAfter(reuseLimit)) {
+						log.debug("Binary file {} was recently reused, keeping it", filePath);
+						continue;
+					}
+				}
+				log.debug("Removing binary file {}", filePath);
+				Files.deleteIfExists(filePath);
+			}
+			catch (IOException | HibernateException e) {
+				log.error("Error while removing binary file {}", filePath, e);
+			}
+		}
+	}
+
 	@Override
 	@Transient
 	public String getAsText() {
@@ -200,6 +340,10 @@ public final class ConfigBinaryFileAttribute extends ConfigAttribute {
 		else if (!this.originalName.equals(other.originalName)) {
 			return false;
 		}
+		if (this.checksum != null && other.checksum != null) {
+			// Same content
+			return this.checksum.equals(other.checksum);
+		}
 		if (this.uid == null) {
 			if (other.uid != null) {
 				return false;
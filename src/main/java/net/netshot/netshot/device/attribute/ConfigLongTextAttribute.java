@@ -53,10 +53,11 @@ public final class ConfigLongTextAttribute extends ConfigAttribute {
 	@Override
 	@Transient
 	public String getAsText() {
-		if (this.longText == null || this.longText.getText() == null) {
+		if (this.longText == null) {
 			return "";
 		}
-		return this.longText.getText();
+		String text = this.longText.getResolvedText();
+		return text == null ? "" : text;
 	}
 
 	@Override
@@ -65,7 +66,7 @@ public final class ConfigLongTextAttribute extends ConfigAttribute {
 		if (getLongText() == null) {
 			return null;
 		}
-		return getLongText().getText();
+		return getLongText().getResolvedText();
 	}
 
 	@Override
@@ -82,7 +83,7 @@ public final class ConfigLongTextAttribute extends ConfigAttribute {
 				return false;
 			}
 		}
-		else if (!longText.equals(other.longText)) {
+		else if (!longText.textEquals(other.longText)) {
 			return false;
 		}
 		return true;
@@ -0,0 +1,377 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.device.attribute;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Hibernate;
+import org.hibernate.LazyInitializationException;
+import org.hibernate.Session;
+
+import com.github.difflib.DiffUtils;
+import com.github.difflib.patch.AbstractDelta;
+import com.github.difflib.patch.Chunk;
+import com.github.difflib.patch.Patch;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.netshot.netshot.Netshot;
+import net.netshot.netshot.database.Database;
+import net.netshot.netshot.device.Config;
+import net.netshot.netshot.utils.WeightedLruCache;
+
+/**
+ * Delta encoding of the configuration history.
+ * The last config of a device is always stored in full (as used by search, compliance, etc.).
+ * When a new config is stored, the long texts of the previous one are replaced by line
+ * deltas against the new texts (reverse deltas), except every keyframeInterval versions
+ * where the full text is kept, to bound the number of patches to apply when reading
+ * an old version.
+ * Rebuilt texts are kept in a memory-bounded LRU cache. Since a given long text
+ * never changes once rebuilt, there is no need to invalidate the cache.
+ */
+@Slf4j
+public final class ConfigTextHistory {
+
+	/**
+	 * Settings/config for the current class.
+	 */
+	public static final class Settings {
+		/** Keep a full text every this number of versions (0 or 1 to disable delta encoding). */
+		@Getter
+		private int keyframeInterval;
+
+		/** Max size of the rebuilt text cache, in MB. */
+		@Getter
+		private int cacheSize;
+
+		/**
+		 * Load settings from config.
+		 */
+		private void load() {
+			this.keyframeInterval = Netshot.getConfig("netshot.snapshots.history.keyframeinterval", 10, 0, 1000);
+			this.cacheSize = Netshot.getConfig("netshot.snapshots.history.cachesize", 64, 0, 65536);
+		}
+	}
+
+	/** Settings for this class. */
+	public static final Settings SETTINGS = new Settings();
+
+	/**
+	 * Load the settings from configuration.
+	 */
+	public static void loadConfig() {
+		ConfigTextHistory.SETTINGS.load();
+		// Java chars take 2 bytes
+		CACHE.setMaxWeight(SETTINGS.getCacheSize() * 1024L * 1024L / 2);
+	}
+
+	/** Max number of deltas to follow, to protect against loops. */
+	private static final int MAX_CHAIN_LENGTH = 10000;
+
+	/** Cache of rebuilt texts, by LongTextConfiguration ID (weight is the number of chars). */
+	private static final WeightedLruCache<Long, String> CACHE = new WeightedLruCache<>(0, String::length);
+
+	private ConfigTextHistory() {
+	}
+
+	/**
+	 * Split a text into lines, in a way that can be reverted with String.join.
+	 * @param text = the text
+	 * @return the lines
+	 */
+	private static List<String> splitLines(String text) {
+		return Arrays.asList(text.split("\n", -1));
+	}
+
+	/**
+	 * Compute the line delta to rebuild the target text from the base text.
+	 * Format: for each hunk, a "position,sourceLineCount,targetLineCount" header line
+	 * followed by the target lines.
+	 * @param baseText = the base text
+	 * @param targetText = the text to rebuild
+	 * @return the delta
+	 */
+	public static String computeDelta(String baseText, String targetText) {
+		Patch<String> patch = DiffUtils.diff(splitLines(baseText), splitLines(targetText));
+		StringBuilder delta = new StringBuilder();
+		for (AbstractDelta<String> hunk : patch.getDeltas()) {
+			Chunk<String> source = hunk.getSource();
+			Chunk<String> target = hunk.getTarget();
+			delta.append(source.getPosition()).append(',')
+				.append(source.size()).append(',')
+				.append(target.size()).append('\n');
+			for (String line : target.getLines()) {
+				delta.append(line).append('\n');
+			}
+		}
+		return delta.toString();
+	}
+
+	/**
+	 * Rebuild a text from base text and delta.
+	 * @param baseText = the base text
+	 * @param delta = the delta, as generated by computeDelta
+	 * @return the rebuilt text
+	 */
+	public static String applyDelta(String baseText, String delta) {
+		String[] baseLines = baseText.split("\n", -1);
+		String[] deltaLines = delta.split("\n", -1);
+		List<String> lines = new ArrayList<>(baseLines.length);
+		int cursor = 0;
+		int d = 0;
+		try {
+			// The delta ends with \n, hence the last (empty) item is ignored
+			while (d < deltaLines.length - 1) {
+				String[] header = deltaLines[d++].split(",");
+				if (header.length != 3) {
+					throw new IllegalArgumentException("Invalid config delta hunk header");
+				}
+				int position = Integer.parseInt(header[0]);
+				int sourceSize = Integer.parseInt(header[1]);
+				int targetSize = Integer.parseInt(header[2]);
+				while (cursor < position) {
+					lines.add(baseLines[cursor++]);
+				}
+				cursor += sourceSize;
+				for (int t = 0; t < targetSize; t++) {
+					lines.add(deltaLines[d++]);
+				}
+			}
+		}
+		catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Invalid config delta", e);
+		}
+		while (cursor < baseLines.length) {
+			lines.add(baseLines[cursor++]);
+		}
+		return String.join("\n", lines);
+	}
+
+	/**
+	 * Add a text to the cache (ignored if the object is not persisted yet).
+	 * @param id = the ID of the LongTextConfiguration
+	 * @param text = the full text
+	 */
+	private static void putCached(long id, String text) {
+		if (id == 0 || text == null) {
+			return;
+		}
+		CACHE.put(id, text);
+	}
+
+	/**
+	 * Clear the cache of rebuilt texts.
+	 */
+	public static void clearCache() {
+		CACHE.clear();
+	}
+
+	/**
+	 * Rebuild the full text of a delta-encoded long text, following the chain
+	 * of newer versions up to the first full text (or cached text).
+	 * @param longText = the long text
+	 * @return the full text
+	 */
+	public static String resolve(LongTextConfiguration longText) {
+		Deque<LongTextConfiguration> chain = new ArrayDeque<>();
+		String text = null;
+		// Only opened if the delta bases can't be loaded from the caller's session
+		Session session = null;
+		try {
+			LongTextConfiguration current = longText;
+			while (current != null) {
+				String cached = CACHE.get(current.getId());
+				if (cached != null) {
+					text = cached;
+					break;
+				}
+				if (!Hibernate.isInitialized(current)) {
+					try {
+						Hibernate.initialize(current);
+					}
+					catch (LazyInitializationException e) {
+						if (session == null) {
+							session = Database.getSession(true);
+						}
+						current = session.get(LongTextConfiguration.class, current.getId());
+						if (current == null) {
+							break;
+						}
+					}
+				}
+				if (!current.isDelta()) {
+					text = current.getText();
+					break;
+				}
+				chain.push(current);
+				if (chain.size() > MAX_CHAIN_LENGTH) {
+					throw new IllegalStateException(
+						"Too many deltas to follow while rebuilding long text %d".formatted(longText.getId()));
+				}
+				current = current.getDeltaBase();
+			}
+		}
+		finally {
+			if (session != null) {
+				session.close();
+			}
+		}
+		if (text == null) {
+			return null;
+		}
+		while (!chain.isEmpty()) {
+			LongTextConfiguration delta = chain.pop();
+			text = ConfigTextHistory.applyDelta(text, delta.getText());
+			ConfigTextHistory.putCached(delta.getId(), text);
+		}
+		return text;
+	}
+
+	/**
+	 * Store the given long text in full again.
+	 * @param longText = the long text
+	 */
+	public static void materialize(LongTextConfiguration longText) {
+		if (!longText.isDelta()) {
+			return;
+		}
+		String text = ConfigTextHistory.resolve(longText);
+		longText.setText(text);
+		longText.setDeltaBase(null);
+		longText.setFullLength(null);
+		longText.setDeltaChainLength(0);
+	}
+
+	/**
+	 * Store in full the long texts that are deltas against the given one, typically
+	 * before removing it.
+	 * @param session = the current DB session
+	 * @param base = the long text to be removed
+	 * @return the number of long texts stored in full again
+	 */
+	public static int materializeDependents(Session session, LongTextConfiguration base) {
+		return ConfigTextHistory.materializeDependents(session, base, List.of());
+	}
+
+	/**
+	 * Store in full the long texts that are deltas against the given one, typically
+	 * before removing it, except those belonging to configs that are removed as well.
+	 * @param session = the current DB session
+	 * @param base = the long text to be removed
+	 * @param removedConfigIds = IDs of the configs being removed along with the base
+	 * @return the number of long texts stored in full again
+	 */
+	public static int materializeDependents(Session session, LongTextConfiguration base,
+			Collection<Long> removedConfigIds) {
+		List<LongTextConfiguration> dependents;
+		if (removedConfigIds.isEmpty()) {
+			dependents = session
+				.createQuery("from LongTextConfiguration ltc where ltc.deltaBase = :base", LongTextConfiguration.class)
+				.setParameter("base", base)
+				.list();
+		}
+		else {
+			dependents = session
+				.createQuery("from LongTextConfiguration ltc where ltc.deltaBase = :base and ltc.id not in "
+					+ "(select a.longText.id from ConfigLongTextAttribute a where a.config.id in :removed)",
+					LongTextConfiguration.class)
+				.setParameter("base", base)
+				.setParameterList("removed", removedConfigIds)
+				.list();
+		}
+		for (LongTextConfiguration dependent : dependents) {
+			ConfigTextHistory.materialize(dependent);
+		}
+		return dependents.size();
+	}
+
+	/**
+	 * Encode the previous version of a long text as a delta against the new version,
+	 * unless a keyframe is due or the delta isn't worth it.
+	 * @param previous = the previous version (full text)
+	 * @param next = the new version (full text)
+	 * @return true if the previous version was encoded as delta
+	 */
+	public static boolean encode(LongTextConfiguration previous, LongTextConfiguration next) {
+		int keyframeInterval = SETTINGS.getKeyframeInterval();
+		if (previous == null || next == null || previous == next || keyframeInterval <= 1) {
+			return false;
+		}
+		if (previous.isDelta() || next.isDelta() || previous.getText() == null || next.getText() == null) {
+			return false;
+		}
+		if (previous.getDeltaChainLength() + 1 >= keyframeInterval) {
+			// Keyframe: keep previous text in full, start a new chain
+			next.setDeltaChainLength(0);
+			return false;
+		}
+		String previousText = previous.getText();
+		String delta = ConfigTextHistory.computeDelta(next.getText(), previousText);
+		if (delta.length() * 2 > previousText.length()) {
+			// Mostly different texts, not worth it
+			next.setDeltaChainLength(0);
+			return false;
+		}
+		ConfigTextHistory.putCached(previous.getId(), previousText);
+		next.setDeltaChainLength(previous.getDeltaChainLength() + 1);
+		previous.setText(delta);
+		previous.setFullLength(previousText.length());
+		previous.setDeltaChainLength(0);
+		previous.setDeltaBase(next);
+		return true;
+	}
+
+	/**
+	 * Encode the long text attributes of the previous config as deltas against
+	 * the matching attributes of the new config.
+	 * @param previousConfig = the previous config (current last config of the device)
+	 * @param newConfig = the new config
+	 * @return the number of encoded attributes
+	 */
+	public static int encode(Config previousConfig, Config newConfig) {
+		if (previousConfig == null || newConfig == null || SETTINGS.getKeyframeInterval() <= 1) {
+			return 0;
+		}
+		int count = 0;
+		Map<String, ConfigAttribute> previousAttributes = previousConfig.getAttributeMap();
+		for (ConfigAttribute attribute : newConfig.getAttributes()) {
+			if (attribute instanceof ConfigLongTextAttribute newAttribute
+				&& previousAttributes.get(attribute.getName()) instanceof ConfigLongTextAttribute previousAttribute) {
+				try {
+					if (ConfigTextHistory.encode(previousAttribute.getLongText(), newAttribute.getLongText())) {
+						count++;
+					}
+				}
+				catch (RuntimeException e) {
+					log.warn("Unable to delta-encode the previous version of attribute {}, keeping it in full",
+						attribute.getName(), e);
+				}
+			}
+		}
+		return count;
+	}
+
+}
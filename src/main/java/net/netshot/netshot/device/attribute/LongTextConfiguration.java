@@ -18,16 +18,27 @@
  */
 package net.netshot.netshot.device.attribute;
 
+import java.util.Objects;
+
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Transient;
 import lombok.Getter;
 import lombok.Setter;
 
+/**
+ * Long text value (typically a device configuration).
+ * The text is stored either in full, or (for older config versions, see
+ * {@link ConfigTextHistory}) as a line delta against a newer version
+ * referenced by deltaBase.
+ */
 @Entity
-public final class LongTextConfiguration {
+public class LongTextConfiguration {
 
 	@Getter(onMethod = @__({
 		@Id, @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -41,6 +52,23 @@ public final class LongTextConfiguration {
 	@Setter
 	private String text = "";
 
+	/** Newer version this text is a delta against, null if the text is stored in full. */
+	@Getter(onMethod = @__({
+		@ManyToOne(fetch = FetchType.LAZY)
+	}))
+	@Setter
+	private LongTextConfiguration deltaBase;
+
+	/** On a full text, number of older versions chained as deltas against it. */
+	@Getter
+	@Setter
+	private int deltaChainLength;
+
+	/** Length of the original text, only set when stored as delta. */
+	@Getter
+	@Setter
+	private Integer fullLength;
+
 	protected LongTextConfiguration() {
 	}
 
@@ -48,17 +76,39 @@ public final class LongTextConfiguration {
 		this.text = text;
 	}
 
+	/**
+	 * Checks whether the text is stored as a delta.
+	 * @return true if stored as delta
+	 */
+	@Transient
+	public boolean isDelta() {
+		return this.deltaBase != null;
+	}
+
+	/**
+	 * Gets the actual text, rebuilt from the delta chain if needed.
+	 * @return the full text
+	 */
+	@Transient
+	public String getResolvedText() {
+		if (this.deltaBase == null) {
+			return this.text;
+		}
+		return ConfigTextHistory.resolve(this);
+	}
+
 	@Override
 	public String toString() {
-		return getText();
+		return getResolvedText();
 	}
 
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + (this.text == null ? 0 : this.text.hashCode());
-		return result;
+		// Identity based, not to resolve the delta chain
+		if (this.id == 0) {
+			return System.identityHashCode(this);
+		}
+		return Long.hashCode(this.id);
 	}
 
 	@Override
@@ -73,15 +123,22 @@ public final class LongTextConfiguration {
 			return false;
 		}
 		LongTextConfiguration other = (LongTextConfiguration) obj;
-		if (getText() == null) {
-			if (other.getText() != null) {
-				return false;
-			}
-		}
-		else if (!getText().equals(other.getText())) {
+		return this.id != 0 && this.id == other.getId();
+	}
+
+	/**
+	 * Compares the (resolved) text with the one of another long text.
+	 * @param other = the other long text
+	 * @return true if both texts are the same
+	 */
+	public boolean textEquals(LongTextConfiguration other) {
+		if (other == null) {
 			return false;
 		}
-		return true;
+		if (this == other) {
+			return true;
+		}
+		return Objects.equals(this.getResolvedText(), other.getResolvedText());
 	}
 
 }
@@ -107,6 +107,7 @@ import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import net.netshot.netshot.Netshot;
 import net.netshot.netshot.device.NetworkAddress;
+import net.netshot.netshot.utils.StreamDigest;
 
 import org.apache.sshd.common.kex.KexProposalOption;
 
@@ -648,7 +649,7 @@ public final class SshServer {
 				OpenOption... options) throws IOException {
 			log.info("SSH/scp server open file request - session {}, path {}, permissions {}, options {}",
 				session, file, permissions, options);
-			return super.openWrite(session, file, size, permissions, options);
+			return new StreamDigest().wrap(super.openWrite(session, file, size, permissions, options));
 		}
 
 		@Override
@@ -671,7 +672,9 @@ public final class SshServer {
 			UploadTicket ticket = session.getAttribute(UPLOAD_TICKET);
 			if (ticket != null) {
 				log.info("File written via SCP in session {}: {}", session, file);
-				if (!ticket.onFileWritten(file)) {
+				StreamDigest digest = os instanceof StreamDigest.DigestingOutputStream digestingStream
+					? digestingStream.getDigest() : null;
+				if (!ticket.onFileWritten(file, digest)) {
 					Files.deleteIfExists(file);
 				}
 			}
@@ -723,6 +726,7 @@ public final class SshServer {
 				Channel channel, Set<? extends OpenOption> options) throws IOException {
 			log.info("SSH/SFTP server close file request - session {}, path {}, options {}",
 				subsystem.getSession(), file, options);
+			SftpFileSystemAccessor.super.closeFile(subsystem, fileHandle, file, handle, channel, options);
 
 			// Trigger onFileWritten callback if this was a write operation
 			if (options.contains(java.nio.file.StandardOpenOption.WRITE)
@@ -730,7 +734,9 @@ public final class SshServer {
 				UploadTicket ticket = subsystem.getSession().getAttribute(UPLOAD_TICKET);
 				if (ticket != null) {
 					log.info("File written via SFTP in session {}: {}", subsystem.getSession(), file);
-					if (!ticket.onFileWritten(file)) {
+					StreamDigest digest = channel instanceof StreamDigest.DigestingChannel digestingChannel
+						? digestingChannel.getDigest() : null;
+					if (!ticket.onFileWritten(file, digest)) {
 						log.warn("File {} received through session {}", subsystem.getSession(), file);
 						Files.deleteIfExists(file);
 					}
@@ -767,7 +773,13 @@ public final class SshServer {
 				Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
 			log.info("SSH/SFTP server open file request - session {}, path {}, options {}, attrs {}",
 				subsystem.getSession(), file, options, attrs);
-			return SftpFileSystemAccessor.super.openFile(subsystem, fileHandle, file, handle, options, attrs);
+			SeekableByteChannel channel =
+				SftpFileSystemAccessor.super.openFile(subsystem, fileHandle, file, handle, options, attrs);
+			if (options.contains(java.nio.file.StandardOpenOption.WRITE)) {
+				// Hash the file while it is received
+				return new StreamDigest().wrap(channel);
+			}
+			return channel;
 		}
 
 		@Override
@@ -18,52 +18,148 @@
  */
 package net.netshot.netshot.device.collector;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InterruptedIOException;
-import java.io.OutputStream;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.UnknownHostException;
-import java.time.Duration;
-import java.util.HashSet;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Set;
-
-import org.apache.commons.net.tftp.TFTP;
-import org.apache.commons.net.tftp.TFTPAckPacket;
-import org.apache.commons.net.tftp.TFTPDataPacket;
-import org.apache.commons.net.tftp.TFTPPacket;
-import org.apache.commons.net.tftp.TFTPPacketException;
-import org.apache.commons.net.tftp.TFTPWriteRequestPacket;
-
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import net.netshot.netshot.Netshot;
-import net.netshot.netshot.device.collector.TftpServer.TftpTransfer.Status;
-import net.netshot.netshot.device.Network4Address;
 import net.netshot.netshot.device.NetworkAddress;
+import net.netshot.netshot.utils.Metrics;
+import net.netshot.netshot.utils.StreamDigest;
 
 /**
- * A TFTP server waits for TFTP uploads from the devices. The TFTP transfer must
- * be prepared before it can be accepted by the server.
+ * Embedded TFTP server, to receive files uploaded by the devices (TFTP write requests only).
+ * A single thread runs an NIO event loop for the listening socket and all the
+ * ongoing transfers (each transfer using its own UDP port, as per RFC 1350).
+ * The blksize (RFC 2348), windowsize (RFC 7440), tsize and timeout (RFC 2349)
+ * options are negotiated, and the received data is written straight to the file
+ * in the root path of the matching upload ticket (netascii data being translated
+ * to local text). The ticket callbacks are run by worker threads, out of the loop.
+ * As TFTP has no authentication, the requested file name must be prefixed with
+ * the ticket username (which then includes a random token, e.g.
+ * "netshot123t1-k2x.../config.bin") and the request must come from the source
+ * address accepted by the ticket.
  */
 @Slf4j
 public class TftpServer extends Collector {
 
-	/** The UDP port to listen TFTP packets on. */
-	private int udpPort = 69;
+	/**
+	 * Settings/config for the current class.
+	 */
+	public static final class Settings {
+
+		private static final int DEFAULT_TFTP_SERVER_PORT = 69;
+
+		/** Whether the TFTP server is enabled. */
+		@Getter
+		private boolean enabled;
+
+		/** UDP port to listen on. */
+		@Getter
+		private int udpPort;
+
+		/** UDP port the devices should send to (e.g. in case of NAT). */
+		@Getter
+		private int externalUdpPort;
+
+		/** Listen address. */
+		@Getter
+		private InetAddress listenHost;
+
+		/** Max accepted block size. */
+		@Getter
+		private int maxBlockSize;
+
+		/** Max accepted window size. */
+		@Getter
+		private int maxWindowSize;
+
+		/** Default retransmission timeout (ms). */
+		@Getter
+		private int timeout;
+
+		/** Max number of retransmissions before a transfer is aborted. */
+		@Getter
+		private int maxRetries;
+
+		/**
+		 * Load settings from config.
+		 */
+		private void load() {
+			this.enabled = !Netshot.getConfig("netshot.tftpserver.disabled", true);
+			this.udpPort = Netshot.getConfig("netshot.tftpserver.port", DEFAULT_TFTP_SERVER_PORT, 1, 65535);
+			this.externalUdpPort = Netshot.getConfig("netshot.tftpserver.externalport", this.udpPort, 1, 65535);
+			String listenAddress = Netshot.getConfig("netshot.tftpserver.listenaddress", "0.0.0.0");
+			try {
+				this.listenHost = InetAddress.getByName(listenAddress);
+			}
+			catch (UnknownHostException e) {
+				log.warn("Unable to parse IP address '{}' for TFTP server listen address, using loopback instead",
+					listenAddress, e);
+				this.listenHost = InetAddress.getLoopbackAddress();
+			}
+			this.maxBlockSize = Netshot.getConfig("netshot.tftpserver.maxblocksize", 8192,
+				DEFAULT_BLOCK_SIZE, MAX_BLOCK_SIZE);
+			this.maxWindowSize = Netshot.getConfig("netshot.tftpserver.maxwindowsize", 16, 1, 65535);
+			this.timeout = Netshot.getConfig("netshot.tftpserver.timeout", 1000, 10, 255000);
+			this.maxRetries = Netshot.getConfig("netshot.tftpserver.retries", 5, 0, 100);
+		}
+	}
+
+	/** Settings for this class. */
+	public static final Settings SETTINGS = new Settings();
+
+	/** TFTP opcodes. */
+	private static final short OP_WRQ = 2;
+	private static final short OP_DATA = 3;
+	private static final short OP_ACK = 4;
+	private static final short OP_ERROR = 5;
+	private static final short OP_OACK = 6;
+
+	/** TFTP error codes. */
+	private static final short ERROR_NOT_DEFINED = 0;
+	private static final short ERROR_ACCESS_VIOLATION = 2;
+	private static final short ERROR_ILLEGAL_OPERATION = 4;
+
+	/** Block size without blksize option. */
+	private static final int DEFAULT_BLOCK_SIZE = 512;
 
-	/** The TFTP object. */
-	private TFTP tftp;
+	/** Max block size as per RFC 2348. */
+	private static final int MAX_BLOCK_SIZE = 65464;
 
-	/** The transfers. */
-	private final Set<TftpTransfer> transfers = new HashSet<>();
+	/** Max time to wait for events in the loop (ms). */
+	private static final int SELECT_TIMEOUT = 100;
 
 	/** The static TFTP server instance. */
 	private static TftpServer nsTftpServer;
 
-
-	private static boolean running;
+	private static volatile boolean running;
 
 	public static boolean isRunning() {
 		return running;
@@ -73,7 +169,8 @@ public class TftpServer extends Collector {
 	 * Initializes the TFTP server.
 	 */
 	public static void init() {
-		if (Netshot.getConfig("netshot.tftpserver.disabled", true)) {
+		TftpServer.SETTINGS.load();
+		if (!TftpServer.SETTINGS.enabled) {
 			log.warn("The TFTP server is disabled.");
 			return;
 		}
@@ -90,14 +187,27 @@ public class TftpServer extends Collector {
 		return nsTftpServer;
 	}
 
+	/** The selector of the event loop. */
+	private Selector selector;
+
+	/** The listening channel (receiving the write requests). */
+	private DatagramChannel listenChannel;
+
+	/** The registered upload tickets, by username. */
+	private final Map<String, UploadTicket> tickets = new ConcurrentHashMap<>();
+
+	/** Receive buffer (only used by the event loop thread). */
+	private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_BLOCK_SIZE + 4);
+
+	/** Workers running the (possibly blocking) ticket callbacks, out of the event loop. */
+	private final ExecutorService callbackExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
 	/**
 	 * Instantiates a new TFTP server.
 	 */
 	public TftpServer() {
 		this.setName("TFTP Server");
 		this.setDaemon(true);
-		this.udpPort = Netshot.getConfig("netshot.tftpserver.port", this.udpPort, 1, 65535);
-		this.tftp = new TFTP();
 	}
 
 	/*
@@ -108,416 +218,638 @@ public class TftpServer extends Collector {
 	@Override
 	public void run() {
 		try {
-			tftp.setDefaultTimeout(Duration.ZERO);
-			tftp.open(udpPort);
-			log.debug("Now listening for TFTP packets on UDP port {}.",
-				udpPort);
-			running = true;
-			while (true) {
-				try {
-					TFTPPacket packet = tftp.receive();
-					if (packet instanceof TFTPWriteRequestPacket requestPacket) {
-						synchronized (transfers) {
-							Iterator<TftpTransfer> transferIterator = transfers
-								.iterator();
-							while (transferIterator.hasNext()) {
-								TftpTransfer transfer = transferIterator.next();
-								if (transfer.getStatus() != Status.PREPARED) {
-									transferIterator.remove();
-									continue;
-								}
-								if (transfer.match(requestPacket)) {
-									transfer.setRequestPacket(requestPacket);
-								}
+			this.selector = Selector.open();
+			this.listenChannel = DatagramChannel.open();
+			this.listenChannel.bind(new InetSocketAddress(SETTINGS.getListenHost(), SETTINGS.getUdpPort()));
+			this.listenChannel.configureBlocking(false);
+			this.listenChannel.register(this.selector, SelectionKey.OP_READ);
+		}
+		catch (IOException e) {
+			log.error("Couldn't start the TFTP server", e);
+			return;
+		}
+		log.debug("Now listening for TFTP packets on UDP port {}.", SETTINGS.getUdpPort());
+		running = true;
+		try {
+			while (this.selector.isOpen()) {
+				this.selector.select(SELECT_TIMEOUT);
+				Iterator<SelectionKey> keyIt = this.selector.selectedKeys().iterator();
+				while (keyIt.hasNext()) {
+					SelectionKey key = keyIt.next();
+					keyIt.remove();
+					if (!key.isValid() || !key.isReadable()) {
+						continue;
+					}
+					try {
+						if (key.attachment() instanceof Transfer transfer) {
+							// Drain the received window
+							while (transfer.receive()) {
+								continue;
 							}
 						}
+						else {
+							this.receiveRequest();
+						}
+					}
+					catch (Exception e) {
+						log.warn("Error while processing TFTP packet", e);
 					}
 				}
-				catch (Exception e) {
-				}
+				this.checkTimeouts();
 			}
 		}
-		catch (SocketException e) {
-			log.error("Couldn't start the TFTP server");
+		catch (ClosedSelectorException e) {
+			// Server stopped
+		}
+		catch (IOException e) {
+			log.error("TFTP server error", e);
+		}
+		finally {
+			running = false;
 		}
-		running = false;
 	}
 
 	/**
-	 * The Class TftpTransferException.
+	 * Stop the server (aborting the ongoing transfers).
 	 */
-	public static class TftpTransferException extends IOException {
-
-		/** The Constant serialVersionUID. */
-		private static final long serialVersionUID = -3945635975316058776L;
+	public void shutdown() {
+		try {
+			if (this.selector != null) {
+				for (SelectionKey key : this.selector.keys()) {
+					key.channel().close();
+				}
+				this.selector.close();
+			}
+		}
+		catch (IOException e) {
+			log.warn("Error while stopping the TFTP server", e);
+		}
+		this.callbackExecutor.shutdown();
 	}
 
 	/**
-	 * The Class TftpTransferTimeoutException.
+	 * Run a ticket callback in a worker thread.
+	 * @param callback = the callback
 	 */
-	public static class TftpTransferTimeoutException extends
-		TftpTransferException {
+	private void runCallback(Runnable callback) {
+		try {
+			this.callbackExecutor.execute(callback);
+		}
+		catch (RejectedExecutionException e) {
+			// Server stopped
+			callback.run();
+		}
+	}
 
-		/** The Constant serialVersionUID. */
-		private static final long serialVersionUID = 399042520858415551L;
+	/**
+	 * Check the transfers for timeouts, to retransmit or abort.
+	 */
+	private void checkTimeouts() {
+		long now = System.currentTimeMillis();
+		for (SelectionKey key : new ArrayList<>(this.selector.keys())) {
+			if (key.attachment() instanceof Transfer transfer) {
+				transfer.checkTimeout(now);
+			}
+		}
 	}
 
 	/**
-	 * Gets the result.
-	 * 
-	 * @param transfer
-	 *            the transfer
-	 * @return the result
-	 * @throws TftpTransferException
-	 *             the tftp transfer exception
+	 * Receive and process a write request on the listening channel.
+	 * @throws IOException in case of I/O error
 	 */
-	public String getResult(TftpTransfer transfer) throws TftpTransferException {
+	private void receiveRequest() throws IOException {
+		this.receiveBuffer.clear();
+		SocketAddress clientAddress = this.listenChannel.receive(this.receiveBuffer);
+		if (!(clientAddress instanceof InetSocketAddress client)) {
+			return;
+		}
+		this.receiveBuffer.flip();
+		if (this.receiveBuffer.remaining() < 4) {
+			return;
+		}
+		short opcode = this.receiveBuffer.getShort();
+		if (opcode != OP_WRQ) {
+			log.debug("Rejecting TFTP request with opcode {} from {} (only write requests are supported).",
+				opcode, client);
+			this.listenChannel.send(buildError(ERROR_ILLEGAL_OPERATION, "Only write requests are accepted"), client);
+			return;
+		}
+		List<String> fields = new ArrayList<>();
+		while (this.receiveBuffer.hasRemaining()) {
+			fields.add(readString(this.receiveBuffer));
+		}
+		if (fields.size() < 2) {
+			this.listenChannel.send(buildError(ERROR_ILLEGAL_OPERATION, "Invalid write request"), client);
+			return;
+		}
+		String fileName = fields.get(0);
+		String mode = fields.get(1).toLowerCase(Locale.ROOT);
+		Map<String, String> options = new LinkedHashMap<>();
+		for (int i = 2; i + 1 < fields.size(); i += 2) {
+			options.put(fields.get(i).toLowerCase(Locale.ROOT), fields.get(i + 1));
+		}
+		if (!"octet".equals(mode) && !"netascii".equals(mode)) {
+			this.listenChannel.send(buildError(ERROR_ILLEGAL_OPERATION, "Unsupported mode"), client);
+			return;
+		}
+
+		NetworkAddress source;
 		try {
-			transfer.join();
+			source = NetworkAddress.getNetworkAddress(client.getAddress());
 		}
-		catch (InterruptedException e) {
+		catch (UnknownHostException e) {
+			return;
 		}
-		if (transfer.getStatus() == Status.TIMEDOUT) {
-			throw new TftpTransferTimeoutException();
+		String[] nameParts = fileName.replaceFirst("^/+", "").split("/", 2);
+		UploadTicket ticket = nameParts.length == 2 ? this.tickets.get(nameParts[0]) : null;
+		if (ticket == null || !ticket.isValid() || !ticket.getAllowedProtocols().contains(TransferProtocol.TFTP)
+				|| !ticket.checkSource(source)) {
+			log.warn("Rejecting TFTP write request for '{}' from {}: no matching upload ticket.", fileName, source);
+			this.listenChannel.send(buildError(ERROR_ACCESS_VIOLATION, "Access violation"), client);
+			return;
 		}
-		synchronized (transfers) {
-			transfers.remove(transfer);
+		Path rootPath = ticket.getRootPath().toAbsolutePath().normalize();
+		Path targetPath = rootPath.resolve(nameParts[1]).normalize();
+		if (!targetPath.startsWith(rootPath) || targetPath.equals(rootPath)) {
+			this.listenChannel.send(buildError(ERROR_ACCESS_VIOLATION, "Invalid file name"), client);
+			return;
+		}
+
+		Transfer transfer = new Transfer(ticket, client, targetPath, "netascii".equals(mode));
+		try {
+			transfer.open(options);
+		}
+		catch (IOException e) {
+			log.warn("Unable to start TFTP transfer of '{}' from {}", fileName, source, e);
+			this.listenChannel.send(buildError(ERROR_NOT_DEFINED, "Unable to start the transfer"), client);
+			transfer.abort(null);
 		}
-		return transfer.getData();
 	}
 
 	/**
-	 * Prepare transfer.
-	 * 
-	 * @param source
-	 *            the source
-	 * @param fileName
-	 *            the file name
-	 * @param timeout
-	 *            the timeout
-	 * @return the tftp transfer
+	 * Read a zero-terminated string.
+	 * @param buffer = the buffer to read from
+	 * @return the string
 	 */
-	public TftpTransfer prepareTransfer(Network4Address source,
-		String fileName, int timeout) {
-		TftpTransfer transfer = new TftpTransfer(source, fileName, timeout);
-		synchronized (transfers) {
-			transfers.add(transfer);
-		}
-		transfer.start();
-		return transfer;
+	private static String readString(ByteBuffer buffer) {
+		int start = buffer.position();
+		int end = start;
+		while (end < buffer.limit() && buffer.get(end) != 0) {
+			end++;
+		}
+		byte[] bytes = new byte[end - start];
+		buffer.get(bytes);
+		if (buffer.hasRemaining()) {
+			// Skip the zero
+			buffer.get();
+		}
+		return new String(bytes, StandardCharsets.US_ASCII);
 	}
 
 	/**
-	 * The Class TftpTransfer.
+	 * Build an ACK packet.
+	 * @param block = the block number
+	 * @return the packet
 	 */
-	public static class TftpTransfer extends Thread {
+	private static ByteBuffer buildAck(int block) {
+		ByteBuffer packet = ByteBuffer.allocate(4);
+		packet.putShort(OP_ACK);
+		packet.putShort((short) block);
+		return packet.flip();
+	}
 
-		/** The source. */
-		Network4Address source;
+	/**
+	 * Build an ERROR packet.
+	 * @param code = the error code
+	 * @param message = the error message
+	 * @return the packet
+	 */
+	private static ByteBuffer buildError(short code, String message) {
+		byte[] text = message.getBytes(StandardCharsets.US_ASCII);
+		ByteBuffer packet = ByteBuffer.allocate(5 + text.length);
+		packet.putShort(OP_ERROR);
+		packet.putShort(code);
+		packet.put(text);
+		packet.put((byte) 0);
+		return packet.flip();
+	}
 
-		/** The file name. */
-		String fileName;
+	/**
+	 * Build an OACK packet.
+	 * @param options = the accepted options
+	 * @return the packet
+	 */
+	private static ByteBuffer buildOack(Map<String, String> options) {
+		ByteBuffer packet = ByteBuffer.allocate(512);
+		packet.putShort(OP_OACK);
+		for (Entry<String, String> option : options.entrySet()) {
+			packet.put(option.getKey().getBytes(StandardCharsets.US_ASCII));
+			packet.put((byte) 0);
+			packet.put(option.getValue().getBytes(StandardCharsets.US_ASCII));
+			packet.put((byte) 0);
+		}
+		return packet.flip();
+	}
 
-		/** The thread timeout. */
-		int threadTimeout;
+	/**
+	 * An ongoing TFTP transfer (write request).
+	 */
+	private final class Transfer {
 
-		/** The receive timeout. */
-		int receiveTimeout;
+		/** The ticket the transfer was accepted for. */
+		private final UploadTicket ticket;
 
-		/** The start time. */
-		long startTime = System.currentTimeMillis();
+		/** The client address and port (TID). */
+		private final InetSocketAddress client;
 
-		/** The status. */
-		private Status status = Status.PREPARED;
+		/** The file to write to. */
+		private final Path targetPath;
 
-		/** The request packet. */
-		private TFTPWriteRequestPacket requestPacket;
+		/** Whether the data is sent in netascii mode (to be translated). */
+		private final boolean netascii;
 
-		/** The buffer. */
-		OutputStream buffer = new ByteArrayOutputStream();
+		/** Whether the last received netascii byte was a CR (to be translated with the next byte). */
+		private boolean pendingCr = false;
 
-		/** The tftp. */
-		TFTP tftp;
+		/** The channel dedicated to the transfer. */
+		private DatagramChannel channel;
 
-		/**
-		 * The Enum Status.
-		 */
-		public enum Status {
+		/** The output file. */
+		private FileChannel file;
+
+		/** Digest of the received data. */
+		private final StreamDigest digest = new StreamDigest();
+
+		/** Negotiated block size. */
+		private int blockSize = DEFAULT_BLOCK_SIZE;
+
+		/** Negotiated window size. */
+		private int windowSize = 1;
+
+		/** Retransmission timeout (ms). */
+		private long timeout = SETTINGS.getTimeout();
+
+		/** Last block received in sequence (not wrapped). */
+		private long lastBlock = 0;
+
+		/** Number of blocks received in sequence since the last ACK. */
+		private int windowCount = 0;
+
+		/** Whether the last block in sequence was already re-ACKed after an unexpected block. */
+		private boolean resynced = false;
+
+		/** Last packet sent (to be retransmitted on timeout). */
+		private ByteBuffer lastSent;
 
-			/** The prepared. */
-			PREPARED,
+		/** Time of the last received packet (or retransmission). */
+		private long lastActivity;
 
-			/** The running. */
-			RUNNING,
+		/** Number of successive retransmissions. */
+		private int retries = 0;
 
-			/** The finished. */
-			FINISHED,
+		/** Whether the last block was received (then just re-ACKing duplicates). */
+		private boolean finished = false;
 
-			/** The timedout. */
-			TIMEDOUT,
+		/** Statistics. */
+		private final long startTime = System.nanoTime();
+		private long bytes = 0;
+		private long outOfOrder = 0;
+		private long retransmissions = 0;
 
-			/** The error. */
-			ERROR
+		Transfer(UploadTicket ticket, InetSocketAddress client, Path targetPath, boolean netascii) {
+			this.ticket = ticket;
+			this.client = client;
+			this.targetPath = targetPath;
+			this.netascii = netascii;
 		}
 
 		/**
-		 * Instantiates a new tftp transfer.
-		 * 
-		 * @param source
-		 *            the source
-		 * @param fileName
-		 *            the file name
-		 * @param timeout
-		 *            the timeout
+		 * Open the transfer: bind the channel, negotiate the options and send
+		 * the OACK (or ACK 0).
+		 * @param options = the requested options
+		 * @throws IOException in case of error
 		 */
-		public TftpTransfer(Network4Address source, String fileName, int timeout) {
-			this.source = source;
-			this.fileName = fileName;
-			this.threadTimeout = timeout;
-			this.receiveTimeout = timeout / 10;
+		void open(Map<String, String> options) throws IOException {
+			Map<String, String> accepted = new LinkedHashMap<>();
+			try {
+				if (options.containsKey("blksize")) {
+					int requested = Integer.parseInt(options.get("blksize"));
+					if (requested >= 8) {
+						this.blockSize = Math.min(requested, SETTINGS.getMaxBlockSize());
+						accepted.put("blksize", Integer.toString(this.blockSize));
+					}
+				}
+				if (options.containsKey("windowsize")) {
+					int requested = Integer.parseInt(options.get("windowsize"));
+					if (requested >= 1) {
+						this.windowSize = Math.min(requested, SETTINGS.getMaxWindowSize());
+						accepted.put("windowsize", Integer.toString(this.windowSize));
+					}
+				}
+				if (options.containsKey("timeout")) {
+					int requested = Integer.parseInt(options.get("timeout"));
+					if (requested >= 1 && requested <= 255) {
+						this.timeout = requested * 1000L;
+						accepted.put("timeout", Integer.toString(requested));
+					}
+				}
+				if (options.containsKey("tsize")) {
+					// Size of the file to be written, just acknowledged
+					accepted.put("tsize", Long.toString(Long.parseLong(options.get("tsize"))));
+				}
+			}
+			catch (NumberFormatException e) {
+				throw new IOException("Invalid TFTP option value", e);
+			}
+
+			Files.createDirectories(this.targetPath.getParent());
+			this.file = FileChannel.open(this.targetPath, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			this.channel = DatagramChannel.open();
+			this.channel.bind(new InetSocketAddress(SETTINGS.getListenHost(), 0));
+			this.channel.connect(this.client);
+			this.channel.configureBlocking(false);
+			this.channel.register(TftpServer.this.selector, SelectionKey.OP_READ, this);
+			log.debug("Starting TFTP transfer of {} from {}, block size {}, window size {}.",
+				this.targetPath, this.client, this.blockSize, this.windowSize);
+			this.send(accepted.isEmpty() ? buildAck(0) : buildOack(accepted));
 		}
 
 		/**
-		 * Sets the request packet.
-		 * 
-		 * @param requestPacket
-		 *            the new request packet
+		 * Send a packet to the client, and keep it for retransmission.
+		 * @param packet = the packet
+		 * @throws IOException in case of I/O error
 		 */
-		public void setRequestPacket(TFTPWriteRequestPacket requestPacket) {
-			this.requestPacket = requestPacket;
+		private void send(ByteBuffer packet) throws IOException {
+			this.lastSent = packet;
+			this.lastActivity = System.currentTimeMillis();
+			this.channel.write(packet.duplicate());
 		}
 
 		/**
-		 * Gets the packet.
-		 * 
-		 * @return the packet
-		 * @throws InterruptedIOException
-		 *             the interrupted io exception
-		 * @throws SocketException
-		 *             the socket exception
-		 * @throws IOException
-		 *             Signals that an I/O exception has occurred.
-		 * @throws TFTPPacketException
-		 *             the tFTP packet exception
+		 * Receive and process a packet from the client.
+		 * @return true if a packet was processed and more can be read
+		 * @throws IOException in case of I/O error
 		 */
-		private TFTPPacket getPacket() throws InterruptedIOException,
-			SocketException, IOException, TFTPPacketException {
-			long maxTime = System.currentTimeMillis() + receiveTimeout * 1000;
-			while (true) {
-				TFTPPacket packet = tftp.bufferedReceive();
-				if (packet.getAddress().equals(requestPacket.getAddress())
-					&& packet.getPort() == requestPacket.getPort()) {
-					return packet;
+		boolean receive() throws IOException {
+			ByteBuffer buffer = TftpServer.this.receiveBuffer;
+			buffer.clear();
+			int length;
+			try {
+				length = this.channel.read(buffer);
+			}
+			catch (IOException e) {
+				// E.g. ICMP port unreachable
+				this.abort("Client unreachable: " + e.getMessage());
+				return false;
+			}
+			if (length == 0) {
+				return false;
+			}
+			if (length < 4) {
+				return true;
+			}
+			buffer.flip();
+			short opcode = buffer.getShort();
+			if (this.finished) {
+				if (opcode == OP_DATA) {
+					// The final ACK was lost
+					this.send(buildAck((int) (this.lastBlock & 0xFFFF)));
 				}
-				if (System.currentTimeMillis() > maxTime) {
-					throw new SocketTimeoutException();
+				return this.channel.isOpen();
+			}
+			if (opcode == OP_ERROR) {
+				int code = buffer.getShort();
+				this.abort("Error %d received from client: %s".formatted(code, readString(buffer)));
+				return this.channel.isOpen();
+			}
+			if (opcode != OP_DATA) {
+				this.channel.write(buildError(ERROR_ILLEGAL_OPERATION, "Unexpected packet"));
+				return this.channel.isOpen();
+			}
+			this.lastActivity = System.currentTimeMillis();
+			this.retries = 0;
+			int wrappedBlock = buffer.getShort() & 0xFFFF;
+			int dataLength = buffer.remaining();
+			if (wrappedBlock != (int) ((this.lastBlock + 1) & 0xFFFF)) {
+				// Duplicate (lost ACK) or out of order (lost block): ACK the last block in sequence
+				// (once), for the client to resume from there (RFC 7440)
+				this.outOfOrder++;
+				this.windowCount = 0;
+				if (!this.resynced) {
+					this.resynced = true;
+					this.send(buildAck((int) (this.lastBlock & 0xFFFF)));
 				}
+				return this.channel.isOpen();
+			}
+			this.resynced = false;
+			if (dataLength > this.blockSize) {
+				this.abort("Received block larger than the block size");
+				return this.channel.isOpen();
 			}
+			this.write(this.netascii ? this.fromNetascii(buffer) : buffer);
+			this.lastBlock++;
+			this.bytes += dataLength;
+			this.windowCount++;
+			if (dataLength < this.blockSize) {
+				this.send(buildAck(wrappedBlock));
+				this.complete();
+			}
+			else if (this.windowCount >= this.windowSize) {
+				this.windowCount = 0;
+				this.send(buildAck(wrappedBlock));
+			}
+			return this.channel.isOpen();
 		}
 
 		/**
-		 * Gets the data.
-		 * 
-		 * @return the data
+		 * Digest and write data to the file.
+		 * @param data = the data to write
+		 * @throws IOException in case of I/O error
 		 */
-		private String getData() {
-			return buffer.toString();
+		private void write(ByteBuffer data) throws IOException {
+			this.digest.update(data);
+			while (data.hasRemaining()) {
+				this.file.write(data);
+			}
 		}
 
 		/**
-		 * Check timeout.
-		 * 
-		 * @return true, if successful
+		 * Translate netascii data to local text (CR LF to LF, CR NUL to CR).
+		 * A CR ending the block is kept until the next byte is received.
+		 * @param buffer = the received data
+		 * @return the translated data
 		 */
-		private boolean checkTimeout() {
-			if (System.currentTimeMillis() > startTime + threadTimeout * 1000) {
-				status = Status.TIMEDOUT;
-				return true;
+		private ByteBuffer fromNetascii(ByteBuffer buffer) {
+			ByteBuffer data = ByteBuffer.allocate(buffer.remaining() + 1);
+			while (buffer.hasRemaining()) {
+				byte b = buffer.get();
+				if (this.pendingCr) {
+					this.pendingCr = false;
+					if (b == '\n') {
+						data.put(b);
+						continue;
+					}
+					data.put((byte) '\r');
+					if (b == 0) {
+						continue;
+					}
+				}
+				if (b == '\r') {
+					this.pendingCr = true;
+				}
+				else {
+					data.put(b);
+				}
 			}
-			return false;
+			return data.flip();
 		}
 
-		/*
-		 * (non-Javadoc)
-		 * 
-		 * @see java.lang.Thread#run()
+		/**
+		 * Check whether the transfer timed out.
+		 * @param now = current time
 		 */
-		@Override
-		public void run() {
-			while (requestPacket == null) {
-				try {
-					Thread.sleep(1000);
-				}
-				catch (InterruptedException e) {
-					status = Status.ERROR;
-					return;
-				}
-				if (checkTimeout()) {
-					return;
-				}
+		void checkTimeout(long now) {
+			if (now - this.lastActivity < this.timeout) {
+				return;
 			}
-			status = Status.RUNNING;
-			tftp = new TFTP();
-			tftp.beginBufferedOps();
-			tftp.setDefaultTimeout(Duration.ofMillis(receiveTimeout));
+			if (this.finished) {
+				// Done waiting for possible duplicates of the last block
+				this.close();
+				return;
+			}
+			if (this.retries >= SETTINGS.getMaxRetries()) {
+				this.abort("Timeout");
+				return;
+			}
+			this.retries++;
+			this.retransmissions++;
+			this.windowCount = 0;
+			try {
+				this.send(this.lastSent);
+			}
+			catch (IOException e) {
+				this.abort("Unable to retransmit: " + e.getMessage());
+			}
+		}
+
+		/**
+		 * The last block was received.
+		 */
+		private void complete() {
 			try {
-				tftp.open();
+				if (this.pendingCr) {
+					// Lone CR at the end of the file
+					this.pendingCr = false;
+					this.write(ByteBuffer.wrap(new byte[] { '\r' }));
+				}
+				this.file.close();
 			}
-			catch (SocketException e) {
-				status = Status.ERROR;
+			catch (IOException e) {
+				this.abort("Unable to close the file: " + e.getMessage());
 				return;
 			}
-			TFTPPacket packet = requestPacket;
-			TFTPAckPacket ackPacket = new TFTPAckPacket(packet.getAddress(),
-				packet.getPort(), 0);
-			while (packet instanceof TFTPWriteRequestPacket) {
+			this.finished = true;
+			long durationNanos = System.nanoTime() - this.startTime;
+			double seconds = Math.max(durationNanos / 1e9, 1e-6);
+			log.info("TFTP transfer of {} from {} done: {} bytes in {} blocks, {} ms ({} kB/s), "
+					+ "{} out of order or duplicate blocks, {} retransmissions.",
+				this.targetPath, this.client, this.bytes, this.lastBlock, durationNanos / 1000000,
+				Math.round(this.bytes / seconds / 1024), this.outOfOrder, this.retransmissions);
+			Metrics.counter("tftp.transfers.completed").increment();
+			Metrics.counter("tftp.transfers.bytes").add(this.bytes);
+			Metrics.timer("tftp.transfers.duration").record(durationNanos);
+			TftpServer.this.runCallback(() -> {
 				try {
-					tftp.bufferedSend(ackPacket);
-					packet = this.getPacket();
+					if (!this.ticket.onFileWritten(this.targetPath, this.digest)) {
+						Files.deleteIfExists(this.targetPath);
+					}
 				}
 				catch (Exception e) {
+					log.warn("Error in TFTP upload ticket callback", e);
 				}
-				if (checkTimeout()) {
-					return;
-				}
+				this.ticket.onSessionStopped();
+			});
+			// Then keep the channel open for a while, to re-ACK the last block if needed
+		}
+
+		/**
+		 * Abort the transfer.
+		 * @param reason = the reason, to be sent to the client (null to send nothing)
+		 */
+		void abort(String reason) {
+			if (this.finished) {
+				// The file was fully received already
+				this.close();
+				return;
 			}
-			int lastBlock = 0;
-			while (packet instanceof TFTPDataPacket dataPacket) {
-				int block = dataPacket.getBlockNumber();
-				if (block > lastBlock || (lastBlock == 65535 && block == 0)) {
+			if (reason != null) {
+				log.warn("TFTP transfer of {} from {} aborted: {}", this.targetPath, this.client, reason);
+				if (this.channel != null && this.channel.isOpen()) {
 					try {
-						buffer.write(dataPacket.getData(),
-							dataPacket.getDataOffset(),
-							dataPacket.getDataLength());
+						this.channel.write(buildError(ERROR_NOT_DEFINED, "Transfer aborted"));
 					}
 					catch (IOException e) {
-						status = Status.ERROR;
-						return;
+						// Ignore
 					}
 				}
-				ackPacket = new TFTPAckPacket(requestPacket.getAddress(),
-					requestPacket.getPort(), block);
+			}
+			Metrics.counter("tftp.transfers.failed").increment();
+			this.close();
+			this.finished = true;
+			TftpServer.this.runCallback(() -> {
 				try {
-					tftp.bufferedSend(ackPacket);
+					Files.deleteIfExists(this.targetPath);
 				}
 				catch (IOException e) {
+					log.warn("Unable to remove partial TFTP file {}", this.targetPath, e);
 				}
-				if (dataPacket.getDataLength() < TFTPDataPacket.MAX_DATA_LENGTH) {
-					this.status = Status.FINISHED;
-					for (int i = 0; i < 3; i++) {
-						try {
-							packet = this.getPacket();
-							tftp.bufferedSend(ackPacket);
-						}
-						catch (Exception e) {
-							return;
-						}
-					}
-				}
-				try {
-					packet = this.getPacket();
-				}
-				catch (Exception e) {
-				}
-				if (checkTimeout()) {
-					return;
-				}
-			}
-			status = Status.ERROR;
-			tftp.close();
+				this.ticket.onSessionStopped();
+			});
 		}
 
 		/**
-		 * Match.
-		 * 
-		 * @param packet
-		 *            the packet
-		 * @return true, if successful
+		 * Release the resources of the transfer.
 		 */
-		public boolean match(TFTPWriteRequestPacket packet) {
-			if (this.status != Status.PREPARED) {
-				return false;
-			}
+		private void close() {
 			try {
-				NetworkAddress address = NetworkAddress.getNetworkAddress(
-					packet.getAddress(), 0);
-				if (!address.equals(source)) {
-					return false;
+				if (this.file != null) {
+					this.file.close();
 				}
 			}
-			catch (UnknownHostException e) {
-				return false;
-			}
-			if (packet.getFilename() == null) {
-				return false;
+			catch (IOException e) {
+				log.debug("Error while closing TFTP file", e);
 			}
-			String file1 = fileName.replaceFirst("^/", "");
-			String file2 = packet.getFilename().replaceFirst("^/", "");
-			return file1.equals(file2);
-		}
-
-		/**
-		 * Gets the status.
-		 * 
-		 * @return the status
-		 */
-		public Status getStatus() {
-			return status;
-		}
-
-		/*
-		 * (non-Javadoc)
-		 * 
-		 * @see java.lang.Object#hashCode()
-		 */
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result
-				+ (fileName == null ? 0 : fileName.hashCode());
-			result = prime * result
-				+ (source == null ? 0 : source.hashCode());
-			result = prime * result + (int) (startTime ^ (startTime >>> 32));
-			return result;
-		}
-
-		/*
-		 * (non-Javadoc)
-		 * 
-		 * @see java.lang.Object#equals(java.lang.Object)
-		 */
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj) {
-				return true;
-			}
-			if (obj == null) {
-				return false;
-			}
-			if (getClass() != obj.getClass()) {
-				return false;
-			}
-			TftpTransfer other = (TftpTransfer) obj;
-			if (fileName == null) {
-				if (other.fileName != null) {
-					return false;
-				}
-			}
-			else if (!fileName.equals(other.fileName)) {
-				return false;
-			}
-			if (source == null) {
-				if (other.source != null) {
-					return false;
+			try {
+				if (this.channel != null) {
+					this.channel.close();
 				}
 			}
-			else if (!source.equals(other.source)) {
-				return false;
+			catch (IOException e) {
+				log.debug("Error while closing TFTP channel", e);
 			}
-			return startTime == other.startTime;
 		}
+	}
+
+	/**
+	 * Register a new upload ticket.
+	 * @param ticket the ticket to register
+	 * @throws IOException if a ticket with the same username already exists
+	 */
+	public void registerUploadTicket(UploadTicket ticket) throws IOException {
+		UploadTicket existing = this.tickets.putIfAbsent(ticket.getUsername(), ticket);
+		if (existing != null) {
+			throw new IOException(
+				"Upload ticket '%s' already exists".formatted(ticket.getUsername()));
+		}
+	}
 
+	/**
+	 * Clear upload ticket(s) of given owner.
+	 * @param owner the owner
+	 */
+	public void clearUploadTickets(UploadTicket.Owner owner) {
+		this.tickets.values().removeIf(ticket -> Objects.equals(owner, ticket.getOwner()));
 	}
 
 }
@@ -21,6 +21,7 @@ package net.netshot.netshot.device.collector;
 /** Possible file transfer protocols. */
 public enum TransferProtocol {
 	SFTP,
-	SCP
+	SCP,
+	TFTP
 }
 
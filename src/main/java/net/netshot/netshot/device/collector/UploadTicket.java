@@ -23,6 +23,7 @@ import java.util.Set;
 
 import net.netshot.netshot.device.NetworkAddress;
 import net.netshot.netshot.device.collector.SshServer.SessionLogBuffer;
+import net.netshot.netshot.utils.StreamDigest;
 
 /**
  * This class represents a "ticket" or permission to upload data
@@ -43,7 +44,7 @@ public interface UploadTicket {
 	Owner getOwner();
 
 	/**
-	 * Get the allowed protocols (SFTP, SCP).
+	 * Get the allowed protocols (SFTP, SCP, TFTP).
 	 *
 	 * @return the allowed protocols
 	 */
@@ -65,6 +66,14 @@ public interface UploadTicket {
 	 */
 	boolean checkPassword(NetworkAddress source, String password);
 
+	/**
+	 * Check the source address, for protocols without authentication (TFTP).
+	 *
+	 * @param source the source address
+	 * @return true if the source is accepted
+	 */
+	boolean checkSource(NetworkAddress source);
+
 	/**
 	 * Get the file path where to write the file.
 	 *
@@ -87,15 +96,16 @@ public interface UploadTicket {
 	void onSessionStarted(SessionLogBuffer logBuffer);
 
 	/**
-	 * Called when the SSH session is closed.
+	 * Called when the SSH session is closed (or the TFTP transfer is over).
 	 */
 	void onSessionStopped();
 
 	/**
-	 * Called when a file has been written via SFTP or SCP.
+	 * Called when a file has been written via SFTP, SCP or TFTP.
 	 *
 	 * @param filePath the relative path from the root path
+	 * @param digest the digest computed while the file was written, null if not available
 	 * @return true if the file was consumed, false to remove it
 	 */
-	boolean onFileWritten(Path filePath);
+	boolean onFileWritten(Path filePath, StreamDigest digest);
 }
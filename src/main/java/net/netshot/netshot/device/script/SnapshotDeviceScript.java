@@ -21,9 +21,10 @@ package net.netshot.netshot.device.script;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.regex.Matcher;
@@ -46,6 +47,7 @@ import net.netshot.netshot.device.attribute.AttributeDefinition;
 import net.netshot.netshot.device.attribute.AttributeDefinition.AttributeLevel;
 import net.netshot.netshot.device.attribute.ConfigAttribute;
 import net.netshot.netshot.device.attribute.ConfigBinaryFileAttribute;
+import net.netshot.netshot.device.attribute.ConfigTextHistory;
 import net.netshot.netshot.device.script.helper.JsCliHelper;
 import net.netshot.netshot.device.script.helper.JsDeviceScriptOptions;
 import net.netshot.netshot.device.script.helper.JsClientFactory;
@@ -182,23 +184,26 @@ public final class SnapshotDeviceScript extends DeviceScript {
 				different = !Objects.equals(lastConfig.getCustomHash(), config.getCustomHash());
 			}
 			if (different) {
+				int encodedCount = ConfigTextHistory.encode(lastConfig, config);
+				if (encodedCount > 0) {
+					this.taskContext.debug("{} attribute(s) of the previous configuration stored as delta.", encodedCount);
+				}
 				device.setLastConfig(config);
 				device.getConfigs().add(config);
 			}
 			else {
 				this.taskContext.info("The configuration hasn't changed. Not storing a new one in the DB.");
+				List<ConfigBinaryFileAttribute> uselessFiles = new ArrayList<>();
 				for (ConfigAttribute ca : config.getAttributes()) {
-					if (ca instanceof ConfigBinaryFileAttribute cbfa) {
-						try {
-							log.debug("Removing useless file {}", cbfa.getFilePath());
-							Files.deleteIfExists(cbfa.getFilePath());
-						}
-						catch (IOException e) {
-							log.warn("Unable to delete binary file attribute {}", cbfa.getFilePath(), e);
-							this.taskContext.warn("Unable to delete binary file attribute {}", cbfa.getFilePath(), e);
-						}
+					// Files with the same content as the previous config were not written again
+					if (ca instanceof ConfigBinaryFileAttribute cbfa && (!cbfa.isContentAddressed() || cbfa.isFileWritten())) {
+						log.debug("Removing useless file {}", cbfa.getFilePath());
+						uselessFiles.add(cbfa);
 					}
 				}
+				// Recently reused content files are kept: a concurrent snapshot of another device
+				// may have just reused the same content, without having committed yet
+				ConfigBinaryFileAttribute.removeFiles(session, uselessFiles, true);
 			}
 			this.dumpConfig(device, config);
 
@@ -18,9 +18,11 @@
  */
 package net.netshot.netshot.device.script.helper;
 
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -35,7 +37,6 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.sshd.common.config.keys.PublicKeyEntry;
 import org.graalvm.polyglot.HostAccess.Export;
@@ -56,17 +57,20 @@ import net.netshot.netshot.device.access.Ssh;
 import net.netshot.netshot.device.attribute.AttributeDefinition;
 import net.netshot.netshot.device.attribute.AttributeDefinition.AttributeLevel;
 import net.netshot.netshot.device.attribute.AttributeDefinition.AttributeType;
+import net.netshot.netshot.device.attribute.ConfigAttribute;
+import net.netshot.netshot.device.attribute.ConfigBinaryAttribute;
+import net.netshot.netshot.device.attribute.ConfigBinaryFileAttribute;
+import net.netshot.netshot.device.attribute.ConfigLongTextAttribute;
+import net.netshot.netshot.device.attribute.ConfigNumericAttribute;
+import net.netshot.netshot.device.attribute.ConfigTextAttribute;
 import net.netshot.netshot.device.collector.Collector;
 import net.netshot.netshot.device.collector.SshServer;
 import net.netshot.netshot.device.collector.SshServer.SessionLogBuffer;
+import net.netshot.netshot.device.collector.TftpServer;
 import net.netshot.netshot.device.collector.TransferProtocol;
 import net.netshot.netshot.device.collector.UploadTicket;
 import net.netshot.netshot.utils.PasswordGenerator;
-import net.netshot.netshot.device.attribute.ConfigBinaryAttribute;
-import net.netshot.netshot.device.attribute.ConfigBinaryFileAttribute;
-import net.netshot.netshot.device.attribute.ConfigLongTextAttribute;
-import net.netshot.netshot.device.attribute.ConfigNumericAttribute;
-import net.netshot.netshot.device.attribute.ConfigTextAttribute;
+import net.netshot.netshot.utils.StreamDigest;
 import net.netshot.netshot.work.TaskContext;
 
 /**
@@ -83,12 +87,14 @@ public final class JsConfigHelper implements UploadTicket.Owner {
 		private Path path;
 		private String name;
 		private long size;
+		private StreamDigest digest;
 
-		UploadedFile(long id, Path path) {
+		UploadedFile(long id, Path path, StreamDigest digest) {
 			this.id = id;
 			this.path = path;
 			this.name = path.getFileName().toString();
-			this.size = path.toFile().length();
+			this.size = digest == null ? path.toFile().length() : digest.getSize();
+			this.digest = digest;
 		}
 
 		public long getId() {
@@ -106,6 +112,10 @@ public final class JsConfigHelper implements UploadTicket.Owner {
 		public long getSize() {
 			return this.size;
 		}
+
+		public StreamDigest getDigest() {
+			return this.digest;
+		}
 	}
 
 	private class ConfigUploadTicket implements UploadTicket {
@@ -160,6 +170,12 @@ public final class JsConfigHelper implements UploadTicket.Owner {
 			return this.passwordHash.check(givenPassword);
 		}
 
+		@Override
+		public boolean checkSource(NetworkAddress source) {
+			// Without authentication, the source address is mandatory
+			return this.expectedSourceIp != null && this.expectedSourceIp.equals(source);
+		}
+
 		@Override
 		public Path getRootPath() {
 			return this.rootPath;
@@ -175,7 +191,7 @@ public final class JsConfigHelper implements UploadTicket.Owner {
 		}
 
 		@Override
-		public boolean onFileWritten(Path filePath) {
+		public boolean onFileWritten(Path filePath, StreamDigest digest) {
 			synchronized (this) {
 				if (!this.valid) {
 					log.debug("File written callback on {} while ticket is not valid anymore", filePath);
@@ -183,7 +199,7 @@ public final class JsConfigHelper implements UploadTicket.Owner {
 				}
 				// Use next available ID (size + 1 ensures unique incrementing IDs)
 				long fileId = this.uploadedFiles.size() + 1;
-				UploadedFile file = new UploadedFile(fileId, filePath);
+				UploadedFile file = new UploadedFile(fileId, filePath, digest);
 				this.uploadedFiles.put(fileId, file);
 				log.debug("File uploaded via ticket {}: {} (id: {}, size: {})",
 					this.id, filePath, fileId, file.getSize());
@@ -255,7 +271,12 @@ public final class JsConfigHelper implements UploadTicket.Owner {
 					log.warn("Error while removing upload directory {}", this.getRootPath(), e);
 				}
 			}
-			SshServer.getServer().clearUploadTickets(JsConfigHelper.this);
+			if (SshServer.getServer() != null) {
+				SshServer.getServer().clearUploadTickets(JsConfigHelper.this);
+			}
+			if (TftpServer.getServer() != null) {
+				TftpServer.getServer().clearUploadTickets(JsConfigHelper.this);
+			}
 		}
 		
 	}
@@ -356,49 +377,56 @@ public final class JsConfigHelper implements UploadTicket.Owner {
 		return lastConfig.getCustomHash();
 	}
 
-	private String checkFileSha256(Path filePath, String expected) throws IOException {
-		try (InputStream is = Files.newInputStream(filePath)) {
-			String computed = DigestUtils.sha256Hex(is).toLowerCase();
-			if (!expected.equalsIgnoreCase(computed)) {
-				log.warn("Invalid computed SHA256 hash for received file: {} vs {}", computed, expected);
-				throw new IllegalArgumentException(
-					"Invalid computed SHA256 hash for received file: %s vs %s".formatted(computed, expected));
-			}
-			taskContext.debug("Checksum of downloaded file was successfully verified (%s).".formatted(computed));
-			return computed;
+	/**
+	 * Get an attribute of the previous config of the device.
+	 * @param name = the attribute name
+	 * @return the attribute, or null if not found (or no previous config)
+	 */
+	private ConfigAttribute getLastAttribute(String name) {
+		if (this.lastConfig == null) {
+			return null;
 		}
+		return this.lastConfig.getAttribute(name);
 	}
 
-	private String checkFileMd5(Path filePath, String expected) throws IOException {
+	/**
+	 * Compute the digest of a received file, when it couldn't be computed on the fly.
+	 * @param filePath = the file path to digest
+	 * @return the digest
+	 * @throws IOException
+	 */
+	private StreamDigest digestFile(Path filePath) throws IOException {
+		StreamDigest digest = new StreamDigest();
 		try (InputStream is = Files.newInputStream(filePath)) {
-			String computed = DigestUtils.md5Hex(is).toLowerCase();
-			if (!expected.equalsIgnoreCase(computed)) {
-				log.warn("Invalid computed MD5 hash for received file: {} vs {}", computed, expected);
-				throw new IllegalArgumentException(
-					"Invalid computed MD5 hash for received file: %s vs %s".formatted(computed, expected));
+			byte[] buffer = new byte[65536];
+			int length;
+			while ((length = is.read(buffer)) > 0) {
+				digest.update(buffer, 0, length);
 			}
-			taskContext.debug("Checksum of downloaded file was successfully verified (%s).".formatted(computed));
-			return computed;
 		}
+		return digest;
 	}
 
 	/**
-	 * Compute hash (digest) of given downloaded file and compare to passed checkum.
-	 * @param filePath = the file path to digest
+	 * Compare the hash (digest) computed while receiving a file to passed checkum.
+	 * @param digest = the digest of the received file
 	 * @param expected = the expected checkum (hex-based), either MD5 or SHA256
-	 * @throws IOException
 	 */
-	private void checkFileSum(Path filePath, String expected) throws IOException {
+	private void checkFileSum(StreamDigest digest, String expected) {
 		if (expected == null) {
 			log.info("Skipping verification of downloaded file (no checksum was provided).");
 			taskContext.debug("Skipping verification of downloaded file (no checksum provided).");
 			return;
 		}
-		if (expected.length() == 32) {
-			checkFileMd5(filePath, expected);
-		}
-		else if (expected.length() == 64) {
-			checkFileSha256(filePath, expected);
+		if (expected.length() == 32 || expected.length() == 64) {
+			String algorithm = expected.length() == 32 ? "MD5" : "SHA256";
+			String computed = expected.length() == 32 ? digest.getMd5Hex() : digest.getSha256Hex();
+			if (!expected.equalsIgnoreCase(computed)) {
+				log.warn("Invalid computed {} hash for received file: {} vs {}", algorithm, computed, expected);
+				throw new IllegalArgumentException(
+					"Invalid computed %s hash for received file: %s vs %s".formatted(algorithm, computed, expected));
+			}
+			taskContext.debug("Checksum of downloaded file was successfully verified (%s).".formatted(computed));
 		}
 		else {
 			log.warn(
@@ -485,25 +513,23 @@ public final class JsConfigHelper implements UploadTicket.Owner {
 			if (cli instanceof Ssh sshCli) {
 				try {
 					ConfigBinaryFileAttribute fileAttribute = new ConfigBinaryFileAttribute(config, attribute.getName(), storeName);
-					Path targetPath = fileAttribute.getFilePath().toAbsolutePath();
 					Path tempPath = fileAttribute.getTempFilePath();
 					tempPath.toFile().deleteOnExit();
 					log.trace("Temporary file path for download is {}", tempPath);
 					try {
-						if (TransferProtocol.SCP.equals(protocol)) {
-							sshCli.scpDownload(remoteFileName, tempPath, newSession);
-						}
-						else if (TransferProtocol.SFTP.equals(protocol)) {
-							sshCli.sftpDownload(remoteFileName, tempPath, newSession);
-						}
-						this.checkFileSum(tempPath, expectedHash);
-						fileAttribute.setFileSize(tempPath.toFile().length());
-						try (InputStream is = new FileInputStream(tempPath.toFile())) {
-							String cs = "sha256:" + DigestUtils.sha256Hex(is).toLowerCase();
-							log.trace("Computed SHA256 for the received file is {}", cs);
-							fileAttribute.setChecksum(cs);
+						// Hash the file while it is downloaded
+						StreamDigest digest = new StreamDigest();
+						try (OutputStream localStream = digest.wrap(Files.newOutputStream(tempPath))) {
+							if (TransferProtocol.SCP.equals(protocol)) {
+								sshCli.scpDownload(remoteFileName, localStream, newSession);
+							}
+							else if (TransferProtocol.SFTP.equals(protocol)) {
+								sshCli.sftpDownload(remoteFileName, localStream, newSession);
+							}
 						}
-						Files.move(tempPath, targetPath);
+						this.checkFileSum(digest, expectedHash);
+						fileAttribute.storeFile(tempPath, digest, this.getLastAttribute(attribute.getName()));
+						log.trace("Computed SHA256 for the received file is {}", fileAttribute.getChecksum());
 						config.addAttribute(fileAttribute);
 						return;
 					}
@@ -571,7 +597,7 @@ public final class JsConfigHelper implements UploadTicket.Owner {
 
 
 	/**
-	 * Request an upload ticket (SCP/SFTP).
+	 * Request an upload ticket (SCP/SFTP, or TFTP alone).
 	 * @param protocols the allowed transfer protocols
 	 * @param sourceIp the expected source IP address
 	 * @return the upload ticket
@@ -580,6 +606,33 @@ public final class JsConfigHelper implements UploadTicket.Owner {
 	public ConfigUploadTicket requestUpload(Set<TransferProtocol> protocols,
 		NetworkAddress sourceIp) throws IOException {
 
+		if (protocols.contains(TransferProtocol.TFTP)) {
+			if (protocols.size() > 1) {
+				throw new IllegalArgumentException("TFTP upload can't be combined with other protocols");
+			}
+			if (!TftpServer.isRunning()) {
+				log.warn("Error during snapshot while requesting upload ticket: "
+					+ "the embedded TFTP server is not running.");
+				taskContext.error("Error while requesting upload ticket: "
+					+ "the embedded TFTP server is not running.");
+				throw new IOException("The TFTP server is not running.");
+			}
+			if (sourceIp == null) {
+				// TFTP has no authentication, only accept the device by default
+				sourceIp = this.getDeviceAddress();
+				if (sourceIp == null) {
+					log.warn("Error during snapshot while requesting upload ticket: "
+						+ "no source IP address for the TFTP upload.");
+					taskContext.error("Error while requesting upload ticket: "
+						+ "unable to resolve the device address, please pass the source IP address.");
+					throw new IOException("No source IP address for the TFTP upload.");
+				}
+			}
+			ConfigUploadTicket ticket = this.createUploadTicket(protocols, sourceIp);
+			TftpServer.getServer().registerUploadTicket(ticket);
+			return ticket;
+		}
+
 		if (!SshServer.isRunning()) {
 			log.warn("Error during snapshot while requesting upload ticket: "
 				+ "the embedded SSH server is not running.");
@@ -597,13 +650,49 @@ public final class JsConfigHelper implements UploadTicket.Owner {
 			}
 		}
 
+		ConfigUploadTicket ticket = this.createUploadTicket(protocols, sourceIp);
+		SshServer.getServer().registerUploadTicket(ticket);
+		return ticket;
+	}
+
+	/**
+	 * Get the (resolved) management address of the device.
+	 * @return the device address, null if it can't be resolved
+	 */
+	private NetworkAddress getDeviceAddress() {
+		InetAddress address = this.device.getCachedIpAddress();
+		if (address == null) {
+			this.device.refreshCachedIpAddress();
+			address = this.device.getCachedIpAddress();
+		}
+		try {
+			return address == null ? null : NetworkAddress.getNetworkAddress(address);
+		}
+		catch (UnknownHostException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Create a new upload ticket, with its temporary folder.
+	 * @param protocols the allowed transfer protocols
+	 * @param sourceIp the expected source IP address
+	 * @return the upload ticket
+	 * @throws IOException if an error occurs
+	 */
+	private ConfigUploadTicket createUploadTicket(Set<TransferProtocol> protocols,
+		NetworkAddress sourceIp) throws IOException {
 		long ticketId = this.uploadTickets.size() + 1;
 
-		final String username = this.taskContext.getIdentifier()
+		String username = this.taskContext.getIdentifier()
 			.replace("Task", "")
 			.replace("_", "")
 			.toLowerCase()
 			+ "t%d".formatted(ticketId);
+		if (protocols.contains(TransferProtocol.TFTP)) {
+			// The TFTP file name (prefixed with the username) mustn't be guessable
+			username += "-" + PasswordGenerator.generateAlphanumeric(20).toLowerCase();
+		}
 		String password = PasswordGenerator.generateAlphanumeric(24);
 
 		Path rootPath = ConfigBinaryFileAttribute.makeTempFolder(username);
@@ -611,8 +700,6 @@ public final class JsConfigHelper implements UploadTicket.Owner {
 		ConfigUploadTicket ticket = new ConfigUploadTicket(ticketId,
 			protocols, username, password, sourceIp, rootPath);
 		this.uploadTickets.put(ticketId, ticket);
-
-		SshServer.getServer().registerUploadTicket(ticket);
 		return ticket;
 	}
 
@@ -644,9 +731,10 @@ public final class JsConfigHelper implements UploadTicket.Owner {
 			protocols, sourceAddress);
 
 		ConfigUploadTicket ticket = this.requestUpload(protocols, sourceAddress);
+		boolean tftp = protocols.contains(TransferProtocol.TFTP);
 
 		Map<String, Object> hostKeys = new HashMap<>();
-		for (PublicKey pk : SshServer.getServer().getPublicHostKeys()) {
+		for (PublicKey pk : tftp ? Collections.<PublicKey>emptySet() : SshServer.getServer().getPublicHostKeys()) {
 			try {
 				// Convert to OpenSSH format: "ssh-rsa AAAAB3NzaC1yc2E..."
 				String opensshFormat = PublicKeyEntry.toString(pk);
@@ -674,7 +762,7 @@ public final class JsConfigHelper implements UploadTicket.Owner {
 			throw e;
 		}
 
-		int port = SshServer.SETTINGS.getExternalTcpPort();
+		int port = tftp ? TftpServer.SETTINGS.getExternalUdpPort() : SshServer.SETTINGS.getExternalTcpPort();
 
 		log.debug("Upload ticket details: username '{}', password '{}...', host '{}:{}', hostkeys '{}'",
 			ticket.username, ticket.password.substring(0, 1), host.getIp(), port, hostKeys);
@@ -688,6 +776,10 @@ public final class JsConfigHelper implements UploadTicket.Owner {
 		result.put("host", host.getIp());
 		result.put("port", port);
 		result.put("hostkeys", ProxyObject.fromMap(hostKeys));
+		if (tftp) {
+			// TFTP has no authentication, the file name must start with this path
+			result.put("path", ticket.username + "/");
+		}
 		ProxyObject proxy = ProxyObject.fromMap(result);
 
 		// We don't need it anymore
@@ -780,18 +872,18 @@ public final class JsConfigHelper implements UploadTicket.Owner {
 
 		try {
 			ConfigBinaryFileAttribute fileAttribute = new ConfigBinaryFileAttribute(config, attribute.getName(), finalStoreName);
-			Path targetPath = fileAttribute.getFilePath().toAbsolutePath();
+
+			StreamDigest digest = uploadedFile.getDigest();
+			if (digest == null) {
+				// Not written sequentially, hash it now
+				digest = this.digestFile(tempPath);
+			}
 
 			// Verify checksum if provided
-			this.checkFileSum(tempPath, expectedHash);
+			this.checkFileSum(digest, expectedHash);
 
-			fileAttribute.setFileSize(tempPath.toFile().length());
-			try (InputStream is = new FileInputStream(tempPath.toFile())) {
-				String cs = "sha256:" + DigestUtils.sha256Hex(is).toLowerCase();
-				log.trace("Computed SHA256 for the uploaded file is {}", cs);
-				fileAttribute.setChecksum(cs);
-			}
-			Files.move(tempPath, targetPath);
+			fileAttribute.storeFile(tempPath, digest, this.getLastAttribute(attribute.getName()));
+			log.trace("Computed SHA256 for the uploaded file is {}", fileAttribute.getChecksum());
 			config.addAttribute(fileAttribute);
 
 			log.info("Committed uploaded file {} from ticket {} to attribute '{}' as '{}'",
@@ -18,8 +18,6 @@
  */
 package net.netshot.netshot.diagnostic;
 
-import java.util.Objects;
-
 import org.hibernate.annotations.OnDelete;
 import org.hibernate.annotations.OnDeleteAction;
 
@@ -79,7 +77,10 @@ public class DiagnosticLongTextResult extends DiagnosticResult {
 			return false;
 		}
 		DiagnosticLongTextResult other = (DiagnosticLongTextResult) obj;
-		return Objects.equals(this.longText, other.longText);
+		if (this.longText == null) {
+			return other.longText == null;
+		}
+		return this.longText.textEquals(other.longText);
 	}
 
 }
@@ -21,11 +21,15 @@ package net.netshot.netshot.hooks;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonSubTypes.Type;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.annotation.JsonView;
 
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
@@ -48,6 +52,8 @@ import net.netshot.netshot.rest.RestViews.DefaultView;
  * Hook base class.
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
 @Inheritance(strategy = InheritanceType.JOINED)
 @XmlRootElement
 @XmlAccessorType(XmlAccessType.NONE)
@@ -83,6 +89,7 @@ public abstract class Hook {
 	/** List of associated triggers. */
 	@Getter(onMethod = @__({
 		@OneToMany(mappedBy = "hook", orphanRemoval = true, fetch = FetchType.EAGER, cascade = CascadeType.ALL),
+		@Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE),
 		@XmlElement, @JsonView(DefaultView.class)
 	}))
 	@Setter
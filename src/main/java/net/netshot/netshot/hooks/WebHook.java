@@ -22,12 +22,9 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 
-import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManagerFactory;
 
 import org.glassfish.jersey.client.ClientConfig;
@@ -48,7 +45,6 @@ import jakarta.persistence.EnumType;
 import jakarta.persistence.Enumerated;
 import jakarta.persistence.Transient;
 import jakarta.ws.rs.client.Client;
-import jakarta.ws.rs.client.ClientBuilder;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import jakarta.xml.bind.annotation.XmlElement;
@@ -56,8 +52,8 @@ import lombok.extern.slf4j.Slf4j;
 import net.netshot.netshot.rest.RestViews.DefaultView;
 import net.netshot.netshot.rest.RestViews.HookView;
 import net.netshot.netshot.rest.RestViews.RestApiView;
+import net.netshot.netshot.utils.HttpClientPool;
 import net.netshot.netshot.utils.HttpsCaTrustMode;
-import net.netshot.netshot.utils.HttpsTrustPolicy;
 
 /**
  * A Web hook, called after specific event.
@@ -175,15 +171,14 @@ public class WebHook extends Hook {
 		this.action = action;
 	}
 
-	@Override
-	public String execute(Object data) throws Exception {
-		URL targetUrl = this.getParsedUrl();
-
-		ClientConfig config = new ClientConfig();
-		MediaType mediaType;
-		switch (this.action) {
+	/**
+	 * Register the body provider matching the given action.
+	 * @param config = the client config
+	 * @param action = the webhook action
+	 */
+	private static void registerProvider(ClientConfig config, Action action) {
+		switch (action) {
 			case POST_JSON:
-				mediaType = MediaType.APPLICATION_JSON_TYPE;
 				JacksonXmlBindJsonProvider jsonProvider = new JacksonXmlBindJsonProvider();
 				jsonProvider.setDefaultView(HookView.class);
 				jsonProvider.setMapper(JsonMapper.builder()
@@ -192,7 +187,6 @@ public class WebHook extends Hook {
 				config.register(jsonProvider);
 				break;
 			case POST_XML:
-				mediaType = MediaType.APPLICATION_XML_TYPE;
 				JacksonXmlBindXMLProvider xmlProvider = new JacksonXmlBindXMLProvider();
 				xmlProvider.setDefaultView(HookView.class);
 				xmlProvider.setMapper(XmlMapper.builder()
@@ -201,7 +195,6 @@ public class WebHook extends Hook {
 				config.register(xmlProvider);
 				break;
 			case POST_YAML:
-				mediaType = YAMLMediaTypes.APPLICATION_JACKSON_YAML_TYPE;
 				JacksonXmlBindYAMLProvider yamlProvider = new JacksonXmlBindYAMLProvider();
 				yamlProvider.setDefaultView(RestApiView.class);
 				yamlProvider.setMapper(YAMLMapper.builder()
@@ -209,29 +202,56 @@ public class WebHook extends Hook {
 					.build());
 				config.register(yamlProvider);
 				break;
+			default:
+				break;
+		}
+	}
+
+	@Override
+	public String execute(Object data) throws Exception {
+		URL targetUrl = this.getParsedUrl();
+
+		MediaType mediaType;
+		switch (this.action) {
+			case POST_JSON:
+				mediaType = MediaType.APPLICATION_JSON_TYPE;
+				break;
+			case POST_XML:
+				mediaType = MediaType.APPLICATION_XML_TYPE;
+				break;
+			case POST_YAML:
+				mediaType = YAMLMediaTypes.APPLICATION_JACKSON_YAML_TYPE;
+				break;
 			default:
 				throw new Exception("Invalid action");
 		}
 
-		ClientBuilder clientBuilder = ClientBuilder.newBuilder();
-		if ("https".equals(targetUrl.getProtocol())) {
+		String host = targetUrl.getHost();
+		int port = targetUrl.getPort() < 0 ? targetUrl.getDefaultPort() : targetUrl.getPort();
+		Client client;
+		try {
+			// Shared client, to keep the connections to the target alive between calls
+			final Action clientAction = this.action;
+			client = HttpClientPool.getClient(host, port, "https".equals(targetUrl.getProtocol()),
+				this.httpsCaTrustMode, this.httpsCustomCaCertificate, "webhook." + clientAction,
+				config -> WebHook.registerProvider(config, clientAction));
+		}
+		catch (java.io.IOException e) {
+			throw new Exception("Unable to initialize the HTTPS trust policy for the webhook: " + e.getMessage(), e);
+		}
+		try (HttpClientPool.Permit permit = HttpClientPool.acquire(host, port)) {
+			Response response = client.target(targetUrl.toURI()).request()
+				.post(jakarta.ws.rs.client.Entity.entity(data, mediaType));
 			try {
-				SSLContext sslContext = HttpsTrustPolicy.buildSslContext(this.httpsCaTrustMode, this.httpsCustomCaCertificate);
-				clientBuilder.sslContext(sslContext);
-				HostnameVerifier hostnameVerifier = HttpsTrustPolicy.buildHostnameVerifier(this.httpsCaTrustMode);
-				if (hostnameVerifier != null) {
-					clientBuilder.hostnameVerifier(hostnameVerifier);
-				}
+				return String.format("HTTP response code %d", response.getStatus());
 			}
-			catch (GeneralSecurityException | java.io.IOException e) {
-				throw new Exception("Unable to initialize the HTTPS trust policy for the webhook: " + e.getMessage(), e);
+			finally {
+				// Release the connection for reuse
+				response.close();
 			}
 		}
-		clientBuilder.withConfig(config);
-
-		Client client = clientBuilder.build();
-		Response response = client.target(targetUrl.toURI()).request().post(jakarta.ws.rs.client.Entity.entity(data, mediaType));
-
-		return String.format("HTTP response code %d", response.getStatus());
+		finally {
+			HttpClientPool.release(client);
+		}
 	}
 }
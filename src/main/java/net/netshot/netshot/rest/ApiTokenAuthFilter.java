@@ -32,7 +32,9 @@ import jakarta.ws.rs.container.ContainerRequestFilter;
 import jakarta.ws.rs.container.PreMatching;
 import lombok.extern.slf4j.Slf4j;
 import net.netshot.netshot.aaa.ApiToken;
+import net.netshot.netshot.aaa.ApiTokenCache;
 import net.netshot.netshot.database.Database;
+import net.netshot.netshot.utils.Metrics;
 
 /**
  * Filter to authenticate requests based on API token.
@@ -51,6 +53,9 @@ public class ApiTokenAuthFilter implements ContainerRequestFilter {
 	/** Name of the attribute attached to the the request to carry the token. */
 	public static final String ATTRIBUTE = "apiToken";
 
+	/** Time to authenticate a request with API token. */
+	private static final Metrics.Timer AUTH_TIMER = Metrics.timer("aaa.apitoken.auth.time");
+
 	@Override
 	public void filter(ContainerRequestContext requestContext) throws IOException {
 		String token = requestContext.getHeaderString(ApiTokenAuthFilter.HTTP_API_TOKEN_HEADER);
@@ -58,26 +63,40 @@ public class ApiTokenAuthFilter implements ContainerRequestFilter {
 			return;
 		}
 		AAA_LOG.debug("Received request with API token.");
-		token = token.trim();
-		String hash = ApiToken.hashToken(token);
-		Session session = Database.getSession();
+		long startTime = System.nanoTime();
 		try {
-			ApiToken apiToken = session
-				.createQuery("from ApiToken t where t.hashedToken = :hash", ApiToken.class)
-				.setParameter("hash", hash).uniqueResult();
-			if (apiToken == null) {
-				AAA_LOG.warn("Invalid API token received.");
-			}
-			else {
-				AAA_LOG.info("Successful API token usage {}.", apiToken);
+			token = token.trim();
+			ApiToken apiToken = ApiTokenCache.get(token);
+			if (apiToken != null) {
+				AAA_LOG.info("Successful API token usage {} (cached).", apiToken);
 				requestContext.setProperty(ApiTokenAuthFilter.ATTRIBUTE, apiToken);
+				return;
+			}
+			long cacheGeneration = ApiTokenCache.getGeneration();
+			String hash = ApiToken.hashToken(token);
+			Session session = Database.getSession();
+			try {
+				apiToken = session
+					.createQuery("from ApiToken t where t.hashedToken = :hash", ApiToken.class)
+					.setParameter("hash", hash).uniqueResult();
+				if (apiToken == null) {
+					AAA_LOG.warn("Invalid API token received.");
+				}
+				else {
+					AAA_LOG.info("Successful API token usage {}.", apiToken);
+					requestContext.setProperty(ApiTokenAuthFilter.ATTRIBUTE, apiToken);
+					ApiTokenCache.put(token, apiToken, cacheGeneration);
+				}
+			}
+			catch (HibernateException e) {
+				log.error("Database error while looking for API token", e);
+			}
+			finally {
+				session.close();
 			}
-		}
-		catch (HibernateException e) {
-			log.error("Database error while looking for API token", e);
 		}
 		finally {
-			session.close();
+			AUTH_TIMER.recordSince(startTime);
 		}
 	}
 
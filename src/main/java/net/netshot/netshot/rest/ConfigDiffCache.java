@@ -0,0 +1,180 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.rest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.github.difflib.DiffUtils;
+import com.github.difflib.patch.AbstractDelta;
+import com.github.difflib.patch.Patch;
+
+import lombok.Getter;
+import net.netshot.netshot.Netshot;
+import net.netshot.netshot.device.Config;
+import net.netshot.netshot.rest.RestService.RsConfigDelta;
+import net.netshot.netshot.utils.WeightedLruCache;
+
+/**
+ * Cache of computed config diffs.
+ * A stored config never changes, so a diff between two given configs (for a given attribute)
+ * never changes either, and the cached deltas never need to be invalidated (the IDs of
+ * removed configs are not reused).
+ */
+public final class ConfigDiffCache {
+
+	/**
+	 * Settings/config for the current class.
+	 */
+	public static final class Settings {
+		/** Max size of the diff cache, in MB. */
+		@Getter
+		private int cacheSize;
+
+		/** Size of the compared texts (in KB) from which the diff is streamed. */
+		@Getter
+		private int streamingThreshold;
+
+		/**
+		 * Load settings from config.
+		 */
+		private void load() {
+			this.cacheSize = Netshot.getConfig("netshot.diff.cachesize", 32, 0, 65536);
+			this.streamingThreshold = Netshot.getConfig("netshot.diff.streamingthreshold", 2048, 0, Integer.MAX_VALUE);
+		}
+	}
+
+	/** Settings for this class. */
+	public static final Settings SETTINGS = new Settings();
+
+	/**
+	 * Load the settings from configuration.
+	 */
+	public static void loadConfig() {
+		ConfigDiffCache.SETTINGS.load();
+		CACHE.setMaxWeight(SETTINGS.getCacheSize() * 1024L * 1024L);
+	}
+
+	/**
+	 * Cache key.
+	 * @param originalConfigId = ID of the original config
+	 * @param revisedConfigId = ID of the revised config
+	 * @param item = name of the compared attribute
+	 */
+	private record DiffKey(long originalConfigId, long revisedConfigId, String item) {
+	}
+
+	/** The cache, weight being the estimated size in bytes of the deltas. */
+	private static final WeightedLruCache<DiffKey, List<RsConfigDelta>> CACHE =
+		new WeightedLruCache<>(0, ConfigDiffCache::estimateSize);
+
+	private ConfigDiffCache() {
+	}
+
+	/**
+	 * Estimate the memory size of a list of lines.
+	 * @param lines = the lines
+	 * @return the estimated size in bytes
+	 */
+	private static long estimateLinesSize(List<String> lines) {
+		long size = 16;
+		if (lines != null) {
+			for (String line : lines) {
+				size += 40 + 2L * line.length();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Estimate the memory size of a list of deltas.
+	 * @param deltas = the deltas
+	 * @return the estimated size in bytes
+	 */
+	private static long estimateSize(List<RsConfigDelta> deltas) {
+		long size = 64;
+		for (RsConfigDelta delta : deltas) {
+			size += 64;
+			size += estimateLinesSize(delta.getOriginalLines());
+			size += estimateLinesSize(delta.getRevisedLines());
+			size += estimateLinesSize(delta.getPreContext());
+			size += estimateLinesSize(delta.getPostContext());
+			for (RsConfigDelta.LineWithPosition line : delta.getHierarchy()) {
+				size += 56 + 2L * line.getLine().length();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Get the cached deltas between two configs, for a given attribute.
+	 * @param originalConfigId = ID of the original config
+	 * @param revisedConfigId = ID of the revised config
+	 * @param item = name of the attribute
+	 * @return the cached deltas, or null if not in cache
+	 */
+	public static List<RsConfigDelta> getDeltas(long originalConfigId, long revisedConfigId, String item) {
+		if (originalConfigId == 0 || revisedConfigId == 0) {
+			return null;
+		}
+		return CACHE.get(new DiffKey(originalConfigId, revisedConfigId, item));
+	}
+
+	/**
+	 * Compute the deltas between two config texts, and cache them.
+	 * @param originalConfigId = ID of the original config (0 if not saved, not to cache the result)
+	 * @param revisedConfigId = ID of the revised config
+	 * @param item = name of the attribute
+	 * @param originalText = the original text
+	 * @param revisedText = the revised text
+	 * @param consumer = callback for each delta, as produced (e.g. to stream it), can be null
+	 * @return the deltas
+	 */
+	public static List<RsConfigDelta> computeDeltas(long originalConfigId, long revisedConfigId, String item,
+		String originalText, String revisedText, Consumer<RsConfigDelta> consumer) {
+		List<String> lines1 = Arrays.asList(originalText.replace("\r", "").split("\n"));
+		int[] lineParents1 = Config.getLineParents(lines1);
+		List<String> lines2 = Arrays.asList(revisedText.replace("\r", "").split("\n"));
+		Patch<String> patch = DiffUtils.diff(lines1, lines2);
+		List<RsConfigDelta> deltas = new ArrayList<>(patch.getDeltas().size());
+		for (AbstractDelta<String> delta : patch.getDeltas()) {
+			RsConfigDelta configDelta = new RsConfigDelta(delta, lines1, lineParents1);
+			deltas.add(configDelta);
+			if (consumer != null) {
+				consumer.accept(configDelta);
+			}
+		}
+		deltas = Collections.unmodifiableList(deltas);
+		if (originalConfigId != 0 && revisedConfigId != 0) {
+			CACHE.put(new DiffKey(originalConfigId, revisedConfigId, item), deltas);
+		}
+		return deltas;
+	}
+
+	/**
+	 * Clear the cache.
+	 */
+	public static void clearCache() {
+		CACHE.clear();
+	}
+
+}
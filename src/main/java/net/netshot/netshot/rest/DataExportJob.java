@@ -0,0 +1,1308 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CreationHelper;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.HorizontalAlignment;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.netshot.netshot.Netshot;
+import net.netshot.netshot.compliance.CheckResult;
+import net.netshot.netshot.compliance.SoftwareRule.ConformanceLevel;
+import net.netshot.netshot.database.Database;
+import net.netshot.netshot.device.Device;
+import net.netshot.netshot.device.DeviceDriver;
+import net.netshot.netshot.device.Module;
+import net.netshot.netshot.device.NetworkAddress;
+import net.netshot.netshot.device.NetworkInterface;
+import net.netshot.netshot.device.attribute.AttributeDefinition;
+import net.netshot.netshot.device.attribute.AttributeDefinition.AttributeLevel;
+import net.netshot.netshot.device.attribute.DeviceAttribute;
+import net.netshot.netshot.rest.RestService.RsGroupConfigComplianceStat;
+
+/**
+ * Export of data as Excel (XLSX) workbook, executed in background.
+ * The workbook is written to a temporary file, which can be downloaded once the
+ * job is finished (and is kept for the configured retention time).
+ * Devices are read by pages using keyset pagination (by name then ID), and the rows
+ * of each page are then fetched by device IDs, so that the cost of a page doesn't
+ * depend on its position. The rows of each sheet are fetched by a separate thread,
+ * using its own DB session, and written to the workbook (which isn't thread-safe)
+ * by the job thread.
+ */
+@Slf4j
+public final class DataExportJob implements Runnable {
+
+	/**
+	 * Settings/config for the current class.
+	 */
+	public static final class Settings {
+		/** Max number of export jobs running at the same time. */
+		@Getter
+		private int maxRunningJobs;
+
+		/** Max number of sheets being fetched at the same time (all jobs together). */
+		@Getter
+		private int sheetThreads;
+
+		/** Time to keep the finished exports, in seconds. */
+		@Getter
+		private int retention;
+
+		/** Directory to store the export files in (null for the system temp directory). */
+		@Getter
+		private String tempDirectory;
+
+		/**
+		 * Load settings from config.
+		 */
+		private void load() {
+			this.maxRunningJobs = Netshot.getConfig("netshot.reports.export.maxjobs", 2, 1, 64);
+			this.sheetThreads = Netshot.getConfig("netshot.reports.export.sheetthreads", 4, 1, 64);
+			this.retention = Netshot.getConfig("netshot.reports.export.retention", 3600, 60, 7 * 24 * 3600);
+			this.tempDirectory = Netshot.getConfig("netshot.reports.export.tempdir", null);
+		}
+	}
+
+	/** Settings for this class. */
+	public static final Settings SETTINGS = new Settings();
+
+	/**
+	 * Load the settings from configuration.
+	 */
+	public static void loadConfig() {
+		DataExportJob.SETTINGS.load();
+		DataExportJob.setPoolSize(JOB_EXECUTOR, SETTINGS.getMaxRunningJobs());
+		DataExportJob.setPoolSize(SHEET_EXECUTOR, SETTINGS.getSheetThreads());
+	}
+
+	/**
+	 * Status of an export job.
+	 */
+	public static enum Status {
+		WAITING,
+		RUNNING,
+		SUCCESS,
+		FAILURE,
+		CANCELLED,
+	}
+
+	/**
+	 * What to export.
+	 * @param domains = filter on device domain IDs (empty for all)
+	 * @param groups = filter on device group IDs (empty for all)
+	 * @param interfaces = whether to export interfaces
+	 * @param inventory = whether to export inventory (modules)
+	 * @param inventoryHistory = whether to include removed modules
+	 * @param locations = whether to export device locations
+	 * @param compliance = whether to export compliance results
+	 * @param groupInfo = whether to export groups and group memberships
+	 * @param deviceDriverAttributes = whether to export driver-specific device attributes
+	 */
+	public record Parameters(Set<Long> domains, Set<Long> groups, boolean interfaces,
+		boolean inventory, boolean inventoryHistory, boolean locations, boolean compliance,
+		boolean groupInfo, boolean deviceDriverAttributes) {
+	}
+
+	/**
+	 * Progress of a sheet.
+	 */
+	public static final class SheetProgress {
+		/** Sheet name. */
+		@Getter
+		private final String name;
+
+		/** Number of written rows. */
+		private final AtomicLong rowCount = new AtomicLong();
+
+		/** Number of processed devices. */
+		private final AtomicLong deviceCount = new AtomicLong();
+
+		/** Whether the sheet is complete. */
+		@Getter
+		private volatile boolean done;
+
+		private SheetProgress(String name) {
+			this.name = name;
+		}
+
+		public long getRowCount() {
+			return this.rowCount.get();
+		}
+
+		public long getDeviceCount() {
+			return this.deviceCount.get();
+		}
+	}
+
+	/** Number of rows kept in memory per sheet (others are flushed to disk). */
+	private static final int ROW_WINDOW = 100;
+
+	/** Number of devices per page. */
+	private static final int PAGE_SIZE = 1000;
+
+	/** Max number of fetched pages waiting to be written to the workbook (per job). */
+	private static final int PAGE_QUEUE_SIZE = 4;
+
+	/** Executor of the export jobs. */
+	private static final ThreadPoolExecutor JOB_EXECUTOR =
+		DataExportJob.createExecutor("Data export job ");
+
+	/** Executor of the sheet writers. */
+	private static final ThreadPoolExecutor SHEET_EXECUTOR =
+		DataExportJob.createExecutor("Data export sheet writer ");
+
+	/** Known export jobs, by ID. */
+	private static final Map<String, DataExportJob> JOBS = new ConcurrentHashMap<>();
+
+	/**
+	 * Create a thread pool (with one thread until configured).
+	 * @param threadName = prefix of the thread names
+	 * @return the executor
+	 */
+	private static ThreadPoolExecutor createExecutor(String threadName) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<>(), Thread.ofPlatform().name(threadName, 0).daemon().factory());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Change the size of a thread pool.
+	 * @param executor = the executor
+	 * @param size = the new number of threads
+	 */
+	private static void setPoolSize(ThreadPoolExecutor executor, int size) {
+		if (size > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(size);
+			executor.setCorePoolSize(size);
+		}
+		else {
+			executor.setCorePoolSize(size);
+			executor.setMaximumPoolSize(size);
+		}
+	}
+
+	/**
+	 * Create and schedule a new export job.
+	 * @param owner = name of the user requesting the export
+	 * @param parameters = what to export
+	 * @return the job
+	 */
+	public static DataExportJob submit(String owner, Parameters parameters) {
+		DataExportJob.purgeExpired();
+		DataExportJob job = new DataExportJob(owner, parameters);
+		JOBS.put(job.getId(), job);
+		job.future = JOB_EXECUTOR.submit(job);
+		return job;
+	}
+
+	/**
+	 * Find an export job.
+	 * @param id = the job ID
+	 * @return the job, or null if not found (or expired)
+	 */
+	public static DataExportJob getJob(String id) {
+		DataExportJob.purgeExpired();
+		return JOBS.get(id);
+	}
+
+	/**
+	 * Cancel (if needed) and forget an export job, deleting the export file.
+	 * @param id = the job ID
+	 * @return the removed job, or null if not found
+	 */
+	public static DataExportJob remove(String id) {
+		DataExportJob job = JOBS.remove(id);
+		if (job != null) {
+			job.cancel();
+			job.deleteFile();
+		}
+		return job;
+	}
+
+	/**
+	 * Remove the finished jobs older than the retention time.
+	 */
+	private static void purgeExpired() {
+		long limit = System.currentTimeMillis() - SETTINGS.getRetention() * 1000L;
+		Iterator<DataExportJob> jobIt = JOBS.values().iterator();
+		while (jobIt.hasNext()) {
+			DataExportJob job = jobIt.next();
+			Date endDate = job.getEndDate();
+			if (endDate != null && endDate.getTime() < limit) {
+				log.info("Removing expired data export job {}", job.getId());
+				jobIt.remove();
+				job.deleteFile();
+			}
+		}
+	}
+
+	/** Random ID. */
+	@Getter
+	private final String id;
+
+	/** Name of the user who requested the export. */
+	@Getter
+	private final String owner;
+
+	/** What to export. */
+	@Getter
+	private final Parameters parameters;
+
+	/** Creation date. */
+	@Getter
+	private final Date creationDate;
+
+	/** Name of the file for the user. */
+	@Getter
+	private final String fileName;
+
+	/** Status. */
+	@Getter
+	private volatile Status status = Status.WAITING;
+
+	/** Execution start date. */
+	@Getter
+	private volatile Date startDate;
+
+	/** Execution end date. */
+	@Getter
+	private volatile Date endDate;
+
+	/** Error message in case of failure. */
+	@Getter
+	private volatile String errorMessage;
+
+	/** Total number of exported devices. */
+	@Getter
+	private volatile long totalDeviceCount;
+
+	/** Progress of the sheets. */
+	@Getter
+	private final List<SheetProgress> sheetProgresses = new CopyOnWriteArrayList<>();
+
+	/** Path to the generated file. */
+	@Getter
+	private volatile Path filePath;
+
+	/** Set to cancel the job. */
+	private volatile boolean cancelled;
+
+	/** Future of the job, when scheduled. */
+	private volatile Future<?> future;
+
+	/** Pages of rows fetched by the sheet writers, waiting to be written to the workbook. */
+	private final BlockingQueue<SheetPage> pendingPages = new ArrayBlockingQueue<>(PAGE_QUEUE_SIZE);
+
+	/**
+	 * Create a new export job. Use submit to run it in background.
+	 * @param owner = name of the user requesting the export
+	 * @param parameters = what to export
+	 */
+	private DataExportJob(String owner, Parameters parameters) {
+		this.id = UUID.randomUUID().toString();
+		this.owner = owner;
+		this.parameters = parameters;
+		this.creationDate = new Date();
+		this.fileName = "netshot-export_%s.xlsx".formatted(
+			new SimpleDateFormat("yyyyMMdd-HHmmss").format(this.creationDate));
+	}
+
+	/**
+	 * Gets the overall progress of the export.
+	 * @return the progress, from 0 to 1
+	 */
+	public double getProgress() {
+		if (this.status == Status.SUCCESS) {
+			return 1.0;
+		}
+		if (this.sheetProgresses.isEmpty()) {
+			return 0.0;
+		}
+		double progress = 0.0;
+		for (SheetProgress sheetProgress : this.sheetProgresses) {
+			if (sheetProgress.isDone()) {
+				progress += 1.0;
+			}
+			else if (this.totalDeviceCount > 0) {
+				progress += Math.min(1.0, (double) sheetProgress.getDeviceCount() / this.totalDeviceCount);
+			}
+		}
+		// The last part (writing the final file) isn't measured
+		return 0.95 * progress / this.sheetProgresses.size();
+	}
+
+	/**
+	 * Gets the size of the generated file.
+	 * @return the size in bytes, or null if not available
+	 */
+	public Long getFileSize() {
+		Path path = this.filePath;
+		if (path == null) {
+			return null;
+		}
+		try {
+			return Files.size(path);
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Cancel the job.
+	 */
+	public void cancel() {
+		this.cancelled = true;
+		Future<?> f = this.future;
+		if (f != null && f.cancel(false)) {
+			// Wasn't started yet
+			this.status = Status.CANCELLED;
+			this.endDate = new Date();
+		}
+	}
+
+	/**
+	 * Delete the generated file.
+	 */
+	public void deleteFile() {
+		Path path = this.filePath;
+		this.filePath = null;
+		if (path != null) {
+			try {
+				Files.deleteIfExists(path);
+			}
+			catch (IOException e) {
+				log.warn("Unable to delete data export file {}", path, e);
+			}
+		}
+	}
+
+	/**
+	 * Check whether the job was cancelled.
+	 */
+	private void checkCancelled() {
+		if (this.cancelled) {
+			throw new CancellationException("The data export was cancelled");
+		}
+	}
+
+	@Override
+	public void run() {
+		this.startDate = new Date();
+		this.status = Status.RUNNING;
+		log.info("Starting data export job {} (requested by {})", this.id, this.owner);
+		try {
+			this.generate();
+			this.status = Status.SUCCESS;
+			log.info("Data export job {} is complete, {} bytes written", this.id, this.getFileSize());
+		}
+		catch (CancellationException e) {
+			log.info("Data export job {} was cancelled", this.id);
+			this.deleteFile();
+			this.status = Status.CANCELLED;
+		}
+		catch (Exception e) {
+			log.error("Error while running data export job {}", this.id, e);
+			this.deleteFile();
+			this.errorMessage = "Unable to generate the report";
+			this.status = Status.FAILURE;
+		}
+		finally {
+			this.endDate = new Date();
+		}
+	}
+
+	/**
+	 * Generate the workbook into a temporary file.
+	 * @throws Exception in case of error
+	 */
+	private void generate() throws Exception {
+		SXSSFWorkbook workBook = new SXSSFWorkbook(ROW_WINDOW);
+		List<Future<?>> sheetFutures = new ArrayList<>();
+		try {
+			Styles styles = new Styles(workBook);
+			try (Session session = Database.getSession(true)) {
+				this.writeSummarySheet(session, workBook, styles);
+				Query<Long> countQuery = session.createQuery(
+					"select count(d.id) from Device d where " + this.getDeviceFilter(), Long.class);
+				this.setDeviceFilterParameters(countQuery);
+				this.totalDeviceCount = countQuery.uniqueResult();
+			}
+
+			// The sheets (and header rows) are created upfront, so that they come
+			// in a fixed order whatever the fetching speed of each sheet
+			List<SheetWriter> writers = new ArrayList<>();
+			writers.add(new DeviceSheetWriter());
+			if (this.parameters.interfaces()) {
+				writers.add(new InterfaceSheetWriter());
+			}
+			if (this.parameters.inventory()) {
+				writers.add(new InventorySheetWriter());
+			}
+			if (this.parameters.compliance()) {
+				writers.add(new ComplianceSheetWriter());
+			}
+			if (this.parameters.groupInfo()) {
+				writers.add(new GroupSheetWriter());
+				writers.add(new GroupMembershipSheetWriter());
+			}
+			if (this.parameters.deviceDriverAttributes()) {
+				writers.add(new DeviceAttributeSheetWriter());
+			}
+			for (SheetWriter writer : writers) {
+				writer.createSheet(workBook, styles);
+				this.sheetProgresses.add(writer.progress);
+			}
+			for (SheetWriter writer : writers) {
+				sheetFutures.add(SHEET_EXECUTOR.submit(() -> {
+					writer.fetch();
+					this.publish(new SheetPage(writer, null, 0));
+					return null;
+				}));
+			}
+			// The rows are fetched in parallel, but written from this thread only,
+			// as the workbook (shared strings, styles, flushed rows) isn't thread-safe
+			int remainingWriters = writers.size();
+			while (remainingWriters > 0) {
+				this.checkCancelled();
+				for (Future<?> sheetFuture : sheetFutures) {
+					if (sheetFuture.isDone()) {
+						// Raise the error of a failed fetcher (which won't publish its last page)
+						DataExportJob.getResult(sheetFuture);
+					}
+				}
+				SheetPage page = this.pendingPages.poll(1, TimeUnit.SECONDS);
+				if (page == null) {
+					continue;
+				}
+				if (page.rows() == null) {
+					page.writer().progress.done = true;
+					remainingWriters--;
+				}
+				else {
+					page.writer().writeRows(page.rows(), styles);
+					page.writer().progress.deviceCount.addAndGet(page.deviceCount());
+				}
+			}
+			this.checkCancelled();
+
+			String tempDirectory = SETTINGS.getTempDirectory();
+			Path path = tempDirectory == null
+				? Files.createTempFile("netshot-export_", ".xlsx")
+				: Files.createTempFile(Path.of(tempDirectory), "netshot-export_", ".xlsx");
+			this.filePath = path;
+			try (OutputStream output = Files.newOutputStream(path)) {
+				workBook.write(output);
+			}
+			// The job may have been removed while writing the file, in which case
+			// the file (possibly created after the removal) is deleted by run()
+			this.checkCancelled();
+		}
+		finally {
+			// Stop the other sheet writers in case of error
+			for (Future<?> sheetFuture : sheetFutures) {
+				if (!sheetFuture.isDone()) {
+					this.cancelled = true;
+					sheetFuture.cancel(false);
+				}
+			}
+			try {
+				workBook.close();
+			}
+			catch (IOException e) {
+				log.warn("Error while closing work book", e);
+			}
+		}
+	}
+
+	/**
+	 * Wait for the job to finish (when submitted).
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void awaitCompletion() throws InterruptedException {
+		Future<?> f = this.future;
+		if (f == null) {
+			return;
+		}
+		try {
+			f.get();
+		}
+		catch (CancellationException | ExecutionException e) {
+			// The status tells the outcome
+		}
+	}
+
+	/**
+	 * Get the result of a sheet fetcher, raising its error if any.
+	 * @param future = the future of the fetcher
+	 * @throws Exception the error of the fetcher
+	 */
+	private static void getResult(Future<?> future) throws Exception {
+		try {
+			future.get();
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception cause) {
+				throw cause;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Hand over fetched rows to the job thread, waiting if too many pages are pending.
+	 * @param page = the page of rows
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private void publish(SheetPage page) throws InterruptedException {
+		while (!this.pendingPages.offer(page, 1, TimeUnit.SECONDS)) {
+			this.checkCancelled();
+		}
+	}
+
+	/**
+	 * Write the summary sheet.
+	 * @param session = the DB session
+	 * @param workBook = the work book
+	 * @param styles = the cell styles
+	 */
+	private void writeSummarySheet(Session session, SXSSFWorkbook workBook, Styles styles) {
+		SXSSFSheet summarySheet = workBook.createSheet("Summary");
+		summarySheet.setColumnWidth(0, 5000);
+		summarySheet.setColumnWidth(1, 8000);
+		int y = -1;
+		Row row = summarySheet.createRow(++y);
+		row.createCell(0).setCellValue("Netshot version");
+		row.getCell(0).setCellStyle(styles.title);
+		row.createCell(1).setCellValue(Netshot.VERSION);
+		row = summarySheet.createRow(++y);
+		row.createCell(0).setCellValue("Exported by");
+		row.getCell(0).setCellStyle(styles.title);
+		row.createCell(1).setCellValue(this.owner);
+		row = summarySheet.createRow(++y);
+		row.createCell(0).setCellValue("Date and time");
+		row.getCell(0).setCellStyle(styles.title);
+		Cell cell = row.createCell(1);
+		cell.setCellValue(this.creationDate);
+		cell.setCellStyle(styles.datetime);
+
+		row = summarySheet.createRow(++y);
+		row.createCell(0).setCellValue("Selected Domain");
+		row.getCell(0).setCellStyle(styles.title);
+		if (this.parameters.domains().isEmpty()) {
+			row.createCell(1).setCellValue("Any");
+		}
+		else {
+			List<Object[]> domains = session
+				.createQuery("select d.name, d.id from Domain d where d.id in (:domainIds)", Object[].class)
+				.setParameterList("domainIds", this.parameters.domains())
+				.list();
+			List<String> domainNames = new ArrayList<>();
+			for (Object[] domain : domains) {
+				domainNames.add(String.format("%s (%d)", domain[0], domain[1]));
+			}
+			row.createCell(1).setCellValue(String.join(", ", domainNames));
+		}
+		row = summarySheet.createRow(++y);
+		row.createCell(0).setCellValue("Selected Group");
+		row.getCell(0).setCellStyle(styles.title);
+		if (this.parameters.groups().isEmpty()) {
+			row.createCell(1).setCellValue("Any");
+		}
+		else {
+			List<Object[]> groups = session
+				.createQuery("select g.name, g.id from DeviceGroup g where g.id in (:groupIds)", Object[].class)
+				.setParameterList("groupIds", this.parameters.groups())
+				.list();
+			List<String> groupNames = new ArrayList<>();
+			for (Object[] group : groups) {
+				groupNames.add(String.format("%s (%d)", group[0], group[1]));
+			}
+			row.createCell(1).setCellValue(String.join(", ", groupNames));
+		}
+		summarySheet.setDefaultColumnStyle(0, styles.title);
+	}
+
+	/**
+	 * Gets the HQL condition to filter the exported devices (alias d).
+	 * @return the HQL condition
+	 */
+	private String getDeviceFilter() {
+		StringBuilder filter = new StringBuilder("1 = 1");
+		if (!this.parameters.domains().isEmpty()) {
+			filter.append(" and d.mgmtDomain.id in (:domainIds)");
+		}
+		if (!this.parameters.groups().isEmpty()) {
+			filter.append(" and d.id in (select gm.key.device.id from DeviceGroupMembership gm "
+				+ "where gm.key.group.id in (:groupIds))");
+		}
+		return filter.toString();
+	}
+
+	/**
+	 * Sets the parameters of the device filter.
+	 * @param query = the query
+	 */
+	private void setDeviceFilterParameters(Query<?> query) {
+		if (!this.parameters.domains().isEmpty()) {
+			query.setParameterList("domainIds", this.parameters.domains());
+		}
+		if (!this.parameters.groups().isEmpty()) {
+			query.setParameterList("groupIds", this.parameters.groups());
+		}
+	}
+
+	/**
+	 * Format of the cells of a column.
+	 */
+	private enum CellFormat {
+		DEFAULT,
+		DATETIME,
+		DATE,
+		PERCENT,
+	}
+
+	/**
+	 * Cell styles of the workbook.
+	 */
+	private static final class Styles {
+		private final CellStyle datetime;
+		private final CellStyle date;
+		private final CellStyle title;
+		private final CellStyle percent;
+
+		private Styles(SXSSFWorkbook workBook) {
+			CreationHelper createHelper = workBook.getCreationHelper();
+			this.datetime = workBook.createCellStyle();
+			this.datetime.setDataFormat(createHelper.createDataFormat().getFormat("yyyy-mm-dd hh:mm"));
+			this.datetime.setAlignment(HorizontalAlignment.LEFT);
+			this.date = workBook.createCellStyle();
+			this.date.setDataFormat(createHelper.createDataFormat().getFormat("yyyy-mm-dd"));
+			this.title = workBook.createCellStyle();
+			Font titleFont = workBook.createFont();
+			titleFont.setBold(true);
+			this.title.setFont(titleFont);
+			this.percent = workBook.createCellStyle();
+			this.percent.setDataFormat(workBook.createDataFormat()
+				.getFormat(BuiltinFormats.getBuiltinFormat(0x09)));
+		}
+
+		/**
+		 * Gets the style for a cell format.
+		 * @param format = the cell format
+		 * @return the style, or null for the default style
+		 */
+		private CellStyle get(CellFormat format) {
+			return switch (format) {
+				case DATETIME -> this.datetime;
+				case DATE -> this.date;
+				case PERCENT -> this.percent;
+				default -> null;
+			};
+		}
+	}
+
+	/**
+	 * Column of a sheet.
+	 * @param title = column title
+	 * @param width = column width
+	 * @param format = format of the cells
+	 */
+	private record Column(String title, int width, CellFormat format) {
+		private Column(String title, int width) {
+			this(title, width, CellFormat.DEFAULT);
+		}
+	}
+
+	/**
+	 * Formula cell value.
+	 * @param formula = the formula, where {row} is replaced by the (1-based) row number
+	 */
+	private record Formula(String formula) {
+	}
+
+	/**
+	 * Rows fetched for a sheet, to be written to the workbook.
+	 * @param writer = the sheet writer
+	 * @param rows = the cell values of each row (null when the sheet is complete)
+	 * @param deviceCount = number of devices the rows were fetched for
+	 */
+	private record SheetPage(SheetWriter writer, List<Object[]> rows, int deviceCount) {
+	}
+
+	/**
+	 * Writer of a sheet. The rows are fetched from the database (in a separate thread),
+	 * as cell values, then written to the sheet by the job thread.
+	 */
+	private abstract class SheetWriter {
+		/** Progress of the sheet. */
+		protected final SheetProgress progress;
+
+		/** The sheet. */
+		private SXSSFSheet sheet;
+
+		/** The columns of the sheet. */
+		private List<Column> columns;
+
+		/** Index of the last written row. */
+		private int y = -1;
+
+		protected SheetWriter(String name) {
+			this.progress = new SheetProgress(name);
+		}
+
+		/**
+		 * Gets the columns of the sheet.
+		 * @return the columns
+		 */
+		protected abstract List<Column> getColumns();
+
+		/**
+		 * Fetch the rows of the sheet, and publish them (page by page) to be written.
+		 * Called from a sheet thread.
+		 * @throws Exception in case of error
+		 */
+		protected abstract void fetch() throws Exception;
+
+		/**
+		 * Create the sheet and write the header row.
+		 * @param workBook = the work book
+		 * @param styles = the cell styles
+		 */
+		private void createSheet(SXSSFWorkbook workBook, Styles styles) {
+			this.columns = this.getColumns();
+			this.sheet = workBook.createSheet(this.progress.getName());
+			this.sheet.setRandomAccessWindowSize(ROW_WINDOW);
+			Row row = this.sheet.createRow(++this.y);
+			int x = -1;
+			for (Column column : this.columns) {
+				row.createCell(++x).setCellValue(column.title());
+				row.getCell(x).setCellStyle(styles.title);
+				this.sheet.setColumnWidth(x, column.width());
+			}
+			row.setRowStyle(styles.title);
+			this.sheet.createFreezePane(0, this.y + 1);
+			this.sheet.setAutoFilter(new CellRangeAddress(0, this.y, 0, x));
+		}
+
+		/**
+		 * Write rows to the sheet. Called from the job thread only.
+		 * @param rows = the cell values of each row
+		 * @param styles = the cell styles
+		 */
+		private void writeRows(List<Object[]> rows, Styles styles) {
+			for (Object[] values : rows) {
+				this.progress.rowCount.incrementAndGet();
+				Row row = this.sheet.createRow(++this.y);
+				for (int x = 0; x < values.length; x++) {
+					Object value = values[x];
+					Cell cell = row.createCell(x);
+					if (value == null) {
+						continue;
+					}
+					else if (value instanceof String text) {
+						cell.setCellValue(text);
+					}
+					else if (value instanceof Number number) {
+						cell.setCellValue(number.doubleValue());
+					}
+					else if (value instanceof Boolean bool) {
+						cell.setCellValue(bool);
+					}
+					else if (value instanceof Date date) {
+						cell.setCellValue(date);
+					}
+					else if (value instanceof Formula formula) {
+						cell.setCellFormula(formula.formula().replace("{row}", Integer.toString(this.y + 1)));
+					}
+					else {
+						cell.setCellValue(value.toString());
+					}
+					CellStyle style = styles.get(this.columns.get(x).format());
+					if (style != null) {
+						cell.setCellStyle(style);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writer of a sheet whose rows are fetched page of devices by page of devices.
+	 */
+	private abstract class DevicePageSheetWriter extends SheetWriter {
+		/** Last device of the previous page (keyset pagination). */
+		private String lastDeviceName;
+		private long lastDeviceId = -1;
+
+		protected DevicePageSheetWriter(String name) {
+			super(name);
+		}
+
+		@Override
+		protected void fetch() throws Exception {
+			try (Session session = Database.getSession(true)) {
+				while (true) {
+					DataExportJob.this.checkCancelled();
+					List<Long> deviceIds = this.nextDevicePage(session);
+					if (deviceIds.isEmpty()) {
+						break;
+					}
+					DataExportJob.this.publish(
+						new SheetPage(this, this.fetchRows(session, deviceIds), deviceIds.size()));
+					session.clear();
+				}
+			}
+		}
+
+		/**
+		 * Fetch the IDs of the next page of devices (ordered by name then ID).
+		 * @param session = the DB session
+		 * @return the device IDs
+		 */
+		private List<Long> nextDevicePage(Session session) {
+			StringBuilder hqlQuery = new StringBuilder("select d.id, d.name from Device d where ")
+				.append(DataExportJob.this.getDeviceFilter());
+			if (this.lastDeviceName != null) {
+				hqlQuery.append(" and (d.name > :lastName or (d.name = :lastName and d.id > :lastId))");
+			}
+			hqlQuery.append(" order by d.name asc, d.id asc");
+			Query<Object[]> query = session.createQuery(hqlQuery.toString(), Object[].class);
+			DataExportJob.this.setDeviceFilterParameters(query);
+			if (this.lastDeviceName != null) {
+				query.setParameter("lastName", this.lastDeviceName);
+				query.setParameter("lastId", this.lastDeviceId);
+			}
+			query.setMaxResults(PAGE_SIZE);
+			List<Long> deviceIds = new ArrayList<>();
+			for (Object[] device : query.list()) {
+				deviceIds.add((Long) device[0]);
+				this.lastDeviceId = (Long) device[0];
+				this.lastDeviceName = (String) device[1];
+			}
+			return deviceIds;
+		}
+
+		/**
+		 * Fetch the rows for the given devices.
+		 * @param session = the DB session
+		 * @param deviceIds = the device IDs (ordered)
+		 * @return the cell values of each row
+		 */
+		protected abstract List<Object[]> fetchRows(Session session, List<Long> deviceIds);
+	}
+
+	/**
+	 * Writer of the Devices sheet.
+	 */
+	private final class DeviceSheetWriter extends DevicePageSheetWriter {
+
+		private DeviceSheetWriter() {
+			super("Devices");
+		}
+
+		@Override
+		protected List<Column> getColumns() {
+			List<Column> columns = new ArrayList<>(Arrays.asList(
+				new Column("ID", 2200),
+				new Column("Name", 5000),
+				new Column("Management IP", 4000),
+				new Column("Domain", 4000),
+				new Column("Network Class", 4000),
+				new Column("Family", 5000),
+				new Column("Creation", 4200, CellFormat.DATETIME),
+				new Column("Last Change", 4200, CellFormat.DATETIME),
+				new Column("Software", 5000)));
+			if (parameters.compliance()) {
+				columns.add(new Column("Software Level", 3500));
+				columns.add(new Column("End of Sale Date", 4200, CellFormat.DATE));
+				columns.add(new Column("End Of Life Date", 4200, CellFormat.DATE));
+			}
+			if (parameters.locations()) {
+				columns.add(new Column("Location", 5000));
+				columns.add(new Column("Contact", 5000));
+			}
+			return columns;
+		}
+
+		@Override
+		protected List<Object[]> fetchRows(Session session, List<Long> deviceIds) {
+			List<Device> devices = session
+				.createQuery("select d from Device d left join fetch d.mgmtDomain "
+					+ "where d.id in (:deviceIds) order by d.name asc, d.id asc", Device.class)
+				.setParameterList("deviceIds", deviceIds)
+				.list();
+			List<Object[]> rows = new ArrayList<>();
+			for (Device device : devices) {
+				List<Object> values = new ArrayList<>(Arrays.asList(
+					device.getId(),
+					device.getName(),
+					device.getMgmtAddress(),
+					device.getMgmtDomain().getName(),
+					device.getNetworkClass().toString(),
+					device.getFamily(),
+					device.getCreatedDate(),
+					device.getChangeDate(),
+					device.getSoftwareVersion()));
+				if (parameters.compliance()) {
+					values.add((device.getSoftwareLevel() == null
+						? ConformanceLevel.UNKNOWN : device.getSoftwareLevel()).toString());
+					values.add(device.getEosDate());
+					values.add(device.getEolDate());
+				}
+				if (parameters.locations()) {
+					values.add(device.getLocation());
+					values.add(device.getContact());
+				}
+				rows.add(values.toArray());
+			}
+			return rows;
+		}
+	}
+
+	/**
+	 * Writer of the Interfaces sheet.
+	 */
+	private final class InterfaceSheetWriter extends DevicePageSheetWriter {
+
+		private InterfaceSheetWriter() {
+			super("Interfaces");
+		}
+
+		@Override
+		protected List<Column> getColumns() {
+			return List.of(
+				new Column("Device ID", 2200),
+				new Column("Device Name", 5000),
+				new Column("Virtual Device", 5000),
+				new Column("Name", 5000),
+				new Column("Description", 7000),
+				new Column("VRF", 5000),
+				new Column("MAC Address", 4000),
+				new Column("Enabled", 2000),
+				new Column("Level 3", 2000),
+				new Column("IP Address", 4000),
+				new Column("Length", 2000),
+				new Column("Usage", 4000));
+		}
+
+		@Override
+		protected List<Object[]> fetchRows(Session session, List<Long> deviceIds) {
+			List<NetworkInterface> networkInterfaces = session
+				.createQuery("select ni from NetworkInterface ni "
+					+ "left join fetch ni.ip4Addresses left join fetch ni.ip6Addresses "
+					+ "join fetch ni.device d where d.id in (:deviceIds) "
+					+ "order by d.name asc, d.id asc, ni.id asc", NetworkInterface.class)
+				.setParameterList("deviceIds", deviceIds)
+				.list();
+			List<Object[]> rows = new ArrayList<>();
+			for (NetworkInterface networkInterface : networkInterfaces) {
+				Device device = networkInterface.getDevice();
+				Object[] interfaceValues = new Object[] {
+					device.getId(),
+					device.getName(),
+					networkInterface.getVirtualDevice(),
+					networkInterface.getInterfaceName(),
+					networkInterface.getDescription(),
+					networkInterface.getVrfInstance(),
+					networkInterface.getMacAddress(),
+					networkInterface.isEnabled(),
+					networkInterface.isLevel3(),
+				};
+				if (networkInterface.getIpAddresses().isEmpty()) {
+					List<Object> values = new ArrayList<>(Arrays.asList(interfaceValues));
+					values.addAll(List.of("", "", ""));
+					rows.add(values.toArray());
+				}
+				for (NetworkAddress address : networkInterface.getIpAddresses()) {
+					List<Object> values = new ArrayList<>(Arrays.asList(interfaceValues));
+					values.add(address.getIp());
+					values.add(address.getPrefixLength());
+					values.add(address.getAddressUsage() == null ? "" : address.getAddressUsage().toString());
+					rows.add(values.toArray());
+				}
+			}
+			return rows;
+		}
+	}
+
+	/**
+	 * Writer of the Inventory sheet.
+	 */
+	private final class InventorySheetWriter extends DevicePageSheetWriter {
+
+		private InventorySheetWriter() {
+			super("Inventory");
+		}
+
+		@Override
+		protected List<Column> getColumns() {
+			List<Column> columns = new ArrayList<>(Arrays.asList(
+				new Column("Device ID", 2200),
+				new Column("Device Name", 5000),
+				new Column("Slot", 5000),
+				new Column("Part Number", 5000),
+				new Column("Serial Number", 4000)));
+			if (parameters.inventoryHistory()) {
+				columns.add(new Column("First seen", 4200, CellFormat.DATETIME));
+				columns.add(new Column("Last seen", 4200, CellFormat.DATETIME));
+				columns.add(new Column("Removed", 4200));
+			}
+			return columns;
+		}
+
+		@Override
+		protected List<Object[]> fetchRows(Session session, List<Long> deviceIds) {
+			StringBuilder hqlQuery = new StringBuilder(
+				"select m from Module m join fetch m.device d where d.id in (:deviceIds)");
+			if (!parameters.inventoryHistory()) {
+				hqlQuery.append(" and m.removed is not true");
+			}
+			hqlQuery.append(" order by d.name asc, d.id asc, m.id asc");
+			List<Module> modules = session
+				.createQuery(hqlQuery.toString(), Module.class)
+				.setParameterList("deviceIds", deviceIds)
+				.list();
+			List<Object[]> rows = new ArrayList<>();
+			for (Module module : modules) {
+				Device device = module.getDevice();
+				List<Object> values = new ArrayList<>(Arrays.asList(
+					device.getId(),
+					device.getName(),
+					module.getSlot(),
+					module.getPartNumber(),
+					module.getSerialNumber()));
+				if (parameters.inventoryHistory()) {
+					values.add(module.getFirstSeenDate());
+					values.add(module.getLastSeenDate());
+					values.add(module.isRemoved());
+				}
+				rows.add(values.toArray());
+			}
+			return rows;
+		}
+	}
+
+	/**
+	 * Writer of the Configuration Compliance sheet.
+	 */
+	private final class ComplianceSheetWriter extends DevicePageSheetWriter {
+
+		private ComplianceSheetWriter() {
+			super("Configuration Compliance");
+		}
+
+		@Override
+		protected List<Column> getColumns() {
+			return List.of(
+				new Column("Device ID", 2200),
+				new Column("Device Name", 5000),
+				new Column("Policy", 5000),
+				new Column("Rule", 8000),
+				new Column("Check Date", 4200, CellFormat.DATETIME),
+				new Column("Result", 4000));
+		}
+
+		@Override
+		protected List<Object[]> fetchRows(Session session, List<Long> deviceIds) {
+			List<Object[]> checkResults = session
+				.createQuery("select d.id, d.name, p.name, r.name, cr.checkDate, cr.result "
+					+ "from CheckResult cr join cr.key.device d join cr.key.rule r join r.policy p "
+					+ "where d.id in (:deviceIds) and d.status = :enabled and cr.result in (:results) "
+					+ "order by d.name asc, d.id asc, p.name asc, r.name asc", Object[].class)
+				.setParameterList("deviceIds", deviceIds)
+				.setParameter("enabled", Device.Status.INPRODUCTION)
+				.setParameterList("results", List.of(CheckResult.ResultOption.CONFORMING,
+					CheckResult.ResultOption.NONCONFORMING, CheckResult.ResultOption.EXEMPTED))
+				.list();
+			for (Object[] checkResult : checkResults) {
+				checkResult[5] = checkResult[5].toString();
+			}
+			return checkResults;
+		}
+	}
+
+	/**
+	 * Writer of the Device Groups sheet (not device-based, a single page).
+	 */
+	private final class GroupSheetWriter extends SheetWriter {
+
+		private GroupSheetWriter() {
+			super("Device Groups");
+		}
+
+		@Override
+		protected List<Column> getColumns() {
+			List<Column> columns = new ArrayList<>(Arrays.asList(
+				new Column("Group ID", 2200),
+				new Column("Group Name", 5000),
+				new Column("Folder", 8000),
+				new Column("Device Count", 4000)));
+			if (parameters.compliance()) {
+				columns.add(new Column("Config Compliant Count", 6000));
+				columns.add(new Column("Config Compliance", 5000, CellFormat.PERCENT));
+			}
+			return columns;
+		}
+
+		@Override
+		protected void fetch() throws Exception {
+			List<Object[]> rows = new ArrayList<>();
+			try (Session session = Database.getSession(true)) {
+				List<RsGroupConfigComplianceStat> stats = RestService.queryGroupConfigComplianceStats(
+					session, parameters.domains(), parameters.groups(), Collections.emptySet());
+				for (RsGroupConfigComplianceStat stat : stats) {
+					List<Object> values = new ArrayList<>(Arrays.asList(
+						stat.getGroupId(),
+						stat.getGroupName(),
+						stat.getGroupFolder(),
+						stat.getDeviceCount()));
+					if (parameters.compliance()) {
+						values.add(stat.getCompliantDeviceCount());
+						int x = values.size();
+						values.add(new Formula(String.format("%s{row} / %s{row}",
+							CellReference.convertNumToColString(x - 1),
+							CellReference.convertNumToColString(x - 2))));
+					}
+					rows.add(values.toArray());
+				}
+			}
+			DataExportJob.this.publish(new SheetPage(this, rows, 0));
+		}
+	}
+
+	/**
+	 * Writer of the Group Memberships sheet.
+	 */
+	private final class GroupMembershipSheetWriter extends DevicePageSheetWriter {
+
+		private GroupMembershipSheetWriter() {
+			super("Group Memberships");
+		}
+
+		@Override
+		protected List<Column> getColumns() {
+			return List.of(
+				new Column("Device ID", 2200),
+				new Column("Device Name", 5000),
+				new Column("Group ID", 2200),
+				new Column("Group Name", 5000));
+		}
+
+		@Override
+		protected List<Object[]> fetchRows(Session session, List<Long> deviceIds) {
+			return session
+				.createQuery("select d.id, d.name, g.id, g.name from DeviceGroupMembership gm "
+					+ "join gm.key.device d join gm.key.group g "
+					+ "where d.id in (:deviceIds) and g.hiddenFromReports <> true "
+					+ "order by d.name asc, d.id asc, g.name asc", Object[].class)
+				.setParameterList("deviceIds", deviceIds)
+				.list();
+		}
+	}
+
+	/**
+	 * Writer of the Device Attributes sheet.
+	 */
+	private final class DeviceAttributeSheetWriter extends DevicePageSheetWriter {
+
+		private DeviceAttributeSheetWriter() {
+			super("Device Attributes");
+		}
+
+		@Override
+		protected List<Column> getColumns() {
+			return List.of(
+				new Column("Device ID", 2200),
+				new Column("Device Name", 5000),
+				new Column("Attribute Name", 5000),
+				new Column("Attribute Value", 7000));
+		}
+
+		@Override
+		protected List<Object[]> fetchRows(Session session, List<Long> deviceIds) {
+			List<DeviceAttribute> attributes = session
+				.createQuery("select da from DeviceAttribute da join fetch da.device d "
+					+ "where d.id in (:deviceIds) order by d.name asc, d.id asc, da.id asc", DeviceAttribute.class)
+				.setParameterList("deviceIds", deviceIds)
+				.list();
+			List<Object[]> rows = new ArrayList<>();
+			for (DeviceAttribute attribute : attributes) {
+				try {
+					String value = attribute.getData().toString();
+					Device device = attribute.getDevice();
+					DeviceDriver driver = device.getDeviceDriver();
+					AttributeDefinition definition = driver.getAttributeDefinition(AttributeLevel.DEVICE, attribute.getName());
+					rows.add(new Object[] {
+						device.getId(),
+						device.getName(),
+						definition.getTitle(),
+						value,
+					});
+				}
+				catch (Exception e) {
+					log.warn("Error while exporting attribute (ID {}, name {})... skipping",
+						attribute.getId(), attribute.getName(), e);
+				}
+			}
+			return rows;
+		}
+	}
+
+}
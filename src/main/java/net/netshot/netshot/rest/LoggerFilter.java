@@ -19,6 +19,7 @@
 package net.netshot.netshot.rest;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -30,20 +31,23 @@ import org.slf4j.LoggerFactory;
 import com.augur.tacacs.TacacsException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
 import jakarta.ws.rs.container.ContainerResponseContext;
 import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.container.ResourceInfo;
 import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.HttpHeaders;
 import lombok.extern.slf4j.Slf4j;
 import net.netshot.netshot.Netshot;
 import net.netshot.netshot.aaa.Tacacs;
 import net.netshot.netshot.aaa.User;
+import net.netshot.netshot.database.DatabaseInstrumentation;
 
 /**
- * Filter to log requests.
+ * Filter to log requests (and to attribute the database usage to the REST methods).
  */
 @Slf4j
-public class LoggerFilter implements ContainerResponseFilter {
+public class LoggerFilter implements ContainerRequestFilter, ContainerResponseFilter {
 
 	/** Authentication, Authorization, Accounting logger. */
 	private static final Logger AAA_LOG = LoggerFactory.getLogger("AAA");
@@ -57,6 +61,9 @@ public class LoggerFilter implements ContainerResponseFilter {
 	@Context
 	private HttpServletRequest httpRequest;
 
+	@Context
+	private ResourceInfo resourceInfo;
+
 	/**
 	 * Guess the client IP address based on X-Forwarded-For header (if present).
 	 * @param request = the http request
@@ -98,9 +105,23 @@ public class LoggerFilter implements ContainerResponseFilter {
 		return new URI(scheme, null, serverName, port, path, null, null).toURL();
 	}
 
+	@Override
+	public void filter(ContainerRequestContext requestContext) throws IOException {
+		Method resourceMethod = this.resourceInfo.getResourceMethod();
+		if (resourceMethod != null) {
+			DatabaseInstrumentation.begin("rest", resourceMethod.getName(),
+				"%s %s".formatted(requestContext.getMethod(), requestContext.getUriInfo().getPath()));
+		}
+	}
+
 	@Override
 	public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext)
 		throws IOException {
+		DatabaseInstrumentation.UnitOfWork dbUsage = DatabaseInstrumentation.end();
+		if (dbUsage != null && log.isDebugEnabled()) {
+			log.debug("{} {} - {}", requestContext.getMethod(), requestContext.getUriInfo().getPath(),
+				dbUsage.getSummary());
+		}
 		User user = null;
 		try {
 			user = (User) requestContext.getSecurityContext().getUserPrincipal();
@@ -28,6 +28,7 @@ import org.glassfish.jersey.server.filter.RolesAllowedDynamicFeature;
 
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
 import com.fasterxml.jackson.jakarta.rs.json.JacksonXmlBindJsonProvider;
@@ -57,6 +58,23 @@ import net.netshot.netshot.rest.RestViews.RestApiView;
  */
 @Slf4j
 public class NetshotWebApplication extends ResourceConfig {
+
+	/** JSON mapper used by the JSON provider (and to stream JSON responses). */
+	public static final JsonMapper JSON_MAPPER = JsonMapper.builder()
+		.disable(MapperFeature.DEFAULT_VIEW_INCLUSION)
+		.filterProvider(NetshotWebApplication.defaultFilterProvider())
+		.build();
+
+	/**
+	 * Default Jackson filter provider: property filters (JsonFilter) are only
+	 * applied when explicitly set on the writer (see RestService.setWriterFieldFilter),
+	 * all properties are serialized otherwise.
+	 * @return the filter provider
+	 */
+	private static SimpleFilterProvider defaultFilterProvider() {
+		return new SimpleFilterProvider().setFailOnUnknownId(false);
+	}
+
 	public NetshotWebApplication() {
 		registerClasses(RestService.class, SecurityFilter.class, ApiTokenAuthFilter.class);
 		register(NetshotExceptionMapper.class);
@@ -66,14 +84,13 @@ public class NetshotWebApplication extends ResourceConfig {
 		property(ServerProperties.WADL_FEATURE_DISABLE, true);
 		register(LoggerFilter.class);
 		register(ResponseCodeFilter.class);
+		register(ReadAfterWriteFilter.class);
 		// property(ServerProperties.TRACING, "ALL");
 
 		// JSON
 		JacksonXmlBindJsonProvider jsonProvider = new JacksonXmlBindJsonProvider();
 		jsonProvider.setDefaultView(RestApiView.class);
-		jsonProvider.setMapper(JsonMapper.builder()
-			.disable(MapperFeature.DEFAULT_VIEW_INCLUSION)
-			.build());
+		jsonProvider.setMapper(JSON_MAPPER);
 		register(jsonProvider);
 
 		// XML
@@ -81,6 +98,7 @@ public class NetshotWebApplication extends ResourceConfig {
 		xmlProvider.setDefaultView(RestApiView.class);
 		xmlProvider.setMapper(XmlMapper.builder()
 			.disable(MapperFeature.DEFAULT_VIEW_INCLUSION)
+			.filterProvider(NetshotWebApplication.defaultFilterProvider())
 			.build());
 		register(xmlProvider);
 
@@ -89,6 +107,7 @@ public class NetshotWebApplication extends ResourceConfig {
 		yamlProvider.setDefaultView(RestApiView.class);
 		yamlProvider.setMapper(YAMLMapper.builder()
 			.disable(MapperFeature.DEFAULT_VIEW_INCLUSION)
+			.filterProvider(NetshotWebApplication.defaultFilterProvider())
 			.build());
 		register(yamlProvider);
 
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.rest;
+
+import java.security.Principal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jakarta.annotation.Priority;
+import jakarta.ws.rs.HttpMethod;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import lombok.Getter;
+import net.netshot.netshot.Netshot;
+import net.netshot.netshot.database.Database;
+
+/**
+ * Filter providing read-your-writes consistency when read replicas are used:
+ * for a short while after a user modified data (e.g. created a task), the
+ * read requests of that user are served by the primary database, so that the
+ * UI doesn't miss the change due to replication lag.
+ */
+@Priority(Priorities.USER)
+public class ReadAfterWriteFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+	/**
+	 * Settings/config for the current class.
+	 */
+	public static final class Settings {
+		/** Time (ms) during which the reads of a user go to the primary after a write. */
+		@Getter
+		private long primaryReadTime;
+
+		/**
+		 * Load settings from config.
+		 */
+		private void load() {
+			this.primaryReadTime = Netshot.getConfig("netshot.db.readafterwrite", 10000, 0, 3600000);
+		}
+	}
+
+	/** Settings for this class. */
+	public static final Settings SETTINGS = new Settings();
+
+	/** Time of the last write, per user. */
+	private static final Map<String, Long> LAST_WRITES = new ConcurrentHashMap<>();
+
+	/**
+	 * Load the settings from configuration.
+	 */
+	public static void loadConfig() {
+		ReadAfterWriteFilter.SETTINGS.load();
+	}
+
+	/**
+	 * Check whether the given HTTP method may modify data.
+	 * @param method = the HTTP method
+	 * @return true for a write method
+	 */
+	private static boolean isWriteMethod(String method) {
+		return !HttpMethod.GET.equals(method) && !HttpMethod.HEAD.equals(method)
+			&& !HttpMethod.OPTIONS.equals(method);
+	}
+
+	@Override
+	public void filter(ContainerRequestContext requestContext) {
+		Database.setPrimaryReads(false);
+		if (!Database.hasReadReplicas()) {
+			return;
+		}
+		Principal user = requestContext.getSecurityContext().getUserPrincipal();
+		if (user == null) {
+			return;
+		}
+		Long lastWrite = LAST_WRITES.get(user.getName());
+		if (lastWrite == null) {
+			return;
+		}
+		if (System.currentTimeMillis() - lastWrite < SETTINGS.getPrimaryReadTime()) {
+			Database.setPrimaryReads(true);
+		}
+		else {
+			LAST_WRITES.remove(user.getName(), lastWrite);
+		}
+	}
+
+	@Override
+	public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+		Database.setPrimaryReads(false);
+		if (!Database.hasReadReplicas() || SETTINGS.getPrimaryReadTime() == 0) {
+			return;
+		}
+		Principal user = requestContext.getSecurityContext().getUserPrincipal();
+		if (user != null && isWriteMethod(requestContext.getMethod()) && responseContext.getStatus() < 400) {
+			LAST_WRITES.put(user.getName(), System.currentTimeMillis());
+		}
+	}
+}
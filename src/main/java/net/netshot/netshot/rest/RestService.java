@@ -19,10 +19,10 @@
 package net.netshot.netshot.rest;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.UnknownHostException;
@@ -39,6 +39,7 @@ import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -48,28 +49,17 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.function.BiConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 
-import org.apache.poi.ss.usermodel.BuiltinFormats;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.CellStyle;
-import org.apache.poi.ss.usermodel.CellType;
-import org.apache.poi.ss.usermodel.CreationHelper;
-import org.apache.poi.ss.usermodel.Font;
-import org.apache.poi.ss.usermodel.HorizontalAlignment;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.util.CellRangeAddress;
-import org.apache.poi.ss.util.CellReference;
-import org.apache.poi.xssf.streaming.SXSSFSheet;
-import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.sshd.common.config.keys.PublicKeyEntry;
 import org.glassfish.jersey.servlet.ServletContainer;
 import org.glassfish.jersey.servlet.ServletProperties;
+import org.hibernate.Hibernate;
 import org.hibernate.HibernateException;
 import org.hibernate.ObjectNotFoundException;
 import org.hibernate.Session;
@@ -83,6 +73,7 @@ import org.slf4j.MarkerFactory;
 import org.slf4j.event.Level;
 import org.slf4j.helpers.MessageFormatter;
 
+import com.fasterxml.jackson.annotation.JsonFilter;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.annotation.JsonView;
@@ -90,16 +81,18 @@ import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 import com.fasterxml.jackson.jakarta.rs.cfg.EndpointConfigBase;
 import com.fasterxml.jackson.jakarta.rs.cfg.ObjectWriterInjector;
 import com.fasterxml.jackson.jakarta.rs.cfg.ObjectWriterModifier;
-import com.github.difflib.DiffUtils;
 import com.github.difflib.patch.AbstractDelta;
-import com.github.difflib.patch.Patch;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import io.undertow.Handlers;
 import io.undertow.Undertow;
@@ -127,6 +120,7 @@ import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
 import jakarta.ws.rs.DefaultValue;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.Path;
@@ -139,6 +133,7 @@ import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.MultivaluedMap;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.SecurityContext;
+import jakarta.ws.rs.core.StreamingOutput;
 import jakarta.ws.rs.core.UriBuilder;
 import jakarta.xml.bind.annotation.XmlAccessType;
 import jakarta.xml.bind.annotation.XmlAccessorType;
@@ -153,6 +148,7 @@ import lombok.extern.slf4j.Slf4j;
 import net.netshot.netshot.Netshot;
 import net.netshot.netshot.TaskManager;
 import net.netshot.netshot.aaa.ApiToken;
+import net.netshot.netshot.aaa.ApiTokenCache;
 import net.netshot.netshot.aaa.Oidc;
 import net.netshot.netshot.aaa.PasswordPolicy;
 import net.netshot.netshot.aaa.PasswordPolicy.PasswordPolicyException;
@@ -189,17 +185,16 @@ import net.netshot.netshot.device.Finder.FinderParseException;
 import net.netshot.netshot.device.Module;
 import net.netshot.netshot.device.Network4Address;
 import net.netshot.netshot.device.Network6Address;
-import net.netshot.netshot.device.NetworkAddress;
 import net.netshot.netshot.device.NetworkInterface;
 import net.netshot.netshot.device.StaticDeviceGroup;
 import net.netshot.netshot.device.access.DeviceAccess;
 import net.netshot.netshot.device.attribute.AttributeDefinition;
-import net.netshot.netshot.device.attribute.AttributeDefinition.AttributeLevel;
 import net.netshot.netshot.device.attribute.AttributeDefinition.AttributeType;
 import net.netshot.netshot.device.attribute.ConfigAttribute;
 import net.netshot.netshot.device.attribute.ConfigBinaryFileAttribute;
 import net.netshot.netshot.device.attribute.ConfigLongTextAttribute;
-import net.netshot.netshot.device.attribute.DeviceAttribute;
+import net.netshot.netshot.device.attribute.ConfigTextHistory;
+import net.netshot.netshot.device.attribute.LongTextConfiguration;
 import net.netshot.netshot.device.attribute.OptionDefinition;
 import net.netshot.netshot.device.credentials.DeviceCliAccount;
 import net.netshot.netshot.device.credentials.DeviceCredentialSet;
@@ -220,6 +215,7 @@ import net.netshot.netshot.hooks.WebHook;
 import net.netshot.netshot.rest.RestViews.DefaultView;
 import net.netshot.netshot.rest.RestViews.RestApiView;
 import net.netshot.netshot.utils.HttpsCaTrustMode;
+import net.netshot.netshot.utils.Metrics;
 import net.netshot.netshot.vault.HashicorpVaultKv2Instance;
 import net.netshot.netshot.vault.VaultException;
 import net.netshot.netshot.vault.VaultInstance;
@@ -394,6 +390,23 @@ public class RestService extends Thread {
 		});
 	}
 
+	/**
+	 * Restrict the properties serialized for objects of classes annotated
+	 * with the given Jackson filter ID.
+	 * @param filterId = the filter ID (see JsonFilter annotation)
+	 * @param fields = names of the properties to serialize
+	 */
+	protected void setWriterFieldFilter(String filterId, Set<String> fields) {
+		ObjectWriterInjector.set(new ObjectWriterModifier() {
+			@Override
+			public ObjectWriter modify(EndpointConfigBase<?> endpoint, MultivaluedMap<String, Object> responseHeaders,
+				Object valueToWrite, ObjectWriter w, JsonGenerator g) throws IOException {
+				return w.with(new SimpleFilterProvider()
+					.addFilter(filterId, SimpleBeanPropertyFilter.filterOutAllExcept(fields)));
+			}
+		});
+	}
+
 	/**
 	 * Attach a suggested return code to the request, so the ResponseCodeFilter
 	 * can in turn change the return code of the response.
@@ -1092,7 +1105,7 @@ public class RestService extends Thread {
 			for (ConfigAttribute attribute : config.getAttributes()) {
 				if (attribute.getName().equals(item)) {
 					if (attribute instanceof ConfigLongTextAttribute) {
-						String text = ((ConfigLongTextAttribute) attribute).getLongText().getText();
+						String text = ((ConfigLongTextAttribute) attribute).getLongText().getResolvedText();
 						if (text == null) {
 							throw new WebApplicationException("Configuration item not available",
 								Response.Status.BAD_REQUEST);
@@ -1353,16 +1366,17 @@ public class RestService extends Thread {
 				default:
 					this.diffType = Type.CHANGE;
 			}
+			// Copies, so the (cached) delta doesn't hold the whole config text
 			this.originalPosition = delta.getSource().getPosition();
-			this.originalLines = delta.getSource().getLines();
+			this.originalLines = List.copyOf(delta.getSource().getLines());
 			this.revisedPosition = delta.getTarget().getPosition();
-			this.revisedLines = delta.getTarget().getLines();
-			this.preContext = allOldLines.subList(Math.max(this.originalPosition - 3, 0),
-				this.originalPosition);
-			this.postContext = allOldLines.subList(Math.min(this.originalPosition
+			this.revisedLines = List.copyOf(delta.getTarget().getLines());
+			this.preContext = List.copyOf(allOldLines.subList(Math.max(this.originalPosition - 3, 0),
+				this.originalPosition));
+			this.postContext = List.copyOf(allOldLines.subList(Math.min(this.originalPosition
 					+ this.originalLines.size(), allOldLines.size() - 1),
 				Math.min(this.originalPosition + this.originalLines.size() + 3,
-					allOldLines.size() - 1));
+					allOldLines.size() - 1)));
 			this.hierarchy = new ArrayList<>();
 			int p = this.originalPosition;
 			if (p < oldLineParents.length) {
@@ -1376,6 +1390,79 @@ public class RestService extends Thread {
 		}
 	}
 
+	/**
+	 * Texts of a config attribute to compare (diff not in cache).
+	 * @param item = the attribute name
+	 * @param title = the attribute title
+	 * @param originalText = the original text
+	 * @param revisedText = the revised text
+	 */
+	private record PendingConfigDiff(String item, String title, String originalText, String revisedText) {
+	}
+
+	/**
+	 * Builds the streamed version of a config diff, deltas being computed and written
+	 * one by one (for large configs).
+	 *
+	 * @param configDiff the diff (with the already known deltas)
+	 * @param pendingDiffs the attribute diffs to compute
+	 * @return the streaming output
+	 */
+	private StreamingOutput streamConfigDiff(RsConfigDiff configDiff, List<PendingConfigDiff> pendingDiffs) {
+		return output -> {
+			ObjectWriter writer = NetshotWebApplication.JSON_MAPPER.writerWithView(RestApiView.class);
+			try (JsonGenerator generator = writer.createGenerator(output)) {
+				generator.writeStartObject();
+				generator.writeFieldName("originalDate");
+				writer.writeValue(generator, configDiff.getOriginalDate());
+				generator.writeFieldName("revisedDate");
+				writer.writeValue(generator, configDiff.getRevisedDate());
+				generator.writeFieldName("originalConfigId");
+				writer.writeValue(generator, configDiff.getOriginalConfigId());
+				generator.writeFieldName("revisedConfigId");
+				writer.writeValue(generator, configDiff.getRevisedConfigId());
+				generator.writeFieldName("originalConfig");
+				writer.writeValue(generator, configDiff.getOriginalConfig());
+				generator.writeFieldName("revisedConfig");
+				writer.writeValue(generator, configDiff.getRevisedConfig());
+				generator.writeObjectFieldStart("deltas");
+				for (Map.Entry<String, List<RsConfigDelta>> knownDeltas : configDiff.getDeltas().entrySet()) {
+					generator.writeArrayFieldStart(knownDeltas.getKey());
+					for (RsConfigDelta delta : knownDeltas.getValue()) {
+						writer.writeValue(generator, delta);
+					}
+					generator.writeEndArray();
+				}
+				for (PendingConfigDiff pendingDiff : pendingDiffs) {
+					// Like in the non-streamed version, no entry for attributes without difference
+					boolean[] started = { false };
+					ConfigDiffCache.computeDeltas(configDiff.getOriginalConfigId(), configDiff.getRevisedConfigId(),
+						pendingDiff.item(), pendingDiff.originalText(), pendingDiff.revisedText(), delta -> {
+							try {
+								if (!started[0]) {
+									generator.writeArrayFieldStart(pendingDiff.title());
+									started[0] = true;
+								}
+								writer.writeValue(generator, delta);
+							}
+							catch (IOException e) {
+								throw new UncheckedIOException(e);
+							}
+						});
+					if (started[0]) {
+						generator.writeEndArray();
+					}
+				}
+				generator.writeEndObject();
+				generator.writeEndObject();
+			}
+			catch (UncheckedIOException e) {
+				log.warn("Error while streaming config diff", e);
+				throw e.getCause();
+			}
+		};
+	}
+
 	/**
 	 * Gets the device config diff.
 	 *
@@ -1392,17 +1479,17 @@ public class RestService extends Thread {
 	@JsonView(RestApiView.class)
 	@Operation(
 		summary = "Get the diff between two configuration objects",
-		description = "Retrieves the differences between two given device configuration objets, identified by full IDs."
+		description = "Retrieves the differences between two given device configuration objets, identified by full IDs.",
+		responses = @ApiResponse(content = @Content(schema = @Schema(implementation = RsConfigDiff.class)))
 	)
 	@Tag(name = "Devices", description = "Device (such as network or security equipment) management")
-	public RsConfigDiff getDeviceConfigDiff(
+	public Response getDeviceConfigDiff(
 		@PathParam("id1") @Parameter(description = "First config ID") Long id1,
 		@PathParam("id2") @Parameter(description = "Second config ID") Long id2,
 		@DefaultValue("true") @QueryParam("deltas") @Parameter(description = "Include/compute deltas") boolean includeDeltas,
 		@DefaultValue("false") @QueryParam("fullconfigs") @Parameter(description = "Include full configs") boolean includeConfigs) {
 		log.debug("REST request, get device config diff, id {} and {} ({} deltas).",
 			id1, id2, includeDeltas ? "with" : "without");
-		RsConfigDiff configDiffs;
 		Session session = Database.getSession(true);
 		Config config1;
 		Config config2;
@@ -1446,36 +1533,50 @@ public class RestService extends Thread {
 					NetshotBadRequestException.Reason.NETSHOT_INCOMPATIBLE_CONFIGS);
 			}
 
-			configDiffs = new RsConfigDiff(config1.getChangeDate(), config2.getChangeDate(),
+			final RsConfigDiff configDiffs = new RsConfigDiff(config1.getChangeDate(), config2.getChangeDate(),
 				config1.getId(), config2.getId());
-			if (includeDeltas) {
-				Map<String, ConfigAttribute> attributes1 = config1.getAttributeMap();
-				Map<String, ConfigAttribute> attributes2 = config2.getAttributeMap();
-				for (AttributeDefinition definition : driver1.getAttributes()) {
-					if (definition.isComparable()) {
-						ConfigAttribute attribute1 = attributes1.get(definition.getName());
-						ConfigAttribute attribute2 = attributes2.get(definition.getName());
-						String text1 = attribute1 == null ? "" : attribute1.getAsText();
-						String text2 = attribute2 == null ? "" : attribute2.getAsText();
-						List<String> lines1 = Arrays.asList(text1.replace("\r", "").split("\n"));
-						int[] lineParents1 = Config.getLineParents(lines1);
-						List<String> lines2 = Arrays.asList(text2.replace("\r", "").split("\n"));
-						Patch<String> patch = DiffUtils.diff(lines1, lines2);
-						for (AbstractDelta<String> delta : patch.getDeltas()) {
-							configDiffs.addDelta(definition.getTitle(), new RsConfigDelta(delta, lines1, lineParents1));
+			if (includeConfigs) {
+				configDiffs.setOriginalConfig(config1);
+				configDiffs.setRevisedConfig(config2);
+			}
+			if (!includeDeltas) {
+				configDiffs.setDeltas(null);
+				return Response.ok(configDiffs).build();
+			}
+
+			// Configs never change, so the deltas may be known from a previous request
+			List<PendingConfigDiff> pendingDiffs = new ArrayList<>();
+			long pendingSize = 0;
+			Map<String, ConfigAttribute> attributes1 = config1.getAttributeMap();
+			Map<String, ConfigAttribute> attributes2 = config2.getAttributeMap();
+			for (AttributeDefinition definition : driver1.getAttributes()) {
+				if (definition.isComparable()) {
+					List<RsConfigDelta> deltas = ConfigDiffCache.getDeltas(
+						config1.getId(), config2.getId(), definition.getName());
+					if (deltas != null) {
+						for (RsConfigDelta delta : deltas) {
+							configDiffs.addDelta(definition.getTitle(), delta);
 						}
+						continue;
 					}
+					ConfigAttribute attribute1 = attributes1.get(definition.getName());
+					ConfigAttribute attribute2 = attributes2.get(definition.getName());
+					String text1 = attribute1 == null ? "" : attribute1.getAsText();
+					String text2 = attribute2 == null ? "" : attribute2.getAsText();
+					pendingDiffs.add(new PendingConfigDiff(definition.getName(), definition.getTitle(), text1, text2));
+					pendingSize += text1.length() + text2.length();
 				}
 			}
-			else {
-				configDiffs.setDeltas(null);
+			if (pendingSize > ConfigDiffCache.SETTINGS.getStreamingThreshold() * 1024L) {
+				log.debug("Large configs to compare ({} chars), the diff will be streamed.", pendingSize);
+				return Response.ok(this.streamConfigDiff(configDiffs, pendingDiffs), MediaType.APPLICATION_JSON).build();
 			}
-
-			if (includeConfigs) {
-				configDiffs.setOriginalConfig(config1);
-				configDiffs.setRevisedConfig(config2);
+			for (PendingConfigDiff pendingDiff : pendingDiffs) {
+				ConfigDiffCache.computeDeltas(config1.getId(), config2.getId(), pendingDiff.item(),
+					pendingDiff.originalText(), pendingDiff.revisedText(),
+					delta -> configDiffs.addDelta(pendingDiff.title(), delta));
 			}
-			return configDiffs;
+			return Response.ok(configDiffs).build();
 		}
 		catch (HibernateException e) {
 			log.error("Unable to fetch the configs", e);
@@ -1547,8 +1648,12 @@ public class RestService extends Thread {
 	@XmlAccessorType(XmlAccessType.NONE)
 	@AllArgsConstructor
 	@NoArgsConstructor
+	@JsonFilter(RsLightDevice.FIELD_FILTER)
 	public static class RsLightDevice {
 
+		/** ID of the Jackson filter to select the returned fields. */
+		public static final String FIELD_FILTER = "lightDeviceFieldFilter";
+
 		/** The id. */
 		@Getter(onMethod = @__({
 			@XmlElement, @JsonView(DefaultView.class)
@@ -1627,12 +1732,106 @@ public class RestService extends Thread {
 		protected Device.NetworkClass networkClass = Device.NetworkClass.UNKNOWN;
 	}
 
+	/**
+	 * Selectable fields of RsLightDevice, with the matching HQL expression.
+	 */
+	private enum LightDeviceField {
+		NAME("name", "d.name", (rd, v) -> rd.setName((String) v)),
+		FAMILY("family", "d.family", (rd, v) -> rd.setFamily((String) v)),
+		MGMT_ADDRESS("mgmtAddress", "d.mgmtAddress", (rd, v) -> rd.setMgmtAddress((String) v)),
+		STATUS("status", "d.status", (rd, v) -> rd.setStatus((Device.Status) v)),
+		DRIVER("driver", "d.driver", (rd, v) -> rd.setDriver((String) v)),
+		EOL("eol", "case when (d.eolDate < current_date()) then true else false end",
+			(rd, v) -> rd.setEol((Boolean) v)),
+		EOS("eos", "case when (d.eosDate < current_date()) then true else false end",
+			(rd, v) -> rd.setEos((Boolean) v)),
+		// Computed by a separate query (see setConfigCompliance)
+		CONFIG_COMPLIANT("configCompliant", null, null),
+		SOFTWARE_LEVEL("softwareLevel", "d.softwareLevel",
+			(rd, v) -> rd.setSoftwareLevel((SoftwareRule.ConformanceLevel) v)),
+		NETWORK_CLASS("networkClass", "d.networkClass", (rd, v) -> rd.setNetworkClass((Device.NetworkClass) v));
+
+		/** Name of the field, as serialized. */
+		private final String name;
+
+		/** HQL expression to select the field value. */
+		private final String expression;
+
+		/** Setter of the field. */
+		private final BiConsumer<RsLightDevice, Object> setter;
+
+		LightDeviceField(String name, String expression, BiConsumer<RsLightDevice, Object> setter) {
+			this.name = name;
+			this.expression = expression;
+			this.setter = setter;
+		}
+
+		/**
+		 * Parse a comma-separated list of field names.
+		 * @param fields = the field names, null for all fields
+		 * @return the set of fields
+		 */
+		static Set<LightDeviceField> parse(String fields) {
+			if (fields == null || fields.isBlank()) {
+				return EnumSet.allOf(LightDeviceField.class);
+			}
+			Set<LightDeviceField> selected = EnumSet.noneOf(LightDeviceField.class);
+			fieldLoop:
+			for (String name : fields.split(",")) {
+				name = name.trim();
+				if (name.isEmpty() || "id".equals(name)) {
+					continue;
+				}
+				for (LightDeviceField field : LightDeviceField.values()) {
+					if (field.name.equals(name)) {
+						selected.add(field);
+						continue fieldLoop;
+					}
+				}
+				throw new NetshotBadRequestException("Invalid field '%s'".formatted(name),
+					NetshotBadRequestException.Reason.NETSHOT_INVALID_REQUEST_PARAMETER);
+			}
+			return selected;
+		}
+	}
+
+	/**
+	 * Set the configCompliant flag of the given light devices, using a single query
+	 * (rather than a per-device subquery).
+	 * @param session = the DB session
+	 * @param devices = the devices
+	 */
+	private void setConfigCompliance(Session session, List<RsLightDevice> devices) {
+		if (devices.isEmpty()) {
+			return;
+		}
+		List<Long> deviceIds = new ArrayList<>();
+		for (RsLightDevice device : devices) {
+			deviceIds.add(device.getId());
+		}
+		// Bind the IDs as a single array parameter, whatever the page size, rather than
+		// expanding them (up to the driver parameter limit) or fetching all the
+		// non-compliant devices
+		List<Long> nonCompliantIds = session
+			.createQuery("select distinct cr.key.device.id from CheckResult cr "
+				+ "where cr.result = :nonConforming and array_contains(:deviceIds, cr.key.device.id)", Long.class)
+			.setParameter("deviceIds", deviceIds.toArray(new Long[0]))
+			.setParameter("nonConforming", CheckResult.ResultOption.NONCONFORMING)
+			.list();
+		Set<Long> nonCompliantIdSet = new HashSet<>(nonCompliantIds);
+		for (RsLightDevice device : devices) {
+			device.setConfigCompliant(!nonCompliantIdSet.contains(device.getId()));
+		}
+	}
+
 	/**
 	 * Gets the devices.
 	 *
 	 * @param paginationParams = the pagination parameters
 	 * @param groupId = the group ID
 	 * @param withDetails = whether to include details
+	 * @param afterId = keyset pagination, ID of the last device of the previous page
+	 * @param fields = comma-separated list of fields to return
 	 * @return the devices
 	 * @throws WebApplicationException the web application exception
 	 */
@@ -1649,34 +1848,84 @@ public class RestService extends Thread {
 	public List<RsLightDevice> getDevices(
 		@BeanParam PaginationParams paginationParams,
 		@QueryParam("group") @Parameter(description = "Filter on devices of the given group ID") Long groupId,
-		@QueryParam("details") Boolean withDetails) throws WebApplicationException {
+		@QueryParam("details") Boolean withDetails,
+		@QueryParam("after") @Parameter(description = "Return the devices following this device ID "
+			+ "(ID of the last device of the previous page)") Long afterId,
+		@QueryParam("fields") @Parameter(description = "Comma-separated list of fields to return "
+			+ "(the ID is always returned), all fields by default") String fields) throws WebApplicationException {
 		log.debug("REST request, devices.");
 
+		Set<LightDeviceField> selectedFields = LightDeviceField.parse(fields);
 		Session session = Database.getSession(true);
 		try {
-			String hqlQuery = "select new RsLightDevice("
-				+ "d.id, "
-				+ "d.name, "
-				+ "d.family, "
-				+ "d.mgmtAddress, "
-				+ "d.status, "
-				+ "d.driver, "
-				+ "case when (d.eolDate < current_date()) then true else false end,  "
-				+ "case when (d.eosDate < current_date()) then true else false end, "
-				+ "case when (select count(cr) from CheckResult cr where cr.key.device = d and cr.result = :nonConforming) = 0 then true else false end, "
-				+ "d.softwareLevel, "
-				+ "d.networkClass "
-				+ ") from Device d";
+			StringBuilder hqlQuery = new StringBuilder("select d.id");
+			for (LightDeviceField field : selectedFields) {
+				if (field.expression != null) {
+					hqlQuery.append(", ").append(field.expression);
+				}
+			}
+			hqlQuery.append(" from Device d");
+			Object[] afterCursor = null;
 			if (groupId != null) {
-				hqlQuery += " join d.groupMemberships gm where gm.key.group.id = :groupId order by gm.position asc, d.name asc";
+				hqlQuery.append(" join d.groupMemberships gm where gm.key.group.id = :groupId");
+				if (afterId != null) {
+					afterCursor = session
+						.createQuery("select gm.position, d.name from Device d join d.groupMemberships gm "
+							+ "where gm.key.group.id = :groupId and d.id = :afterId", Object[].class)
+						.setParameter("groupId", groupId)
+						.setParameter("afterId", afterId)
+						.uniqueResult();
+					if (afterCursor == null) {
+						throw new NetshotBadRequestException("Invalid after parameter (no such device in the group)",
+							NetshotBadRequestException.Reason.NETSHOT_INVALID_REQUEST_PARAMETER);
+					}
+					hqlQuery.append(" and (gm.position > :afterPosition or (gm.position = :afterPosition and "
+						+ "(d.name > :afterName or (d.name = :afterName and d.id > :afterId))))");
+				}
+				hqlQuery.append(" order by gm.position asc, d.name asc, d.id asc");
 			}
-			Query<RsLightDevice> query = session.createQuery(hqlQuery, RsLightDevice.class);
-			query.setParameter("nonConforming", CheckResult.ResultOption.NONCONFORMING);
+			else {
+				if (afterId != null) {
+					hqlQuery.append(" where d.id > :afterId");
+				}
+				hqlQuery.append(" order by d.id asc");
+			}
+			Query<Object[]> query = session.createQuery(hqlQuery.toString(), Object[].class);
 			if (groupId != null) {
 				query.setParameter("groupId", groupId);
 			}
+			if (afterId != null) {
+				query.setParameter("afterId", afterId);
+			}
+			if (afterCursor != null) {
+				query.setParameter("afterPosition", afterCursor[0]);
+				query.setParameter("afterName", afterCursor[1]);
+			}
 			paginationParams.apply(query);
-			return query.list();
+			List<RsLightDevice> devices = new ArrayList<>();
+			for (Object[] row : query.list()) {
+				RsLightDevice device = new RsLightDevice();
+				device.setId((Long) row[0]);
+				int c = 1;
+				for (LightDeviceField field : selectedFields) {
+					if (field.expression != null) {
+						field.setter.accept(device, row[c++]);
+					}
+				}
+				devices.add(device);
+			}
+			if (selectedFields.contains(LightDeviceField.CONFIG_COMPLIANT)) {
+				this.setConfigCompliance(session, devices);
+			}
+			if (fields != null && !fields.isBlank()) {
+				Set<String> fieldNames = new HashSet<>();
+				fieldNames.add("id");
+				for (LightDeviceField field : selectedFields) {
+					fieldNames.add(field.name);
+				}
+				this.setWriterFieldFilter(RsLightDevice.FIELD_FILTER, fieldNames);
+			}
+			return devices;
 		}
 		catch (HibernateException e) {
 			log.error("Unable to fetch the devices", e);
@@ -2601,15 +2850,23 @@ public class RestService extends Thread {
 				this.suggestReturnCode(Response.Status.NOT_FOUND);
 				return;
 			}
-			List<java.nio.file.Path> toDeletePathes = new ArrayList<>();
-			List<ConfigBinaryFileAttribute> attributes = session
+			List<ConfigBinaryFileAttribute> fileAttributes = session
 				.createQuery("from ConfigBinaryFileAttribute cfa where cfa.config.device = :device",
 					ConfigBinaryFileAttribute.class)
 				.setParameter("device", device)
 				.list();
-			for (ConfigBinaryFileAttribute attribute : attributes) {
-				toDeletePathes.add(attribute.getFilePath());
+			// Store in full the texts of other devices which would be deltas against the removed ones
+			List<LongTextConfiguration> dependents = session
+				.createQuery("from LongTextConfiguration ltc where ltc.deltaBase in "
+					+ "(select ca.longText from Config c join c.attributes ca where c.device = :device) "
+					+ "and ltc not in (select ca.longText from Config c join c.attributes ca where c.device = :device)",
+					LongTextConfiguration.class)
+				.setParameter("device", device)
+				.list();
+			for (LongTextConfiguration dependent : dependents) {
+				ConfigTextHistory.materialize(dependent);
 			}
+			session.flush();
 			// Remove the long text attributes (due to delete cascade constraint)
 			session
 				.createMutationQuery("delete from LongTextConfiguration ltc where ltc in (select da.longText from DeviceLongTextAttribute da where da.device = :device)")
@@ -2627,14 +2884,8 @@ public class RestService extends Thread {
 			session.remove(device);
 			session.getTransaction().commit();
 			AAA_LOG.info("Device of ID {} has been deleted.", device.getId());
-			for (java.nio.file.Path toDeletePath : toDeletePathes) {
-				try {
-					Files.delete(toDeletePath);
-				}
-				catch (Exception e) {
-					log.error("Error while removing binary file {}", toDeletePath, e);
-				}
-			}
+			// Content files shared with other devices are kept
+			ConfigBinaryFileAttribute.removeFiles(session, fileAttributes, true);
 			this.suggestReturnCode(Response.Status.NO_CONTENT);
 		}
 		catch (HibernateException e) {
@@ -2906,13 +3157,16 @@ public class RestService extends Thread {
 		Task task;
 		try {
 			task = session.get(Task.class, id);
-			DebugLog debugLog = task.getDebugLog();
-			String text = debugLog == null ? "" : debugLog.getText();
+			// Load the (compressed) log now, it's decompressed while streaming the response
+			DebugLog debugLog = Hibernate.unproxy(task.getDebugLog(), DebugLog.class);
 			String fileName = String.format("debug_%d.log", id);
-			byte[] content = text.getBytes(java.nio.charset.StandardCharsets.UTF_8);
-			return Response.ok(content, MediaType.APPLICATION_OCTET_STREAM)
+			StreamingOutput output = stream -> {
+				if (debugLog != null) {
+					debugLog.writeTo(stream);
+				}
+			};
+			return Response.ok(output, MediaType.APPLICATION_OCTET_STREAM)
 				.header(Headers.CONTENT_DISPOSITION_STRING, "attachment; filename=\"%s\"".formatted(fileName))
-				.header(Headers.CONTENT_LENGTH_STRING, content.length)
 				.build();
 		}
 		catch (ObjectNotFoundException e) {
@@ -3210,8 +3464,10 @@ public class RestService extends Thread {
 				hqlParams.put("startDate", new Date(startDate));
 			}
 			if (endDate != null) {
+				// A task is created before being executed or changed: the creation date bound
+				// restricts the scan to the matching task partitions
 				hqlQuery.append(" and (((t.executionDate is not null) and (t.executionDate <= :endDate)) "
-					+ "or ((t.executionDate is null) and (t.changeDate < :endDate)))");
+					+ "or ((t.executionDate is null) and (t.changeDate < :endDate))) and (t.creationDate <= :endDate)");
 				hqlParams.put("endDate", new Date(endDate));
 			}
 			if (parentTaskId != null) {
@@ -3920,13 +4176,13 @@ public class RestService extends Thread {
 					+ "d.driver, "
 					+ "case when (d.eolDate < current_date()) then true else false end,  "
 					+ "case when (d.eosDate < current_date()) then true else false end, "
-					+ "case when (select count(cr) from CheckResult cr where cr.key.device = d and cr.result = :nonConforming) = 0 then true else false end, "
+					+ "true, "
 					+ "d.softwareLevel, "
 					+ "d.networkClass) " + finder.getHql(), RsLightDevice.class);
 				finder.setVariables(query);
-				query.setParameter("nonConforming", CheckResult.ResultOption.NONCONFORMING);
 				paginationParams.apply(query);
 				List<RsLightDevice> devices = query.list();
+				this.setConfigCompliance(session, devices);
 				RsSearchResults results = new RsSearchResults();
 				results.setDevices(devices);
 				results.setQuery(finder.getFormattedQuery());
@@ -4540,6 +4796,14 @@ public class RestService extends Thread {
 		@Setter
 		private boolean dontCheckCompliance;
 
+		/** Evaluate all the rules, even when their inputs are unchanged (applies to compliance tasks). */
+		@Schema(description = "Evaluate all the rules again, even when their inputs are unchanged (applies to compliance tasks)")
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private boolean forceFullCheck;
+
 		/** Automatically run a snapshot after successful script execution (applies to script tasks). */
 		@Schema(description = "Automatically run a snapshot after successful script execution (applies to script tasks)")
 		@Getter(onMethod = @__({
@@ -4832,7 +5096,7 @@ public class RestService extends Thread {
 				List<RsTaskStatusCount> counts = session
 					.createQuery(
 						"select new RsTaskStatusCount(t.status, count(t.id)) from Task t "
-							+ "where t.status in :statuses and ("
+							+ "where t.status in :statuses and (t.creationDate < :bucketEnd) and ("
 							+ "((t.executionDate is not null) and (t.executionDate >= :bucketStart) and (t.executionDate < :bucketEnd)) "
 							+ "or ((t.executionDate is null) and (t.changeDate >= :bucketStart) and (t.changeDate < :bucketEnd))) "
 							+ "group by t.status",
@@ -4853,7 +5117,8 @@ public class RestService extends Thread {
 			for (Class<? extends Task> taskClass : Task.getTaskClasses()) {
 				Long count = session
 					.createQuery(
-						"select count(t.id) from Task t where type(t) = :class and t.status in :statuses and ("
+						"select count(t.id) from Task t where type(t) = :class and t.status in :statuses "
+							+ "and (t.creationDate < :rangeEnd) and ("
 							+ "((t.executionDate is not null) and (t.executionDate >= :rangeStart) and (t.executionDate < :rangeEnd)) "
 							+ "or ((t.executionDate is null) and (t.changeDate >= :rangeStart) and (t.changeDate < :rangeEnd)))",
 						Long.class)
@@ -5104,7 +5369,9 @@ public class RestService extends Thread {
 			finally {
 				session.close();
 			}
-			task = new CheckComplianceTask(device, rsTask.getComments(), userName);
+			CheckComplianceTask checkTask = new CheckComplianceTask(device, rsTask.getComments(), userName);
+			checkTask.setForceFullCheck(rsTask.isForceFullCheck());
+			task = checkTask;
 		}
 		else if ("TakeGroupSnapshotTask".equals(rsTask.getType())) {
 			log.trace("Adding a TakeGroupSnapshotTask");
@@ -5158,6 +5425,7 @@ public class RestService extends Thread {
 					List<Device> devices = resolveDeviceList(session, rsTask);
 					task = new CheckGroupComplianceTask(devices, rsTask.getComments(), userName);
 				}
+				((CheckGroupComplianceTask) task).setForceFullCheck(rsTask.isForceFullCheck());
 			}
 			catch (HibernateException e) {
 				log.error("Error while retrieving the group.", e);
@@ -6850,6 +7118,57 @@ public class RestService extends Thread {
 
 	}
 
+	/**
+	 * Query the group config compliance stats.
+	 *
+	 * @param session the DB session
+	 * @param domains filter on device domains (empty for all)
+	 * @param deviceGroups filter on device groups (empty for all)
+	 * @param policies filter on policies (empty for all)
+	 * @return the group config compliance stats
+	 * @throws HibernateException in case of DB error
+	 */
+	static List<RsGroupConfigComplianceStat> queryGroupConfigComplianceStats(Session session,
+		Set<Long> domains, Set<Long> deviceGroups, Set<Long> policies) throws HibernateException {
+		String domainFilter = "";
+		if (domains.size() > 0) {
+			domainFilter = " d.mgmtDomain.id in (:domainIds) and";
+		}
+		String ccrFilter = "";
+		if (policies.size() > 0) {
+			ccrFilter = " rule.policy.id in (:policyIds) and";
+		}
+		String groupFilter = "";
+		if (deviceGroups.size() > 0) {
+			groupFilter = " g.id in (:groupIds) and";
+		}
+
+		Query<RsGroupConfigComplianceStat> query = session
+			.createQuery(
+				"select new RsGroupConfigComplianceStat("
+					+ "g.id as groupId, "
+					+ "g.name as groupName, "
+					+ "g.folder as groupFolder, "
+					+ "(select count(d) from g.cachedMemberships dm join dm.key.device d where" + domainFilter + " d.status = :enabled and "
+					+ "(select count(ccr.result) from d.complianceCheckResults ccr join ccr.key.rule rule where"
+					+ ccrFilter + " ccr.result = :nonConforming) = 0) as compliantDeviceCount, "
+					+ "(select count(d) from g.cachedMemberships dm join dm.key.device d where" + domainFilter + " d.status = :enabled) as deviceCount "
+					+ ") from DeviceGroup g where" + groupFilter + " g.hiddenFromReports <> true",
+				RsGroupConfigComplianceStat.class)
+			.setParameter("nonConforming", CheckResult.ResultOption.NONCONFORMING)
+			.setParameter("enabled", Device.Status.INPRODUCTION);
+		if (domains.size() > 0) {
+			query.setParameterList("domainIds", domains);
+		}
+		if (policies.size() > 0) {
+			query.setParameterList("policyIds", policies);
+		}
+		if (deviceGroups.size() > 0) {
+			query.setParameterList("groupIds", deviceGroups);
+		}
+		return query.list();
+	}
+
 	/**
 	 * Gets the group config compliance stats.
 	 *
@@ -6878,44 +7197,7 @@ public class RestService extends Thread {
 		log.debug("REST request, group config compliance stats.");
 		Session session = Database.getSession(true);
 		try {
-			String domainFilter = "";
-			if (domains.size() > 0) {
-				domainFilter = " d.mgmtDomain.id in (:domainIds) and";
-			}
-			String ccrFilter = "";
-			if (policies.size() > 0) {
-				ccrFilter = " rule.policy.id in (:policyIds) and";
-			}
-			String groupFilter = "";
-			if (deviceGroups.size() > 0) {
-				groupFilter = " g.id in (:groupIds) and";
-			}
-
-			Query<RsGroupConfigComplianceStat> query = session
-				.createQuery(
-					"select new RsGroupConfigComplianceStat("
-						+ "g.id as groupId, "
-						+ "g.name as groupName, "
-						+ "g.folder as groupFolder, "
-						+ "(select count(d) from g.cachedMemberships dm join dm.key.device d where" + domainFilter + " d.status = :enabled and "
-						+ "(select count(ccr.result) from d.complianceCheckResults ccr join ccr.key.rule rule where"
-						+ ccrFilter + " ccr.result = :nonConforming) = 0) as compliantDeviceCount, "
-						+ "(select count(d) from g.cachedMemberships dm join dm.key.device d where" + domainFilter + " d.status = :enabled) as deviceCount "
-						+ ") from DeviceGroup g where" + groupFilter + " g.hiddenFromReports <> true",
-					RsGroupConfigComplianceStat.class)
-				.setParameter("nonConforming", CheckResult.ResultOption.NONCONFORMING)
-				.setParameter("enabled", Device.Status.INPRODUCTION);
-			if (domains.size() > 0) {
-				query.setParameterList("domainIds", domains);
-			}
-			if (policies.size() > 0) {
-				query.setParameterList("policyIds", policies);
-			}
-			if (deviceGroups.size() > 0) {
-				query.setParameterList("groupIds", deviceGroups);
-			}
-			List<RsGroupConfigComplianceStat> stats = query.list();
-			return stats;
+			return RestService.queryGroupConfigComplianceStats(session, domains, deviceGroups, policies);
 		}
 		catch (HibernateException e) {
 			log.error("Unable to get the stats.", e);
@@ -9233,6 +9515,8 @@ public class RestService extends Thread {
 			}
 			session.remove(apiToken);
 			session.getTransaction().commit();
+			ApiTokenCache.invalidate(id);
+			ClusterManager.requestApiTokenInvalidation(id);
 			AAA_LOG.info("API token of ID {} has been deleted", apiToken);
 			this.suggestReturnCode(Response.Status.NO_CONTENT);
 		}
@@ -9280,684 +9564,410 @@ public class RestService extends Thread {
 		User user = (User) securityContext.getUserPrincipal();
 
 		if (fileFormat.compareToIgnoreCase("xlsx") == 0) {
-			String fileName = String.format("netshot-export_%s.xlsx", new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()));
-
-			Session session = Database.getSession(true);
-			SXSSFWorkbook workBook = new SXSSFWorkbook(100);
+			// Run as a background job (sharing the limit of concurrent exports), waiting for it
+			DataExportJob job = DataExportJob.submit(user.getName(), new DataExportJob.Parameters(
+				domains, groups, exportInterfaces, exportInventory, exportInventoryHistory,
+				exportLocations, exportCompliance, exportGroups, exportDeviceDriverAttributes));
 			try {
-				Row row;
-				Cell cell;
-
-				CreationHelper createHelper = workBook.getCreationHelper();
-				CellStyle datetimeCellStyle = workBook.createCellStyle();
-				datetimeCellStyle.setDataFormat(createHelper.createDataFormat().getFormat("yyyy-mm-dd hh:mm"));
-				datetimeCellStyle.setAlignment(HorizontalAlignment.LEFT);
-				CellStyle dateCellStyle = workBook.createCellStyle();
-				dateCellStyle.setDataFormat(createHelper.createDataFormat().getFormat("yyyy-mm-dd"));
-				CellStyle titleCellStyle = workBook.createCellStyle();
-				Font titleFont = workBook.createFont();
-				titleFont.setBold(true);
-				titleCellStyle.setFont(titleFont);
-				CellStyle percentCellStyle = workBook.createCellStyle();
-				percentCellStyle.setDataFormat(workBook.createDataFormat()
-					.getFormat(BuiltinFormats.getBuiltinFormat(0x09)));
-
-				Sheet summarySheet = workBook.createSheet("Summary");
-				summarySheet.setColumnWidth(0, 5000);
-				summarySheet.setColumnWidth(1, 8000);
-
-				{
-					int y = -1;
-					row = summarySheet.createRow(++y);
-					row.createCell(0).setCellValue("Netshot version");
-					row.getCell(0).setCellStyle(titleCellStyle);
-					row.createCell(1).setCellValue(Netshot.VERSION);
-					row = summarySheet.createRow(++y);
-					row.createCell(0).setCellValue("Exported by");
-					row.getCell(0).setCellStyle(titleCellStyle);
-					row.createCell(1).setCellValue(user.getName());
-					row = summarySheet.createRow(++y);
-					row.createCell(0).setCellValue("Date and time");
-					row.getCell(0).setCellStyle(titleCellStyle);
-					cell = row.createCell(1);
-					cell.setCellValue(new Date());
-					cell.setCellStyle(datetimeCellStyle);
-
-					row = summarySheet.createRow(++y);
-					row.createCell(0).setCellValue("Selected Domain");
-					row.getCell(0).setCellStyle(titleCellStyle);
-					if (domains.isEmpty()) {
-						row.createCell(1).setCellValue("Any");
-					}
-					else {
-						List<Domain> deviceDomains = session
-							.createQuery("select d from Domain d where d.id in (:domainIds)", Domain.class)
-							.setParameterList("domainIds", domains)
-							.list();
-						List<String> domainNames = new ArrayList<>();
-						for (Domain deviceDomain : deviceDomains) {
-							domainNames.add(String.format("%s (%d)", deviceDomain.getName(), deviceDomain.getId()));
-						}
-						row.createCell(1).setCellValue(String.join(", ", domainNames));
-					}
-					row = summarySheet.createRow(++y);
-					row.createCell(0).setCellValue("Selected Group");
-					row.getCell(0).setCellStyle(titleCellStyle);
-					if (groups.isEmpty()) {
-						row.createCell(1).setCellValue("Any");
-					}
-					else {
-						List<DeviceGroup> deviceGroups = session
-							.createQuery("select g from DeviceGroup g where g.id in (:groupIds)", DeviceGroup.class)
-							.setParameterList("groupIds", groups)
-							.list();
-						List<String> groupNames = new ArrayList<>();
-						for (DeviceGroup group : deviceGroups) {
-							groupNames.add(String.format("%s (%d)", group.getName(), group.getId()));
-						}
-						row.createCell(1).setCellValue(String.join(", ", groupNames));
-					}
-					summarySheet.setDefaultColumnStyle(0, titleCellStyle);
+				job.awaitCompletion();
+			}
+			catch (InterruptedException e) {
+				DataExportJob.remove(job.getId());
+				Thread.currentThread().interrupt();
+				throw new WebApplicationException("Interrupted while generating the report.",
+					Response.Status.SERVICE_UNAVAILABLE);
+			}
+			if (job.getStatus() != DataExportJob.Status.SUCCESS) {
+				DataExportJob.remove(job.getId());
+				throw new WebApplicationException("Unable to generate the report.",
+					Response.Status.INTERNAL_SERVER_ERROR);
+			}
+			java.nio.file.Path filePath = job.getFilePath();
+			StreamingOutput output = stream -> {
+				try {
+					Files.copy(filePath, stream);
+				}
+				finally {
+					DataExportJob.remove(job.getId());
 				}
+			};
+			return Response
+				.ok(output, MediaType.APPLICATION_OCTET_STREAM)
+				.header(Headers.CONTENT_DISPOSITION_STRING, "attachment; filename=\"%s\"".formatted(job.getFileName()))
+				.header(Headers.CONTENT_LENGTH_STRING, job.getFileSize())
+				.build();
+		}
 
-				{
-					StringBuilder deviceHqlQuery = new StringBuilder(
-						"select d from Device d left join d.groupMemberships gm "
-							+ "left join fetch d.mgmtDomain "
-							+ "where 1 = 1");
-					if (domains.size() > 0) {
-						deviceHqlQuery.append(" and d.mgmtDomain.id in (:domainIds)");
-					}
-					if (groups.size() > 0) {
-						deviceHqlQuery.append(" and gm.key.group.id in (:groupIds)");
-					}
-					deviceHqlQuery.append(" order by d.name asc");
-					Query<Device> deviceQuery = session.createQuery(deviceHqlQuery.toString(), Device.class);
-					if (domains.size() > 0) {
-						deviceQuery.setParameterList("domainIds", domains);
-					}
-					if (groups.size() > 0) {
-						deviceQuery.setParameterList("groupIds", groups);
-					}
-					deviceQuery.setMaxResults(PAGINATION_SIZE);
-
-					Sheet deviceSheet = workBook.createSheet("Devices");
-					((SXSSFSheet) deviceSheet).setRandomAccessWindowSize(100);
-					int y = -1;
-					{
-						row = deviceSheet.createRow(++y);
-						int x = -1;
-						row.createCell(++x).setCellValue("ID");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						deviceSheet.setColumnWidth(x, 2200);
-						row.createCell(++x).setCellValue("Name");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						deviceSheet.setColumnWidth(x, 5000);
-						row.createCell(++x).setCellValue("Management IP");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						deviceSheet.setColumnWidth(x, 4000);
-						row.createCell(++x).setCellValue("Domain");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						deviceSheet.setColumnWidth(x, 4000);
-						row.createCell(++x).setCellValue("Network Class");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						deviceSheet.setColumnWidth(x, 4000);
-						row.createCell(++x).setCellValue("Family");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						deviceSheet.setColumnWidth(x, 5000);
-						row.createCell(++x).setCellValue("Creation");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						deviceSheet.setColumnWidth(x, 4200);
-						row.createCell(++x).setCellValue("Last Change");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						deviceSheet.setColumnWidth(x, 4200);
-						row.createCell(++x).setCellValue("Software");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						deviceSheet.setColumnWidth(x, 5000);
-						if (exportCompliance) {
-							row.createCell(++x).setCellValue("Software Level");
-							row.getCell(x).setCellStyle(titleCellStyle);
-							deviceSheet.setColumnWidth(x, 3500);
-							row.createCell(++x).setCellValue("End of Sale Date");
-							row.getCell(x).setCellStyle(titleCellStyle);
-							deviceSheet.setColumnWidth(x, 4200);
-							row.createCell(++x).setCellValue("End Of Life Date");
-							row.getCell(x).setCellStyle(titleCellStyle);
-							deviceSheet.setColumnWidth(x, 4200);
-						}
-						if (exportLocations) {
-							row.createCell(++x).setCellValue("Location");
-							row.getCell(x).setCellStyle(titleCellStyle);
-							deviceSheet.setColumnWidth(x, 5000);
-							row.createCell(++x).setCellValue("Contact");
-							row.getCell(x).setCellStyle(titleCellStyle);
-							deviceSheet.setColumnWidth(x, 5000);
-						}
-						row.setRowStyle(titleCellStyle);
-						deviceSheet.createFreezePane(0, y + 1);
-						deviceSheet.setAutoFilter(new CellRangeAddress(0, y, 0, x));
-					}
+		log.warn("Invalid requested file format.");
+		throw new WebApplicationException(
+			"The requested file format is invalid or not supported.",
+			Response.Status.BAD_REQUEST);
+	}
 
-					for (int n = 0; true; n += PAGINATION_SIZE) {
-						List<Device> devices = deviceQuery.setFirstResult(n).list();
-						if (devices.size() == 0) {
-							break;
-						}
-						for (Device device : devices) {
-							int x = -1;
-							row = deviceSheet.createRow(++y);
-							row.createCell(++x).setCellValue(device.getId());
-							row.createCell(++x).setCellValue(device.getName());
-							row.createCell(++x).setCellValue(device.getMgmtAddress());
-							row.createCell(++x).setCellValue(device.getMgmtDomain().getName());
-							row.createCell(++x).setCellValue(device.getNetworkClass().toString());
-							row.createCell(++x).setCellValue(device.getFamily());
-							cell = row.createCell(++x);
-							cell.setCellValue(device.getCreatedDate());
-							cell.setCellStyle(datetimeCellStyle);
-							cell = row.createCell(++x);
-							cell.setCellValue(device.getChangeDate());
-							cell.setCellStyle(datetimeCellStyle);
-							row.createCell(++x).setCellValue(device.getSoftwareVersion());
-							if (exportCompliance) {
-								row.createCell(++x).setCellValue((device.getSoftwareLevel() == null
-									? ConformanceLevel.UNKNOWN : device.getSoftwareLevel()).toString());
-								cell = row.createCell(++x);
-								if (device.getEosDate() != null) {
-									cell.setCellValue(device.getEosDate());
-									cell.setCellStyle(dateCellStyle);
-								}
-								cell = row.createCell(++x);
-								if (device.getEolDate() != null) {
-									cell.setCellValue(device.getEolDate());
-									cell.setCellStyle(dateCellStyle);
-								}
-							}
-							if (exportLocations) {
-								row.createCell(++x).setCellValue(device.getLocation());
-								row.createCell(++x).setCellValue(device.getContact());
-							}
-						}
-					}
-				}
+	/**
+	 * Data export request.
+	 */
+	@XmlRootElement
+	@XmlAccessorType(XmlAccessType.NONE)
+	public static class RsDataExportRequest {
 
-				if (exportInterfaces) {
-					log.debug("Exporting interface data");
-					StringBuilder interfaceHqlQuery = new StringBuilder(
-						"select ni from NetworkInterface ni "
-							+ "left join fetch ni.ip4Addresses left join fetch ni.ip6Addresses "
-							+ "join ni.device d left join d.groupMemberships gm where 1 = 1");
-					if (domains.size() > 0) {
-						interfaceHqlQuery.append(" and d.mgmtDomain.id in (:domainIds)");
-					}
-					if (groups.size() > 0) {
-						interfaceHqlQuery.append(" and gm.key.group.id in (:groupIds)");
-					}
-					interfaceHqlQuery.append(" order by d.name asc, ni.id asc");
-					Query<NetworkInterface> interfaceQuery = session.createQuery(interfaceHqlQuery.toString(),
-						NetworkInterface.class);
-					if (domains.size() > 0) {
-						interfaceQuery.setParameterList("domainIds", domains);
-					}
-					if (groups.size() > 0) {
-						interfaceQuery.setParameterList("groupIds", groups);
-					}
+		/** Filter on domains. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private Set<Long> domains = new HashSet<>();
 
-					Sheet interfaceSheet = workBook.createSheet("Interfaces");
-					((SXSSFSheet) interfaceSheet).setRandomAccessWindowSize(100);
-					int y = -1;
-					{
-						row = interfaceSheet.createRow(++y);
-						int x = -1;
-						row.createCell(++x).setCellValue("Device ID");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						interfaceSheet.setColumnWidth(x, 2200);
-						row.createCell(++x).setCellValue("Device Name");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						interfaceSheet.setColumnWidth(x, 5000);
-						row.createCell(++x).setCellValue("Virtual Device");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						interfaceSheet.setColumnWidth(x, 5000);
-						row.createCell(++x).setCellValue("Name");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						interfaceSheet.setColumnWidth(x, 5000);
-						row.createCell(++x).setCellValue("Description");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						interfaceSheet.setColumnWidth(x, 7000);
-						row.createCell(++x).setCellValue("VRF");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						interfaceSheet.setColumnWidth(x, 5000);
-						row.createCell(++x).setCellValue("MAC Address");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						interfaceSheet.setColumnWidth(x, 4000);
-						row.createCell(++x).setCellValue("Enabled");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						interfaceSheet.setColumnWidth(x, 2000);
-						row.createCell(++x).setCellValue("Level 3");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						interfaceSheet.setColumnWidth(x, 2000);
-						row.createCell(++x).setCellValue("IP Address");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						interfaceSheet.setColumnWidth(x, 4000);
-						row.createCell(++x).setCellValue("Length");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						interfaceSheet.setColumnWidth(x, 2000);
-						row.createCell(++x).setCellValue("Usage");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						interfaceSheet.setColumnWidth(x, 4000);
-						row.setRowStyle(titleCellStyle);
-						interfaceSheet.createFreezePane(0, y + 1);
-						interfaceSheet.setAutoFilter(new CellRangeAddress(0, y, 0, x));
-					}
+		/** Filter on groups. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private Set<Long> groups = new HashSet<>();
 
-					List<NetworkInterface> networkInterfaces = interfaceQuery.list();
-					for (NetworkInterface networkInterface : networkInterfaces) {
-						Device device = networkInterface.getDevice();
-						if (networkInterface.getIpAddresses().isEmpty()) {
-							row = interfaceSheet.createRow(++y);
-							int x = -1;
-							row.createCell(++x).setCellValue(device.getId());
-							row.createCell(++x).setCellValue(device.getName());
-							row.createCell(++x).setCellValue(networkInterface.getVirtualDevice());
-							row.createCell(++x).setCellValue(networkInterface.getInterfaceName());
-							row.createCell(++x).setCellValue(networkInterface.getDescription());
-							row.createCell(++x).setCellValue(networkInterface.getVrfInstance());
-							row.createCell(++x).setCellValue(networkInterface.getMacAddress());
-							row.createCell(++x).setCellValue(networkInterface.isEnabled());
-							row.createCell(++x).setCellValue(networkInterface.isLevel3());
-							row.createCell(++x).setCellValue("");
-							row.createCell(++x).setCellValue("");
-							row.createCell(++x).setCellValue("");
-						}
-						for (NetworkAddress address : networkInterface.getIpAddresses()) {
-							row = interfaceSheet.createRow(++y);
-							int x = -1;
-							row.createCell(++x).setCellValue(device.getId());
-							row.createCell(++x).setCellValue(device.getName());
-							row.createCell(++x).setCellValue(networkInterface.getVirtualDevice());
-							row.createCell(++x).setCellValue(networkInterface.getInterfaceName());
-							row.createCell(++x).setCellValue(networkInterface.getDescription());
-							row.createCell(++x).setCellValue(networkInterface.getVrfInstance());
-							row.createCell(++x).setCellValue(networkInterface.getMacAddress());
-							row.createCell(++x).setCellValue(networkInterface.isEnabled());
-							row.createCell(++x).setCellValue(networkInterface.isLevel3());
-							row.createCell(++x).setCellValue(address.getIp());
-							row.createCell(++x).setCellValue(address.getPrefixLength());
-							row.createCell(++x).setCellValue(address.getAddressUsage() == null ? "" : address.getAddressUsage().toString());
-						}
-					}
-					session.clear();
-				}
+		/** Whether to export interfaces. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private boolean exportInterfaces;
 
-				if (exportInventory) {
-					log.debug("Exporting device inventory");
-					StringBuilder moduleHqlQuery = new StringBuilder(
-						"select m from Module m "
-							+ "join m.device d left join d.groupMemberships gm where 1 = 1");
-					if (!exportInventoryHistory) {
-						moduleHqlQuery.append(" and m.removed is not true");
-					}
-					if (domains.size() > 0) {
-						moduleHqlQuery.append(" and d.mgmtDomain.id in (:domainIds)");
-					}
-					if (groups.size() > 0) {
-						moduleHqlQuery.append(" and gm.key.group.id in (:groupIds)");
-					}
-					moduleHqlQuery.append(" order by d.name asc, m.id asc");
-					Query<Module> moduleQuery = session.createQuery(moduleHqlQuery.toString(), Module.class);
-					if (domains.size() > 0) {
-						moduleQuery.setParameterList("domainIds", domains);
-					}
-					if (groups.size() > 0) {
-						moduleQuery.setParameterList("groupIds", groups);
-					}
-					moduleQuery.setMaxResults(PAGINATION_SIZE);
-
-					Sheet inventorySheet = workBook.createSheet("Inventory");
-					((SXSSFSheet) inventorySheet).setRandomAccessWindowSize(100);
-					int y = -1;
-					{
-						row = inventorySheet.createRow(++y);
-						int x = -1;
-						row.createCell(++x).setCellValue("Device ID");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						inventorySheet.setColumnWidth(x, 2200);
-						row.createCell(++x).setCellValue("Device Name");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						inventorySheet.setColumnWidth(x, 5000);
-						row.createCell(++x).setCellValue("Slot");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						inventorySheet.setColumnWidth(x, 5000);
-						row.createCell(++x).setCellValue("Part Number");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						inventorySheet.setColumnWidth(x, 5000);
-						row.createCell(++x).setCellValue("Serial Number");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						inventorySheet.setColumnWidth(x, 4000);
-						row.setRowStyle(titleCellStyle);
-						if (exportInventoryHistory) {
-							row.createCell(++x).setCellValue("First seen");
-							row.getCell(x).setCellStyle(titleCellStyle);
-							inventorySheet.setColumnWidth(x, 4200);
-							row.createCell(++x).setCellValue("Last seen");
-							row.getCell(x).setCellStyle(titleCellStyle);
-							inventorySheet.setColumnWidth(x, 4200);
-							row.createCell(++x).setCellValue("Removed");
-							row.getCell(x).setCellStyle(titleCellStyle);
-							inventorySheet.setColumnWidth(x, 4200);
-						}
-						inventorySheet.createFreezePane(0, y + 1);
-						inventorySheet.setAutoFilter(new CellRangeAddress(0, y, 0, x));
-					}
-					for (int n = 0; true; n += PAGINATION_SIZE) {
-						List<Module> modules = moduleQuery.setFirstResult(n).list();
-						if (modules.size() == 0) {
-							break;
-						}
-						for (Module module : modules) {
-							Device device = module.getDevice();
-							int x = -1;
-							row = inventorySheet.createRow(++y);
-							row.createCell(++x).setCellValue(device.getId());
-							row.createCell(++x).setCellValue(device.getName());
-							row.createCell(++x).setCellValue(module.getSlot());
-							row.createCell(++x).setCellValue(module.getPartNumber());
-							row.createCell(++x).setCellValue(module.getSerialNumber());
-							if (exportInventoryHistory) {
-								cell = row.createCell(++x);
-								cell.setCellValue(module.getFirstSeenDate());
-								cell.setCellStyle(datetimeCellStyle);
-								cell = row.createCell(++x);
-								cell.setCellValue(module.getLastSeenDate());
-								cell.setCellStyle(datetimeCellStyle);
-								cell = row.createCell(++x, CellType.BOOLEAN);
-								cell.setCellValue(module.isRemoved());
-							}
-						}
-						session.clear();
-					}
-				}
+		/** Whether to export inventory. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private boolean exportInventory;
 
-				if (exportCompliance) {
-			log.debug("Exporting compliance data");
-					List<RsLightPolicyRuleDevice> checkResults = getConfigComplianceDeviceStatuses(domains, groups,
-						new HashSet<Long>(), new HashSet<>(
-							Arrays.asList(new CheckResult.ResultOption[] { CheckResult.ResultOption.CONFORMING,
-								CheckResult.ResultOption.NONCONFORMING, CheckResult.ResultOption.EXEMPTED })));
-
-					Sheet complianceSheet = workBook.createSheet("Configuration Compliance");
-					((SXSSFSheet) complianceSheet).setRandomAccessWindowSize(100);
-					int y = -1;
-					{
-						row = complianceSheet.createRow(++y);
-						int x = -1;
-						row.createCell(++x).setCellValue("Device ID");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						complianceSheet.setColumnWidth(x, 2200);
-						row.createCell(++x).setCellValue("Device Name");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						complianceSheet.setColumnWidth(x, 5000);
-
-						row.createCell(++x).setCellValue("Policy");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						complianceSheet.setColumnWidth(x, 5000);
-						row.createCell(++x).setCellValue("Rule");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						complianceSheet.setColumnWidth(x, 8000);
-						row.createCell(++x).setCellValue("Check Date");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						complianceSheet.setColumnWidth(x, 4200);
-						row.createCell(++x).setCellValue("Result");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						complianceSheet.setColumnWidth(x, 4000);
-						row.setRowStyle(titleCellStyle);
-						complianceSheet.createFreezePane(0, y + 1);
-						complianceSheet.setAutoFilter(new CellRangeAddress(0, y, 0, x));
-					}
+		/** Whether to export inventory history (removed modules). */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private boolean exportInventoryHistory;
 
-					for (RsLightPolicyRuleDevice checkResult : checkResults) {
-						int x = -1;
-						row = complianceSheet.createRow(++y);
-						row.createCell(++x).setCellValue(checkResult.getId());
-						row.createCell(++x).setCellValue(checkResult.getName());
-						row.createCell(++x).setCellValue(checkResult.getPolicyName());
-						row.createCell(++x).setCellValue(checkResult.getRuleName());
-						row.createCell(++x).setCellValue(checkResult.getCheckDate());
-						row.getCell(x).setCellStyle(datetimeCellStyle);
-						row.createCell(++x).setCellValue(checkResult.getResult().toString());
-					}
-					session.clear();
-				}
-
-				if (exportGroups) {
-					{
-						log.debug("Exporting group data");
-						List<RsGroupConfigComplianceStat> groupConfigComplianceStats =
-							this.getGroupConfigComplianceStats(domains, groups, new HashSet<>());
-
-						Sheet groupSheet = workBook.createSheet("Device Groups");
-						((SXSSFSheet) groupSheet).setRandomAccessWindowSize(100);
-						int y = -1;
-						{
-							row = groupSheet.createRow(++y);
-							int x = -1;
-							row.createCell(++x).setCellValue("Group ID");
-							row.getCell(x).setCellStyle(titleCellStyle);
-							groupSheet.setColumnWidth(x, 2200);
-							row.createCell(++x).setCellValue("Group Name");
-							row.getCell(x).setCellStyle(titleCellStyle);
-							groupSheet.setColumnWidth(x, 5000);
-							row.createCell(++x).setCellValue("Folder");
-							row.getCell(x).setCellStyle(titleCellStyle);
-							groupSheet.setColumnWidth(x, 8000);
-							row.createCell(++x).setCellValue("Device Count");
-							row.getCell(x).setCellStyle(titleCellStyle);
-							groupSheet.setColumnWidth(x, 4000);
-							if (exportCompliance) {
-								row.createCell(++x).setCellValue("Config Compliant Count");
-								row.getCell(x).setCellStyle(titleCellStyle);
-								groupSheet.setColumnWidth(x, 6000);
-								row.createCell(++x).setCellValue("Config Compliance");
-								row.getCell(x).setCellStyle(titleCellStyle);
-								groupSheet.setColumnWidth(x, 5000);
-							}
-							groupSheet.createFreezePane(0, y + 1);
-							groupSheet.setAutoFilter(new CellRangeAddress(0, y, 0, x));
-						}
+		/** Whether to export locations. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private boolean exportLocations;
 
-						for (RsGroupConfigComplianceStat stat : groupConfigComplianceStats) {
-							row = groupSheet.createRow(++y);
-							int x = -1;
-							row.createCell(++x).setCellValue(stat.getGroupId());
-							row.createCell(++x).setCellValue(stat.getGroupName());
-							row.createCell(++x).setCellValue(stat.getGroupFolder());
-							row.createCell(++x).setCellValue(stat.getDeviceCount());
-							if (exportCompliance) {
-								row.createCell(++x).setCellValue(stat.getCompliantDeviceCount());
-								row.createCell(++x).setCellFormula(String.format("%s%d / %s%d",
-									CellReference.convertNumToColString(x - 1), y + 1,
-									CellReference.convertNumToColString(x - 2), y + 1));
-								row.getCell(x).setCellStyle(percentCellStyle);
-							}
-						}
-						session.clear();
-					}
-					{
-						log.debug("Exporting group memberships");
-						StringBuilder deviceHqlQuery = new StringBuilder(
-							"select d from Device d left join d.groupMemberships gm join gm.key.group g"
-								+ "left join d.mgmtDomain "
-								+ "where 1 = 1");
-						if (domains.size() > 0) {
-							deviceHqlQuery.append(" and d.mgmtDomain.id in (:domainIds)");
-						}
-						if (groups.size() > 0) {
-							deviceHqlQuery.append(" and gm.key.group.id in (:groupIds)");
-						}
-						deviceHqlQuery.append(" order by d.name asc");
-						Query<Device> deviceQuery = session.createQuery(deviceHqlQuery.toString(), Device.class);
-						if (domains.size() > 0) {
-							deviceQuery.setParameterList("domainIds", domains);
-						}
-						if (groups.size() > 0) {
-							deviceQuery.setParameterList("groupIds", groups);
-						}
-						deviceQuery.setMaxResults(PAGINATION_SIZE);
-
-						Sheet groupSheet = workBook.createSheet("Group Memberships");
-						((SXSSFSheet) groupSheet).setRandomAccessWindowSize(100);
-						int y = -1;
-						{
-							row = groupSheet.createRow(++y);
-							int x = -1;
-							row.createCell(++x).setCellValue("Device ID");
-							row.getCell(x).setCellStyle(titleCellStyle);
-							groupSheet.setColumnWidth(x, 2200);
-							row.createCell(++x).setCellValue("Device Name");
-							row.getCell(x).setCellStyle(titleCellStyle);
-							groupSheet.setColumnWidth(x, 5000);
-							row.createCell(++x).setCellValue("Group ID");
-							row.getCell(x).setCellStyle(titleCellStyle);
-							groupSheet.setColumnWidth(x, 2200);
-							row.createCell(++x).setCellValue("Group Name");
-							row.getCell(x).setCellStyle(titleCellStyle);
-							groupSheet.setColumnWidth(x, 5000);
-							groupSheet.createFreezePane(0, y + 1);
-							groupSheet.setAutoFilter(new CellRangeAddress(0, y, 0, x));
-						}
+		/** Whether to export compliance results. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private boolean exportCompliance;
 
-						for (int n = 0; true; n += PAGINATION_SIZE) {
-							List<Device> devices = deviceQuery.setFirstResult(n).list();
-							if (devices.size() == 0) {
-								break;
-							}
-							for (Device device : devices) {
-								for (DeviceGroup group : device.getOwnerGroups()) {
-									if (group.isHiddenFromReports()) {
-										continue;
-									}
-									row = groupSheet.createRow(++y);
-									int x = -1;
-									row.createCell(++x).setCellValue(device.getId());
-									row.createCell(++x).setCellValue(device.getName());
-									row.createCell(++x).setCellValue(group.getId());
-									row.createCell(++x).setCellValue(group.getName());
-								}
-							}
-							session.clear();
-						}
-					}
+		/** Whether to export group info. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private boolean exportGroups;
 
-				}
+		/** Whether to export driver-specific device attributes. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private boolean exportDeviceDriverAttributes;
+	}
 
-				if (exportDeviceDriverAttributes) {
-					log.debug("Exporting driver-specific device attributes");
-					StringBuilder attributeHqlQuery = new StringBuilder(
-						"select da from DeviceAttribute da "
-							+ "join fetch da.device d where 1 = 1");
-					if (domains.size() > 0) {
-						attributeHqlQuery.append(" and d.mgmtDomain.id in (:domainIds)");
-					}
-					if (groups.size() > 0) {
-						attributeHqlQuery.append(" and d.id in (select d.id from Device d left join d.groupMemberships gm where gm.key.group.id in (:groupIds))");
-					}
-					attributeHqlQuery.append(" order by d.name asc, da.id asc");
-					Query<DeviceAttribute> attributeQuery = session.createQuery(attributeHqlQuery.toString(),
-						DeviceAttribute.class);
-					if (domains.size() > 0) {
-						attributeQuery.setParameterList("domainIds", domains);
-					}
-					if (groups.size() > 0) {
-						attributeQuery.setParameterList("groupIds", groups);
-					}
-					attributeQuery.setMaxResults(PAGINATION_SIZE);
-
-					Sheet attributeSheet = workBook.createSheet("Device Attributes");
-					((SXSSFSheet) attributeSheet).setRandomAccessWindowSize(100);
-					int y = -1;
-					{
-						row = attributeSheet.createRow(++y);
-						int x = -1;
-						row.createCell(++x).setCellValue("Device ID");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						attributeSheet.setColumnWidth(x, 2200);
-						row.createCell(++x).setCellValue("Device Name");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						attributeSheet.setColumnWidth(x, 5000);
-						row.createCell(++x).setCellValue("Attribute Name");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						attributeSheet.setColumnWidth(x, 5000);
-						row.createCell(++x).setCellValue("Attribute Value");
-						row.getCell(x).setCellStyle(titleCellStyle);
-						attributeSheet.setColumnWidth(x, 7000);
-						row.setRowStyle(titleCellStyle);
-						attributeSheet.createFreezePane(0, y + 1);
-						attributeSheet.setAutoFilter(new CellRangeAddress(0, y, 0, x));
-					}
+	/**
+	 * Progress of a sheet of a data export.
+	 */
+	@XmlRootElement
+	@XmlAccessorType(XmlAccessType.NONE)
+	@AllArgsConstructor
+	@NoArgsConstructor
+	public static class RsDataExportSheet {
 
-					for (int n = 0; true; n += PAGINATION_SIZE) {
-						List<DeviceAttribute> attributes = attributeQuery.setFirstResult(n).list();
-						if (attributes.size() == 0) {
-							break;
-						}
-						for (DeviceAttribute attribute : attributes) {
-							try {
-								String value = attribute.getData().toString();
-								Device device = attribute.getDevice();
-								DeviceDriver driver = device.getDeviceDriver();
-								AttributeDefinition definition = driver.getAttributeDefinition(AttributeLevel.DEVICE, attribute.getName());
-								int x = -1;
-								row = attributeSheet.createRow(++y);
-								row.createCell(++x).setCellValue(device.getId());
-								row.createCell(++x).setCellValue(device.getName());
-								row.createCell(++x).setCellValue(definition.getTitle());
-								row.createCell(++x).setCellValue(value);
-								attribute.getData();
-							}
-							catch (Exception e) {
-								log.warn("Error while exporting attribute (ID {}, name {})... skipping",
-									attribute.getId(), attribute.getName(), e);
-							}
-						}
-						session.clear();
-					}
-				}
+		/** Sheet name. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private String name;
 
-				ByteArrayOutputStream output = new ByteArrayOutputStream();
-				workBook.write(output);
-				byte[] content = output.toByteArray();
-				return Response
-					.ok(content, MediaType.APPLICATION_OCTET_STREAM)
-					.header(Headers.CONTENT_DISPOSITION_STRING, "attachment; filename=\"%s\"".formatted(fileName))
-					.header(Headers.CONTENT_LENGTH_STRING, content.length)
-					.build();
-			}
-			catch (IOException e) {
-				log.error("Unable to write the resulting file.", e);
-				throw new WebApplicationException(
-					"Unable to write the resulting file.",
-					Response.Status.INTERNAL_SERVER_ERROR);
-			}
-			catch (Exception e) {
-				log.error("Unable to generate the report.", e);
-				throw new WebApplicationException("Unable to generate the report.",
-					Response.Status.INTERNAL_SERVER_ERROR);
+		/** Number of written rows. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private long rowCount;
+
+		/** Whether the sheet is complete. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private boolean done;
+	}
+
+	/**
+	 * Data export job status.
+	 */
+	@XmlRootElement
+	@XmlAccessorType(XmlAccessType.NONE)
+	@NoArgsConstructor
+	public static class RsDataExportJob {
+
+		/** Job ID. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private String id;
+
+		/** Status. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private DataExportJob.Status status;
+
+		/** Name of the user who requested the export. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private String owner;
+
+		/** Creation date. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private Date creationDate;
+
+		/** Execution start date. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private Date startDate;
+
+		/** Execution end date. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private Date endDate;
+
+		/** Progress (0 to 1). */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private double progress;
+
+		/** Total number of exported devices. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private long deviceCount;
+
+		/** Progress of the sheets. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private List<RsDataExportSheet> sheets = new ArrayList<>();
+
+		/** File name. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private String fileName;
+
+		/** File size, once available. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private Long fileSize;
+
+		/** Error message. */
+		@Getter(onMethod = @__({
+			@XmlElement, @JsonView(DefaultView.class)
+		}))
+		@Setter
+		private String errorMessage;
+
+		public RsDataExportJob(DataExportJob job) {
+			this.id = job.getId();
+			this.status = job.getStatus();
+			this.owner = job.getOwner();
+			this.creationDate = job.getCreationDate();
+			this.startDate = job.getStartDate();
+			this.endDate = job.getEndDate();
+			this.progress = job.getProgress();
+			this.deviceCount = job.getTotalDeviceCount();
+			for (DataExportJob.SheetProgress sheetProgress : job.getSheetProgresses()) {
+				this.sheets.add(new RsDataExportSheet(sheetProgress.getName(),
+					sheetProgress.getRowCount(), sheetProgress.isDone()));
 			}
-			finally {
-				session.close();
+			this.fileName = job.getFileName();
+			this.fileSize = job.getFileSize();
+			this.errorMessage = job.getErrorMessage();
+		}
+	}
+
+	/**
+	 * Find a data export job, checking the current user is allowed to access it.
+	 * @param id = the job ID
+	 * @return the job
+	 * @throws WebApplicationException if not found
+	 */
+	private DataExportJob getAllowedDataExportJob(String id) throws WebApplicationException {
+		User user = (User) securityContext.getUserPrincipal();
+		DataExportJob job = DataExportJob.getJob(id);
+		if (job == null || (user.getLevel() < User.LEVEL_ADMIN && !user.getName().equals(job.getOwner()))) {
+			throw new WebApplicationException("Unable to find the data export job",
+				Response.Status.NOT_FOUND);
+		}
+		return job;
+	}
+
+	@POST
+	@Path("/reports/exports")
+	@RolesAllowed(User.ROLE_READONLY)
+	@Consumes({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+	@Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+	@JsonView(RestApiView.class)
+	@Operation(
+		summary = "Start a data export",
+		description = "Starts a background export of data as Excel datasheet. The devices can be filtered by groups or domains. "
+			+ "The returned job can be polled for progress, and the file downloaded once the job is complete. "
+			+ "Export jobs are local to the Netshot server which received the request."
+	)
+	@Tag(name = "Reports", description = "Report and statistics")
+	public RsDataExportJob startDataExport(RsDataExportRequest rsRequest) throws WebApplicationException {
+		log.debug("REST request, start data export.");
+		User user = (User) securityContext.getUserPrincipal();
+		Set<Long> domains = rsRequest.getDomains() == null ? new HashSet<>() : rsRequest.getDomains();
+		Set<Long> groups = rsRequest.getGroups() == null ? new HashSet<>() : rsRequest.getGroups();
+		DataExportJob job = DataExportJob.submit(user.getName(), new DataExportJob.Parameters(
+			domains, groups, rsRequest.isExportInterfaces(), rsRequest.isExportInventory(),
+			rsRequest.isExportInventoryHistory(), rsRequest.isExportLocations(), rsRequest.isExportCompliance(),
+			rsRequest.isExportGroups(), rsRequest.isExportDeviceDriverAttributes()));
+		this.suggestReturnCode(Response.Status.ACCEPTED);
+		return new RsDataExportJob(job);
+	}
+
+	@GET
+	@Path("/reports/exports/{id}")
+	@RolesAllowed(User.ROLE_READONLY)
+	@Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+	@JsonView(RestApiView.class)
+	@Operation(
+		summary = "Get a data export job",
+		description = "Returns the status and progress of a data export job, by ID."
+	)
+	@Tag(name = "Reports", description = "Report and statistics")
+	public RsDataExportJob getDataExport(@PathParam("id") @Parameter(description = "Export job ID") String id)
+		throws WebApplicationException {
+		log.debug("REST request, get data export {}.", id);
+		return new RsDataExportJob(this.getAllowedDataExportJob(id));
+	}
+
+	@GET
+	@Path("/reports/exports/{id}/file")
+	@RolesAllowed(User.ROLE_READONLY)
+	@Produces({"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"})
+	@Operation(
+		summary = "Download a data export",
+		description = "Downloads the file of a complete data export job. "
+			+ "A single byte range can be requested (Range header) to resume an interrupted download."
+	)
+	@Tag(name = "Reports", description = "Report and statistics")
+	public Response downloadDataExport(@PathParam("id") @Parameter(description = "Export job ID") String id,
+		@HeaderParam("Range") String range) throws WebApplicationException {
+		log.debug("REST request, download data export {}.", id);
+		DataExportJob job = this.getAllowedDataExportJob(id);
+		java.nio.file.Path filePath = job.getFilePath();
+		Long fileSize = job.getFileSize();
+		if (job.getStatus() != DataExportJob.Status.SUCCESS || filePath == null || fileSize == null) {
+			throw new WebApplicationException("The data export is not available",
+				Response.Status.CONFLICT);
+		}
+		long start = 0;
+		long end = fileSize - 1;
+		boolean partial = false;
+		if (range != null) {
+			Matcher rangeMatcher = Pattern.compile("^bytes=([0-9]*)-([0-9]*)$").matcher(range.trim());
+			if (rangeMatcher.matches() && !(rangeMatcher.group(1).isEmpty() && rangeMatcher.group(2).isEmpty())) {
 				try {
-					workBook.close();
+					if (rangeMatcher.group(1).isEmpty()) {
+						// Suffix range (last n bytes)
+						start = Math.max(0, fileSize - Long.parseLong(rangeMatcher.group(2)));
+					}
+					else {
+						start = Long.parseLong(rangeMatcher.group(1));
+						if (!rangeMatcher.group(2).isEmpty()) {
+							end = Math.min(end, Long.parseLong(rangeMatcher.group(2)));
+						}
+					}
 				}
-				catch (IOException e) {
-					log.warn("Error while closing work book", e);
+				catch (NumberFormatException e) {
+					start = fileSize;
 				}
+				if (start > end) {
+					return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+						.header("Content-Range", "bytes */%d".formatted(fileSize))
+						.build();
+				}
+				partial = true;
 			}
 		}
+		final long offset = start;
+		final long length = end - start + 1;
+		StreamingOutput output = stream -> {
+			try (InputStream input = Files.newInputStream(filePath)) {
+				input.skipNBytes(offset);
+				byte[] buffer = new byte[65536];
+				long remaining = length;
+				while (remaining > 0) {
+					int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+					if (read < 0) {
+						break;
+					}
+					stream.write(buffer, 0, read);
+					remaining -= read;
+				}
+			}
+		};
+		Response.ResponseBuilder builder = partial
+			? Response.status(Response.Status.PARTIAL_CONTENT).entity(output).type(MediaType.APPLICATION_OCTET_STREAM)
+				.header("Content-Range", "bytes %d-%d/%d".formatted(start, end, fileSize))
+			: Response.ok(output, MediaType.APPLICATION_OCTET_STREAM);
+		return builder
+			.header(Headers.CONTENT_DISPOSITION_STRING, "attachment; filename=\"%s\"".formatted(job.getFileName()))
+			.header(Headers.CONTENT_LENGTH_STRING, length)
+			.header("Accept-Ranges", "bytes")
+			.build();
+	}
 
-		log.warn("Invalid requested file format.");
-		throw new WebApplicationException(
-			"The requested file format is invalid or not supported.",
-			Response.Status.BAD_REQUEST);
+	@DELETE
+	@Path("/reports/exports/{id}")
+	@RolesAllowed(User.ROLE_READONLY)
+	@Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+	@JsonView(RestApiView.class)
+	@Operation(
+		summary = "Remove a data export job",
+		description = "Cancels the data export job if still running, and removes it along with the exported file."
+	)
+	@Tag(name = "Reports", description = "Report and statistics")
+	public void deleteDataExport(@PathParam("id") @Parameter(description = "Export job ID") String id)
+		throws WebApplicationException {
+		log.debug("REST request, delete data export {}.", id);
+		DataExportJob job = this.getAllowedDataExportJob(id);
+		DataExportJob.remove(job.getId());
+		this.suggestReturnCode(Response.Status.NO_CONTENT);
 	}
 
 	@POST
@@ -11081,4 +11091,98 @@ public class RestService extends Thread {
 		return new RsServerInfo();
 	}
 
+	/**
+	 * Utility class to send metric values.
+	 */
+	@XmlRootElement
+	@XmlAccessorType(XmlAccessType.NONE)
+	public static class RsMetric {
+
+		/** The metric value. */
+		private Metrics.MetricValue value;
+
+		public RsMetric(Metrics.MetricValue value) {
+			this.value = value;
+		}
+
+		/**
+		 * Gets the name of the metric.
+		 *
+		 * @return the name
+		 */
+		@XmlElement
+		@JsonView(DefaultView.class)
+		public String getName() {
+			return this.value.name();
+		}
+
+		/**
+		 * Gets the type of metric.
+		 *
+		 * @return the type
+		 */
+		@XmlElement
+		@JsonView(DefaultView.class)
+		public Metrics.Type getType() {
+			return this.value.type();
+		}
+
+		/**
+		 * Gets the number of events (counter and timer).
+		 *
+		 * @return the count
+		 */
+		@XmlElement
+		@JsonView(DefaultView.class)
+		public long getCount() {
+			return this.value.count();
+		}
+
+		/**
+		 * Gets the value (counter or gauge value, mean time in ms for timer).
+		 *
+		 * @return the value
+		 */
+		@XmlElement
+		@JsonView(DefaultView.class)
+		public double getValue() {
+			return this.value.value();
+		}
+
+		/**
+		 * Gets the max time in ms (timer only).
+		 *
+		 * @return the max time
+		 */
+		@XmlElement
+		@JsonView(DefaultView.class)
+		public double getMax() {
+			return this.value.max();
+		}
+	}
+
+	/**
+	 * Gets the internal metrics of the local server.
+	 *
+	 * @return the metrics
+	 */
+	@GET
+	@Path("/metrics")
+	@RolesAllowed(User.ROLE_ADMIN)
+	@Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+	@JsonView(RestApiView.class)
+	@Operation(
+		summary = "Get Netshot server metrics.",
+		description = "Retrieves internal performance metrics (counters, gauges, timers) of the local Netshot server."
+	)
+	@Tag(name = "Admin", description = "Administrative actions")
+	public List<RsMetric> getMetrics() {
+		log.debug("REST request, get metrics");
+		List<RsMetric> metrics = new ArrayList<>();
+		for (Metrics.MetricValue value : Metrics.getValues()) {
+			metrics.add(new RsMetric(value));
+		}
+		return metrics;
+	}
+
 }
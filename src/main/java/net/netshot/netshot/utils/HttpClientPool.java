@@ -0,0 +1,320 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+
+import org.glassfish.jersey.client.ClientConfig;
+
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.netshot.netshot.Netshot;
+
+/**
+ * Shared pool of outgoing HTTP(S) clients, keyed by target (host, port) and TLS trust policy.
+ * Jersey clients are thread-safe and bind the SSL socket factory, so reusing the same
+ * client for the same target lets the underlying JDK connection cache keep the (TLS)
+ * connections alive between requests, rather than doing a new TCP and TLS handshake
+ * each time. The number of concurrent requests to a given target is bounded.
+ */
+@Slf4j
+public final class HttpClientPool {
+
+	/**
+	 * Settings/config for the current class.
+	 */
+	public static final class Settings {
+		/** Max number of cached clients (least recently used ones are closed first). */
+		@Getter
+		private int maxClients;
+
+		/** Max number of concurrent requests to the same host and port (0 for no limit). */
+		@Getter
+		private int maxPerHost;
+
+		/** Max time (ms) to wait for a request slot to a host. */
+		@Getter
+		private int acquireTimeout;
+
+		/** Max number of idle keep-alive connections per host (JDK-wide). */
+		@Getter
+		private int maxIdlePerHost;
+
+		/**
+		 * Load settings from config.
+		 */
+		private void load() {
+			this.maxClients = Netshot.getConfig("netshot.httpclient.maxclients", 256, 1, 100000);
+			this.maxPerHost = Netshot.getConfig("netshot.httpclient.maxperhost", 8, 0, 10000);
+			this.acquireTimeout = Netshot.getConfig("netshot.httpclient.acquiretimeout", 60000, 1, Integer.MAX_VALUE);
+			this.maxIdlePerHost = Netshot.getConfig("netshot.httpclient.maxidleperhost", 8, 1, 10000);
+		}
+	}
+
+	/** Settings for this class. */
+	public static final Settings SETTINGS = new Settings();
+
+	/**
+	 * Identifies a pooled client.
+	 * @param host = the target host
+	 * @param port = the target port
+	 * @param tls = whether TLS is used
+	 * @param caTrustMode = the CA trust mode
+	 * @param caCertificateDigest = digest of the custom CA certificate(s), if any
+	 * @param variant = the kind of client (e.g. registered providers)
+	 */
+	private record Key(String host, int port, boolean tls, HttpsCaTrustMode caTrustMode,
+		String caCertificateDigest, String variant) {
+	}
+
+	/** Cached clients, in access order. */
+	private static final Map<Key, Client> CLIENTS = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Client> eldest) {
+			if (size() > SETTINGS.getMaxClients()) {
+				HttpClientPool.retire(eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/** Number of users of the clients (from getClient to release), guarded by CLIENTS. */
+	private static final Map<Client, Integer> CLIENT_USERS = new IdentityHashMap<>();
+
+	/** Evicted clients still in use, to be closed once released, guarded by CLIENTS. */
+	private static final Set<Client> RETIRED_CLIENTS = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	/** Per-target semaphores, by "host:port". */
+	private static final Map<String, Semaphore> HOST_SEMAPHORES = new ConcurrentHashMap<>();
+
+	static {
+		Metrics.gauge("http.client.pool.size", HttpClientPool::getClientCount);
+	}
+
+	private HttpClientPool() {
+	}
+
+	/**
+	 * Load the settings from configuration.
+	 */
+	public static void loadConfig() {
+		HttpClientPool.SETTINGS.load();
+		// Read once by the JDK HTTP keep-alive cache, unless explicitly set on the command line
+		if (System.getProperty("http.maxConnections") == null) {
+			System.setProperty("http.maxConnections", Integer.toString(SETTINGS.getMaxIdlePerHost()));
+		}
+		HOST_SEMAPHORES.clear();
+		HttpClientPool.clear();
+	}
+
+	/**
+	 * Get (or build) the shared client for the given target and trust policy.
+	 * @param host = the target host
+	 * @param port = the target port
+	 * @param tls = whether TLS is used
+	 * @param caTrustMode = the CA trust mode (only used with TLS)
+	 * @param caCertificate = the custom CA certificate(s) (only used with TLS and CUSTOM_CA mode)
+	 * @param variant = the kind of client, clients with different configurations must use different variants
+	 * @param configurer = to register additional providers in the client config (may be null)
+	 * @return the shared client, which must not be closed but released by the caller (see release)
+	 * @throws IOException if the client can't be built
+	 */
+	public static Client getClient(String host, int port, boolean tls, HttpsCaTrustMode caTrustMode,
+			String caCertificate, String variant, Consumer<ClientConfig> configurer) throws IOException {
+		Key key = new Key(host, port, tls, tls ? caTrustMode : null,
+			tls ? digest(caCertificate) : null, variant);
+		synchronized (CLIENTS) {
+			Client client = CLIENTS.get(key);
+			if (client != null) {
+				Metrics.counter("http.client.pool.hits").increment();
+				CLIENT_USERS.merge(client, 1, Integer::sum);
+				return client;
+			}
+		}
+		Metrics.counter("http.client.pool.misses").increment();
+		Client client;
+		try {
+			ClientConfig config = new ClientConfig();
+			if (configurer != null) {
+				configurer.accept(config);
+			}
+			ClientBuilder builder = ClientBuilder.newBuilder().withConfig(config);
+			if (tls) {
+				SSLContext sslContext = HttpsTrustPolicy.buildSslContext(caTrustMode, caCertificate);
+				builder.sslContext(sslContext);
+				HostnameVerifier hostnameVerifier = HttpsTrustPolicy.buildHostnameVerifier(caTrustMode);
+				if (hostnameVerifier != null) {
+					builder.hostnameVerifier(hostnameVerifier);
+				}
+			}
+			client = builder.build();
+		}
+		catch (GeneralSecurityException | IOException | RuntimeException e) {
+			throw new IOException("Unable to initialize the HTTP client.", e);
+		}
+		synchronized (CLIENTS) {
+			Client existing = CLIENTS.putIfAbsent(key, client);
+			if (existing != null) {
+				// Built concurrently by another thread
+				closeQuietly(client);
+				client = existing;
+			}
+			CLIENT_USERS.merge(client, 1, Integer::sum);
+		}
+		return client;
+	}
+
+	/**
+	 * Release a client got from getClient, once the caller doesn't use it anymore.
+	 * The client is closed if it was evicted from the pool meanwhile and has no other user.
+	 * @param client = the client
+	 */
+	public static void release(Client client) {
+		synchronized (CLIENTS) {
+			Integer users = CLIENT_USERS.computeIfPresent(client, (c, n) -> n > 1 ? n - 1 : null);
+			if (users == null && RETIRED_CLIENTS.remove(client)) {
+				closeQuietly(client);
+			}
+		}
+	}
+
+	/**
+	 * Close a client removed from the pool, or wait for its users to release it.
+	 * @param client = the client
+	 */
+	private static void retire(Client client) {
+		if (CLIENT_USERS.containsKey(client)) {
+			RETIRED_CLIENTS.add(client);
+		}
+		else {
+			closeQuietly(client);
+		}
+	}
+
+	/**
+	 * Request slot to a host, to be released (closed) once the response is read.
+	 */
+	public static final class Permit implements AutoCloseable {
+		private Semaphore semaphore;
+
+		private Permit(Semaphore semaphore) {
+			this.semaphore = semaphore;
+		}
+
+		@Override
+		public void close() {
+			if (this.semaphore != null) {
+				this.semaphore.release();
+				this.semaphore = null;
+			}
+		}
+	}
+
+	/**
+	 * Wait for a request slot to the given host.
+	 * @param host = the target host
+	 * @param port = the target port
+	 * @return the permit
+	 * @throws IOException if no slot became available in time
+	 */
+	public static Permit acquire(String host, int port) throws IOException {
+		int limit = SETTINGS.getMaxPerHost();
+		if (limit <= 0) {
+			return new Permit(null);
+		}
+		String name = host + ":" + port;
+		Semaphore semaphore = HOST_SEMAPHORES.computeIfAbsent(name, n -> new Semaphore(limit, true));
+		long startTime = System.nanoTime();
+		try {
+			if (!semaphore.tryAcquire(SETTINGS.getAcquireTimeout(), TimeUnit.MILLISECONDS)) {
+				throw new IOException("Too many concurrent HTTP requests to %s, timeout while waiting".formatted(name));
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for an HTTP request slot", e);
+		}
+		Metrics.timer("http.client.pool.wait").recordSince(startTime);
+		return new Permit(semaphore);
+	}
+
+	/**
+	 * Forget all the cached clients (new requests will use new clients).
+	 */
+	public static void clear() {
+		synchronized (CLIENTS) {
+			for (Client client : CLIENTS.values()) {
+				HttpClientPool.retire(client);
+			}
+			CLIENTS.clear();
+		}
+	}
+
+	/**
+	 * Gets the number of cached clients.
+	 * @return the number of cached clients
+	 */
+	public static int getClientCount() {
+		synchronized (CLIENTS) {
+			return CLIENTS.size();
+		}
+	}
+
+	private static String digest(String text) {
+		if (text == null) {
+			return null;
+		}
+		try {
+			return HexFormat.of().formatHex(
+				MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8)));
+		}
+		catch (GeneralSecurityException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	private static void closeQuietly(Client client) {
+		try {
+			client.close();
+		}
+		catch (RuntimeException e) {
+			log.debug("Error while closing HTTP client.", e);
+		}
+	}
+
+}
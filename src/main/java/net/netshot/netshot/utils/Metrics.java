@@ -0,0 +1,172 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Lightweight in-process metrics registry (counters, gauges and timers),
+ * exposed to administrators through the REST API.
+ * Metric names are dot-separated, e.g. "aaa.apitoken.cache.hits".
+ */
+public final class Metrics {
+
+	/**
+	 * Type of metric.
+	 */
+	public enum Type {
+		COUNTER,
+		GAUGE,
+		TIMER;
+	}
+
+	/**
+	 * Monotonic counter.
+	 */
+	public static final class Counter {
+		private final LongAdder count = new LongAdder();
+
+		public void increment() {
+			this.count.increment();
+		}
+
+		public void add(long value) {
+			this.count.add(value);
+		}
+
+		public long getCount() {
+			return this.count.sum();
+		}
+	}
+
+	/**
+	 * Timer, recording the number, total and max duration of events.
+	 */
+	public static final class Timer {
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+		/**
+		 * Record an event.
+		 * @param nanos = duration of the event, in nanoseconds
+		 */
+		public void record(long nanos) {
+			this.count.increment();
+			this.totalNanos.add(nanos);
+			this.maxNanos.accumulate(nanos);
+		}
+
+		/**
+		 * Record an event which started at the given time.
+		 * @param startNanos = start time of the event (from System.nanoTime())
+		 */
+		public void recordSince(long startNanos) {
+			this.record(System.nanoTime() - startNanos);
+		}
+
+		public long getCount() {
+			return this.count.sum();
+		}
+
+		public long getTotalNanos() {
+			return this.totalNanos.sum();
+		}
+
+		public long getMaxNanos() {
+			return this.maxNanos.get();
+		}
+	}
+
+	/**
+	 * Point-in-time value of a metric.
+	 * @param name = name of the metric
+	 * @param type = type of metric
+	 * @param count = number of events (counter value, for counters)
+	 * @param value = value (counter or gauge value, mean duration in ms for timers)
+	 * @param max = max duration in ms for timers, 0 otherwise
+	 */
+	public record MetricValue(String name, Type type, long count, double value, double max) {
+	}
+
+	private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+	private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+	private static final Map<String, Supplier<Number>> GAUGES = new ConcurrentHashMap<>();
+
+	private Metrics() {
+	}
+
+	/**
+	 * Get or create a counter.
+	 * @param name = name of the counter
+	 * @return the counter
+	 */
+	public static Counter counter(String name) {
+		return COUNTERS.computeIfAbsent(name, n -> new Counter());
+	}
+
+	/**
+	 * Get or create a timer.
+	 * @param name = name of the timer
+	 * @return the timer
+	 */
+	public static Timer timer(String name) {
+		return TIMERS.computeIfAbsent(name, n -> new Timer());
+	}
+
+	/**
+	 * Register (or replace) a gauge.
+	 * @param name = name of the gauge
+	 * @param supplier = supplier of the current value
+	 */
+	public static void gauge(String name, Supplier<Number> supplier) {
+		GAUGES.put(name, supplier);
+	}
+
+	/**
+	 * Get the current values of all metrics, sorted by name.
+	 * @return the metric values
+	 */
+	public static List<MetricValue> getValues() {
+		List<MetricValue> values = new ArrayList<>();
+		for (Map.Entry<String, Counter> counter : COUNTERS.entrySet()) {
+			long count = counter.getValue().getCount();
+			values.add(new MetricValue(counter.getKey(), Type.COUNTER, count, count, 0));
+		}
+		for (Map.Entry<String, Supplier<Number>> gauge : GAUGES.entrySet()) {
+			Number value = gauge.getValue().get();
+			values.add(new MetricValue(gauge.getKey(), Type.GAUGE, 0, value == null ? 0 : value.doubleValue(), 0));
+		}
+		for (Map.Entry<String, Timer> timer : TIMERS.entrySet()) {
+			long count = timer.getValue().getCount();
+			double mean = count == 0 ? 0 : timer.getValue().getTotalNanos() / 1e6 / count;
+			values.add(new MetricValue(timer.getKey(), Type.TIMER, count, mean,
+				timer.getValue().getMaxNanos() / 1e6));
+		}
+		values.sort((v1, v2) -> v1.name().compareTo(v2.name()));
+		return values;
+	}
+
+}
@@ -0,0 +1,261 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * SHA-256 and MD5 digests computed while the data is being written, so that
+ * received files don't need to be read again to be verified or stored.
+ * Not thread-safe; a digest is meant to follow a single stream.
+ */
+public final class StreamDigest {
+
+	/** SHA-256 digest. */
+	private final MessageDigest sha256;
+
+	/** MD5 digest (only used to check checksums passed by drivers). */
+	private final MessageDigest md5;
+
+	/** Number of digested bytes. */
+	private long size = 0;
+
+	/** Final SHA-256 hash (hex), once computed. */
+	private String sha256Hex;
+
+	/** Final MD5 hash (hex), once computed. */
+	private String md5Hex;
+
+	/**
+	 * Instantiates a new stream digest.
+	 */
+	public StreamDigest() {
+		try {
+			this.sha256 = MessageDigest.getInstance("SHA-256");
+			this.md5 = MessageDigest.getInstance("MD5");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Missing digest algorithm", e);
+		}
+	}
+
+	private void checkNotFinal() {
+		if (this.sha256Hex != null) {
+			throw new IllegalStateException("Digest already computed");
+		}
+	}
+
+	/**
+	 * Digest more bytes.
+	 * @param data = the data
+	 * @param offset = offset in data
+	 * @param length = number of bytes to digest
+	 */
+	public void update(byte[] data, int offset, int length) {
+		this.checkNotFinal();
+		this.sha256.update(data, offset, length);
+		this.md5.update(data, offset, length);
+		this.size += length;
+	}
+
+	/**
+	 * Digest the remaining bytes of a buffer (the buffer position isn't changed).
+	 * @param buffer = the buffer
+	 */
+	public void update(ByteBuffer buffer) {
+		this.checkNotFinal();
+		int length = buffer.remaining();
+		this.sha256.update(buffer.duplicate());
+		this.md5.update(buffer.duplicate());
+		this.size += length;
+	}
+
+	/**
+	 * Get the number of digested bytes.
+	 * @return the size
+	 */
+	public long getSize() {
+		return this.size;
+	}
+
+	private void complete() {
+		if (this.sha256Hex == null) {
+			this.sha256Hex = Hex.encodeHexString(this.sha256.digest());
+			this.md5Hex = Hex.encodeHexString(this.md5.digest());
+		}
+	}
+
+	/**
+	 * Get the SHA-256 hash of the digested data (no more data can be digested then).
+	 * @return the lower case hex hash
+	 */
+	public String getSha256Hex() {
+		this.complete();
+		return this.sha256Hex;
+	}
+
+	/**
+	 * Get the MD5 hash of the digested data (no more data can be digested then).
+	 * @return the lower case hex hash
+	 */
+	public String getMd5Hex() {
+		this.complete();
+		return this.md5Hex;
+	}
+
+	/**
+	 * Wrap an output stream, to digest all the bytes written to it.
+	 * @param out = the target stream
+	 * @return the digesting stream
+	 */
+	public DigestingOutputStream wrap(OutputStream out) {
+		return new DigestingOutputStream(out);
+	}
+
+	/**
+	 * Wrap a byte channel, to digest the bytes written to it.
+	 * @param channel = the target channel
+	 * @return the digesting channel
+	 */
+	public DigestingChannel wrap(SeekableByteChannel channel) {
+		return new DigestingChannel(channel);
+	}
+
+	/**
+	 * Output stream digesting the written bytes.
+	 */
+	public final class DigestingOutputStream extends FilterOutputStream {
+
+		private DigestingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			StreamDigest.this.update(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			StreamDigest.this.update(b, off, len);
+		}
+
+		/**
+		 * Get the digest.
+		 * @return the digest of the written bytes
+		 */
+		public StreamDigest getDigest() {
+			return StreamDigest.this;
+		}
+	}
+
+	/**
+	 * Byte channel digesting the written bytes.
+	 * Random access writes can't be digested on the fly: as soon as a write
+	 * doesn't append to the already digested data, the digest is dropped.
+	 */
+	public final class DigestingChannel implements SeekableByteChannel {
+
+		/** Target channel. */
+		private final SeekableByteChannel channel;
+
+		/** Whether all the writes were sequential so far. */
+		private boolean sequential = true;
+
+		private DigestingChannel(SeekableByteChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return this.channel.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.channel.close();
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			return this.channel.read(dst);
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			long position = this.channel.position();
+			ByteBuffer written = src.duplicate();
+			int count = this.channel.write(src);
+			if (count > 0 && this.sequential) {
+				if (position == StreamDigest.this.size) {
+					written.limit(written.position() + count);
+					StreamDigest.this.update(written);
+				}
+				else {
+					this.sequential = false;
+				}
+			}
+			return count;
+		}
+
+		@Override
+		public long position() throws IOException {
+			return this.channel.position();
+		}
+
+		@Override
+		public SeekableByteChannel position(long newPosition) throws IOException {
+			this.channel.position(newPosition);
+			return this;
+		}
+
+		@Override
+		public long size() throws IOException {
+			return this.channel.size();
+		}
+
+		@Override
+		public SeekableByteChannel truncate(long size) throws IOException {
+			if (size < StreamDigest.this.size) {
+				this.sequential = false;
+			}
+			this.channel.truncate(size);
+			return this;
+		}
+
+		/**
+		 * Get the digest.
+		 * @return the digest of the written bytes, or null if the file wasn't written sequentially
+		 */
+		public StreamDigest getDigest() {
+			return this.sequential ? StreamDigest.this : null;
+		}
+	}
+
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Simple thread-safe LRU cache, bounded by the total weight (typically the
+ * estimated memory size) of the cached values rather than by entry count.
+ * Values heavier than the whole budget are not cached at all.
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public final class WeightedLruCache<K, V> {
+
+	/** Entries, in access order. */
+	private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+	/** Computes the weight of a value. */
+	private final ToLongFunction<V> weigher;
+
+	/** Max total weight. */
+	private long maxWeight;
+
+	/** Current total weight. */
+	private long weight = 0;
+
+	/** Number of cache hits. */
+	private long hitCount = 0;
+
+	/** Number of cache misses. */
+	private long missCount = 0;
+
+	/**
+	 * Instantiates a new cache.
+	 * @param maxWeight = the max total weight
+	 * @param weigher = function to compute the weight of a value
+	 */
+	public WeightedLruCache(long maxWeight, ToLongFunction<V> weigher) {
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+	}
+
+	/**
+	 * Get a value from the cache.
+	 * @param key = the key
+	 * @return the cached value, or null if not found
+	 */
+	public synchronized V get(K key) {
+		V value = this.entries.get(key);
+		if (value == null) {
+			this.missCount++;
+		}
+		else {
+			this.hitCount++;
+		}
+		return value;
+	}
+
+	/**
+	 * Add a value to the cache, evicting the least recently used ones if needed.
+	 * @param key = the key
+	 * @param value = the value
+	 */
+	public synchronized void put(K key, V value) {
+		long valueWeight = this.weigher.applyAsLong(value);
+		if (valueWeight > this.maxWeight) {
+			this.remove(key);
+			return;
+		}
+		V old = this.entries.put(key, value);
+		if (old != null) {
+			this.weight -= this.weigher.applyAsLong(old);
+		}
+		this.weight += valueWeight;
+		this.evict();
+	}
+
+	/**
+	 * Remove a value from the cache.
+	 * @param key = the key
+	 */
+	public synchronized void remove(K key) {
+		V old = this.entries.remove(key);
+		if (old != null) {
+			this.weight -= this.weigher.applyAsLong(old);
+		}
+	}
+
+	/**
+	 * Remove all values from the cache.
+	 */
+	public synchronized void clear() {
+		this.entries.clear();
+		this.weight = 0;
+	}
+
+	/**
+	 * Change the max total weight.
+	 * @param maxWeight = the new max weight
+	 */
+	public synchronized void setMaxWeight(long maxWeight) {
+		this.maxWeight = maxWeight;
+		this.evict();
+	}
+
+	/**
+	 * Evict the least recently used values until the total weight fits the max weight.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<K, V>> entryIterator = this.entries.entrySet().iterator();
+		while (this.weight > this.maxWeight && entryIterator.hasNext()) {
+			this.weight -= this.weigher.applyAsLong(entryIterator.next().getValue());
+			entryIterator.remove();
+		}
+	}
+
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	public synchronized long getWeight() {
+		return this.weight;
+	}
+
+	public synchronized long getMaxWeight() {
+		return this.maxWeight;
+	}
+
+	public synchronized long getHitCount() {
+		return this.hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return this.missCount;
+	}
+
+}
@@ -18,14 +18,34 @@
  */
 package net.netshot.netshot.work;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Transient;
 import lombok.Getter;
 import lombok.Setter;
 
+/**
+ * Full debug log of a task.
+ * The log is stored gzip-compressed; logs saved by previous versions
+ * are still available as plain text.
+ */
 @Entity
 public class DebugLog {
 
@@ -39,21 +59,92 @@ public class DebugLog {
 	@Setter
 	private long id;
 
+	/** Plain text log (legacy). */
 	@Getter(onMethod = @__({
 		@Column(length = 10000000)
 	}))
 	@Setter
-	private String text = "";
+	private String text;
+
+	/** Gzip-compressed log. */
+	@Getter(onMethod = @__({
+		@Column(name = "compressed_text")
+	}))
+	@Setter
+	private byte[] compressedText;
 
 	protected DebugLog() {
 	}
 
 	public DebugLog(String text) {
-		this.text = DebugLog.sanitize(text);
+		try {
+			this.compress(writer -> writer.write(DebugLog.sanitize(text)));
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Creates a debug log from a task log buffer, without loading the whole
+	 * buffer in memory.
+	 * @param logs = the task log buffer
+	 * @throws IOException on I/O error
+	 */
+	public DebugLog(TaskLogBuffer logs) throws IOException {
+		this.compress(logs::writeTo);
+	}
+
+	/**
+	 * Source of text, to be compressed.
+	 */
+	@FunctionalInterface
+	private interface TextSource {
+		void writeTo(Writer writer) throws IOException;
+	}
+
+	private void compress(TextSource source) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(buffer), StandardCharsets.UTF_8)) {
+			source.writeTo(writer);
+		}
+		this.compressedText = buffer.toByteArray();
+	}
+
+	/**
+	 * Writes the (uncompressed) log.
+	 * @param out = where to write the log to
+	 * @throws IOException on I/O error
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		if (this.compressedText != null) {
+			try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(this.compressedText))) {
+				in.transferTo(out);
+			}
+		}
+		else if (this.text != null) {
+			out.write(this.text.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Gets the (uncompressed) log.
+	 * @return the log
+	 */
+	@Transient
+	public String getContent() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			this.writeTo(out);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return out.toString(StandardCharsets.UTF_8);
 	}
 
 	public String toString() {
-		return getText();
+		return getContent();
 	}
 
 	@Override
@@ -61,6 +152,7 @@ public class DebugLog {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + (text == null ? 0 : text.hashCode());
+		result = prime * result + Arrays.hashCode(compressedText);
 		return result;
 	}
 
@@ -76,15 +168,8 @@ public class DebugLog {
 			return false;
 		}
 		DebugLog other = (DebugLog) obj;
-		if (getText() == null) {
-			if (other.getText() != null) {
-				return false;
-			}
-		}
-		else if (!getText().equals(other.getText())) {
-			return false;
-		}
-		return true;
+		return Objects.equals(getText(), other.getText())
+			&& Arrays.equals(getCompressedText(), other.getCompressedText());
 	}
 
 }
@@ -0,0 +1,320 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.work;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.netshot.netshot.Netshot;
+import net.netshot.netshot.TaskManager;
+import net.netshot.netshot.database.Database;
+import net.netshot.netshot.utils.Metrics;
+
+/**
+ * Per-device execution locks, to prevent tasks of the same type (e.g. two snapshots)
+ * from running concurrently on the same device.
+ * The locks are first taken locally, then, in cluster mode, cluster-wide using
+ * PostgreSQL session-level advisory locks, held on a dedicated database connection:
+ * should this instance lose its database session (e.g. crash), its locks are released
+ * by the database server. A lock which can't be taken again after a reconnection is
+ * marked as lost, and its holder fails rather than commit its work (see Lock.checkHeld).
+ * Lock conflicts and lost locks are counted as metrics (devices.lock.*), and the time
+ * script tasks spend trying again to lock the device is recorded (devices.lock.wait.script).
+ */
+@Slf4j
+public final class DeviceLockManager {
+
+	/**
+	 * Settings/config for the current class.
+	 */
+	public static final class Settings {
+		/** Max time (seconds) a script task waits for another script to finish on the same device. */
+		@Getter
+		private int scriptWaitTime;
+
+		/** Delay (seconds) before a script task tries again to lock the device. */
+		@Getter
+		private int scriptRetryInterval;
+
+		/**
+		 * Load settings from config.
+		 */
+		private void load() {
+			this.scriptWaitTime = Netshot.getConfig("netshot.tasks.devicelock.scriptwait", 600, 0, 86400);
+			this.scriptRetryInterval = Netshot.getConfig("netshot.tasks.devicelock.scriptretry", 30, 1, 3600);
+		}
+	}
+
+	/** Type of lock (tasks of different types may run concurrently on the same device). */
+	public enum LockType {
+		SNAPSHOT(1),
+		DIAGNOSTICS(2),
+		SCRIPT(3);
+
+		/** Advisory lock namespace (16 high bits of the key), "N" prefix + type. */
+		private final long namespace;
+
+		LockType(int value) {
+			this.namespace = (0x4E00L | value) << DEVICE_ID_BITS;
+		}
+	}
+
+	/** Settings for this class. */
+	public static final Settings SETTINGS = new Settings();
+
+	/** Number of bits of the device ID in an advisory lock key. */
+	private static final int DEVICE_ID_BITS = 48;
+
+	/** Number of locks lost on reconnection to the database. */
+	private static final Metrics.Counter LOST_LOCKS = Metrics.counter("devices.lock.lost");
+
+	/** Locks held by this instance. */
+	private static final Map<String, Lock> LOCAL_LOCKS = new ConcurrentHashMap<>();
+
+	/** Dedicated connection holding the cluster-wide locks. */
+	private static Connection lockConnection;
+
+	/**
+	 * Load the settings from configuration.
+	 */
+	public static void loadConfig() {
+		DeviceLockManager.SETTINGS.load();
+	}
+
+	/**
+	 * A lock held on a device, to be closed once the task is done.
+	 */
+	public static final class Lock implements AutoCloseable {
+		private final LockType type;
+		private final long deviceId;
+		private boolean clusterWide;
+
+		/** Set when the cluster-wide lock couldn't be taken again after a reconnection. */
+		private volatile boolean lost;
+
+		private Lock(LockType type, long deviceId) {
+			this.type = type;
+			this.deviceId = deviceId;
+		}
+
+		private String getKey() {
+			return this.type + "/" + this.deviceId;
+		}
+
+		/**
+		 * Key of the advisory lock: type namespace in the high bits, device ID in the low bits.
+		 * @return the key
+		 */
+		private long getClusterKey() {
+			return this.type.namespace | (this.deviceId & ((1L << DEVICE_ID_BITS) - 1));
+		}
+
+		/**
+		 * Checks whether the lock was lost (e.g. taken by another cluster member
+		 * while this instance was disconnected from the database).
+		 * @return true if the lock was lost
+		 */
+		public boolean isLost() {
+			return this.lost;
+		}
+
+		/**
+		 * Checks that the lock is still held, typically before committing the work
+		 * done under it. In cluster mode, this verifies the database connection
+		 * holding the lock (and takes the locks again after a reconnection).
+		 * @throws IllegalStateException if the lock was lost
+		 */
+		public void checkHeld() {
+			if (this.clusterWide) {
+				try {
+					DeviceLockManager.checkLockConnection();
+				}
+				catch (SQLException e) {
+					throw new IllegalStateException(
+						"Unable to check the device lock %s".formatted(this.getKey()), e);
+				}
+			}
+			if (this.lost) {
+				throw new IllegalStateException(
+					"The device lock %s was lost, another task may be running on the device".formatted(this.getKey()));
+			}
+		}
+
+		@Override
+		public void close() {
+			if (this.clusterWide) {
+				DeviceLockManager.releaseClusterLock(this);
+			}
+			LOCAL_LOCKS.remove(this.getKey(), this);
+		}
+	}
+
+	private DeviceLockManager() {
+	}
+
+	/**
+	 * Get the connection holding the cluster-wide locks, (re)opening it if needed.
+	 * After a reconnection, the locks held locally are taken again.
+	 * @return the connection
+	 * @throws SQLException on connection error
+	 */
+	private static Connection getLockConnection() throws SQLException {
+		if (lockConnection != null && lockConnection.isValid(2)) {
+			return lockConnection;
+		}
+		if (lockConnection != null) {
+			log.warn("The device lock database connection was lost, reconnecting");
+			try {
+				lockConnection.close();
+			}
+			catch (SQLException e) {
+				// Ignore
+			}
+			lockConnection = null;
+		}
+		Connection connection = Database.getConnection(false);
+		for (Lock lock : LOCAL_LOCKS.values()) {
+			if (lock.clusterWide && !DeviceLockManager.tryClusterLock(connection, lock)) {
+				log.error("The lock {} was lost and taken by another cluster member meanwhile", lock.getKey());
+				lock.clusterWide = false;
+				lock.lost = true;
+				LOCAL_LOCKS.remove(lock.getKey(), lock);
+				LOST_LOCKS.increment();
+			}
+		}
+		lockConnection = connection;
+		return connection;
+	}
+
+	/**
+	 * Check the connection holding the cluster-wide locks, reconnecting if needed.
+	 * @throws SQLException on connection error
+	 */
+	private static synchronized void checkLockConnection() throws SQLException {
+		DeviceLockManager.getLockConnection();
+	}
+
+	/**
+	 * Try to take an advisory lock.
+	 * @param connection the connection
+	 * @param lock the lock
+	 * @return true if the lock was taken
+	 * @throws SQLException on error
+	 */
+	private static boolean tryClusterLock(Connection connection, Lock lock) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement("SELECT pg_try_advisory_lock(?)")) {
+			statement.setLong(1, lock.getClusterKey());
+			try (ResultSet result = statement.executeQuery()) {
+				return result.next() && result.getBoolean(1);
+			}
+		}
+	}
+
+	/**
+	 * Release the cluster-wide lock.
+	 * @param lock the lock
+	 */
+	private static synchronized void releaseClusterLock(Lock lock) {
+		lock.clusterWide = false;
+		if (lockConnection == null) {
+			return;
+		}
+		try (PreparedStatement statement = lockConnection.prepareStatement("SELECT pg_advisory_unlock(?)")) {
+			statement.setLong(1, lock.getClusterKey());
+			statement.execute();
+		}
+		catch (SQLException e) {
+			log.warn("Error while releasing device lock {}", lock.getKey(), e);
+		}
+	}
+
+	/**
+	 * Take the cluster-wide lock.
+	 * @param lock the lock
+	 * @return true if the lock was taken
+	 * @throws SQLException on error
+	 */
+	private static synchronized boolean takeClusterLock(Lock lock) throws SQLException {
+		if (DeviceLockManager.tryClusterLock(DeviceLockManager.getLockConnection(), lock)) {
+			lock.clusterWide = true;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Try to take the lock, once.
+	 * @param type the type of lock
+	 * @param deviceId the device ID
+	 * @return the lock, or null if it is already held
+	 * @throws SQLException on database error
+	 */
+	private static Lock lockOnce(LockType type, long deviceId) throws SQLException {
+		Lock lock = new Lock(type, deviceId);
+		if (LOCAL_LOCKS.putIfAbsent(lock.getKey(), lock) != null) {
+			return null;
+		}
+		if (TaskManager.Mode.SINGLE.equals(TaskManager.getMode())) {
+			return lock;
+		}
+		boolean taken = false;
+		try {
+			taken = DeviceLockManager.takeClusterLock(lock);
+		}
+		finally {
+			if (!taken) {
+				LOCAL_LOCKS.remove(lock.getKey(), lock);
+			}
+		}
+		return taken ? lock : null;
+	}
+
+	/**
+	 * Try to lock the device, without waiting.
+	 * @param type the type of lock
+	 * @param deviceId the device ID
+	 * @return the lock, or null if it is already held (by this or another instance)
+	 * @throws SQLException on database error
+	 */
+	public static Lock tryLock(LockType type, long deviceId) throws SQLException {
+		Lock lock = DeviceLockManager.lockOnce(type, deviceId);
+		if (lock == null) {
+			Metrics.counter("devices.lock.conflicts." + type.name().toLowerCase()).increment();
+		}
+		return lock;
+	}
+
+	/**
+	 * Record the time spent waiting for a lock, from the first attempt to take it
+	 * (e.g. over several retries of a task).
+	 * @param type the type of lock
+	 * @param waitMillis the time spent waiting (ms)
+	 */
+	public static void recordWait(LockType type, long waitMillis) {
+		Metrics.timer("devices.lock.wait." + type.name().toLowerCase())
+			.record(TimeUnit.MILLISECONDS.toNanos(Math.max(0, waitMillis)));
+	}
+}
@@ -62,7 +62,14 @@ public class MasterJob implements Job {
 			if (task == null) {
 				log.error("The retrieved task {} is null.", id);
 			}
-			TaskManager.assignTaskRunner(task);
+			if (TaskManager.SETTINGS.isPullTasks()) {
+				// The runners will claim the task (the tasks due right away don't
+				// even go through the master scheduler)
+				TaskManager.releaseTask(task);
+			}
+			else {
+				TaskManager.assignTaskRunner(task);
+			}
 			session.merge(task);
 			session.getTransaction().commit();
 		}
@@ -74,7 +81,13 @@ public class MasterJob implements Job {
 		finally {
 			session.close();
 		}
-		ClusterManager.requestTasksLoad();
+		if (TaskManager.SETTINGS.isPullTasks()) {
+			// No broadcast, the runners look for ready tasks by themselves
+			TaskManager.requestTasksClaim();
+		}
+		else {
+			ClusterManager.requestTasksLoad();
+		}
 	}
 
 }
@@ -18,6 +18,7 @@
  */
 package net.netshot.netshot.work;
 
+import java.io.IOException;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -62,6 +63,7 @@ import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToMany;
 import jakarta.persistence.OneToOne;
 import jakarta.persistence.OrderBy;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
 import jakarta.persistence.Transient;
 import jakarta.persistence.Version;
@@ -75,6 +77,7 @@ import lombok.extern.slf4j.Slf4j;
 import net.netshot.netshot.Netshot;
 import net.netshot.netshot.TaskManager;
 import net.netshot.netshot.database.Database;
+import net.netshot.netshot.database.DatabaseInstrumentation;
 import net.netshot.netshot.device.Device;
 import net.netshot.netshot.device.DeviceGroup;
 import net.netshot.netshot.device.Domain;
@@ -104,7 +107,8 @@ import net.netshot.netshot.work.tasks.TakeSnapshotTask;
 	@Index(name = "changeDateIndex", columnList = "changeDate"),
 	@Index(name = "creationDateIndex", columnList = "creationDate"),
 	@Index(name = "statusIndex", columnList = "status"),
-	@Index(name = "executionDateIndex", columnList = "executionDate")
+	@Index(name = "executionDateIndex", columnList = "executionDate"),
+	@Index(name = "leaseExpiryIndex", columnList = "leaseExpiry")
 })
 @XmlRootElement
 @XmlAccessorType(XmlAccessType.NONE)
@@ -240,6 +244,9 @@ public abstract class Task implements Cloneable {
 		}
 	}
 
+	/** Number of child tasks promoted at once in parallel mode. */
+	private static final int PARALLEL_PROMOTION_CHUNK_SIZE = 1000;
+
 	/** The Constant TASK_CLASSES. */
 	private static final Set<Class<? extends Task>> TASK_CLASSES;
 
@@ -360,8 +367,13 @@ public abstract class Task implements Cloneable {
 	@Setter
 	protected String comments = "";
 
-	/** The creation date. */
+	/**
+	 * The creation date.
+	 * This is the partition key of the task table (monthly partitions), hence it
+	 * can't be changed once the task is saved.
+	 */
 	@Getter(onMethod = @__({
+		@Column(nullable = false, updatable = false),
 		@XmlElement, @JsonView(DefaultView.class)
 	}))
 	@Setter
@@ -388,41 +400,43 @@ public abstract class Task implements Cloneable {
 	@Setter
 	protected Date executionDate;
 
-	/** The id. */
+	/** The id (from a pooled sequence, so that bulk inserts of child tasks can be batched). */
 	@Getter(onMethod = @__({
-		@Id, @GeneratedValue(strategy = GenerationType.IDENTITY),
+		@Id, @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "task_id"),
+		@SequenceGenerator(name = "task_id", sequenceName = "task_id_pool", allocationSize = 50),
 		@XmlElement, @JsonView(DefaultView.class)
 	}))
 	@Setter
 	protected long id;
 
 	/** The log. */
-	protected StringBuffer logs = new StringBuffer();
+	protected TaskLogBuffer logs = TaskLogBuffer.forLog();
 
 	/** Full debug logs. */
-	protected StringBuffer fullLogs = null;
+	protected TaskLogBuffer fullLogs = null;
 
 	/** Task context. */
 	protected TaskContext logger = new TaskContext() {
 		@Override
-		public void log(Level level, String message, Object... params) {
-			String noNullMessage = message.replace('\0', '\u2400');
-			if (fullLogs != null) {
-				fullLogs
-					.append(Instant.now())
-					.append(" [").append(level).append("] ")
-					.append(MessageFormatter.arrayFormat(noNullMessage, params).getMessage())
-					.append("\n");
-			}
-			if (level.toInt() <= Level.TRACE.toInt()) {
-				// Don't log traces to base logs
+		public synchronized void log(Level level, String message, Object... params) {
+			// Don't log traces to base logs
+			boolean toLogs = level.toInt() > Level.TRACE.toInt();
+			if (fullLogs == null && !toLogs) {
 				return;
 			}
-			logs
+			// Format the line once, for both logs
+			String line = new StringBuilder()
 				.append(Instant.now())
 				.append(" [").append(level).append("] ")
-				.append(MessageFormatter.arrayFormat(noNullMessage, params).getMessage())
-				.append("\n");
+				.append(MessageFormatter.arrayFormat(message.replace('\0', '\u2400'), params).getMessage())
+				.append("\n")
+				.toString();
+			if (fullLogs != null) {
+				fullLogs.append(line);
+			}
+			if (toLogs) {
+				logs.append(line);
+			}
 		}
 
 		@Override
@@ -486,6 +500,14 @@ public abstract class Task implements Cloneable {
 	@Setter
 	private String runnerId;
 
+	/**
+	 * Expiry of the runner lease, in pull mode (cluster): the runner which claimed
+	 * the task renews it while the task is queued or running.
+	 */
+	@Getter
+	@Setter
+	private Date leaseExpiry;
+
 	/** Task priority. */
 	@Getter(onMethod = @__({
 		@XmlElement, @JsonView(DefaultView.class)
@@ -744,32 +766,23 @@ public abstract class Task implements Cloneable {
 	 * scratch next time, exactly as if this were the first attempt).
 	 *
 	 * <p>The actual scheduling/waiting is done afterwards, by {@link #orchestrateChildren(List)}.
+	 * The rows are inserted in JDBC batches (see {@link TaskManager#persistTasks(List)}).
 	 *
 	 * @param children the children to pre-create, in order (not yet persisted)
 	 */
 	protected void preCreateChildren(List<Task> children) {
-		Session session = Database.getSession();
-		try {
-			session.beginTransaction();
-			int order = 0;
-			for (Task child : children) {
-				child.setParentTaskId(this.getId());
-				child.setChildOrder(order);
-				child.setPriority(this.getPriority());
-				child.setStatus(Status.DELAYED);
-				session.persist(child);
-				order++;
-			}
-			session.getTransaction().commit();
-		}
-		catch (Exception e) {
-			Database.rollbackSilently(session);
-			throw e;
-		}
-		finally {
-			session.close();
+		long startTime = System.nanoTime();
+		int order = 0;
+		for (Task child : children) {
+			child.setParentTaskId(this.getId());
+			child.setChildOrder(order);
+			child.setPriority(this.getPriority());
+			child.setStatus(Status.DELAYED);
+			order++;
 		}
-		this.logger.info("Pre-created {} child task(s), in DELAYED status.", children.size());
+		TaskManager.persistTasks(children);
+		this.logger.info("Pre-created {} child task(s), in DELAYED status, in {} ms.", children.size(),
+			(System.nanoTime() - startTime) / 1000000);
 	}
 
 	/**
@@ -858,6 +871,9 @@ public abstract class Task implements Cloneable {
 	 * @return the final status this task should report
 	 */
 	protected Status orchestrateChildren(List<Task> children) {
+		// From now on, this task only waits for its children: give the concurrency
+		// permit back, otherwise the parents could hold all the permits
+		TaskLimiter.releaseCurrentPermit();
 		if (this.getScheduleMode() == ScheduleMode.SEQUENTIAL) {
 			return this.orchestrateSequentialChildren(children);
 		}
@@ -865,34 +881,68 @@ public abstract class Task implements Cloneable {
 	}
 
 	/**
-	 * Marks a still-DELAYED child as FAILURE because it could not be scheduled (e.g. a
-	 * Quartz or persistence error while promoting it) -- used by parallel orchestration so
-	 * an unschedulable child is reported as a concrete failure instead of being left
-	 * forever in DELAYED status.
+	 * Marks the given children as FAILURE because they could not be scheduled (e.g. a Quartz
+	 * or persistence error while promoting them) -- used by parallel orchestration so
+	 * unschedulable children are reported as concrete failures instead of being left forever
+	 * in DELAYED status, or in SCHEDULED status without any job when the error happened after
+	 * the promotion was committed. A child which actually got a job, or was already claimed
+	 * by a runner (pull mode), may be running or even finished: it is left alone, and its
+	 * in-memory status is refreshed so that the caller waits for it like any other child.
 	 *
-	 * @param child the child task that failed to schedule
+	 * @param children the child tasks that failed to schedule
 	 */
-	private void markChildAsSchedulingFailure(Task child) {
+	private void markChildrenAsSchedulingFailure(List<Task> children) {
+		List<Long> ids = new ArrayList<>();
+		for (Task child : children) {
+			if (!TaskManager.isInScheduler(child)) {
+				ids.add(child.getId());
+			}
+		}
+		List<Long> allIds = new ArrayList<>();
+		for (Task child : children) {
+			allIds.add(child.getId());
+		}
+		Map<Long, Status> statuses = new HashMap<>();
 		Session session = Database.getSession();
 		try {
 			session.beginTransaction();
-			session.createMutationQuery(
-				"update Task t set t.status = :failure where t.id = :id and t.status = :delayed")
-				.setParameter("failure", Status.FAILURE)
-				.setParameter("delayed", Status.DELAYED)
-				.setParameter("id", child.getId())
-				.executeUpdate();
+			if (!ids.isEmpty()) {
+				session.createMutationQuery("update Task t set t.status = :failure where t.id in :ids "
+						+ "and (t.status in :pending or (t.status = :waiting and t.leaseExpiry is null))")
+					.setParameter("failure", Status.FAILURE)
+					.setParameter("ids", ids)
+					.setParameterList("pending", List.of(Status.DELAYED, Status.NEW, Status.SCHEDULED))
+					.setParameter("waiting", Status.WAITING)
+					.executeUpdate();
+			}
+			for (Object[] row : session
+					.createQuery("select t.id, t.status from Task t where t.id in :ids", Object[].class)
+					.setParameter("ids", allIds)
+					.list()) {
+				statuses.put((Long) row[0], (Status) row[1]);
+			}
 			session.getTransaction().commit();
 		}
 		catch (Exception e) {
 			Database.rollbackSilently(session);
-			log.error("Task {}. Error while marking child task {} as failed after a scheduling error.",
-				this.getId(), child.getId(), e);
+			log.error("Task {}. Error while marking {} child tasks as failed after a scheduling error.",
+				this.getId(), ids.size(), e);
 		}
 		finally {
 			session.close();
 		}
-		child.setStatus(Status.FAILURE);
+		for (Task child : children) {
+			Status status = statuses.get(child.getId());
+			if (status == null) {
+				// Status unknown (DB error), consider the child as not scheduled
+				status = Status.FAILURE;
+			}
+			else if (status == Status.DELAYED) {
+				// Not promoted at all (error before the commit): nothing will run it
+				status = Status.FAILURE;
+			}
+			child.setStatus(status);
+		}
 	}
 
 	/**
@@ -918,9 +968,17 @@ public abstract class Task implements Cloneable {
 		this.logger.info("Orchestrating {} child task(s) in parallel mode.", children.size());
 		boolean cancelHonored = false;
 		boolean schedulingError = false;
-		for (int i = 0; i < children.size(); i++) {
-			Task child = children.get(i);
-			if (child.getStatus() != Status.DELAYED) {
+		long startTime = System.nanoTime();
+		int scheduledCount = 0;
+		// Promote the children in bulk, by chunks (checking for cancellation in between)
+		for (int i = 0; i < children.size(); i += PARALLEL_PROMOTION_CHUNK_SIZE) {
+			List<Task> chunk = new ArrayList<>();
+			for (Task child : children.subList(i, Math.min(children.size(), i + PARALLEL_PROMOTION_CHUNK_SIZE))) {
+				if (child.getStatus() == Status.DELAYED) {
+					chunk.add(child);
+				}
+			}
+			if (chunk.isEmpty()) {
 				continue;
 			}
 			if (this.isCancelRequestedFresh()) {
@@ -930,19 +988,23 @@ public abstract class Task implements Cloneable {
 				cancelHonored = true;
 				break;
 			}
-			this.logger.info("Scheduling child task {} for {}.", child.getId(), describeChildDevice(child));
 			try {
-				TaskManager.addTask(child);
+				scheduledCount += TaskManager.addTasks(chunk);
+				for (Task child : chunk) {
+					this.logger.debug("Scheduled child task {} for {}.", child.getId(), describeChildDevice(child));
+				}
 			}
 			catch (Exception e) {
-				log.error("Task {}. Error while scheduling child task {} for {}.",
-					this.getId(), child.getId(), describeChildDevice(child), e);
-				this.logger.error("Error while scheduling child task {} for {}.",
-					child.getId(), describeChildDevice(child));
+				log.error("Task {}. Error while scheduling {} child tasks (from task {}).",
+					this.getId(), chunk.size(), chunk.get(0).getId(), e);
+				this.logger.error("Error while scheduling {} child task(s) (task IDs {} to {}).",
+					chunk.size(), chunk.get(0).getId(), chunk.get(chunk.size() - 1).getId());
 				schedulingError = true;
-				this.markChildAsSchedulingFailure(child);
+				this.markChildrenAsSchedulingFailure(chunk);
 			}
 		}
+		this.logger.info("Scheduled {} child task(s) in {} ms.", scheduledCount,
+			(System.nanoTime() - startTime) / 1000000);
 
 		Map<Long, Task> pending = new HashMap<>();
 		int succeeded = 0;
@@ -986,6 +1048,13 @@ public abstract class Task implements Cloneable {
 						if (isTerminalStatus(childStatus)) {
 							Long childId = (Long) row[0];
 							Task child = pending.remove(childId);
+							Long retryId = childStatus == Status.CANCELLED ? this.findChildRetry(session, childId) : null;
+							if (retryId != null) {
+								this.logger.info("Child task {} for {} will be tried again as task {}.",
+									childId, describeChildDevice(child), retryId);
+								pending.put(retryId, child);
+								continue;
+							}
 							if (childStatus == Status.FAILURE) {
 								failed++;
 								this.logger.warn("Child task {} for {} failed.", childId, describeChildDevice(child));
@@ -1087,7 +1156,8 @@ public abstract class Task implements Cloneable {
 
 	/**
 	 * Polls the database every few seconds until the given task reaches a terminal
-	 * status (SUCCESS, FAILURE or CANCELLED).
+	 * status (SUCCESS, FAILURE or CANCELLED). A cancelled task which was retried
+	 * (see {@link #findChildRetry}) is followed by its copy.
 	 *
 	 * @param taskId the ID of the task to poll
 	 * @return the terminal status reached
@@ -1104,6 +1174,12 @@ public abstract class Task implements Cloneable {
 					.createQuery("select t.status from Task t where t.id = :id", Status.class)
 					.setParameter("id", taskId)
 					.uniqueResult();
+				Long retryId = childStatus == Status.CANCELLED ? this.findChildRetry(session, taskId) : null;
+				if (retryId != null) {
+					this.logger.info("Child task {} will be tried again as task {}.", taskId, retryId);
+					taskId = retryId;
+					continue;
+				}
 				if (childStatus == null || isTerminalStatus(childStatus)) {
 					return childStatus;
 				}
@@ -1114,6 +1190,24 @@ public abstract class Task implements Cloneable {
 		}
 	}
 
+	/**
+	 * Looks up the task which took over a cancelled child, i.e. a copy of it scheduled
+	 * to try again later (see RunDeviceScriptTask), at the same position among the children.
+	 *
+	 * @param session the session
+	 * @param childId the ID of the cancelled child
+	 * @return the ID of the copy, or null if the child was not retried
+	 */
+	protected Long findChildRetry(Session session, long childId) {
+		return session
+			.createQuery("select r.id from Task r, Task c where c.id = :id and r.parentTaskId = c.parentTaskId "
+				+ "and r.childOrder = c.childOrder and r.creationDate > c.creationDate "
+				+ "order by r.creationDate asc", Long.class)
+			.setParameter("id", childId)
+			.setMaxResults(1)
+			.uniqueResult();
+	}
+
 	/**
 	 * Checks whether cancellation of this (running, sequential-mode) task has been
 	 * requested, re-reading the flag directly from the database rather than relying on
@@ -1230,7 +1324,7 @@ public abstract class Task implements Cloneable {
 		this.author = author;
 		this.debugEnabled = debugEnabled;
 		if (this.debugEnabled) {
-			this.fullLogs = new StringBuffer();
+			this.fullLogs = TaskLogBuffer.forDebugLog();
 		}
 	}
 
@@ -1268,10 +1362,13 @@ public abstract class Task implements Cloneable {
 		task.setScheduleFactor(this.scheduleFactor);
 		task.setPriority(this.priority);
 		task.setId(0);
+		// The copy is a new task (which lands in the partition of the current month)
+		task.setCreationDate(new Date());
 		// Clear debug logs
+		task.fullLogs = null;
 		task.setDebugEnabled(this.isDebugEnabled());
 		// Clear logs
-		task.setLogs(new StringBuffer());
+		task.logs = TaskLogBuffer.forLog();
 		// Reset status
 		task.setStatus(Status.NEW);
 		// Clear execution date
@@ -1280,6 +1377,7 @@ public abstract class Task implements Cloneable {
 		task.setParentTaskId(null);
 		task.setChildOrder(0);
 		task.setCancelRequested(false);
+		task.setLeaseExpiry(null);
 		return task;
 	}
 
@@ -1432,7 +1530,7 @@ public abstract class Task implements Cloneable {
 	public void setDebugEnabled(boolean debugEnabled) {
 		this.debugEnabled = debugEnabled;
 		if (debugEnabled && this.fullLogs == null) {
-			this.fullLogs = new StringBuffer();
+			this.fullLogs = TaskLogBuffer.forDebugLog();
 		}
 	}
 
@@ -1501,16 +1599,7 @@ public abstract class Task implements Cloneable {
 	 * @param logs the new logs
 	 */
 	public void setLogs(String logs) {
-		this.logs = new StringBuffer(logs);
-	}
-
-	/**
-	 * Sets the logs.
-	 *
-	 * @param logs the new logs
-	 */
-	public void setLogs(StringBuffer logs) {
-		this.logs = logs;
+		this.setLog(logs);
 	}
 
 	/**
@@ -1531,14 +1620,43 @@ public abstract class Task implements Cloneable {
 	 * @param log the new log
 	 */
 	public void setLog(String log) {
-		this.logs = new StringBuffer(log);
+		this.logs.close();
+		this.logs = new TaskLogBuffer(TaskLogBuffer.SETTINGS.getMaxSize(), log);
+	}
+
+	/**
+	 * Release the log buffers (and their temporary files, if any),
+	 * once the logs are saved.
+	 */
+	public void closeLogs() {
+		this.logs.close();
+		if (this.fullLogs != null) {
+			this.fullLogs.close();
+		}
+	}
+
+	/**
+	 * Build the debug log from the full logs (if debugging is enabled), at the end
+	 * of the execution. The database usage of the task so far is appended first.
+	 * @throws IOException in case of error while compressing the logs
+	 */
+	protected void saveDebugLog() throws IOException {
+		if (this.fullLogs == null) {
+			return;
+		}
+		DatabaseInstrumentation.UnitOfWork dbUsage = DatabaseInstrumentation.current();
+		if (dbUsage != null) {
+			this.logger.trace(dbUsage.getSummary());
+		}
+		this.debugLog = new DebugLog(this.fullLogs);
 	}
 
 	/**
 	 * Sets the running.
 	 */
 	public void setRunning() {
-		this.logs = new StringBuffer();
+		this.logs.close();
+		this.logs = TaskLogBuffer.forLog();
 		this.status = Status.RUNNING;
 		this.executionDate = new Date();
 	}
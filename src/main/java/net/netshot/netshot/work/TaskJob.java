@@ -29,6 +29,7 @@ import org.quartz.JobExecutionException;
 import lombok.extern.slf4j.Slf4j;
 import net.netshot.netshot.TaskManager;
 import net.netshot.netshot.database.Database;
+import net.netshot.netshot.database.DatabaseInstrumentation;
 import net.netshot.netshot.hooks.Hook;
 import net.netshot.netshot.hooks.HookTrigger;
 import net.netshot.netshot.work.Task.Status;
@@ -43,6 +44,9 @@ public class TaskJob implements Job {
 	/** The Constant NETSHOT_TASK. */
 	public static final String NETSHOT_TASK = "Netshot Task";
 
+	/** Permit to run the task (concurrency limits). */
+	private TaskLimiter.Permit permit;
+
 	/**
 	 * Instantiates a new task job.
 	 */
@@ -61,6 +65,22 @@ public class TaskJob implements Job {
 			return;
 		}
 		log.trace("The task id is {}.", id);
+		try {
+			this.runTask(id);
+		}
+		finally {
+			if (this.permit != null) {
+				this.permit.close();
+			}
+		}
+	}
+
+	/**
+	 * Run the task.
+	 * @param id = the task ID
+	 * @throws JobExecutionException on error
+	 */
+	private void runTask(Long id) throws JobExecutionException {
 		Task task = null;
 		Session session = Database.getSession();
 		try {
@@ -70,6 +90,31 @@ public class TaskJob implements Job {
 			if (task == null) {
 				log.error("The retrieved task {} is null.", id);
 			}
+			else {
+				if (!TaskManager.isClaimedLocally(task)) {
+					log.warn("The task {} is not claimed by the local runner anymore, skipping it.", id);
+					Database.rollbackSilently(session);
+					return;
+				}
+				// Wait for the task to be allowed to run, without holding a transaction
+				TaskLimiter.Limits limits = TaskLimiter.getLimits(task);
+				session.getTransaction().commit();
+				try {
+					this.permit = TaskLimiter.acquire(limits);
+				}
+				catch (InterruptedException e) {
+					log.warn("Interrupted while waiting to run the task {}.", id);
+					Thread.currentThread().interrupt();
+					return;
+				}
+				session.beginTransaction();
+				session.refresh(task);
+				if (!TaskManager.isClaimedLocally(task)) {
+					log.warn("The task {} is not claimed by the local runner anymore, skipping it.", id);
+					Database.rollbackSilently(session);
+					return;
+				}
+			}
 			task.setRunning();
 			log.trace("The task runner ID for {} is {}", task.getId(), task.getRunnerId());
 			session.merge(task);
@@ -101,12 +146,17 @@ public class TaskJob implements Job {
 		}
 
 		log.warn("Running the task {} of type {}", id, task.getClass().getSimpleName());
+		DatabaseInstrumentation.begin("tasks", task.getClass().getSimpleName(), task.logger.getIdentifier());
 		try {
 			task.run();
 		}
 		catch (Error e) {
 			log.error("Error while running the task {}.", id, e);
 		}
+		finally {
+			// The usage summary is added to the debug log by the task itself
+			DatabaseInstrumentation.end();
+		}
 
 		if (task.getStatus() == Status.RUNNING) {
 			log.error("The task {} exited with a status of RUNNING.", id);
@@ -138,6 +188,7 @@ public class TaskJob implements Job {
 		}
 		finally {
 			session.close();
+			task.closeLogs();
 		}
 
 
@@ -149,6 +200,7 @@ public class TaskJob implements Job {
 				.createQuery("select h from Hook h join h.triggers t where t.type = :postTask and t.item = :taskName and h.enabled", Hook.class)
 				.setParameter("postTask", HookTrigger.TriggerType.POST_TASK)
 				.setParameter("taskName", task.getClass().getSimpleName())
+				.setCacheable(true)
 				.list();
 
 			for (Hook hook : hooks) {
@@ -176,6 +228,8 @@ public class TaskJob implements Job {
 		catch (Exception e) {
 			log.error("Unable to repeat the task {} again.", id);
 		}
+		// Local capacity is available again (pull mode)
+		TaskManager.requestTasksClaim();
 
 		log.warn("End of task {} of type {}: {}.", id, task.getClass().getSimpleName(), task.getStatus());
 
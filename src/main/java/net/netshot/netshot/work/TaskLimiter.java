@@ -0,0 +1,221 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.work;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.netshot.netshot.Netshot;
+import net.netshot.netshot.device.Device;
+import net.netshot.netshot.device.Domain;
+import net.netshot.netshot.utils.Metrics;
+import net.netshot.netshot.work.tasks.DeviceBasedTask;
+import net.netshot.netshot.work.tasks.DomainBasedTask;
+
+/**
+ * Limits the number of concurrently running tasks, globally, per domain and per
+ * device driver, using semaphores. The time spent waiting for each limit is recorded
+ * as a metric (tasks.queue.wait.*).
+ * This is mainly meant for the virtual thread runner (see {@link VirtualThreadPool}),
+ * where the size of the thread pool doesn't bound the concurrency anymore.
+ * A task which only orchestrates child tasks gives its permit back before waiting
+ * for them (see {@link #releaseCurrentPermit()}), otherwise parent tasks could hold
+ * all the permits while their children wait for one.
+ */
+@Slf4j
+public final class TaskLimiter {
+
+	/**
+	 * Settings/config for the current class.
+	 */
+	public static final class Settings {
+		/** Max number of concurrent tasks (0 for no limit). */
+		@Getter
+		private int globalLimit;
+
+		/** Max number of concurrent tasks per domain (0 for no limit). */
+		@Getter
+		private int domainLimit;
+
+		/** Max number of concurrent tasks per device driver (0 for no limit). */
+		@Getter
+		private int driverLimit;
+
+		/**
+		 * Load settings from config.
+		 */
+		private void load() {
+			this.globalLimit = Netshot.getConfig("netshot.tasks.limit.global",
+				Netshot.getConfig("netshot.tasks.threadcount", 10, 1, 65535), 0, 1000000);
+			this.domainLimit = Netshot.getConfig("netshot.tasks.limit.domain", 0, 0, 1000000);
+			this.driverLimit = Netshot.getConfig("netshot.tasks.limit.driver", 0, 0, 1000000);
+		}
+	}
+
+	/** Settings for this class. */
+	public static final Settings SETTINGS = new Settings();
+
+	/** Semaphores, by limit name (e.g. "global", "domain.3", "driver.CiscoIOS12"). */
+	private static final Map<String, Semaphore> SEMAPHORES = new ConcurrentHashMap<>();
+
+	/** Permit held by the task running in the current thread. */
+	private static final ThreadLocal<Permit> CURRENT_PERMIT = new ThreadLocal<>();
+
+	/**
+	 * The limits which apply to a task (besides the global limit).
+	 * @param domainId = ID of the domain of the task (null if none)
+	 * @param driver = device driver of the task (null if none)
+	 */
+	public record Limits(Long domainId, String driver) {
+	}
+
+	/**
+	 * Load the settings from configuration.
+	 */
+	public static void loadConfig() {
+		TaskLimiter.SETTINGS.load();
+		// Limits only apply to semaphores created from now
+		SEMAPHORES.clear();
+	}
+
+	/**
+	 * Permits acquired to run a task, to be released once the task is done.
+	 */
+	public static final class Permit implements AutoCloseable {
+		private final Deque<Semaphore> semaphores = new ArrayDeque<>();
+
+		private Permit() {
+		}
+
+		private void acquire(String name, int limit) throws InterruptedException {
+			if (limit <= 0) {
+				return;
+			}
+			Semaphore semaphore = SEMAPHORES.computeIfAbsent(name, n -> {
+				Semaphore s = new Semaphore(limit, true);
+				Metrics.gauge("tasks.queue.length." + n, s::getQueueLength);
+				return s;
+			});
+			long startTime = System.nanoTime();
+			semaphore.acquire();
+			Metrics.timer("tasks.queue.wait." + name).recordSince(startTime);
+			this.semaphores.push(semaphore);
+		}
+
+		@Override
+		public void close() {
+			if (CURRENT_PERMIT.get() == this) {
+				CURRENT_PERMIT.remove();
+			}
+			while (!this.semaphores.isEmpty()) {
+				this.semaphores.pop().release();
+			}
+		}
+	}
+
+	private TaskLimiter() {
+	}
+
+	/**
+	 * Gets the limits which apply to the given task. To be called while the
+	 * task is attached to a DB session (the device is read).
+	 * @param task = the task
+	 * @return the limits
+	 */
+	public static Limits getLimits(Task task) {
+		if (SETTINGS.getDomainLimit() <= 0 && SETTINGS.getDriverLimit() <= 0) {
+			return new Limits(null, null);
+		}
+		try {
+			Domain domain = null;
+			String driver = null;
+			if (task instanceof DeviceBasedTask deviceTask && deviceTask.getDevice() != null) {
+				Device device = deviceTask.getDevice();
+				driver = device.getDriver();
+				domain = device.getMgmtDomain();
+			}
+			else if (task instanceof DomainBasedTask domainTask) {
+				domain = domainTask.getDomain();
+			}
+			return new Limits(domain == null ? null : domain.getId(), driver);
+		}
+		catch (Exception e) {
+			log.warn("Unable to read the domain and driver of task {}, only the global limit applies.",
+				task.getId(), e);
+			return new Limits(null, null);
+		}
+	}
+
+	/**
+	 * Wait until a task is allowed to run. The domain and driver limits
+	 * are acquired first, then the global limit, always in that order.
+	 * The permit is attached to the current thread until closed.
+	 * @param limits = the limits of the task to run
+	 * @return the acquired permit, to be closed after the task execution
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public static Permit acquire(Limits limits) throws InterruptedException {
+		Permit permit = new Permit();
+		try {
+			if (limits.domainId() != null) {
+				permit.acquire("domain." + limits.domainId(), SETTINGS.getDomainLimit());
+			}
+			if (limits.driver() != null) {
+				permit.acquire("driver." + limits.driver(), SETTINGS.getDriverLimit());
+			}
+			permit.acquire("global", SETTINGS.getGlobalLimit());
+		}
+		catch (InterruptedException e) {
+			permit.close();
+			throw e;
+		}
+		CURRENT_PERMIT.set(permit);
+		return permit;
+	}
+
+	/**
+	 * Release the permit held by the task running in the current thread, if any.
+	 * Called by the tasks which, from now on, only wait for other tasks.
+	 */
+	public static void releaseCurrentPermit() {
+		Permit permit = CURRENT_PERMIT.get();
+		if (permit != null) {
+			permit.close();
+		}
+	}
+
+	/**
+	 * Check whether the global limit is reached (no free slot, or tasks waiting
+	 * for one), e.g. for long background tasks to yield to the others.
+	 * @return true if the global limit is reached
+	 */
+	public static boolean isBusy() {
+		Semaphore semaphore = SEMAPHORES.get("global");
+		if (semaphore == null) {
+			return false;
+		}
+		return semaphore.hasQueuedThreads() || semaphore.availablePermits() == 0;
+	}
+
+}
@@ -0,0 +1,314 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.work;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.ref.Cleaner;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.netshot.netshot.Netshot;
+import net.netshot.netshot.utils.Metrics;
+
+/**
+ * Buffer of task log lines, with bounded memory usage.
+ * Beyond the configured in-memory size, the content is spilled to a temporary
+ * file. Beyond the max size, the next lines are dropped.
+ */
+@Slf4j
+public final class TaskLogBuffer implements Closeable {
+
+	/**
+	 * Settings/config for the current class.
+	 */
+	public static final class Settings {
+		/** Max size (in characters) of a log kept in memory, before it's spilled to disk. */
+		@Getter
+		private int memoryLimit;
+
+		/** Max size (in characters) of the task log. */
+		@Getter
+		private int maxSize;
+
+		/** Max size (in characters) of the task debug log. */
+		@Getter
+		private int debugMaxSize;
+
+		/**
+		 * Load settings from config.
+		 */
+		private void load() {
+			this.memoryLimit = Netshot.getConfig("netshot.tasks.log.memorylimit", 65536, 1024, Integer.MAX_VALUE);
+			this.maxSize = Netshot.getConfig("netshot.tasks.log.maxsize", 10000000, 1024, 10000000);
+			this.debugMaxSize = Netshot.getConfig("netshot.tasks.log.debugmaxsize", 100000000, 1024, Integer.MAX_VALUE);
+		}
+	}
+
+	/** Settings for this class. */
+	public static final Settings SETTINGS = new Settings();
+
+	/** Line added when the max size is reached. */
+	private static final String TRUNCATED_LINE = "[log truncated, max size reached]\n";
+
+	/** Removes the spill files of the buffers which were not closed. */
+	private static final Cleaner CLEANER = Cleaner.create();
+
+	/** Number of logs spilled to disk. */
+	private static final Metrics.Counter SPILLS = Metrics.counter("tasks.logs.spilled");
+
+	/** Number of truncated logs. */
+	private static final Metrics.Counter TRUNCATIONS = Metrics.counter("tasks.logs.truncated");
+
+	/**
+	 * Load the settings from configuration.
+	 */
+	public static void loadConfig() {
+		TaskLogBuffer.SETTINGS.load();
+	}
+
+	static {
+		TaskLogBuffer.loadConfig();
+	}
+
+	/**
+	 * Create a buffer for the task log.
+	 * @return the new buffer
+	 */
+	public static TaskLogBuffer forLog() {
+		return new TaskLogBuffer(SETTINGS.getMaxSize());
+	}
+
+	/**
+	 * Create a buffer for the task debug log.
+	 * @return the new buffer
+	 */
+	public static TaskLogBuffer forDebugLog() {
+		return new TaskLogBuffer(SETTINGS.getDebugMaxSize());
+	}
+
+	/**
+	 * Spill file, and its writer. Removes the file when run.
+	 * Doesn't refer to the buffer, so that it can be run once the buffer is unreachable.
+	 */
+	private static final class SpillFile implements Runnable {
+		private final Path path;
+		private final Writer writer;
+
+		private SpillFile(Path path) throws IOException {
+			this.path = path;
+			this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public void run() {
+			try {
+				this.writer.close();
+			}
+			catch (IOException e) {
+				log.debug("Error while closing the task log spill file {}.", this.path, e);
+			}
+			try {
+				Files.deleteIfExists(this.path);
+			}
+			catch (IOException e) {
+				log.warn("Unable to remove the task log spill file {}.", this.path, e);
+			}
+		}
+	}
+
+	/** Max size (in characters). */
+	private final int maxSize;
+
+	/** Initial content (as loaded from the database), kept as is until something is appended. */
+	private String initial = "";
+
+	/** In-memory content, created on first append. */
+	private StringBuilder memory;
+
+	/** Spill file, once the content went beyond the memory limit. */
+	private SpillFile spillFile;
+
+	/** Removes the spill file. */
+	private Cleaner.Cleanable cleanable;
+
+	/** Current size (in characters). */
+	private long length;
+
+	/** Whether the max size was reached. */
+	private boolean truncated;
+
+	/** Whether the buffer was closed. */
+	private boolean closed;
+
+	/**
+	 * Constructor.
+	 * @param maxSize = max size (in characters)
+	 */
+	public TaskLogBuffer(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Constructor, with initial content.
+	 * @param maxSize = max size (in characters)
+	 * @param initial = the initial content
+	 */
+	public TaskLogBuffer(int maxSize, String initial) {
+		this.maxSize = maxSize;
+		if (initial != null) {
+			this.initial = initial;
+			this.length = initial.length();
+		}
+	}
+
+	/**
+	 * Get the current size.
+	 * @return the size, in characters
+	 */
+	public synchronized long length() {
+		return this.length;
+	}
+
+	/**
+	 * Checks whether the spill file is used.
+	 * @return true if the content was spilled to disk
+	 */
+	public synchronized boolean isSpilled() {
+		return this.spillFile != null;
+	}
+
+	/**
+	 * Append text (usually a full line) to the buffer.
+	 * @param text = the text to append
+	 */
+	public synchronized void append(String text) {
+		if (this.closed || this.truncated) {
+			return;
+		}
+		if (this.length + text.length() > this.maxSize) {
+			this.truncated = true;
+			TRUNCATIONS.increment();
+			text = TRUNCATED_LINE;
+		}
+		this.length += text.length();
+		if (this.memory == null) {
+			this.memory = new StringBuilder(this.initial);
+			this.initial = "";
+		}
+		if (this.spillFile == null && this.memory.length() + text.length() > SETTINGS.getMemoryLimit()) {
+			this.spill();
+		}
+		if (this.spillFile != null) {
+			try {
+				this.spillFile.writer.write(text);
+				return;
+			}
+			catch (IOException e) {
+				log.warn("Error while writing to the task log spill file, the log is now truncated.", e);
+				this.truncated = true;
+				text = TRUNCATED_LINE;
+			}
+		}
+		this.memory.append(text);
+	}
+
+	/**
+	 * Move the in-memory content to a new temporary file.
+	 * If the file can't be created, the content is kept in memory.
+	 */
+	private void spill() {
+		try {
+			Path path = Files.createTempFile("netshot-tasklog-", ".log");
+			SpillFile file = new SpillFile(path);
+			this.cleanable = CLEANER.register(this, file);
+			this.spillFile = file;
+			file.writer.append(this.memory);
+			this.memory = new StringBuilder();
+			SPILLS.increment();
+			log.debug("Task log spilled to {}.", path);
+		}
+		catch (IOException e) {
+			log.warn("Unable to spill the task log to disk, keeping it in memory.", e);
+		}
+	}
+
+	/**
+	 * Write the whole content of the buffer.
+	 * @param out = where to write the content to
+	 * @throws IOException on I/O error
+	 */
+	public synchronized void writeTo(Writer out) throws IOException {
+		if (this.spillFile != null) {
+			this.spillFile.writer.flush();
+			try (Reader reader = Files.newBufferedReader(this.spillFile.path, StandardCharsets.UTF_8)) {
+				reader.transferTo(out);
+			}
+		}
+		if (this.memory != null) {
+			out.append(this.memory);
+		}
+		else {
+			out.write(this.initial);
+		}
+	}
+
+	/**
+	 * Get the whole content of the buffer.
+	 * Loads the spilled content to memory, if any.
+	 * @return the content
+	 */
+	@Override
+	public synchronized String toString() {
+		if (this.spillFile == null) {
+			return this.memory == null ? this.initial : this.memory.toString();
+		}
+		StringWriter writer = new StringWriter((int) this.length);
+		try {
+			this.writeTo(writer);
+		}
+		catch (IOException e) {
+			log.error("Error while reading the task log spill file.", e);
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * Release the buffer, including the spill file.
+	 * The buffer is empty afterwards.
+	 */
+	@Override
+	public synchronized void close() {
+		this.closed = true;
+		this.initial = "";
+		this.memory = null;
+		this.length = 0;
+		if (this.cleanable != null) {
+			this.cleanable.clean();
+			this.cleanable = null;
+			this.spillFile = null;
+		}
+	}
+}
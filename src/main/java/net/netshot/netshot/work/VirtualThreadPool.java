@@ -0,0 +1,128 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot.work;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.quartz.SchedulerConfigException;
+import org.quartz.spi.ThreadPool;
+
+import lombok.extern.slf4j.Slf4j;
+import net.netshot.netshot.utils.Metrics;
+
+/**
+ * Quartz thread pool running each job in a new virtual thread.
+ * The pool itself doesn't limit the number of concurrent jobs: this is done by
+ * {@link TaskLimiter}, based on the domain and driver of the device the task is about.
+ */
+@Slf4j
+public class VirtualThreadPool implements ThreadPool {
+
+	/** Nominal pool size (only used for reporting). */
+	private int threadCount = 10;
+
+	/** Name of the scheduler instance. */
+	private String instanceName = "Scheduler";
+
+	/** Factory of virtual threads. */
+	private ThreadFactory threadFactory;
+
+	/** Number of running jobs. */
+	private final AtomicInteger activeCount = new AtomicInteger();
+
+	/** Whether the pool was shut down. */
+	private volatile boolean shutdown = false;
+
+	/**
+	 * Instantiates a new virtual thread pool (called by Quartz).
+	 */
+	public VirtualThreadPool() {
+	}
+
+	/**
+	 * Sets the nominal pool size (org.quartz.threadPool.threadCount).
+	 * @param threadCount the thread count
+	 */
+	public void setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+	}
+
+	@Override
+	public void initialize() throws SchedulerConfigException {
+		this.threadFactory = Thread.ofVirtual().name(this.instanceName + "_Worker-", 1).factory();
+		Metrics.gauge("tasks.runner.active", this.activeCount::get);
+		log.info("Virtual thread pool initialized for scheduler {}.", this.instanceName);
+	}
+
+	@Override
+	public boolean runInThread(Runnable runnable) {
+		if (runnable == null || this.shutdown) {
+			return false;
+		}
+		this.activeCount.incrementAndGet();
+		Thread thread = this.threadFactory.newThread(() -> {
+			try {
+				runnable.run();
+			}
+			finally {
+				this.activeCount.decrementAndGet();
+			}
+		});
+		thread.start();
+		return true;
+	}
+
+	@Override
+	public int blockForAvailableThreads() {
+		// A new virtual thread is always available
+		return this.shutdown ? 0 : Integer.MAX_VALUE;
+	}
+
+	@Override
+	public void shutdown(boolean waitForJobsToComplete) {
+		this.shutdown = true;
+		if (waitForJobsToComplete) {
+			while (this.activeCount.get() > 0) {
+				try {
+					Thread.sleep(100);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+	}
+
+	@Override
+	public int getPoolSize() {
+		return this.threadCount;
+	}
+
+	@Override
+	public void setInstanceId(String schedInstId) {
+	}
+
+	@Override
+	public void setInstanceName(String schedName) {
+		this.instanceName = schedName;
+	}
+
+}
@@ -30,8 +30,10 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.Transient;
 import jakarta.xml.bind.annotation.XmlElement;
 import lombok.extern.slf4j.Slf4j;
+import net.netshot.netshot.compliance.CheckResult;
 import net.netshot.netshot.compliance.HardwareRule;
 import net.netshot.netshot.compliance.Policy;
+import net.netshot.netshot.compliance.Policy.CheckStats;
 import net.netshot.netshot.compliance.SoftwareRule;
 import net.netshot.netshot.compliance.SoftwareRule.ConformanceLevel;
 import net.netshot.netshot.database.Database;
@@ -66,6 +68,22 @@ public final class CheckComplianceTask extends Task implements DeviceBasedTask {
 		this.device = device;
 	}
 
+	/**
+	 * Whether all the rules are evaluated again, even those whose inputs
+	 * didn't change since the last check.
+	 * @return true to force full evaluation
+	 */
+	@XmlElement
+	@JsonView(DefaultView.class)
+	@Transient
+	public boolean isForceFullCheck() {
+		return this.getBooleanAttribute("forceFullCheck", false);
+	}
+
+	public void setForceFullCheck(boolean forceFullCheck) {
+		this.setAttribute("forceFullCheck", forceFullCheck);
+	}
+
 	/*(non-Javadoc)
 	 * @see net.netshot.netshot.work.Task#run()
 	 */
@@ -81,10 +99,14 @@ public final class CheckComplianceTask extends Task implements DeviceBasedTask {
 
 		Session session = Database.getSession();
 		try {
+			session.setJdbcBatchSize(CheckResult.BATCH_SIZE);
 			session.beginTransaction();
-			// Delete previous results
-			session
-				.createMutationQuery("delete from CheckResult c where c.key.device.id = :id")
+			// Delete the results of the rules which don't apply to the device anymore
+			// (the other results are updated in place)
+			int deletedCount = session
+				.createMutationQuery("delete from CheckResult c where c.key.device.id = :id and not exists "
+					+ "(select r.id from Rule r join r.policy p join p.targetGroups g join g.cachedMemberships dm "
+					+ "where r.id = c.key.rule.id and dm.key.device.id = :id)")
 				.setParameter("id", this.device.getId())
 				.executeUpdate();
 			// Start over from a fresh device from DB
@@ -104,9 +126,12 @@ public final class CheckComplianceTask extends Task implements DeviceBasedTask {
 
 			this.logger.info("Checking configuration compliance of device {} ({})...",
 				this.device.getName(), this.device.getId());
+			String deviceFingerprint = CheckResult.computeDeviceFingerprint(device);
+			CheckStats stats = new CheckStats();
 			for (Policy policy : policies) {
-				policy.check(device, session, this.logger);
+				policy.check(device, deviceFingerprint, this.isForceFullCheck(), session, this.logger, stats);
 			}
+			this.logger.info("Compliance results: {}, {} obsolete result(s) removed.", stats, deletedCount);
 			session.persist(this.device);
 			session.flush();
 			List<SoftwareRule> softwareRules = session
@@ -125,6 +150,7 @@ public final class CheckComplianceTask extends Task implements DeviceBasedTask {
 			session.persist(this.device);
 			List<HardwareRule> hardwareRules = session
 				.createQuery("select hr from HardwareRule hr", HardwareRule.class)
+				.setCacheable(true)
 				.list();
 			device.resetEoX();
 			for (HardwareRule rule : hardwareRules) {
@@ -183,6 +209,7 @@ public final class CheckComplianceTask extends Task implements DeviceBasedTask {
 	public Object clone() throws CloneNotSupportedException {
 		CheckComplianceTask task = (CheckComplianceTask) super.clone();
 		task.setDevice(this.device);
+		task.setForceFullCheck(this.isForceFullCheck());
 		return task;
 	}
 
@@ -18,7 +18,9 @@
  */
 package net.netshot.netshot.work.tasks;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.hibernate.CacheMode;
 import org.hibernate.Hibernate;
@@ -34,7 +36,9 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.Transient;
 import jakarta.xml.bind.annotation.XmlElement;
 import lombok.extern.slf4j.Slf4j;
+import net.netshot.netshot.compliance.CheckResult;
 import net.netshot.netshot.compliance.Policy;
+import net.netshot.netshot.compliance.Policy.CheckStats;
 import net.netshot.netshot.database.Database;
 import net.netshot.netshot.device.Device;
 import net.netshot.netshot.device.DeviceGroup;
@@ -51,6 +55,9 @@ import net.netshot.netshot.work.Task;
 @Slf4j
 public final class CheckGroupComplianceTask extends Task implements GroupBasedTask, DeviceListBasedTask {
 
+	/** Number of checked devices between two session flushes. */
+	private static final int FLUSH_DEVICE_COUNT = 20;
+
 	/**
 	 * Instantiates a new check group compliance task.
 	 */
@@ -107,6 +114,22 @@ public final class CheckGroupComplianceTask extends Task implements GroupBasedTa
 		return this.getDeviceGroup().getId();
 	}
 
+	/**
+	 * Whether all the rules are evaluated again, even those whose inputs
+	 * didn't change since the last check.
+	 * @return true to force full evaluation
+	 */
+	@XmlElement
+	@JsonView(DefaultView.class)
+	@Transient
+	public boolean isForceFullCheck() {
+		return this.getBooleanAttribute("forceFullCheck", false);
+	}
+
+	public void setForceFullCheck(boolean forceFullCheck) {
+		this.setAttribute("forceFullCheck", forceFullCheck);
+	}
+
 	/*(non-Javadoc)
 	 * @see net.netshot.netshot.work.Task#prepare()
 	 */
@@ -126,6 +149,7 @@ public final class CheckGroupComplianceTask extends Task implements GroupBasedTa
 		CheckGroupComplianceTask task = (CheckGroupComplianceTask) super.clone();
 		task.setDeviceGroup(this.getDeviceGroup());
 		task.setDeviceList(this.getDeviceList());
+		task.setForceFullCheck(this.isForceFullCheck());
 		return task;
 	}
 
@@ -148,24 +172,40 @@ public final class CheckGroupComplianceTask extends Task implements GroupBasedTa
 
 		Session session = Database.getSession();
 		try {
+			session.setJdbcBatchSize(CheckResult.BATCH_SIZE);
 			List<Policy> policies =
 				session.createQuery("select p from Policy p", Policy.class).list();
+			for (Policy policy : policies) {
+				// The session is cleared while iterating over the devices
+				Hibernate.initialize(policy.getRules());
+			}
 
 			session.beginTransaction();
+			// Delete the results of the rules which don't apply to the devices anymore
+			// (the other results are updated in place)
+			String staleFilter = " and not exists "
+				+ "(select r.id from Rule r join r.policy p join p.targetGroups g join g.cachedMemberships dm "
+				+ "where r.id = c.key.rule.id and dm.key.device.id = c.key.device.id)";
+			int deletedCount;
 			if (group != null) {
-				session
+				deletedCount = session
 					.createMutationQuery(
 						"delete from CheckResult c where c.key.device.id in "
-						+ "(select dm1.key.device.id as id from DeviceGroup g1 join g1.cachedMemberships dm1 where dm1.key.group.id = :id)")
+						+ "(select dm1.key.device.id as id from DeviceGroup g1 join g1.cachedMemberships dm1 where dm1.key.group.id = :id)"
+						+ staleFilter)
 					.setParameter("id", group.getId())
 					.executeUpdate();
 			}
 			else {
-				session
-					.createMutationQuery("delete from CheckResult c where c.key.device.id in :ids")
+				deletedCount = session
+					.createMutationQuery("delete from CheckResult c where c.key.device.id in :ids" + staleFilter)
 					.setParameter("ids", deviceIds)
 					.executeUpdate();
 			}
+			// Device data doesn't change during the task
+			Map<Long, String> deviceFingerprints = new HashMap<>();
+			CheckStats stats = new CheckStats();
+			int pendingDeviceCount = 0;
 			for (Policy policy : policies) {
 				// Get devices which are part of the target group/list and which are in a group which the policy is applied to
 				ScrollableResults<Device> scrolledDevices;
@@ -194,13 +234,19 @@ public final class CheckGroupComplianceTask extends Task implements GroupBasedTa
 				while (scrolledDevices.next()) {
 					Device device = scrolledDevices.get();
 					this.logger.info("Checking configuration compliance of device {} ({})", device.getName(), device.getId());
-					policy.check(device, session, this.logger);
+					String deviceFingerprint = deviceFingerprints.computeIfAbsent(device.getId(),
+						id -> CheckResult.computeDeviceFingerprint(device));
+					policy.check(device, deviceFingerprint, this.isForceFullCheck(), session, this.logger, stats);
 					session.persist(device);
-					session.flush();
-					session.evict(device);
+					// Write the changed results of several devices at once (JDBC batches)
+					if (++pendingDeviceCount % FLUSH_DEVICE_COUNT == 0) {
+						session.flush();
+						session.clear();
+					}
 				}
 			}
 			session.getTransaction().commit();
+			this.logger.info("Compliance results: {}, {} obsolete result(s) removed.", stats, deletedCount);
 			this.status = Status.SUCCESS;
 		}
 		catch (Exception e) {
@@ -156,6 +156,7 @@ public final class CheckGroupSoftwareTask extends Task implements GroupBasedTask
 			log.debug("Task {}. Retrieving the hardware rules", this.getId());
 			List<HardwareRule> hardwareRules = session
 				.createQuery("select hr from HardwareRule hr", HardwareRule.class)
+				.setCacheable(true)
 				.list();
 
 			session.beginTransaction();
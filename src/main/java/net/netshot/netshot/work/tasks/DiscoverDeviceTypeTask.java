@@ -21,7 +21,9 @@ package net.netshot.netshot.work.tasks;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.hibernate.Hibernate;
@@ -55,6 +57,7 @@ import net.netshot.netshot.device.DeviceDriver;
 import net.netshot.netshot.device.Domain;
 import net.netshot.netshot.device.DynamicDeviceGroup;
 import net.netshot.netshot.device.NetworkAddress;
+import net.netshot.netshot.device.access.CredentialHint;
 import net.netshot.netshot.device.access.DeviceAccess;
 import net.netshot.netshot.device.access.Snmp;
 import net.netshot.netshot.device.credentials.DeviceCredentialSet;
@@ -335,7 +338,30 @@ public final class DiscoverDeviceTypeTask extends Task implements DomainBasedTas
 		}
 
 		log.trace("Task {}. {} credential sets in the list.", this.getId(), credentialSets.size());
-		for (DeviceCredentialSet credentialSet : credentialSets) {
+		List<DeviceCredentialSet> orderedCredentialSets = new ArrayList<>(credentialSets);
+		Session hintSession = Database.getSession();
+		try {
+			DeviceCredentialSet hinted = CredentialHint.findCredentialSet(hintSession, this.getDomain(),
+				this.resolvedAddress, CredentialHint.DISCOVERY_ACCESS);
+			if (hinted != null) {
+				// Last known to work in the same subnet: try it first
+				for (int i = 0; i < orderedCredentialSets.size(); i++) {
+					if (orderedCredentialSets.get(i).getId() == hinted.getId()) {
+						orderedCredentialSets.add(0, orderedCredentialSets.remove(i));
+						this.logger.debug("Trying credential set {} first (last known to work in the same subnet).",
+							hinted.getName());
+						break;
+					}
+				}
+			}
+		}
+		catch (Exception e) {
+			log.warn("Task {}. Unable to read the credential hint.", this.getId(), e);
+		}
+		finally {
+			hintSession.close();
+		}
+		for (DeviceCredentialSet credentialSet : orderedCredentialSets) {
 			if (credentialSet instanceof DeviceSnmpv1Community snmpCommunity) {
 				log.trace("Task {}. SNMPv1 credential set.", this.getId());
 				didTrySnmp = true;
@@ -408,6 +434,14 @@ public final class DiscoverDeviceTypeTask extends Task implements DomainBasedTas
 				DynamicDeviceGroup.refreshAllGroupsOfOneDevice(newDevice);
 			}
 
+			try {
+				CredentialHint.record(this.getDomain(), this.resolvedAddress,
+					CredentialHint.DISCOVERY_ACCESS, this.successCredentialSet);
+			}
+			catch (Exception e) {
+				log.warn("Task {}. Unable to record the credential hint.", this.getId(), e);
+			}
+
 			try {
 				if (snapshotTask != null) {
 					TaskManager.addTask(snapshotTask);
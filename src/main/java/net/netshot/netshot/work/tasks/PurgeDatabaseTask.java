@@ -18,20 +18,16 @@
  */
 package net.netshot.netshot.work.tasks;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 
-import org.hibernate.CacheMode;
 import org.hibernate.Hibernate;
 import org.hibernate.HibernateException;
-import org.hibernate.ScrollMode;
-import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
-import org.hibernate.query.MutationQuery;
 import org.hibernate.query.Query;
 import org.quartz.JobKey;
 
@@ -41,25 +37,81 @@ import jakarta.persistence.DiscriminatorValue;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Transient;
 import jakarta.xml.bind.annotation.XmlElement;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import net.netshot.netshot.Netshot;
 import net.netshot.netshot.database.Database;
+import net.netshot.netshot.database.TaskPartitionManager;
 import net.netshot.netshot.device.Config;
 import net.netshot.netshot.device.Device;
 import net.netshot.netshot.device.DeviceGroup;
 import net.netshot.netshot.device.attribute.ConfigAttribute;
 import net.netshot.netshot.device.attribute.ConfigBinaryFileAttribute;
+import net.netshot.netshot.device.attribute.ConfigLongTextAttribute;
+import net.netshot.netshot.device.attribute.ConfigTextHistory;
 import net.netshot.netshot.rest.RestViews.DefaultView;
 import net.netshot.netshot.work.Task;
+import net.netshot.netshot.work.TaskLimiter;
 
 /**
  * This task makes some clean up on the database, optionally restricted to a
  * device group or a one-time device list.
+ * To limit the impact on a busy server, the entries are deleted in chunks, each one
+ * in its own short transaction, with a rate limit and pauses while other tasks are
+ * waiting to run. The progress of the configuration cleanup is saved in the task,
+ * so that it resumes where it stopped after a restart.
  */
 @Entity
 @DiscriminatorValue("PurgeDatabaseTask")
 @Slf4j
 public final class PurgeDatabaseTask extends Task implements GroupBasedTask, DeviceListBasedTask {
 
+	/**
+	 * Settings/config for the current class.
+	 */
+	public static final class Settings {
+		/** Max number of entries deleted per transaction. */
+		@Getter
+		private int chunkSize;
+
+		/** Max number of entries deleted per second (0 for no limit). */
+		@Getter
+		private int maxRate;
+
+		/** Max time (seconds) to pause before each chunk, while other tasks are waiting to run. */
+		@Getter
+		private int maxYield;
+
+		/**
+		 * Load settings from config.
+		 */
+		private void load() {
+			this.chunkSize = Netshot.getConfig("netshot.tasks.purge.chunksize", 500, 1, 100000);
+			this.maxRate = Netshot.getConfig("netshot.tasks.purge.maxrate", 2000, 0, Integer.MAX_VALUE);
+			this.maxYield = Netshot.getConfig("netshot.tasks.purge.maxyield", 60, 0, 3600);
+		}
+	}
+
+	/** Settings for this class. */
+	public static final Settings SETTINGS = new Settings();
+
+	/** Task attribute holding the ID of the last device whose configurations were purged. */
+	private static final String CONFIG_PROGRESS_ATTRIBUTE = "configProgressDeviceId";
+
+	/** Pause (ms) between two checks of the task queue, when yielding. */
+	private static final long YIELD_STEP = 1000;
+
+	/**
+	 * Load the settings from configuration.
+	 */
+	public static void loadConfig() {
+		PurgeDatabaseTask.SETTINGS.load();
+	}
+
+	static {
+		PurgeDatabaseTask.loadConfig();
+	}
+
 	/**
 	 * Instantiates a new task.
 	 */
@@ -223,6 +275,290 @@ public final class PurgeDatabaseTask extends Task implements GroupBasedTask, Dev
 		}
 	}
 
+	/**
+	 * Select the IDs of the next chunk of entries to delete.
+	 */
+	@FunctionalInterface
+	private interface ChunkSelector {
+		/**
+		 * Select the IDs.
+		 * @param session = the DB session
+		 * @param lastId = the last ID of the previous chunk (0 for the first chunk)
+		 * @param limit = max number of IDs to select
+		 * @return the IDs, in ascending order
+		 */
+		List<Long> select(Session session, long lastId, int limit);
+	}
+
+	/**
+	 * Delete a chunk of entries.
+	 */
+	@FunctionalInterface
+	private interface ChunkDeleter {
+		/**
+		 * Delete the entries.
+		 * @param session = the DB session
+		 * @param ids = the IDs of the entries to delete
+		 * @return the number of deleted entries
+		 */
+		int delete(Session session, List<Long> ids);
+	}
+
+	/**
+	 * Pacing of the purge: rate limit, and pauses while other tasks are waiting to run.
+	 */
+	private final class Throttle {
+		private final long startTime = System.currentTimeMillis();
+		private long rowCount;
+
+		/**
+		 * Wait for the rate limit, after some entries were deleted.
+		 * @param rows = number of deleted entries
+		 * @throws InterruptedException if interrupted
+		 */
+		private void pace(int rows) throws InterruptedException {
+			this.rowCount += rows;
+			int maxRate = SETTINGS.getMaxRate();
+			if (maxRate > 0) {
+				long waitTime = this.rowCount * 1000L / maxRate - (System.currentTimeMillis() - this.startTime);
+				if (waitTime > 0) {
+					Thread.sleep(waitTime);
+				}
+			}
+		}
+
+		/**
+		 * Pause (up to the configured time) while the task queue is busy.
+		 * @throws InterruptedException if interrupted
+		 */
+		private void yieldIfBusy() throws InterruptedException {
+			long maxYieldTime = SETTINGS.getMaxYield() * 1000L;
+			long yieldTime = 0;
+			while (yieldTime < maxYieldTime && TaskLimiter.isBusy()) {
+				Thread.sleep(YIELD_STEP);
+				yieldTime += YIELD_STEP;
+			}
+			if (yieldTime > 0) {
+				log.debug("Task {}. Paused the purge for {} ms while other tasks were waiting.",
+					PurgeDatabaseTask.this.getId(), yieldTime);
+			}
+		}
+	}
+
+	/**
+	 * Delete entries in chunks, each one in its own transaction.
+	 * @param what = the type of entries (for logs)
+	 * @param throttle = the purge pacing
+	 * @param selector = to select the IDs of each chunk
+	 * @param deleter = to delete each chunk
+	 * @return the number of deleted entries
+	 * @throws InterruptedException if interrupted
+	 */
+	private int purgeInChunks(String what, Throttle throttle, ChunkSelector selector, ChunkDeleter deleter)
+			throws InterruptedException {
+		int count = 0;
+		int chunk = 0;
+		long lastId = 0;
+		while (true) {
+			throttle.yieldIfBusy();
+			List<Long> ids;
+			int deleted;
+			Session session = Database.getSession();
+			try {
+				session.beginTransaction();
+				ids = selector.select(session, lastId, SETTINGS.getChunkSize());
+				deleted = ids.isEmpty() ? 0 : deleter.delete(session, ids);
+				session.getTransaction().commit();
+			}
+			catch (RuntimeException e) {
+				Database.rollbackSilently(session);
+				throw e;
+			}
+			finally {
+				session.close();
+			}
+			if (ids.isEmpty()) {
+				return count;
+			}
+			chunk++;
+			count += deleted;
+			lastId = ids.get(ids.size() - 1);
+			log.debug("Task {}. Purged chunk {} of {}, {} entries ({} so far).", this.getId(), chunk, what, deleted, count);
+			this.logger.debug("Purged chunk {} of {}, {} entries ({} so far).", chunk, what, deleted, count);
+			throttle.pace(deleted);
+		}
+	}
+
+	/**
+	 * Save the progress of the configuration purge in the task, for it to be resumed
+	 * after a restart.
+	 * @param lastDeviceId = the ID of the last device whose configurations were purged
+	 */
+	private void saveConfigProgress(long lastDeviceId) {
+		this.setAttribute(CONFIG_PROGRESS_ATTRIBUTE, lastDeviceId);
+		Session session = Database.getSession();
+		try {
+			session.beginTransaction();
+			Task persistentTask = session.get(Task.class, this.getId());
+			if (persistentTask != null) {
+				persistentTask.setAttributes(new HashMap<>(this.attributes));
+			}
+			session.getTransaction().commit();
+		}
+		catch (Exception e) {
+			Database.rollbackSilently(session);
+			log.warn("Task {}. Unable to save the purge progress.", this.getId(), e);
+		}
+		finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Select the next devices whose configurations should be purged.
+	 * @param group = the device group to restrict to, or null
+	 * @param deviceIds = the sorted device IDs to restrict to, or null
+	 * @param lastDeviceId = the ID of the last processed device
+	 * @return the IDs of the next devices, in ascending order
+	 */
+	private List<Long> selectConfigDevices(DeviceGroup group, List<Long> deviceIds, long lastDeviceId) {
+		int limit = SETTINGS.getChunkSize();
+		if (deviceIds != null) {
+			return deviceIds.stream().filter(id -> id > lastDeviceId).limit(limit).toList();
+		}
+		Session session = Database.getSession();
+		try {
+			if (group != null) {
+				return session
+					.createQuery("select d.id from Device d join d.groupMemberships gm "
+						+ "where gm.key.group = :group and d.id > :lastId order by d.id asc", Long.class)
+					.setParameter("group", group)
+					.setParameter("lastId", lastDeviceId)
+					.setMaxResults(limit)
+					.list();
+			}
+			return session
+				.createQuery("select d.id from Device d where d.id > :lastId order by d.id asc", Long.class)
+				.setParameter("lastId", lastDeviceId)
+				.setMaxResults(limit)
+				.list();
+		}
+		finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Purge the old configurations of a device, in chunks.
+	 * @param deviceId = the device ID
+	 * @param when = configurations older than this date are purged
+	 * @param configSize = only purge configurations bigger than this (KB), if positive
+	 * @param configKeepDays = keep one configuration every this number of days, if positive
+	 * @param throttle = the purge pacing
+	 * @return the number of deleted configurations
+	 * @throws InterruptedException if interrupted
+	 */
+	private int purgeDeviceConfigs(long deviceId, Date when, int configSize, int configKeepDays, Throttle throttle)
+			throws InterruptedException {
+		List<Long> toDeleteIds = new ArrayList<>();
+		Session session = Database.getSession();
+		try {
+			Long lastConfigId = session
+				.createQuery("select d.lastConfig.id from Device d where d.id = :id", Long.class)
+				.setParameter("id", deviceId)
+				.uniqueResult();
+			Query<Object[]> query;
+			if (configSize > 0) {
+				query = session
+					.createQuery(
+						"select c.id, c.changeDate from Config c join c.attributes a "
+							+ "where c.device.id = :id and (a.class = ConfigLongTextAttribute or a.class = ConfigBinaryFileAttribute) "
+							+ "group by c.id, c.changeDate having ((max(coalesce(a.longText.fullLength, length(a.longText.text))) > :size) or (max(a.fileSize) > :size)) and (c.changeDate < :when) "
+							+ "order by c.changeDate desc", Object[].class)
+					.setParameter("size", configSize * 1024);
+			}
+			else {
+				query = session.createQuery(
+					"select c.id, c.changeDate from Config c where c.device.id = :id and (c.changeDate < :when) "
+						+ "order by c.changeDate desc", Object[].class);
+			}
+			List<Object[]> configs = query
+				.setParameter("id", deviceId)
+				.setParameter("when", when)
+				.list();
+			Date dontDeleteBefore = null;
+			boolean first = true;
+			for (Object[] config : configs) {
+				long configId = (Long) config[0];
+				Date changeDate = (Date) config[1];
+				if ((lastConfigId != null && lastConfigId == configId)
+					|| (dontDeleteBefore != null && changeDate.before(dontDeleteBefore))
+					|| (configKeepDays > 0 && first)) {
+					if (configKeepDays > 0) {
+						Calendar limitCalendar = Calendar.getInstance();
+						limitCalendar.setTime(changeDate);
+						limitCalendar.add(Calendar.DATE, -1 * configKeepDays);
+						dontDeleteBefore = limitCalendar.getTime();
+					}
+				}
+				else {
+					toDeleteIds.add(configId);
+				}
+				first = false;
+			}
+		}
+		finally {
+			session.close();
+		}
+		// Oldest first: older versions are stored as deltas against newer ones, so
+		// dependents being purged as well are gone before their base is removed
+		Collections.reverse(toDeleteIds);
+
+		int count = 0;
+		int chunkSize = SETTINGS.getChunkSize();
+		for (int start = 0; start < toDeleteIds.size(); start += chunkSize) {
+			throttle.yieldIfBusy();
+			List<Long> chunkIds = toDeleteIds.subList(start, Math.min(start + chunkSize, toDeleteIds.size()));
+			List<ConfigBinaryFileAttribute> toDeleteFiles = new ArrayList<>();
+			int deleted = 0;
+			session = Database.getSession();
+			try {
+				session.beginTransaction();
+				for (long configId : chunkIds) {
+					Config config = session.get(Config.class, configId);
+					if (config == null) {
+						continue;
+					}
+					for (ConfigAttribute attribute : config.getAttributes()) {
+						if (attribute instanceof ConfigBinaryFileAttribute cbfa) {
+							toDeleteFiles.add(cbfa);
+						}
+						else if (attribute instanceof ConfigLongTextAttribute clta && clta.getLongText() != null) {
+							// Older versions may be stored as deltas against this one
+							// (no need to rebuild those removed in the same chunk)
+							ConfigTextHistory.materializeDependents(session, clta.getLongText(), chunkIds);
+						}
+					}
+					session.remove(config);
+					deleted++;
+				}
+				session.getTransaction().commit();
+				// Content files shared with remaining configs are kept
+				ConfigBinaryFileAttribute.removeFiles(session, toDeleteFiles, true);
+			}
+			catch (RuntimeException e) {
+				Database.rollbackSilently(session);
+				throw e;
+			}
+			finally {
+				session.close();
+			}
+			count += deleted;
+			throttle.pace(deleted);
+		}
+		return count;
+	}
+
 	/*(non-Javadoc)
 	 * @see net.netshot.netshot.work.Task#run()
 	 */
@@ -231,7 +567,7 @@ public final class PurgeDatabaseTask extends Task implements GroupBasedTask, Dev
 		DeviceGroup group = this.getDeviceGroup();
 		List<Device> deviceList = this.getDeviceList();
 		List<Long> deviceIds = (group == null && deviceList != null && !deviceList.isEmpty())
-			? deviceList.stream().map(Device::getId).toList() : null;
+			? deviceList.stream().map(Device::getId).sorted().toList() : null;
 		log.debug("Task {}. Starting cleanup process (group {}).", this.getId(),
 			group == null ? (deviceIds == null ? "all" : deviceIds.size() + " listed device(s)") : group.getId());
 
@@ -240,11 +576,10 @@ public final class PurgeDatabaseTask extends Task implements GroupBasedTask, Dev
 		int configSize = this.getConfigSize();
 		int configKeepDays = this.getConfigKeepDays();
 		int moduleDays = this.getModuleDays();
+		Throttle throttle = new Throttle();
 
 		if (days > 0) {
-			Session session = Database.getSession();
 			try {
-				session.beginTransaction();
 				log.trace("Task {}. Cleaning up tasks finished more than {} days ago...", this.getId(), days);
 				this.logger.info("Cleaning up tasks more than {} days ago...", days);
 				Calendar when = Calendar.getInstance();
@@ -252,178 +587,117 @@ public final class PurgeDatabaseTask extends Task implements GroupBasedTask, Dev
 
 				int count = 0;
 				if (group == null && deviceIds == null) {
-					count += session.createMutationQuery(
-						"delete Task t where (t.status = :cancelled or t.status = :failure "
-							+ "or t.status = :success) and (t.executionDate < :when)")
-						.setParameter("cancelled", Task.Status.CANCELLED)
-						.setParameter("failure", Task.Status.FAILURE)
-						.setParameter("success", Task.Status.SUCCESS)
-						.setParameter("when", when.getTime())
-						.executeUpdate();
+					// Whole monthly partitions first, then the remaining tasks one by one
+					count += TaskPartitionManager.dropExpiredPartitions(when.getTime());
+					if (count > 0) {
+						this.logger.info("{} tasks removed by dropping old partitions.", count);
+					}
+					count += this.purgeInChunks("tasks", throttle,
+						(session, lastId, limit) -> session
+							.createQuery("select t.id from Task t where (t.status = :cancelled or t.status = :failure "
+								+ "or t.status = :success) and (t.executionDate < :when) and (t.creationDate < :when) "
+								+ "and t.id > :lastId order by t.id asc", Long.class)
+							.setParameter("cancelled", Task.Status.CANCELLED)
+							.setParameter("failure", Task.Status.FAILURE)
+							.setParameter("success", Task.Status.SUCCESS)
+							.setParameter("when", when.getTime())
+							.setParameter("lastId", lastId)
+							.setMaxResults(limit)
+							.list(),
+						(session, ids) -> session
+							.createMutationQuery("delete Task t where t.id in :ids")
+							.setParameter("ids", ids)
+							.executeUpdate());
 				}
 				else {
 					for (Class<? extends Task> taskClass : Task.getTaskClasses()) {
 						if (DeviceBasedTask.class.isAssignableFrom(taskClass)) {
-							MutationQuery deleteQuery;
-							if (group != null) {
-								deleteQuery = session.createMutationQuery(
-									String.format(
-										"delete %1$s t where t in "
-											+ "(select t from %1$s join t.device d join d.groupMemberships gm "
-											+ "where gm.key.group = :group and (t.status = :cancelled or t.status = :failure or t.status = :success) "
-											+ "and (t.executionDate < :when))", taskClass.getSimpleName()))
-									.setParameter("group", group);
-							}
-							else {
-								deleteQuery = session.createMutationQuery(
-									String.format(
-										"delete %1$s t where t in "
-											+ "(select t from %1$s join t.device d "
-											+ "where d.id in :deviceIds and (t.status = :cancelled or t.status = :failure or t.status = :success) "
-											+ "and (t.executionDate < :when))", taskClass.getSimpleName()))
-									.setParameter("deviceIds", deviceIds);
-							}
-							count += deleteQuery
-								.setParameter("cancelled", Task.Status.CANCELLED)
-								.setParameter("failure", Task.Status.FAILURE)
-								.setParameter("success", Task.Status.SUCCESS)
-								.setParameter("when", when.getTime())
-								.executeUpdate();
+							String taskType = taskClass.getSimpleName();
+							count += this.purgeInChunks(taskType + " tasks", throttle,
+								(session, lastId, limit) -> {
+									Query<Long> selectQuery;
+									if (group != null) {
+										selectQuery = session.createQuery(
+											String.format(
+												"select t.id from %1$s t join t.device d join d.groupMemberships gm "
+													+ "where gm.key.group = :group and (t.status = :cancelled or t.status = :failure or t.status = :success) "
+													+ "and (t.executionDate < :when) and (t.creationDate < :when) and t.id > :lastId order by t.id asc", taskType), Long.class)
+											.setParameter("group", group);
+									}
+									else {
+										selectQuery = session.createQuery(
+											String.format(
+												"select t.id from %1$s t join t.device d "
+													+ "where d.id in :deviceIds and (t.status = :cancelled or t.status = :failure or t.status = :success) "
+													+ "and (t.executionDate < :when) and (t.creationDate < :when) and t.id > :lastId order by t.id asc", taskType), Long.class)
+											.setParameter("deviceIds", deviceIds);
+									}
+									return selectQuery
+										.setParameter("cancelled", Task.Status.CANCELLED)
+										.setParameter("failure", Task.Status.FAILURE)
+										.setParameter("success", Task.Status.SUCCESS)
+										.setParameter("when", when.getTime())
+										.setParameter("lastId", lastId)
+										.setMaxResults(limit)
+										.list();
+								},
+								(session, ids) -> session
+									.createMutationQuery(String.format("delete %1$s t where t.id in :ids", taskType))
+									.setParameter("ids", ids)
+									.executeUpdate());
 						}
 					}
 				}
-				session.getTransaction().commit();
 				log.trace("Task {}. Cleaning up done on tasks, {} entries affected.", this.getId(), count);
 				this.logger.info("Cleaning up done on tasks, {} entries affected.", count);
 			}
 			catch (HibernateException e) {
-				Database.rollbackSilently(session);
 				log.error("Task {}. Database error while purging the old tasks from the database.", this.getId(), e);
 				this.logger.error("Database error during the task purge.");
 				this.status = Status.FAILURE;
 				return;
 			}
 			catch (Exception e) {
-				Database.rollbackSilently(session);
 				log.error("Task {}. Error while purging the old tasks from the database.", this.getId(), e);
 				this.logger.error("Error during the task purge.");
 				this.status = Status.FAILURE;
 				return;
 			}
-			finally {
-				session.close();
-			}
 		}
 
 		if (configDays > 0) {
-			Session session = Database.getSession();
 			try {
-				session.beginTransaction();
 				log.trace("Task {}. Cleaning up configurations taken more than {} days ago...", this.getId(), configDays);
 				this.logger.info("Cleaning up configurations older than {} days...", configDays);
 				Calendar when = Calendar.getInstance();
 				when.add(Calendar.DATE, -1 * configDays);
-				Query<Config> query;
-				if (configSize > 0) {
-					if (group == null && deviceIds == null) {
-						query = session
-							.createQuery(
-								"select c from Config c join c.attributes a where (a.class = ConfigLongTextAttribute or a.class = ConfigBinaryFileAttribute) "
-									+ "group by c.id having ((max(length(a.longText.text)) > :size) or (max(a.fileSize) > :size)) and (c.changeDate < :when) "
-									+ "order by c.device asc, c.changeDate desc", Config.class)
-							.setParameter("size", configSize * 1024);
-					}
-					else if (group != null) {
-						query = session
-							.createQuery(
-								"select c from Config c join c.device d join d.groupMemberships gm join c.attributes a "
-									+ "where gm.key.group = :group and (a.class = ConfigLongTextAttribute or a.class = ConfigBinaryFileAttribute) "
-									+ "group by c.id having ((max(length(a.longText.text)) > :size) or (max(a.fileSize) > :size)) and (c.changeDate < :when) "
-									+ "order by c.device asc, c.changeDate desc", Config.class)
-							.setParameter("group", group)
-							.setParameter("size", configSize * 1024);
-					}
-					else {
-						query = session
-							.createQuery(
-								"select c from Config c join c.device d join c.attributes a "
-									+ "where d.id in :deviceIds and (a.class = ConfigLongTextAttribute or a.class = ConfigBinaryFileAttribute) "
-									+ "group by c.id having ((max(length(a.longText.text)) > :size) or (max(a.fileSize) > :size)) and (c.changeDate < :when) "
-									+ "order by c.device asc, c.changeDate desc", Config.class)
-							.setParameter("deviceIds", deviceIds)
-							.setParameter("size", configSize * 1024);
-					}
-				}
-				else if (group == null && deviceIds == null) {
-					query = session.createQuery(
-						"select c from Config c where (c.changeDate < :when) order by c.device asc, c.changeDate desc", Config.class);
-				}
-				else if (group != null) {
-					query = session.createQuery(
-						"select c from Config c join c.device d join d.groupMemberships gm "
-							+ "where gm.key.group = :group and (c.changeDate < :when) "
-							+ "order by c.device asc, c.changeDate desc", Config.class)
-						.setParameter("group", group);
-				}
-				else {
-					query = session.createQuery(
-						"select c from Config c join c.device d "
-							+ "where d.id in :deviceIds and (c.changeDate < :when) "
-							+ "order by c.device asc, c.changeDate desc", Config.class)
-						.setParameter("deviceIds", deviceIds);
+				long lastDeviceId = this.getLongAttribute(CONFIG_PROGRESS_ATTRIBUTE, 0);
+				if (lastDeviceId > 0) {
+					this.logger.info("Resuming the configuration cleanup after device {}.", lastDeviceId);
 				}
-				ScrollableResults<Config> configs = query
-					.setParameter("when", when.getTime())
-					.setCacheMode(CacheMode.IGNORE)
-					.scroll(ScrollMode.FORWARD_ONLY);
-				long dontDeleteDevice = -1;
-				Date dontDeleteBefore = null;
 				int count = 0;
-				List<Path> toDeletePathes = new ArrayList<>();
-				while (configs.next()) {
-					try {
-						Config config = configs.get();
-						if ((config.getDevice().getLastConfig() != null && config.getDevice().getLastConfig().getId() == config.getId())
-							|| (dontDeleteBefore != null && config.getChangeDate().before(dontDeleteBefore))
-							|| (configKeepDays > 0 && dontDeleteDevice != config.getDevice().getId())) {
-							if (configKeepDays > 0) {
-								Calendar limitCalendar = Calendar.getInstance();
-								limitCalendar.setTime(config.getChangeDate());
-								limitCalendar.add(Calendar.DATE, -1 * configKeepDays);
-								dontDeleteBefore = limitCalendar.getTime();
-							}
-						}
-						else {
-							for (ConfigAttribute attribute : config.getAttributes()) {
-								if (attribute instanceof ConfigBinaryFileAttribute cbfa) {
-									toDeletePathes.add(cbfa.getFilePath());
-								}
-							}
-							session.remove(config);
-							if (++count % 30 == 0) {
-								session.flush();
-								session.clear();
-							}
-						}
-						dontDeleteDevice = config.getDevice().getId();
+				while (true) {
+					List<Long> chunkDeviceIds = this.selectConfigDevices(group, deviceIds, lastDeviceId);
+					if (chunkDeviceIds.isEmpty()) {
+						break;
 					}
-					catch (NullPointerException e1) {
+					int chunkCount = 0;
+					for (long deviceId : chunkDeviceIds) {
+						chunkCount += this.purgeDeviceConfigs(deviceId, when.getTime(), configSize, configKeepDays, throttle);
 					}
+					count += chunkCount;
+					lastDeviceId = chunkDeviceIds.get(chunkDeviceIds.size() - 1);
+					this.saveConfigProgress(lastDeviceId);
+					log.debug("Task {}. Purged configurations of {} devices (up to ID {}), {} entries ({} so far).",
+						this.getId(), chunkDeviceIds.size(), lastDeviceId, chunkCount, count);
+					this.logger.debug("Purged configurations of {} devices (up to ID {}), {} entries ({} so far).",
+						chunkDeviceIds.size(), lastDeviceId, chunkCount, count);
 				}
-				session.getTransaction().commit();
+				this.attributes.remove(CONFIG_PROGRESS_ATTRIBUTE);
 				log.trace("Task {}. Cleaning up done on configurations, {} entries affected.", this.getId(), count);
 				this.logger.info("Cleaning up done on configurations, {} entries affected.", count);
-				for (Path toDeletePath : toDeletePathes) {
-					try {
-						Files.delete(toDeletePath);
-					}
-					catch (Exception e) {
-						log.error("Error while removing binary file {}", toDeletePath, e);
-					}
-				}
 			}
 			catch (HibernateException e) {
-				Database.rollbackSilently(session);
 				log.error("Task {}. Database error while purging the old configurations from the database.",
 					this.getId(), e);
 				this.logger.error("Database error during the configuration purge.");
@@ -431,69 +705,65 @@ public final class PurgeDatabaseTask extends Task implements GroupBasedTask, Dev
 				return;
 			}
 			catch (Exception e) {
-				Database.rollbackSilently(session);
 				log.error("Task {}. Error while purging the old configurations from the database.",
 					this.getId(), e);
 				this.logger.error("Error during the configuration purge.");
 				this.status = Status.FAILURE;
 				return;
 			}
-			finally {
-				session.close();
-			}
 		}
 
 
 		if (moduleDays > 0) {
-			Session session = Database.getSession();
 			try {
-				session.beginTransaction();
 				log.trace("Task {}. Cleaning up hardware modules removed more than {} days ago...", this.getId(), moduleDays);
 				this.logger.info("Cleaning up hardware modules removed more than {} days...", moduleDays);
 				Calendar when = Calendar.getInstance();
 				when.add(Calendar.DATE, -1 * moduleDays);
 
-				final MutationQuery query;
-
-				if (group == null && deviceIds == null) {
-					query = session
-						.createMutationQuery("delete from Module m where m.removed and m.lastSeenDate <= :when")
-						.setParameter("when", when.getTime());
-				}
-				else if (group != null) {
-					query = session
-						.createMutationQuery("delete from Module m where m in "
-							+ "(select m from Module m join m.device d join d.groupMemberships gm "
-							+ "where gm.key.group = :group and m.removed and m.lastSeenDate <= :when)")
-						.setParameter("group", group)
-						.setParameter("when", when.getTime());
-				}
-				else {
-					query = session
-						.createMutationQuery("delete from Module m where m in "
-							+ "(select m from Module m join m.device d "
-							+ "where d.id in :deviceIds and m.removed and m.lastSeenDate <= :when)")
-						.setParameter("deviceIds", deviceIds)
-						.setParameter("when", when.getTime());
-				}
-
-				int count = query.executeUpdate();
-				session.getTransaction().commit();
+				int count = this.purgeInChunks("modules", throttle,
+					(session, lastId, limit) -> {
+						Query<Long> selectQuery;
+						if (group == null && deviceIds == null) {
+							selectQuery = session
+								.createQuery("select m.id from Module m where m.removed and m.lastSeenDate <= :when "
+									+ "and m.id > :lastId order by m.id asc", Long.class);
+						}
+						else if (group != null) {
+							selectQuery = session
+								.createQuery("select m.id from Module m join m.device d join d.groupMemberships gm "
+									+ "where gm.key.group = :group and m.removed and m.lastSeenDate <= :when "
+									+ "and m.id > :lastId order by m.id asc", Long.class)
+								.setParameter("group", group);
+						}
+						else {
+							selectQuery = session
+								.createQuery("select m.id from Module m join m.device d "
+									+ "where d.id in :deviceIds and m.removed and m.lastSeenDate <= :when "
+									+ "and m.id > :lastId order by m.id asc", Long.class)
+								.setParameter("deviceIds", deviceIds);
+						}
+						return selectQuery
+							.setParameter("when", when.getTime())
+							.setParameter("lastId", lastId)
+							.setMaxResults(limit)
+							.list();
+					},
+					(session, ids) -> session
+						.createMutationQuery("delete from Module m where m.id in :ids")
+						.setParameter("ids", ids)
+						.executeUpdate());
 				log.trace("Task {}. Cleaning up done on modules, {} entries affected.", this.getId(), count);
-				this.logger.info("Cleaning up done on modules, {} entries affected.", count);
+				this.logger.info("Cleaning up done on modules, {} entries affected.", count);
 
 			}
 			catch (Exception e) {
-				Database.rollbackSilently(session);
 				log.error("Task {}. Error while purging the old modules from the database.",
 					this.getId(), e);
 				this.logger.error("Error during the module purge.");
 				this.status = Status.FAILURE;
 				return;
 			}
-			finally {
-				session.close();
-			}
 		}
 
 		this.status = Status.SUCCESS;
@@ -508,6 +778,9 @@ public final class PurgeDatabaseTask extends Task implements GroupBasedTask, Dev
 		PurgeDatabaseTask task = (PurgeDatabaseTask) super.clone();
 		task.setDeviceGroup(this.getDeviceGroup());
 		task.setDeviceList(this.getDeviceList());
+		// The next run starts from scratch
+		task.setAttributes(new HashMap<>(this.attributes));
+		task.attributes.remove(CONFIG_PROGRESS_ATTRIBUTE);
 		return task;
 	}
 
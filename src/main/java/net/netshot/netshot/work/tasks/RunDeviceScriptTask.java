@@ -18,6 +18,9 @@
  */
 package net.netshot.netshot.work.tasks;
 
+import java.util.Date;
+import java.util.HashMap;
+
 import org.hibernate.Session;
 import org.quartz.JobKey;
 
@@ -34,7 +37,8 @@ import net.netshot.netshot.device.Device;
 import net.netshot.netshot.device.DeviceDriver;
 import net.netshot.netshot.device.script.UserDeviceScript;
 import net.netshot.netshot.rest.RestViews.DefaultView;
-import net.netshot.netshot.work.DebugLog;
+import net.netshot.netshot.work.DeviceLockManager;
+import net.netshot.netshot.work.DeviceLockManager.LockType;
 import net.netshot.netshot.work.Task;
 
 /**
@@ -45,6 +49,12 @@ import net.netshot.netshot.work.Task;
 @Slf4j
 public final class RunDeviceScriptTask extends Task implements DeviceBasedTask {
 
+	/** Attribute holding the time (ms) until which the device lock may be tried again. */
+	private static final String LOCK_DEADLINE_ATTRIBUTE = "lockDeadline";
+
+	/** Attribute holding the time (ms) of the first attempt to lock the device. */
+	private static final String LOCK_FIRST_ATTEMPT_ATTRIBUTE = "lockFirstAttempt";
+
 	/**
 	 * Instantiates a new RunDeviceScriptTask task.
 	 */
@@ -79,8 +89,18 @@ public final class RunDeviceScriptTask extends Task implements DeviceBasedTask {
 		}
 
 		UserDeviceScript deviceScript = null;
+		DeviceLockManager.Lock lock = null;
 		Session session = Database.getSession();
 		try {
+			// Another script running on the same device: try again later
+			// (rather than holding a task thread while waiting)
+			lock = DeviceLockManager.tryLock(LockType.SCRIPT, device.getId());
+			if (lock == null) {
+				this.retryLater();
+				return;
+			}
+			DeviceLockManager.recordWait(LockType.SCRIPT, System.currentTimeMillis()
+				- this.getLongAttribute(LOCK_FIRST_ATTEMPT_ATTRIBUTE, System.currentTimeMillis()));
 			session.beginTransaction();
 			// Start over from a fresh device from DB
 			device = session.get(Device.class, device.getId());
@@ -104,6 +124,7 @@ public final class RunDeviceScriptTask extends Task implements DeviceBasedTask {
 			deviceScript.connectRun(session, device);
 
 			session.merge(device);
+			lock.checkHeld();
 			session.getTransaction().commit();
 			this.status = Status.SUCCESS;
 		}
@@ -117,14 +138,15 @@ public final class RunDeviceScriptTask extends Task implements DeviceBasedTask {
 		}
 		finally {
 			try {
-				if (this.fullLogs != null) {
-					this.debugLog = new DebugLog(this.fullLogs.toString());
-				}
+				this.saveDebugLog();
 			}
 			catch (Exception e1) {
 				log.error("Task {}. Error while saving the debug logs.", this.getId(), e1);
 			}
 			session.close();
+			if (lock != null) {
+				lock.close();
+			}
 		}
 
 		if (this.runSnapshot) {
@@ -163,6 +185,45 @@ public final class RunDeviceScriptTask extends Task implements DeviceBasedTask {
 		}
 	}
 
+	/**
+	 * Schedule a copy of this task to try again to lock the device, as long as the
+	 * max wait time (since the first attempt) isn't reached; this task is cancelled.
+	 */
+	private void retryLater() {
+		long now = System.currentTimeMillis();
+		long firstAttempt = this.getLongAttribute(LOCK_FIRST_ATTEMPT_ATTRIBUTE, now);
+		long deadline = this.getLongAttribute(LOCK_DEADLINE_ATTRIBUTE,
+			now + DeviceLockManager.SETTINGS.getScriptWaitTime() * 1000L);
+		Date retryDate = new Date(now + DeviceLockManager.SETTINGS.getScriptRetryInterval() * 1000L);
+		this.status = Status.CANCELLED;
+		if (retryDate.getTime() > deadline) {
+			DeviceLockManager.recordWait(LockType.SCRIPT, now - firstAttempt);
+			log.trace("Task {}. Another script is still running on this device, cancelling.", this.getId());
+			this.logger.warn("Another script is still running on this device, cancelling this task.");
+			return;
+		}
+		try {
+			RunDeviceScriptTask retryTask = (RunDeviceScriptTask) this.clone();
+			retryTask.setAttributes(new HashMap<>(this.attributes));
+			retryTask.setAttribute(LOCK_DEADLINE_ATTRIBUTE, deadline);
+			retryTask.setAttribute(LOCK_FIRST_ATTEMPT_ATTRIBUTE, firstAttempt);
+			// Still a child of the same group task, which follows the retries
+			retryTask.setParentTaskId(this.getParentTaskId());
+			retryTask.setChildOrder(this.getChildOrder());
+			retryTask.schedule(retryDate, ScheduleType.AT, 1);
+			TaskManager.addTask(retryTask);
+			log.trace("Task {}. Another script is running on this device, retrying as task {}.",
+				this.getId(), retryTask.getId());
+			this.logger.warn("Another script is running on this device, the script will be run by task {} at {}.",
+				retryTask.getId(), retryDate);
+		}
+		catch (Exception e) {
+			log.error("Task {}. Error while scheduling the script again.", this.getId(), e);
+			this.logger.error("Another script is running on this device, and the script couldn't be scheduled again.");
+			this.status = Status.FAILURE;
+		}
+	}
+
 	/*(non-Javadoc)
 	 * @see net.netshot.netshot.work.Task#getTaskDescription()
 	 */
@@ -19,8 +19,6 @@
 package net.netshot.netshot.work.tasks;
 
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.hibernate.Session;
 import org.quartz.JobKey;
@@ -39,7 +37,8 @@ import net.netshot.netshot.device.DynamicDeviceGroup;
 import net.netshot.netshot.device.script.RunDiagnosticDeviceScript;
 import net.netshot.netshot.diagnostic.Diagnostic;
 import net.netshot.netshot.rest.RestViews.DefaultView;
-import net.netshot.netshot.work.DebugLog;
+import net.netshot.netshot.work.DeviceLockManager;
+import net.netshot.netshot.work.DeviceLockManager.LockType;
 import net.netshot.netshot.work.Task;
 
 /**
@@ -50,28 +49,6 @@ import net.netshot.netshot.work.Task;
 @Slf4j
 public final class RunDiagnosticsTask extends Task implements DeviceBasedTask {
 
-	/** Device IDs on which diagnostics are currently being executed. */
-	private static Set<Long> runningDiagnostics = ConcurrentHashMap.newKeySet();
-
-	/**
-	 * Check whether diagnostics are currently being executed on the the given device.
-	 *
-	 * @param deviceId the device
-	 * @return true, if successful
-	 */
-	public static boolean checkRunningDiagnostic(Long deviceId) {
-		return runningDiagnostics.add(deviceId);
-	}
-
-	/**
-	 * Clear running diagnostic status.
-	 *
-	 * @param deviceId the device
-	 */
-	public static void clearRunningDiagnostic(Long deviceId) {
-		runningDiagnostics.remove(deviceId);
-	}
-
 	/**
 	 * Instantiate a new RunDiagnosticTask (for Hibernate).
 	 */
@@ -134,7 +111,7 @@ public final class RunDiagnosticsTask extends Task implements DeviceBasedTask {
 			this.status = Status.CANCELLED;
 			return;
 		}
-		boolean locked = false;
+		DeviceLockManager.Lock lock = null;
 
 		Session session = Database.getSession();
 		RunDiagnosticDeviceScript deviceScript = null;
@@ -150,8 +127,8 @@ public final class RunDiagnosticsTask extends Task implements DeviceBasedTask {
 				this.status = Status.CANCELLED;
 				return;
 			}
-			locked = checkRunningDiagnostic(device.getId());
-			if (!locked) {
+			lock = DeviceLockManager.tryLock(LockType.DIAGNOSTICS, device.getId());
+			if (lock == null) {
 				log.trace("Task {}. A Diagnostic task already ongoing for this device, cancelling.", this.getId());
 				this.logger.warn("A diagnostic task is already running for this device, cancelling this task.");
 				this.status = Status.CANCELLED;
@@ -169,6 +146,7 @@ public final class RunDiagnosticsTask extends Task implements DeviceBasedTask {
 				deviceScript = new RunDiagnosticDeviceScript(diagnostics, this.logger);
 				deviceScript.connectRun(session, device);
 				session.merge(device);
+				lock.checkHeld();
 				session.getTransaction().commit();
 			}
 			else {
@@ -191,16 +169,14 @@ public final class RunDiagnosticsTask extends Task implements DeviceBasedTask {
 		}
 		finally {
 			try {
-				if (this.fullLogs != null) {
-					this.debugLog = new DebugLog(this.fullLogs.toString());
-				}
+				this.saveDebugLog();
 			}
 			catch (Exception e1) {
 				log.error("Task {}. Error while saving the debug logs.", this.getId(), e1);
 			}
 			session.close();
-			if (locked) {
-				clearRunningDiagnostic(device.getId());
+			if (lock != null) {
+				lock.close();
 			}
 		}
 
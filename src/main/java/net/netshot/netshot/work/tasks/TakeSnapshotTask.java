@@ -44,7 +44,8 @@ import net.netshot.netshot.device.script.DeviceScript;
 import net.netshot.netshot.device.script.SnapshotDeviceScript;
 import net.netshot.netshot.rest.RestViews.DefaultView;
 import net.netshot.netshot.rest.RestViews.HookView;
-import net.netshot.netshot.work.DebugLog;
+import net.netshot.netshot.work.DeviceLockManager;
+import net.netshot.netshot.work.DeviceLockManager.LockType;
 import net.netshot.netshot.work.Task;
 
 /**
@@ -83,9 +84,6 @@ public final class TakeSnapshotTask extends Task implements DeviceBasedTask {
 	/** The scheduled automatic snapshots. */
 	private static Set<Long> scheduledAutoSnapshots = ConcurrentHashMap.newKeySet();
 
-	/** Device IDs on which a snapshot is currently running. */
-	private static Set<Long> runningSnapshots = ConcurrentHashMap.newKeySet();
-
 	/**
 	 * Clear scheduled auto snapshot.
 	 *
@@ -95,15 +93,6 @@ public final class TakeSnapshotTask extends Task implements DeviceBasedTask {
 		scheduledAutoSnapshots.remove(deviceId);
 	}
 
-	/**
-	 * Clear running snapshot status.
-	 *
-	 * @param deviceId the device
-	 */
-	public static void clearRunningSnapshot(Long deviceId) {
-		runningSnapshots.remove(deviceId);
-	}
-
 	/**
 	 * Check whether an automatic snapshot is queued for the given device.
 	 *
@@ -114,16 +103,6 @@ public final class TakeSnapshotTask extends Task implements DeviceBasedTask {
 		return scheduledAutoSnapshots.add(deviceId);
 	}
 
-	/**
-	 * Check whether a snapshot is currently running for the given device.
-	 *
-	 * @param deviceId the device
-	 * @return true, if successful
-	 */
-	public static boolean checkRunningSnapshot(Long deviceId) {
-		return runningSnapshots.add(deviceId);
-	}
-
 	/**
 	 * Load TakeSnapshotTask specific configuration from Netshot config file.
 	 */
@@ -191,7 +170,7 @@ public final class TakeSnapshotTask extends Task implements DeviceBasedTask {
 			this.status = Status.CANCELLED;
 			return;
 		}
-		boolean locked = false;
+		DeviceLockManager.Lock lock = null;
 
 		Session session = Database.getSession();
 		DeviceScript deviceScript = new SnapshotDeviceScript(this.logger);
@@ -207,8 +186,8 @@ public final class TakeSnapshotTask extends Task implements DeviceBasedTask {
 				this.status = Status.CANCELLED;
 				return;
 			}
-			locked = checkRunningSnapshot(device.getId());
-			if (!locked) {
+			lock = DeviceLockManager.tryLock(LockType.SNAPSHOT, device.getId());
+			if (lock == null) {
 				log.trace("Task {}. Snapshot task already ongoing for this device, cancelling.", this.getId());
 				this.logger.warn("A snapshot task is already running for this device, cancelling this task.");
 				this.status = Status.CANCELLED;
@@ -217,6 +196,7 @@ public final class TakeSnapshotTask extends Task implements DeviceBasedTask {
 
 			deviceScript.connectRun(session, device);
 			session.persist(device);
+			lock.checkHeld();
 			session.getTransaction().commit();
 			this.status = Status.SUCCESS;
 		}
@@ -229,16 +209,14 @@ public final class TakeSnapshotTask extends Task implements DeviceBasedTask {
 		}
 		finally {
 			try {
-				if (this.fullLogs != null) {
-					this.debugLog = new DebugLog(this.fullLogs.toString());
-				}
+				this.saveDebugLog();
 			}
 			catch (Exception e1) {
 				log.error("Task {}. Error while saving the debug logs.", this.getId(), e1);
 			}
 			session.close();
-			if (locked) {
-				clearRunningSnapshot(device.getId());
+			if (lock != null) {
+				lock.close();
 			}
 			if (this.isAutomatic()) {
 				clearScheduledAutoSnapshot(this.getDevice().getId());
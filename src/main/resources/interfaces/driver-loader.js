@@ -1111,7 +1111,7 @@ const _connect = (_function, _options) => {
 			let sourceIp = null;
 			if (typeof options === "object") {
 				if (typeof options.method === "string") {
-					if (!["scp", "sftp"].includes(options.method)) {
+					if (!["scp", "sftp", "tftp"].includes(options.method)) {
 						throw `Invalid 'method' ${options.method} in config.requestUpload.`;
 					}
 					method = options.method;
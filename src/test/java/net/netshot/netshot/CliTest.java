@@ -2,13 +2,20 @@ package net.netshot.netshot;
 
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.EnumSet;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.sshd.client.session.ClientSession;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 
 import net.netshot.netshot.device.access.Cli;
+import net.netshot.netshot.device.access.SshSessionKeeper;
 import net.netshot.netshot.work.TaskContext;
 
 public class CliTest {
@@ -523,4 +530,95 @@ public class CliTest {
 		Assertions.assertEquals("new11\nnew22 old\nline3", result,
 			"Mixed patterns should be handled correctly across lines");
 	}
-}
\ No newline at end of file
+
+	@Nested
+	@DisplayName("SSH session keeper")
+	class SshSessionKeeperTest {
+
+		private final SshSessionKeeper.Key key = SshSessionKeeper.getKey("10.0.0.1", 22, "admin", "pass", null);
+
+		/**
+		 * Fake authenticated session, which tracks whether it was closed.
+		 */
+		private ClientSession fakeSession(AtomicBoolean closed) {
+			return (ClientSession) Proxy.newProxyInstance(ClientSession.class.getClassLoader(),
+				new Class<?>[] { ClientSession.class }, (proxy, method, args) -> {
+					switch (method.getName()) {
+						case "isOpen":
+						case "isAuthenticated":
+							return !closed.get();
+						case "isClosing":
+						case "isClosed":
+							return closed.get();
+						case "close":
+							closed.set(true);
+							return null;
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "equals":
+							return proxy == args[0];
+						default:
+							return method.getReturnType() == boolean.class ? false : null;
+					}
+				});
+		}
+
+		private void configure(int idleTime) {
+			Properties config = new Properties();
+			config.setProperty("netshot.cli.ssh.sessionreuse.idletime", Integer.toString(idleTime));
+			Netshot.initConfig(config);
+			SshSessionKeeper.loadConfig();
+		}
+
+		@AfterEach
+		void disable() {
+			this.configure(0);
+		}
+
+		@Test
+		@DisplayName("A released session is reused for the same key only")
+		void reuse() {
+			this.configure(60);
+			AtomicBoolean closed = new AtomicBoolean();
+			ClientSession session = this.fakeSession(closed);
+			Assertions.assertTrue(SshSessionKeeper.release(key, session), "The session should be kept");
+			Assertions.assertEquals(1, SshSessionKeeper.getIdleCount());
+			Assertions.assertNull(SshSessionKeeper.take(SshSessionKeeper.getKey("10.0.0.1", 22, "admin", "other", null)),
+				"The session shouldn't be reused with other credentials");
+			Assertions.assertSame(session, SshSessionKeeper.take(key), "The session should be reused");
+			Assertions.assertNull(SshSessionKeeper.take(key), "The session should be taken only once");
+			Assertions.assertFalse(closed.get());
+		}
+
+		@Test
+		@DisplayName("Expired sessions are closed")
+		void expiry() throws Exception {
+			this.configure(1);
+			AtomicBoolean closed = new AtomicBoolean();
+			Assertions.assertTrue(SshSessionKeeper.release(key, this.fakeSession(closed)));
+			Thread.sleep(1100);
+			Method closeExpired = SshSessionKeeper.class.getDeclaredMethod("closeExpired");
+			closeExpired.setAccessible(true);
+			closeExpired.invoke(null);
+			Assertions.assertTrue(closed.get(), "The expired session should be closed");
+			Assertions.assertEquals(0, SshSessionKeeper.getIdleCount());
+
+			AtomicBoolean otherClosed = new AtomicBoolean();
+			Assertions.assertTrue(SshSessionKeeper.release(key, this.fakeSession(otherClosed)));
+			Thread.sleep(1100);
+			Assertions.assertNull(SshSessionKeeper.take(key), "An expired session shouldn't be reused");
+			Assertions.assertTrue(otherClosed.get(), "The expired session should be closed when taken");
+		}
+
+		@Test
+		@DisplayName("Kept sessions are closed on reload")
+		void reload() {
+			this.configure(60);
+			AtomicBoolean closed = new AtomicBoolean();
+			Assertions.assertTrue(SshSessionKeeper.release(key, this.fakeSession(closed)));
+			this.configure(60);
+			Assertions.assertTrue(closed.get(), "The kept session should be closed on reload");
+			Assertions.assertEquals(0, SshSessionKeeper.getIdleCount());
+		}
+	}
+}
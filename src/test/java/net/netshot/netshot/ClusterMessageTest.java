@@ -0,0 +1,89 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.netshot.netshot.cluster.ClusterMember;
+import net.netshot.netshot.cluster.ClusterMessageCodec;
+import net.netshot.netshot.cluster.messages.AutoSnapshotMessage;
+import net.netshot.netshot.cluster.messages.ClusterMessage;
+import net.netshot.netshot.cluster.messages.CompactIdSetSerializer;
+import net.netshot.netshot.cluster.messages.LoadTasksMessage;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class ClusterMessageTest {
+
+	private final ClusterMember sender = new ClusterMember("01ff0000000000010000", "server1", 2,
+		100, 100, 100, "test", "test", "0");
+
+	@Test
+	@DisplayName("Compact ID set encoding")
+	void compactIdSet() {
+		Set<Long> ids = Set.of(1L, 2L, 3L, 1000L, 1001L, 99999999999L);
+		String encoded = CompactIdSetSerializer.encode(ids);
+		Assertions.assertEquals(ids, CompactIdSetSerializer.decode(encoded), "The decoded IDs don't match");
+		Assertions.assertEquals(Set.of(), CompactIdSetSerializer.decode(CompactIdSetSerializer.encode(Set.of())));
+	}
+
+	@Test
+	@DisplayName("Small message in a single notification")
+	void smallMessage() throws IOException {
+		ClusterMessageCodec senderCodec = new ClusterMessageCodec(sender.getInstanceId());
+		ClusterMessageCodec receiverCodec = new ClusterMessageCodec("01ff0000000000020000");
+		List<String> payloads = senderCodec.encode(new LoadTasksMessage(sender));
+		Assertions.assertEquals(1, payloads.size());
+		ClusterMessage message = receiverCodec.decode(payloads.get(0));
+		Assertions.assertInstanceOf(LoadTasksMessage.class, message);
+		Assertions.assertEquals(1, message.getSequenceNumber());
+	}
+
+	@Test
+	@DisplayName("Large message split into chunks")
+	void largeMessage() throws IOException {
+		ClusterMessageCodec senderCodec = new ClusterMessageCodec(sender.getInstanceId());
+		ClusterMessageCodec receiverCodec = new ClusterMessageCodec("01ff0000000000020000");
+		AutoSnapshotMessage original = new AutoSnapshotMessage(sender);
+		Set<Long> deviceIds = new HashSet<>();
+		long id = 1;
+		for (int i = 0; i < 20000; i++) {
+			id += 1 + (i * 7919) % 20000;
+			deviceIds.add(id);
+		}
+		original.addDeviceIds(deviceIds);
+		List<String> payloads = senderCodec.encode(original);
+		Assertions.assertTrue(payloads.size() > 1, "The message should be split");
+		ClusterMessage message = null;
+		for (String payload : payloads) {
+			Assertions.assertTrue(payload.getBytes(StandardCharsets.UTF_8).length <= ClusterMessageCodec.MAX_PAYLOAD_SIZE,
+				"The payload is too large");
+			Assertions.assertNull(message, "The message shouldn't be complete before the last chunk");
+			message = receiverCodec.decode(payload);
+		}
+		Assertions.assertInstanceOf(AutoSnapshotMessage.class, message);
+		Assertions.assertEquals(original.getMessageId(), message.getMessageId());
+		Assertions.assertEquals(deviceIds, ((AutoSnapshotMessage) message).getDeviceIds(), "The device IDs don't match");
+	}
+}
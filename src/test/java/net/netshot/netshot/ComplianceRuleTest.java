@@ -24,6 +24,7 @@ import org.hibernate.Session;
 
 import net.netshot.netshot.compliance.CheckResult;
 import net.netshot.netshot.compliance.Policy;
+import net.netshot.netshot.compliance.Policy.CheckStats;
 import net.netshot.netshot.compliance.rules.JavaScriptRule;
 import net.netshot.netshot.compliance.rules.PythonRule;
 import net.netshot.netshot.compliance.rules.TextRule;
@@ -944,6 +945,74 @@ public class ComplianceRuleTest {
 		}
 	}
 
+	@Nested
+	@DisplayName("Incremental compliance check")
+	class IncrementalCheckTest {
+
+		Policy policy = new Policy("Fake policy", null);
+		Device device = FakeDeviceFactory.getFakeCiscoIosDevice();
+		TaskContext taskContext = new FakeTaskContext();
+		Session nullSession;
+		TextRule rule;
+
+		IncrementalCheckTest() {
+			CheckResult.loadConfig();
+			this.rule = new TextRule("Testing rule", null);
+			policy.addRule(rule);
+			rule.setEnabled(true);
+			rule.setDeviceDriver("CiscoIOS12");
+			rule.setField("runningConfig");
+			rule.setText("no service pad");
+		}
+
+		private CheckStats check(boolean force) {
+			CheckStats stats = new CheckStats();
+			policy.check(device, CheckResult.computeDeviceFingerprint(device), force,
+				nullSession, taskContext, stats);
+			return stats;
+		}
+
+		@Test
+		@DisplayName("Unchanged inputs")
+		void unchangedInputs() {
+			CheckStats stats = this.check(false);
+			Assertions.assertEquals(1, stats.getEvaluatedCount(), "The rule should be evaluated on first check");
+			Assertions.assertEquals(1, stats.getInsertedCount());
+			Assertions.assertEquals(1, device.getComplianceCheckResults().size());
+			stats = this.check(false);
+			Assertions.assertEquals(0, stats.getEvaluatedCount(), "The previous result should be kept");
+			Assertions.assertEquals(1, stats.getUnchangedCount());
+			stats = this.check(true);
+			Assertions.assertEquals(1, stats.getEvaluatedCount(), "The rule should be evaluated on forced check");
+			Assertions.assertEquals(0, stats.getUpdatedCount(), "The same result shouldn't be written again");
+			Assertions.assertEquals(1, stats.getRefreshedCount(), "Only the check date should be refreshed");
+			Assertions.assertEquals(0, stats.getUnchangedCount());
+			Assertions.assertEquals(1, device.getComplianceCheckResults().size());
+			Assertions.assertEquals(CheckResult.ResultOption.CONFORMING,
+				device.getComplianceCheckResults().iterator().next().getResult());
+		}
+
+		@Test
+		@DisplayName("Changed rule or device")
+		void changedInputs() {
+			Assertions.assertEquals(1, this.check(false).getEvaluatedCount());
+			rule.setText("no service mlqksd");
+			rule.setVersion(rule.getVersion() + 1);
+			CheckStats stats = this.check(false);
+			Assertions.assertEquals(1, stats.getEvaluatedCount(), "The rule should be evaluated after rule change");
+			Assertions.assertEquals(1, stats.getUpdatedCount(), "The previous result should be updated in place");
+			Assertions.assertEquals(0, stats.getInsertedCount());
+			Assertions.assertEquals(1, device.getComplianceCheckResults().size());
+			Assertions.assertEquals(CheckResult.ResultOption.NONCONFORMING,
+				device.getComplianceCheckResults().iterator().next().getResult());
+			device.setLocation("Other location");
+			// As incremented by Hibernate when the change is flushed
+			device.setVersion(device.getVersion() + 1);
+			Assertions.assertEquals(1, this.check(false).getEvaluatedCount(), "The rule should be evaluated after device change");
+			Assertions.assertEquals(0, this.check(false).getEvaluatedCount());
+		}
+	}
+
 	private ComplianceRuleTest() {
 	}
 }
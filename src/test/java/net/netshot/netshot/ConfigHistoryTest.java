@@ -0,0 +1,188 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import net.netshot.netshot.device.attribute.ConfigTextHistory;
+import net.netshot.netshot.device.attribute.LongTextConfiguration;
+
+@DisplayName("Delta-encoded config history tests")
+public class ConfigHistoryTest {
+
+	@BeforeAll
+	static void initNetshot() throws Exception {
+		Properties config = new Properties();
+		Netshot.initConfig(config);
+		ConfigTextHistory.loadConfig();
+	}
+
+	@BeforeEach
+	void clearCache() {
+		ConfigTextHistory.clearCache();
+	}
+
+	/**
+	 * Generate a realistic-looking device configuration.
+	 */
+	private static List<String> generateConfigLines(Random random, int interfaceCount) {
+		List<String> lines = new ArrayList<>();
+		lines.add("!");
+		lines.add("version 15.2");
+		lines.add("hostname router1");
+		lines.add("!");
+		for (int i = 0; i < interfaceCount; i++) {
+			lines.add("interface GigabitEthernet0/%d".formatted(i));
+			lines.add(" description Link to site %d".formatted(random.nextInt(1000)));
+			lines.add(" ip address 10.%d.%d.1 255.255.255.0".formatted(i / 250, i % 250));
+			lines.add(" no shutdown");
+			lines.add("!");
+		}
+		lines.add("end");
+		lines.add("");
+		return lines;
+	}
+
+	@Test
+	@DisplayName("Delta round trip")
+	void deltaRoundTrip() {
+		String[][] cases = {
+			{ "", "" },
+			{ "", "a\nb\n" },
+			{ "a\nb\n", "" },
+			{ "a\nb\nc", "a\nc" },
+			{ "a\r\nb\r\nc\r\n", "a\r\nB\r\nc\r\nd\r\n" },
+			{ "line1\n\n\nline4\n", "line1\n\nline4\n\n" },
+			{ "1,2,3\n4\n", "1,2,3\n5\n6\n" },
+		};
+		for (String[] c : cases) {
+			String delta = ConfigTextHistory.computeDelta(c[0], c[1]);
+			Assertions.assertEquals(c[1], ConfigTextHistory.applyDelta(c[0], delta),
+				"Text not properly rebuilt from delta");
+		}
+	}
+
+	@Test
+	@DisplayName("History storage and read time")
+	void historyStorage() {
+		Random random = new Random(42);
+		List<String> lines = generateConfigLines(random, 400);
+		List<String> versions = new ArrayList<>();
+		List<LongTextConfiguration> longTexts = new ArrayList<>();
+		LongTextConfiguration previous = null;
+		long fullSize = 0;
+		for (int v = 0; v < 200; v++) {
+			// A few lines change in each version
+			for (int c = 0; c < 3; c++) {
+				int l = 4 + random.nextInt(lines.size() - 6);
+				if (random.nextBoolean()) {
+					lines.set(l, " description Changed %d".formatted(random.nextInt()));
+				}
+				else {
+					lines.add(l, " ip access-group %d in".formatted(random.nextInt(200)));
+				}
+			}
+			String text = String.join("\n", lines);
+			versions.add(text);
+			fullSize += text.length();
+			LongTextConfiguration longText = new LongTextConfiguration(text);
+			longText.setId(v + 1);
+			ConfigTextHistory.encode(previous, longText);
+			longTexts.add(longText);
+			previous = longText;
+		}
+
+		long storedSize = 0;
+		int fullCount = 0;
+		for (LongTextConfiguration longText : longTexts) {
+			storedSize += longText.getText().length();
+			if (!longText.isDelta()) {
+				fullCount++;
+			}
+		}
+		Assertions.assertFalse(longTexts.get(longTexts.size() - 1).isDelta(),
+			"The last version should be stored in full");
+		Assertions.assertEquals(200 / ConfigTextHistory.SETTINGS.getKeyframeInterval(), fullCount,
+			"Unexpected number of keyframes");
+		Assertions.assertTrue(storedSize * 5 < fullSize,
+			"Delta-encoded history (%d chars) isn't significantly smaller than full history (%d chars)"
+				.formatted(storedSize, fullSize));
+
+		Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+			// Cold then warm cache
+			for (int pass = 0; pass < 2; pass++) {
+				for (int v = versions.size() - 1; v >= 0; v--) {
+					Assertions.assertEquals(versions.get(v), longTexts.get(v).getResolvedText(),
+						"Version %d not properly rebuilt".formatted(v));
+				}
+			}
+		});
+	}
+
+	@Test
+	@DisplayName("Materialize delta")
+	void materializeDelta() {
+		String olderText = "hostname router1\ninterface Loopback0\n ip address 10.0.0.1 255.255.255.255\n!\nend\n";
+		String newerText = "hostname router1\ninterface Loopback0\n ip address 10.0.0.2 255.255.255.255\n!\nend\n";
+		LongTextConfiguration older = new LongTextConfiguration(olderText);
+		older.setId(1);
+		LongTextConfiguration newer = new LongTextConfiguration(newerText);
+		newer.setId(2);
+		Assertions.assertTrue(ConfigTextHistory.encode(older, newer), "Older text should be encoded as delta");
+		Assertions.assertTrue(older.isDelta());
+		Assertions.assertEquals(newer, older.getDeltaBase());
+		ConfigTextHistory.clearCache();
+		ConfigTextHistory.materialize(older);
+		Assertions.assertFalse(older.isDelta());
+		Assertions.assertEquals(olderText, older.getText());
+	}
+
+	@Test
+	@DisplayName("Long text equality")
+	void longTextEquality() {
+		String olderText = "hostname router1\ninterface Loopback0\n ip address 10.0.0.1 255.255.255.255\n!\nend\n";
+		String newerText = "hostname router1\ninterface Loopback0\n ip address 10.0.0.2 255.255.255.255\n!\nend\n";
+		LongTextConfiguration older = new LongTextConfiguration(olderText);
+		older.setId(1);
+		LongTextConfiguration newer = new LongTextConfiguration(newerText);
+		newer.setId(2);
+		Assertions.assertTrue(ConfigTextHistory.encode(older, newer), "Older text should be encoded as delta");
+		LongTextConfiguration copy = new LongTextConfiguration(olderText);
+		Assertions.assertNotEquals(copy, older, "Long texts should be compared on ID");
+		Assertions.assertNotEquals(copy, new LongTextConfiguration(olderText),
+			"Unsaved long texts should only equal themselves");
+		Assertions.assertTrue(copy.textEquals(older), "Resolved texts should be the same");
+		Assertions.assertFalse(copy.textEquals(newer));
+		LongTextConfiguration reloaded = new LongTextConfiguration(olderText);
+		reloaded.setId(1);
+		Assertions.assertEquals(older, reloaded);
+		Assertions.assertEquals(older.hashCode(), reloaded.hashCode());
+	}
+
+}
@@ -32,7 +32,12 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
 
@@ -105,6 +110,48 @@ public class CryptoTest {
 		Assertions.assertEquals(plain, decrypted, "The final message is not equal to initial one");
 	}
 
+	@Test
+	@DisplayName("SHA2/AES-based decryption of credential sets benchmark")
+	public void sha2AesDecryptBenchmarkTest() {
+		// Typical credential sets: each has a few encrypted fields
+		final int valueCount = 300;
+		Sha2AesPasswordBasedEncryptor encryptor = new Sha2AesPasswordBasedEncryptor("netshot");
+		SecureRandom random = new SecureRandom();
+		List<String> encryptedValues = new ArrayList<>();
+		for (int i = 0; i < valueCount; i++) {
+			// Individual salts, as stored by older versions
+			byte[] salt = new byte[8];
+			byte[] iv = new byte[16];
+			random.nextBytes(salt);
+			random.nextBytes(iv);
+			encryptedValues.add(encryptor.encrypt("secret" + i, salt, iv));
+		}
+		Sha2AesPasswordBasedEncryptor.clearKeyCache();
+		long startTime = System.nanoTime();
+		for (int i = 0; i < valueCount; i++) {
+			Assertions.assertEquals("secret" + i, encryptor.decrypt(encryptedValues.get(i)));
+		}
+		long coldTime = System.nanoTime() - startTime;
+		startTime = System.nanoTime();
+		for (int i = 0; i < valueCount; i++) {
+			Assertions.assertEquals("secret" + i, encryptor.decrypt(encryptedValues.get(i)));
+		}
+		long warmTime = System.nanoTime() - startTime;
+		Assertions.assertTrue(warmTime * 5 < coldTime,
+			"Decryption with cached keys (%d ms) isn't significantly faster than with key derivation (%d ms)"
+				.formatted(warmTime / 1000000, coldTime / 1000000));
+
+		// New values share the same salt, hence the same derived key
+		Sha2AesPasswordBasedEncryptor.clearKeyCache();
+		String first = encryptor.encrypt("secret");
+		String second = encryptor.encrypt("secret");
+		Assertions.assertNotEquals(first, second, "Random IV should give different encrypted values");
+		Assertions.assertEquals(
+			Arrays.toString(Arrays.copyOf(Base64.getDecoder().decode(first), 8)),
+			Arrays.toString(Arrays.copyOf(Base64.getDecoder().decode(second), 8)),
+			"New values should be encrypted with the same salt");
+	}
+
 	@Test
 	@DisplayName("MD5-based hash check test")
 	public void md5HashCheckTest() throws InvalidClassException {
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.hibernate.Session;
+
+import net.netshot.netshot.cluster.ClusterManager;
+import net.netshot.netshot.cluster.ClusterMember;
+import net.netshot.netshot.cluster.ClusterMessageCodec;
+import net.netshot.netshot.cluster.messages.CacheInvalidationMessage;
+import net.netshot.netshot.cluster.messages.ClusterMessage;
+import net.netshot.netshot.database.Database;
+import net.netshot.netshot.device.Domain;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.parallel.ResourceLock;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class DatabaseCacheTest extends WithDatabaseTest {
+
+	@BeforeAll
+	void initDb() throws Exception {
+		Properties config = getDatabaseConfig("cachetest");
+		config.setProperty("netshot.log.file", "CONSOLE");
+		config.setProperty("netshot.log.level", "WARN");
+		config.setProperty("netshot.cluster.id", "01ff0000000000010000");
+		Netshot.initConfig(config);
+		Database.update();
+		Database.init();
+	}
+
+	@AfterEach
+	void cleanUpData() throws Exception {
+		this.setClusterManager(null);
+		try (Session session = Database.getSession()) {
+			session.beginTransaction();
+			session.createMutationQuery("delete from Domain").executeUpdate();
+			session.getTransaction().commit();
+		}
+	}
+
+	private void setClusterManager(ClusterManager clusterManager) throws Exception {
+		Field field = ClusterManager.class.getDeclaredField("nsClusterManager");
+		field.setAccessible(true);
+		field.set(null, clusterManager);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Set<String> getPending(ClusterManager clusterManager, String fieldName) throws Exception {
+		Field field = ClusterManager.class.getDeclaredField(fieldName);
+		field.setAccessible(true);
+		return (Set<String>) field.get(clusterManager);
+	}
+
+	private List<String> listDomainNames() {
+		try (Session session = Database.getSession(true)) {
+			return session
+				.createQuery("select d.name from Domain d order by d.name", String.class)
+				.setCacheable(true)
+				.list();
+		}
+	}
+
+	@Test
+	@DisplayName("Local writes are propagated to the other members")
+	@ResourceLock("DB")
+	void localWritesPropagated() throws Exception {
+		ClusterManager clusterManager = new ClusterManager();
+		this.setClusterManager(clusterManager);
+		Domain domain = new Domain("Domain A", "First domain", null, null);
+		try (Session session = Database.getSession()) {
+			session.beginTransaction();
+			session.persist(domain);
+			session.getTransaction().commit();
+		}
+		Assertions.assertTrue(this.getPending(clusterManager, "cacheInvalidationSpaces").contains("domain"),
+			"The insert should be propagated as a table space invalidation");
+		try (Session session = Database.getSession()) {
+			session.beginTransaction();
+			Domain loaded = session.get(Domain.class, domain.getId());
+			loaded.setDescription("Changed domain");
+			session.getTransaction().commit();
+		}
+		Assertions.assertFalse(this.getPending(clusterManager, "cacheInvalidationRegions").isEmpty(),
+			"The update should be propagated as a region eviction");
+	}
+
+	@Test
+	@DisplayName("Cached query results are invalidated on remote writes")
+	@ResourceLock("DB")
+	void remoteWritesInvalidateQueries() throws Exception {
+		try (Session session = Database.getSession()) {
+			session.beginTransaction();
+			session.persist(new Domain("Domain A", "First domain", null, null));
+			session.getTransaction().commit();
+		}
+		Assertions.assertEquals(List.of("Domain A"), this.listDomainNames());
+
+		// Another member inserts a domain
+		try (Connection connection = Database.getConnection(false);
+				Statement statement = connection.createStatement()) {
+			statement.executeUpdate(
+				"INSERT INTO domain (name, description, change_date, version) " +
+				"VALUES ('Domain B', 'Second domain', now(), 0)");
+		}
+		Assertions.assertEquals(List.of("Domain A"), this.listDomainNames(),
+			"The query result should be served from the cache");
+
+		ClusterMember remoteMember = new ClusterMember("01ff0000000000020000", "server2", 2,
+			100, 100, 100, "test", "test", "0");
+		CacheInvalidationMessage message = new CacheInvalidationMessage(remoteMember);
+		message.addSpaceNames(Set.of("domain"));
+		ClusterMessageCodec senderCodec = new ClusterMessageCodec(remoteMember.getInstanceId());
+		ClusterMessageCodec receiverCodec = new ClusterMessageCodec("01ff0000000000010000");
+		ClusterMessage received = receiverCodec.decode(senderCodec.encode(message).get(0));
+		Assertions.assertInstanceOf(CacheInvalidationMessage.class, received);
+		Database.invalidateCacheSpaces(((CacheInvalidationMessage) received).getSpaceNames());
+
+		Assertions.assertEquals(List.of("Domain A", "Domain B"), this.listDomainNames(),
+			"The cached query result should be invalidated");
+	}
+}
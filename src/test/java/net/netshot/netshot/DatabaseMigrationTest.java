@@ -466,4 +466,72 @@ public class DatabaseMigrationTest extends WithDatabaseTest {
 			}
 		}
 	}
+
+	@Nested
+	@DisplayName("0.25.0_48 - monthly partitioning of the task table")
+	class Changeset_0_25_0_48_TaskPartitioningTest {
+
+		private Properties getNetshotConfig() {
+			Properties config = getFreshDatabaseConfig("taskpartitioningtest");
+			config.setProperty("netshot.log.file", "CONSOLE");
+			config.setProperty("netshot.log.level", "INFO");
+			return config;
+		}
+
+		private static final String TASK_INSERT =
+			"insert into task (id, dtype, version, status, creation_date, change_date, parent_task_id, "
+				+ "debug_enabled, priority, run_snapshot, run_diagnostics, check_compliance, dont_run_diagnostics, "
+				+ "dont_check_compliance, child_order, schedule_mode, stop_on_failure, cancel_requested) "
+				+ "values (%d, 'ScanSubnetsTask', 0, 5, %s, %s, %s, false, 5, false, false, false, false, "
+				+ "false, 0, 0, false, false)";
+
+		private static String queryString(Statement statement, String query) throws SQLException {
+			try (var rows = statement.executeQuery(query)) {
+				Assertions.assertTrue(rows.next(), "No row returned for: %s".formatted(query));
+				return rows.getString(1);
+			}
+		}
+
+		@Test
+		@DisplayName("Existing tasks are moved to monthly partitions, and the former foreign keys still apply on delete")
+		void partitionsExistingTasks() throws Exception {
+			Netshot.initConfig(this.getNetshotConfig());
+
+			// Stop right before 0.25.0_48: task is still a regular table.
+			updateToChangeSet("0.25.0_47", "netshot");
+
+			try (Connection connection = Database.getConnection(false);
+					Statement statement = connection.createStatement()) {
+				statement.execute(TASK_INSERT.formatted(11, "'2024-03-15 10:00:00'", "'2024-03-15 10:05:00'", "null"));
+				// No creation date: the change date is used instead.
+				statement.execute(TASK_INSERT.formatted(12, "null", "'2024-05-02 08:00:00'", "11"));
+				statement.execute("insert into scan_subnets_task_subnets (scan_subnets_task, ipv4address) "
+					+ "values (11, '10.0.0.0/8')");
+			}
+
+			// Resume the migration to completion: this is where 0.25.0_48 runs.
+			Database.update();
+
+			try (Connection connection = Database.getConnection(false);
+					Statement statement = connection.createStatement()) {
+				Assertions.assertEquals("1", queryString(statement,
+					"select count(*) from pg_partitioned_table where partrelid = to_regclass('task')"),
+					"The task table is not partitioned");
+				Assertions.assertEquals("task_p202403", queryString(statement,
+					"select tableoid::regclass::text from task where id = 11"));
+				Assertions.assertEquals("task_p202405", queryString(statement,
+					"select tableoid::regclass::text from task where id = 12"));
+				Assertions.assertEquals("2024-05-02 08:00:00", queryString(statement,
+					"select to_char(creation_date, 'YYYY-MM-DD HH24:MI:SS') from task where id = 12"));
+
+				statement.execute("delete from task where id = 11");
+				Assertions.assertEquals("0", queryString(statement,
+					"select count(*) from scan_subnets_task_subnets where scan_subnets_task = 11"),
+					"The subnets of the deleted task were not deleted");
+				Assertions.assertNull(queryString(statement,
+					"select parent_task_id from task where id = 12"),
+					"The parent of the child task was not reset");
+			}
+		}
+	}
 }
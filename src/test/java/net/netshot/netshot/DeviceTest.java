@@ -1578,6 +1578,97 @@ public class DeviceTest extends WithDatabaseTest {
 			Assertions.assertEquals(22, manager.resolvePort(ssh));
 		}
 
+
+		@Test
+		@DisplayName("Auto-try pool SSH candidates are probed in parallel, and the winner is tried first next time in the same subnet")
+		void parallelProbingAndSubnetHint() throws Exception {
+			AccessManager.loadConfig();
+			Session session = Database.getSession();
+			Domain domain = new Domain("Probe domain", "Domain for parallel probing", null, null);
+			List<DeviceCredentialSet> pool = new ArrayList<>();
+			try {
+				// Committed, as the hint is recorded in its own transaction
+				session.beginTransaction();
+				session.persist(domain);
+				for (int i = 0; i < 6; i++) {
+					DeviceSshAccount cred = new DeviceSshAccount("admin", "pass" + i, null, "probeCred" + i);
+					cred.setMgmtDomain(domain);
+					session.persist(cred);
+					pool.add(cred);
+				}
+				session.getTransaction().commit();
+				session.beginTransaction();
+				DeviceCredentialSet right = pool.get(4);
+
+				AtomicInteger running = new AtomicInteger(0);
+				AtomicInteger maxRunning = new AtomicInteger(0);
+				List<String> tried = Collections.synchronizedList(new ArrayList<>());
+				AccessManager.ClientFactory factory = (accessDef, credentialSet) -> new Client() {
+					@Override
+					public void connect() throws IOException {
+						tried.add(credentialSet.getName());
+						maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+						try {
+							Thread.sleep(100);
+						}
+						catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						finally {
+							running.decrementAndGet();
+						}
+						if (credentialSet.getId() != right.getId()) {
+							throw new InvalidCredentialsException("bad password");
+						}
+					}
+
+					@Override
+					public void disconnect() {
+					}
+				};
+
+				Device device = new Device("CiscoIOS12", null, domain, "test");
+				device.getAccesses().add(new DeviceAccess(device, "ssh"));
+				AccessManager manager = new AccessManager(session, device,
+					new Network4Address("10.200.1.1", 32), new FakeTaskContext(), null);
+				Resolution resolution = manager.newResolution(List.of(sshAccess("ssh")), factory);
+				resolution.ensureResolved(true);
+				Assertions.assertEquals(right.getId(), resolution.getCurrentCredentialSet().getId(),
+					"The working credential set should have been found");
+				Assertions.assertTrue(maxRunning.get() > 1, "Candidates should have been probed in parallel");
+				resolution.confirmCredentialWorks();
+				session.flush();
+
+				// Another device in the same subnet
+				tried.clear();
+				Device otherDevice = new Device("CiscoIOS12", null, domain, "test");
+				otherDevice.getAccesses().add(new DeviceAccess(otherDevice, "ssh"));
+				AccessManager otherManager = new AccessManager(session, otherDevice,
+					new Network4Address("10.200.1.2", 32), new FakeTaskContext(), null);
+				Resolution otherResolution = otherManager.newResolution(List.of(sshAccess("ssh")), factory);
+				otherResolution.ensureResolved(true);
+				Assertions.assertEquals(right.getId(), otherResolution.getCurrentCredentialSet().getId());
+				Assertions.assertTrue(tried.contains(right.getName())
+					&& tried.size() <= AccessManager.SETTINGS.getProbeParallelism(),
+					"The credential set which worked in the same subnet should be tried in the first round");
+			}
+			finally {
+				Database.rollbackSilently(session);
+				session.close();
+				try (Session cleanupSession = Database.getSession()) {
+					cleanupSession.beginTransaction();
+					for (DeviceCredentialSet cred : pool) {
+						cleanupSession.remove(cleanupSession.get(DeviceCredentialSet.class, cred.getId()));
+					}
+					// The hint is removed along with the domain
+					Domain persistedDomain = cleanupSession.get(Domain.class, domain.getId());
+					if (persistedDomain != null) {
+						cleanupSession.remove(persistedDomain);
+					}
+					cleanupSession.getTransaction().commit();
+				}
+			}
+		}
 	}
 
 	@Nested
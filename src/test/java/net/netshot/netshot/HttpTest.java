@@ -23,7 +23,10 @@ import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -35,12 +38,14 @@ import org.junit.jupiter.api.Test;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
+import jakarta.ws.rs.client.Client;
 
 import net.netshot.netshot.device.access.Http;
 import net.netshot.netshot.device.access.Http.AuthScheme;
 import net.netshot.netshot.device.access.Http.HttpConfig;
 import net.netshot.netshot.device.access.Http.HttpResult;
 import net.netshot.netshot.device.credentials.DeviceHttpAccount;
+import net.netshot.netshot.utils.HttpClientPool;
 
 /**
  * Unit tests for {@link Http}, in particular the per-access-declared
@@ -237,4 +242,51 @@ public class HttpTest {
 		Assertions.assertEquals("{\"name\":\"test\"}", this.lastBody.get());
 	}
 
+	@Test
+	@DisplayName("Consecutive Http accesses to the same host share the pooled keep-alive connection")
+	void pooledKeepAliveConnection() throws IOException {
+		Netshot.initConfig(new Properties());
+		HttpClientPool.loadConfig();
+		Set<Integer> clientPorts = new HashSet<>();
+		for (int t = 0; t < 3; t++) {
+			// A new Http instance per "task"
+			Http http = newClient();
+			try {
+				for (int r = 0; r < 5; r++) {
+					HttpResult result = http.request("GET", "/status", null, null, null, null, new HttpConfig(), null);
+					Assertions.assertEquals(200, result.getStatus());
+					clientPorts.add(this.lastExchange.get().getRemoteAddress().getPort());
+				}
+			}
+			finally {
+				http.disconnect();
+			}
+		}
+		Assertions.assertEquals(1, clientPorts.size(), "The TCP connection should have been reused");
+		Assertions.assertEquals(1, HttpClientPool.getClientCount());
+	}
+
+	@Test
+	@DisplayName("Clients evicted from the pool are closed once released")
+	void evictedClientsClosed() throws IOException {
+		Properties config = new Properties();
+		config.setProperty("netshot.httpclient.maxclients", "1");
+		Netshot.initConfig(config);
+		HttpClientPool.loadConfig();
+		Client first = HttpClientPool.getClient("127.0.0.1", 8081, false, null, null, "test", null);
+		Client second = HttpClientPool.getClient("127.0.0.1", 8082, false, null, null, "test", null);
+		Assertions.assertEquals(1, HttpClientPool.getClientCount());
+		Assertions.assertDoesNotThrow(() -> first.target("http://127.0.0.1:8081/"),
+			"The evicted client is still in use, it shouldn't be closed yet");
+		HttpClientPool.release(first);
+		Assertions.assertThrows(IllegalStateException.class, () -> first.target("http://127.0.0.1:8081/"),
+			"The evicted client should be closed once released");
+		HttpClientPool.release(second);
+		Assertions.assertDoesNotThrow(() -> second.target("http://127.0.0.1:8082/"),
+			"The pooled client should be kept open");
+		HttpClientPool.clear();
+		Assertions.assertThrows(IllegalStateException.class, () -> second.target("http://127.0.0.1:8082/"),
+			"The unused client should be closed when the pool is cleared");
+	}
+
 }
@@ -270,6 +270,11 @@ public class NetshotApiClient {
 		return this.httpClient.send(request, BodyHandlers.ofInputStream());
 	}
 
+	public HttpResponse<InputStream> download(String path, String range) throws IOException, InterruptedException {
+		HttpRequest request = initRequest(path).header("Range", range).GET().build();
+		return this.httpClient.send(request, BodyHandlers.ofInputStream());
+	}
+
 	public HttpResponse<JsonNode> post(String path, JsonNode data) throws IOException, InterruptedException {
 		HttpRequest request = initRequest(path)
 			.header("Content-Type", this.mediaType.toString())
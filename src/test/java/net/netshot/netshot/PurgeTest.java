@@ -36,12 +36,16 @@ public class PurgeTest extends WithDatabaseTest {
 		Properties config = getDatabaseConfig("purgetest");
 		config.setProperty("netshot.log.file", "CONSOLE");
 		config.setProperty("netshot.log.level", "INFO");
+		// Small chunks, to purge across several transactions
+		config.setProperty("netshot.tasks.purge.chunksize", "7");
+		config.setProperty("netshot.tasks.purge.maxrate", "0");
 		return config;
 	}
 
 	@BeforeAll
 	protected static void initNetshot() throws Exception {
 		Netshot.initConfig(PurgeTest.getNetshotConfig());
+		PurgeDatabaseTask.loadConfig();
 		Database.update();
 		Database.init();
 		Thread.sleep(1000);
@@ -0,0 +1,248 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+
+import net.netshot.netshot.database.ReplicaRoutingConnectionProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.parallel.ResourceLock;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class ReplicaRoutingTest extends WithDatabaseTest {
+
+	private Properties config;
+
+	@BeforeAll
+	void initConfig() {
+		this.config = getDatabaseConfig("replicatest");
+		this.config.setProperty("netshot.log.file", "CONSOLE");
+		this.config.setProperty("netshot.log.level", "WARN");
+		this.config.setProperty("netshot.db.replicas.maxlag", "10000");
+		Netshot.initConfig(this.config);
+	}
+
+	/**
+	 * Fake connection provider, always giving the same connection.
+	 */
+	private static class FakeConnectionProvider implements ConnectionProvider {
+		private final Connection connection;
+
+		private FakeConnectionProvider(Connection connection) {
+			this.connection = connection;
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			if (this.connection == null) {
+				throw new SQLException("Connection refused");
+			}
+			return this.connection;
+		}
+
+		@Override
+		public void closeConnection(Connection connection) throws SQLException {
+		}
+
+		@Override
+		public boolean supportsAggressiveRelease() {
+			return false;
+		}
+
+		@Override
+		public boolean isUnwrappableAs(Class<?> unwrapType) {
+			return false;
+		}
+
+		@Override
+		public <T> T unwrap(Class<T> unwrapType) {
+			return null;
+		}
+	}
+
+	/**
+	 * Connection provider to the test (primary) database.
+	 */
+	private class RealConnectionProvider extends FakeConnectionProvider {
+		private RealConnectionProvider() {
+			super(null);
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			return DriverManager.getConnection(config.getProperty("netshot.db.url"),
+				config.getProperty("netshot.db.username"), config.getProperty("netshot.db.password"));
+		}
+
+		@Override
+		public void closeConnection(Connection connection) throws SQLException {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Build a fake connection, answering the lag query with the given value.
+	 * @param lag = the lag (ms) to return, null for SQL NULL
+	 * @return the connection
+	 */
+	private static Connection fakeConnection(Double lag) {
+		AtomicBoolean fetched = new AtomicBoolean();
+		ResultSet resultSet = (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+			new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+				switch (method.getName()) {
+					case "next":
+						return !fetched.getAndSet(true);
+					case "getDouble":
+						return lag == null ? 0.0 : lag;
+					case "wasNull":
+						return lag == null;
+					default:
+						return null;
+				}
+			});
+		Statement statement = (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(),
+			new Class<?>[] { Statement.class }, (proxy, method, args) -> {
+				if ("executeQuery".equals(method.getName())) {
+					fetched.set(false);
+					return resultSet;
+				}
+				return null;
+			});
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+			new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+				if ("createStatement".equals(method.getName())) {
+					return statement;
+				}
+				return null;
+			});
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void addReplica(ReplicaRoutingConnectionProvider router, String name,
+			ConnectionProvider provider) throws Exception {
+		Class<?> replicaClass = Class.forName(ReplicaRoutingConnectionProvider.class.getName() + "$Replica");
+		Constructor<?> constructor = replicaClass.getDeclaredConstructor(String.class, ConnectionProvider.class);
+		constructor.setAccessible(true);
+		Field field = ReplicaRoutingConnectionProvider.class.getDeclaredField("replicas");
+		field.setAccessible(true);
+		((List<Object>) field.get(router)).add(constructor.newInstance(name, provider));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void checkReplicas(ReplicaRoutingConnectionProvider router) throws Exception {
+		Class<?> replicaClass = Class.forName(ReplicaRoutingConnectionProvider.class.getName() + "$Replica");
+		Method method = ReplicaRoutingConnectionProvider.class.getDeclaredMethod("checkReplica", replicaClass);
+		method.setAccessible(true);
+		Field field = ReplicaRoutingConnectionProvider.class.getDeclaredField("replicas");
+		field.setAccessible(true);
+		for (Object replica : (List<Object>) field.get(router)) {
+			method.invoke(router, replica);
+		}
+	}
+
+	@Test
+	@DisplayName("Lag query on a server which is not in recovery")
+	@ResourceLock("DB")
+	void lagQueryOnPrimary() throws Exception {
+		Connection primaryConnection = fakeConnection(0.0);
+		ReplicaRoutingConnectionProvider router =
+			new ReplicaRoutingConnectionProvider(new FakeConnectionProvider(primaryConnection));
+		addReplica(router, "TestReplica1", new RealConnectionProvider());
+		checkReplicas(router);
+		Connection connection = router.getConnection();
+		try {
+			Assertions.assertNotSame(primaryConnection, connection,
+				"The up-to-date replica should be used");
+		}
+		finally {
+			router.closeConnection(connection);
+		}
+	}
+
+	@Test
+	@DisplayName("Replicas are used round-robin when within the lag bound")
+	@ResourceLock("DB")
+	void roundRobin() throws Exception {
+		Connection primaryConnection = fakeConnection(0.0);
+		Connection replica1Connection = fakeConnection(0.0);
+		Connection replica2Connection = fakeConnection(500.0);
+		ReplicaRoutingConnectionProvider router =
+			new ReplicaRoutingConnectionProvider(new FakeConnectionProvider(primaryConnection));
+		addReplica(router, "TestReplica1", new FakeConnectionProvider(replica1Connection));
+		addReplica(router, "TestReplica2", new FakeConnectionProvider(replica2Connection));
+		checkReplicas(router);
+		Connection first = router.getConnection();
+		Connection second = router.getConnection();
+		Assertions.assertNotSame(primaryConnection, first);
+		Assertions.assertNotSame(primaryConnection, second);
+		Assertions.assertNotSame(first, second, "The reads should be spread over both replicas");
+	}
+
+	@Test
+	@DisplayName("Replicas are skipped when lagging, disconnected or unreachable")
+	@ResourceLock("DB")
+	void fallbackToPrimary() throws Exception {
+		Connection primaryConnection = fakeConnection(0.0);
+		ReplicaRoutingConnectionProvider router =
+			new ReplicaRoutingConnectionProvider(new FakeConnectionProvider(primaryConnection));
+		addReplica(router, "TestReplica1", new FakeConnectionProvider(fakeConnection(20000.0)));
+		addReplica(router, "TestReplica2", new FakeConnectionProvider(fakeConnection(null)));
+		addReplica(router, "TestReplica3", new FakeConnectionProvider(null));
+		checkReplicas(router);
+		for (int i = 0; i < 3; i++) {
+			Assertions.assertSame(primaryConnection, router.getConnection(),
+				"No replica is usable, the primary should be used");
+		}
+	}
+
+	@Test
+	@DisplayName("A replica without WAL receiver is skipped")
+	@ResourceLock("DB")
+	void disconnectedReplicaSkipped() throws Exception {
+		Connection primaryConnection = fakeConnection(0.0);
+		Connection upToDateConnection = fakeConnection(0.0);
+		ReplicaRoutingConnectionProvider router =
+			new ReplicaRoutingConnectionProvider(new FakeConnectionProvider(primaryConnection));
+		addReplica(router, "TestReplica1", new FakeConnectionProvider(fakeConnection(null)));
+		addReplica(router, "TestReplica2", new FakeConnectionProvider(upToDateConnection));
+		checkReplicas(router);
+		for (int i = 0; i < 3; i++) {
+			Assertions.assertSame(upToDateConnection, router.getConnection(),
+				"Only the streaming replica should be used");
+		}
+	}
+}
@@ -18,6 +18,7 @@
  */
 package net.netshot.netshot;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpCookie;
@@ -1718,6 +1719,82 @@ public class RestServiceTest extends WithDatabaseTest {
 			}
 		}
 
+		@Test
+		@DisplayName("List devices with keyset pagination and field selection")
+		@ResourceLock("DB")
+		void listDevicesWithKeysetPagination() throws IOException, InterruptedException {
+			final int deviceCount = 5000;
+			final int pageSize = 1000;
+			this.createTestDomain();
+			List<Long> deviceIds = new ArrayList<>();
+			try (Session session = Database.getSession()) {
+				session.beginTransaction();
+				for (int i = 0; i < deviceCount; i++) {
+					Device device = new Device(this.getTestDriver().getName(),
+						"10.%d.%d.%d".formatted(i / 65536 + 2, (i / 256) % 256, i % 256), this.testDomain, "test");
+					device.setName("device%05d".formatted(i));
+					session.persist(device);
+					deviceIds.add(device.getId());
+					if (i % 500 == 499) {
+						session.flush();
+						session.clear();
+					}
+				}
+				session.getTransaction().commit();
+			}
+			deviceIds.sort(null);
+
+			List<Long> listedIds = new ArrayList<>();
+			Long afterId = null;
+			long startTime = System.currentTimeMillis();
+			while (true) {
+				String path = "/devices?limit=%d".formatted(pageSize);
+				if (afterId != null) {
+					path += "&after=%d".formatted(afterId);
+				}
+				HttpResponse<JsonNode> response = apiClient.get(path);
+				Assertions.assertEquals(
+					Response.Status.OK.getStatusCode(), response.statusCode(),
+					"Not getting 200 response for device page");
+				if (response.body().size() == 0) {
+					break;
+				}
+				Assertions.assertTrue(response.body().size() <= pageSize, "Page is bigger than requested limit");
+				for (JsonNode deviceNode : response.body()) {
+					Assertions.assertTrue(deviceNode.get("configCompliant").asBoolean(),
+						"Device without check result should be compliant");
+					listedIds.add(deviceNode.get("id").asLong());
+				}
+				afterId = listedIds.get(listedIds.size() - 1);
+			}
+			long fullListTime = System.currentTimeMillis() - startTime;
+			Assertions.assertEquals(deviceIds, listedIds,
+				"Paginated listing doesn't return all devices once and in ID order");
+			Assertions.assertTrue(fullListTime < 30000,
+				"Listing %d devices took too long (%d ms)".formatted(deviceCount, fullListTime));
+
+			{
+				HttpResponse<JsonNode> response = apiClient.get(
+					"/devices?limit=2&after=%d&fields=name,mgmtAddress".formatted(deviceIds.get(0)));
+				Assertions.assertEquals(
+					Response.Status.OK.getStatusCode(), response.statusCode(),
+					"Not getting 200 response for device list with field selection");
+				Assertions.assertEquals(
+					JsonNodeFactory.instance.objectNode()
+						.put("id", deviceIds.get(1))
+						.put("name", "device00001")
+						.put("mgmtAddress", "10.2.0.1"),
+					response.body().get(0),
+					"Retrieved device doesn't only have the selected fields");
+			}
+			{
+				HttpResponse<JsonNode> response = apiClient.get("/devices?fields=name,foo");
+				Assertions.assertEquals(
+					Response.Status.BAD_REQUEST.getStatusCode(), response.statusCode(),
+					"Not getting 400 response for unknown field");
+			}
+		}
+
 		@Test
 		@DisplayName("Get device")
 		@ResourceLock("DB")
@@ -2298,6 +2375,86 @@ public class RestServiceTest extends WithDatabaseTest {
 			}
 		}
 
+		@Test
+		@DisplayName("Background data export test")
+		@ResourceLock("DB")
+		void backgroundDataExportTest() throws IOException, InterruptedException {
+			this.createTestDomain();
+			this.createTestDevices();
+			String jobId;
+			{
+				ObjectNode data = JsonNodeFactory.instance.objectNode()
+					.put("exportInterfaces", true)
+					.put("exportInventory", true);
+				HttpResponse<JsonNode> response = apiClient.post("/reports/exports", data);
+				Assertions.assertEquals(
+					Response.Status.ACCEPTED.getStatusCode(), response.statusCode(),
+					"Not getting 202 response for data export request");
+				jobId = response.body().get("id").asText();
+			}
+			{
+				JsonNode job = null;
+				for (int i = 0; i < 100; i++) {
+					HttpResponse<JsonNode> response = apiClient.get("/reports/exports/%s".formatted(jobId));
+					Assertions.assertEquals(
+						Response.Status.OK.getStatusCode(), response.statusCode(),
+						"Not getting 200 response for data export job");
+					job = response.body();
+					String status = job.get("status").asText();
+					if (!"WAITING".equals(status) && !"RUNNING".equals(status)) {
+						break;
+					}
+					Thread.sleep(200);
+				}
+				Assertions.assertEquals("SUCCESS", job.get("status").asText(),
+					"Data export job didn't succeed");
+				Assertions.assertEquals(1.0, job.get("progress").asDouble(), "Unexpected final progress");
+				Assertions.assertEquals(this.testDevices.size(), job.get("deviceCount").asLong(),
+					"Unexpected exported device count");
+			}
+			apiClient.setMediaType(MediaType.WILDCARD_TYPE);
+			byte[] content;
+			{
+				HttpResponse<InputStream> response = apiClient.download("/reports/exports/%s/file".formatted(jobId));
+				Assertions.assertEquals(
+					Response.Status.OK.getStatusCode(), response.statusCode(),
+					"Not getting 200 response for data export download");
+				content = response.body().readAllBytes();
+				try (XSSFWorkbook wb = new XSSFWorkbook(new ByteArrayInputStream(content))) {
+					Assertions.assertEquals(4, wb.getNumberOfSheets());
+					Assertions.assertEquals(this.testDevices.size(), wb.getSheet("Devices").getLastRowNum(),
+						"Excel report doesn't have the expected number of lines in Devices sheet");
+					Assertions.assertEquals(this.testDevices.size() * 4, wb.getSheet("Interfaces").getLastRowNum(),
+						"Excel report doesn't have the expected number of lines in Interfaces sheet");
+					Assertions.assertEquals(this.testDevices.size() * 2, wb.getSheet("Inventory").getLastRowNum(),
+						"Excel report doesn't have the expected number of lines in Inventory sheet");
+				}
+			}
+			{
+				// Resume the download
+				HttpResponse<InputStream> response = apiClient.download(
+					"/reports/exports/%s/file".formatted(jobId), "bytes=100-");
+				Assertions.assertEquals(
+					Response.Status.PARTIAL_CONTENT.getStatusCode(), response.statusCode(),
+					"Not getting 206 response for partial data export download");
+				Assertions.assertArrayEquals(Arrays.copyOfRange(content, 100, content.length),
+					response.body().readAllBytes(), "Unexpected partial content");
+			}
+			apiClient.setMediaType(MediaType.APPLICATION_JSON_TYPE);
+			{
+				HttpResponse<JsonNode> response = apiClient.delete("/reports/exports/%s".formatted(jobId));
+				Assertions.assertEquals(
+					Response.Status.NO_CONTENT.getStatusCode(), response.statusCode(),
+					"Not getting 204 response for data export removal");
+			}
+			{
+				HttpResponse<JsonNode> response = apiClient.get("/reports/exports/%s".formatted(jobId));
+				Assertions.assertEquals(
+					Response.Status.NOT_FOUND.getStatusCode(), response.statusCode(),
+					"Not getting 404 response for removed data export job");
+			}
+		}
+
 	}
 
 	@Nested
@@ -18,24 +18,46 @@
  */
 package net.netshot.netshot;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Date;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.hibernate.Session;
 import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
 
 import net.netshot.netshot.database.Database;
+import net.netshot.netshot.database.DatabaseInstrumentation;
 import net.netshot.netshot.device.Device;
 import net.netshot.netshot.device.Domain;
+import net.netshot.netshot.utils.Metrics;
+import net.netshot.netshot.work.DebugLog;
+import net.netshot.netshot.work.DeviceLockManager;
+import net.netshot.netshot.work.DeviceLockManager.LockType;
 import net.netshot.netshot.work.Task;
 import net.netshot.netshot.work.Task.ScheduleType;
 import net.netshot.netshot.work.Task.SequentialScheduling;
 import net.netshot.netshot.work.Task.SequentialScheduling.NextAction;
 import net.netshot.netshot.work.Task.Status;
 import net.netshot.netshot.work.TaskDeviceListMember;
+import net.netshot.netshot.work.TaskLimiter;
+import net.netshot.netshot.work.TaskLogBuffer;
 import net.netshot.netshot.work.tasks.TakeGroupSnapshotTask;
 import net.netshot.netshot.work.tasks.TakeSnapshotTask;
 import org.junit.jupiter.api.AfterEach;
@@ -454,6 +476,35 @@ public class TaskTest extends WithDatabaseTest {
 			}
 		}
 
+		@Test
+		@DisplayName("preCreateChildren persists a large number of children in batches, with distinct ids")
+		@ResourceLock("DB")
+		void preCreateChildrenInBatches() throws Exception {
+			TakeGroupSnapshotTask parent = new TakeGroupSnapshotTask(
+				List.of(device1), "test", "tester", -1, true, true);
+			this.persist(parent);
+
+			List<Task> children = new ArrayList<>();
+			for (int i = 0; i < 520; i++) {
+				children.add(new TakeSnapshotTask(device1, "child", "tester", false, true, true));
+			}
+			this.invokeProtected(parent, "preCreateChildren", new Class<?>[] { List.class }, children);
+
+			Assertions.assertEquals(children.size(),
+				children.stream().map(Task::getId).filter(id -> id != 0).distinct().count(),
+				"Each pre-created child should get its own id");
+			try (Session session = Database.getSession()) {
+				List<Integer> orders = session
+					.createQuery("select t.childOrder from Task t where t.parentTaskId = :id and t.status = :delayed "
+						+ "order by t.childOrder asc", Integer.class)
+					.setParameter("id", parent.getId())
+					.setParameter("delayed", Status.DELAYED)
+					.list();
+				Assertions.assertEquals(children.size(), orders.size());
+				Assertions.assertEquals(children.size() - 1, orders.get(orders.size() - 1));
+			}
+		}
+
 		@Test
 		@DisplayName("reloadExistingChildren resumes from previously pre-created children (e.g. after a restart)")
 		@ResourceLock("DB")
@@ -517,6 +568,142 @@ public class TaskTest extends WithDatabaseTest {
 					"Still-DELAYED child should be cancelled");
 			}
 		}
+
+		@Test
+		@DisplayName("Parallel orchestration marks the children as failed when the scheduler fails")
+		@ResourceLock("DB")
+		void parallelSchedulingFailureMarksChildrenAsFailed() throws Exception {
+			TakeGroupSnapshotTask parent = new TakeGroupSnapshotTask(
+				List.of(device1, device2), "test", "tester", -1, true, true);
+			this.persist(parent);
+
+			List<Task> children = new ArrayList<>(List.of(
+				new TakeSnapshotTask(device1, "child", "tester", false, true, true),
+				new TakeSnapshotTask(device2, "child", "tester", false, true, true)));
+			this.invokeProtected(parent, "preCreateChildren", new Class<?>[] { List.class }, children);
+
+			// Quartz failing after the promotion to SCHEDULED is committed
+			AtomicInteger deleteCalls = new AtomicInteger();
+			Scheduler failingScheduler = (Scheduler) Proxy.newProxyInstance(Scheduler.class.getClassLoader(),
+				new Class<?>[] { Scheduler.class }, (proxy, method, args) -> {
+					if ("scheduleJobs".equals(method.getName())) {
+						throw new SchedulerException("Injected scheduling failure");
+					}
+					if ("deleteJobs".equals(method.getName())) {
+						deleteCalls.incrementAndGet();
+						return true;
+					}
+					return method.getReturnType() == boolean.class ? false : null;
+				});
+			Field schedulerField = TaskManager.class.getDeclaredField("runnerScheduler");
+			schedulerField.setAccessible(true);
+			Object previousScheduler = schedulerField.get(null);
+			Status finalStatus;
+			try {
+				schedulerField.set(null, failingScheduler);
+				finalStatus = this.invokeProtected(parent, "orchestrateParallelChildren",
+					new Class<?>[] { List.class }, children);
+			}
+			finally {
+				schedulerField.set(null, previousScheduler);
+			}
+
+			Assertions.assertEquals(Status.FAILURE, finalStatus, "Parent should report the scheduling error");
+			Assertions.assertEquals(1, deleteCalls.get(), "Partially added jobs should be removed");
+			try (Session session = Database.getSession()) {
+				for (Task child : children) {
+					Assertions.assertEquals(Status.FAILURE, child.getStatus(),
+						"In-memory child status should be FAILURE");
+					Assertions.assertEquals(Status.FAILURE, session.get(Task.class, child.getId()).getStatus(),
+						"Child left without job should be FAILURE, not SCHEDULED");
+				}
+			}
+		}
+
+		@Test
+		@DisplayName("A scheduling error doesn't overwrite the children already claimed or finished")
+		@ResourceLock("DB")
+		void schedulingFailureKeepsStartedChildren() throws Exception {
+			TakeGroupSnapshotTask parent = new TakeGroupSnapshotTask(
+				List.of(device1, device2), "test", "tester", -1, true, true);
+			this.persist(parent);
+
+			List<Task> children = new ArrayList<>(List.of(
+				new TakeSnapshotTask(device1, "child", "tester", false, true, true),
+				new TakeSnapshotTask(device2, "child", "tester", false, true, true),
+				new TakeSnapshotTask(device1, "child", "tester", false, true, true),
+				new TakeSnapshotTask(device2, "child", "tester", false, true, true)));
+			this.invokeProtected(parent, "preCreateChildren", new Class<?>[] { List.class }, children);
+
+			// State reached by the children when the error surfaced, after the promotion commit
+			try (Session session = Database.getSession()) {
+				session.beginTransaction();
+				session.createMutationQuery("update Task t set t.status = :success where t.id = :id")
+					.setParameter("success", Status.SUCCESS)
+					.setParameter("id", children.get(0).getId())
+					.executeUpdate();
+				session.createMutationQuery("update Task t set t.status = :waiting, t.leaseExpiry = :expiry where t.id = :id")
+					.setParameter("waiting", Status.WAITING)
+					.setParameter("expiry", new Date(System.currentTimeMillis() + 60000))
+					.setParameter("id", children.get(1).getId())
+					.executeUpdate();
+				session.createMutationQuery("update Task t set t.status = :waiting, t.leaseExpiry = null where t.id = :id")
+					.setParameter("waiting", Status.WAITING)
+					.setParameter("id", children.get(2).getId())
+					.executeUpdate();
+				session.createMutationQuery("update Task t set t.status = :scheduled where t.id = :id")
+					.setParameter("scheduled", Status.SCHEDULED)
+					.setParameter("id", children.get(3).getId())
+					.executeUpdate();
+				session.getTransaction().commit();
+			}
+
+			this.invokeProtected(parent, "markChildrenAsSchedulingFailure",
+				new Class<?>[] { List.class }, children);
+
+			List<Status> expected = List.of(Status.SUCCESS, Status.WAITING, Status.FAILURE, Status.FAILURE);
+			try (Session session = Database.getSession()) {
+				for (int i = 0; i < children.size(); i++) {
+					Assertions.assertEquals(expected.get(i), session.get(Task.class, children.get(i).getId()).getStatus(),
+						"Unexpected status of child " + i);
+					Assertions.assertEquals(expected.get(i), children.get(i).getStatus(),
+						"In-memory status of child " + i + " should match the database");
+				}
+			}
+		}
+
+		@Test
+		@DisplayName("A child tried again later is followed through its copy")
+		@ResourceLock("DB")
+		void retriedChildFollowed() throws Exception {
+			TakeGroupSnapshotTask parent = new TakeGroupSnapshotTask(
+				List.of(device1, device2), "test", "tester", -1, true, true);
+			this.persist(parent);
+			List<Task> children = new ArrayList<>(List.of(
+				new TakeSnapshotTask(device1, "child", "tester", false, true, true),
+				new TakeSnapshotTask(device2, "child", "tester", false, true, true)));
+			this.invokeProtected(parent, "preCreateChildren", new Class<?>[] { List.class }, children);
+
+			// Copy of the first child, as scheduled by RunDeviceScriptTask.retryLater
+			Task first = children.get(0);
+			Thread.sleep(10);
+			Task retry = (Task) first.clone();
+			retry.setParentTaskId(first.getParentTaskId());
+			retry.setChildOrder(first.getChildOrder());
+			this.persist(retry);
+
+			try (Session session = Database.getSession()) {
+				Long retryId = this.invokeProtected(parent, "findChildRetry",
+					new Class<?>[] { Session.class, long.class }, session, first.getId());
+				Assertions.assertEquals(retry.getId(), retryId, "The copy of the child should be found");
+				Assertions.assertNull(this.invokeProtected(parent, "findChildRetry",
+					new Class<?>[] { Session.class, long.class }, session, children.get(1).getId()),
+					"The other child wasn't retried");
+				Assertions.assertNull(this.invokeProtected(parent, "findChildRetry",
+					new Class<?>[] { Session.class, long.class }, session, retry.getId()),
+					"The copy itself wasn't retried");
+			}
+		}
 	}
 
 	@Nested
@@ -643,6 +830,485 @@ public class TaskTest extends WithDatabaseTest {
 		}
 	}
 
+	@Nested
+	@DisplayName("Pull mode task leases and release (TaskManager, DB-backed)")
+	@TestInstance(Lifecycle.PER_CLASS)
+	class PullModeTest {
+
+		Domain domain;
+		Device device;
+
+		@BeforeAll
+		void initDb() throws Exception {
+			Properties config = getDatabaseConfig("tasktest_pull");
+			config.setProperty("netshot.log.file", "CONSOLE");
+			config.setProperty("netshot.log.level", "WARN");
+			Netshot.initConfig(config);
+			Database.update();
+			Database.init();
+		}
+
+		@BeforeEach
+		void createData() {
+			try (Session session = Database.getSession()) {
+				session.beginTransaction();
+				domain = new Domain("Test domain", "Fake domain for tests", null, null);
+				session.persist(domain);
+				device = FakeDeviceFactory.getFakeCiscoIosDevice(domain, null, 1);
+				session.persist(device);
+				session.getTransaction().commit();
+			}
+		}
+
+		@AfterEach
+		void cleanUpData() throws Exception {
+			this.setPullMode(false);
+			this.setLiveMembers(Set.of());
+			try (Session session = Database.getSession()) {
+				session.beginTransaction();
+				session.createMutationQuery("delete from Task").executeUpdate();
+				session.createMutationQuery("delete from Device").executeUpdate();
+				session.createMutationQuery("delete from Domain").executeUpdate();
+				session.getTransaction().commit();
+			}
+		}
+
+		/**
+		 * Switches the TaskManager to cluster master in pull mode (or back to single mode),
+		 * without starting the schedulers nor the claimer thread.
+		 */
+		private void setPullMode(boolean pull) throws Exception {
+			Field pullField = TaskManager.Settings.class.getDeclaredField("pullTasks");
+			pullField.setAccessible(true);
+			pullField.set(TaskManager.SETTINGS, pull);
+			TaskManager.setMode(pull ? TaskManager.Mode.CLUSTER_MASTER : TaskManager.Mode.SINGLE);
+		}
+
+		/**
+		 * Sets the live cluster members, as known by the TaskManager.
+		 */
+		private void setLiveMembers(Set<String> memberIds) throws Exception {
+			Field field = TaskManager.class.getDeclaredField("liveMemberIds");
+			field.setAccessible(true);
+			field.set(null, memberIds);
+		}
+
+		private long persistTask(Status status, Date leaseExpiry) {
+			TakeSnapshotTask task = new TakeSnapshotTask(device, "test", "tester", false, true, true);
+			task.setStatus(status);
+			task.setRunnerId("runner-a");
+			task.setLeaseExpiry(leaseExpiry);
+			try (Session session = Database.getSession()) {
+				session.beginTransaction();
+				session.persist(task);
+				session.getTransaction().commit();
+			}
+			return task.getId();
+		}
+
+		@Test
+		@DisplayName("Expired leases: queued tasks are released, running tasks are set as failed")
+		@ResourceLock("DB")
+		void expiredLeases() throws Exception {
+			// runner-a (owner of the tasks) has left the cluster
+			this.setLiveMembers(Set.of("runner-b"));
+			Date past = new Date(System.currentTimeMillis() - 60000L);
+			Date future = new Date(System.currentTimeMillis() + 600000L);
+			long queuedId = this.persistTask(Status.WAITING, past);
+			long runningId = this.persistTask(Status.RUNNING, past);
+			long liveId = this.persistTask(Status.RUNNING, future);
+
+			TaskManager.renewTaskLeases();
+
+			try (Session session = Database.getSession()) {
+				Task queued = session.get(Task.class, queuedId);
+				Assertions.assertEquals(Status.WAITING, queued.getStatus(), "Queued task should still be waiting");
+				Assertions.assertNull(queued.getLeaseExpiry(), "Queued task should be released to be claimed again");
+				Task running = session.get(Task.class, runningId);
+				Assertions.assertEquals(Status.FAILURE, running.getStatus(),
+					"Running task of a lost runner should fail rather than run again");
+				Assertions.assertNull(running.getLeaseExpiry());
+				Task live = session.get(Task.class, liveId);
+				Assertions.assertEquals(Status.RUNNING, live.getStatus(), "Task with a valid lease should be untouched");
+				Assertions.assertNotNull(live.getLeaseExpiry());
+			}
+		}
+
+		@Test
+		@DisplayName("Expired leases: running tasks of a live runner are left alone")
+		@ResourceLock("DB")
+		void expiredLeasesOfLiveRunner() throws Exception {
+			// runner-a is late renewing its leases, but still in the cluster
+			this.setLiveMembers(Set.of("runner-a", "runner-b"));
+			Date past = new Date(System.currentTimeMillis() - 60000L);
+			long runningId = this.persistTask(Status.RUNNING, past);
+
+			TaskManager.renewTaskLeases();
+
+			try (Session session = Database.getSession()) {
+				Task running = session.get(Task.class, runningId);
+				Assertions.assertEquals(Status.RUNNING, running.getStatus(),
+					"Running task of a live runner shouldn't be failed");
+				Assertions.assertNotNull(running.getLeaseExpiry());
+			}
+		}
+
+		@Test
+		@DisplayName("Tasks due now are released without going through the master scheduler")
+		@ResourceLock("DB")
+		void dueTaskReleasedDirectly() throws Exception {
+			this.setPullMode(true);
+			// The master scheduler isn't started here: using it would fail
+			TakeSnapshotTask task = new TakeSnapshotTask(device, "test", "tester", false, true, true);
+			TaskManager.addTask(task);
+
+			try (Session session = Database.getSession()) {
+				Task reloaded = session.get(Task.class, task.getId());
+				Assertions.assertEquals(Status.WAITING, reloaded.getStatus(), "Task should be ready to be claimed");
+				Assertions.assertNull(reloaded.getLeaseExpiry(), "Task shouldn't be claimed yet");
+			}
+		}
+
+		@Test
+		@DisplayName("Due children promoted in bulk are released without going through the master scheduler")
+		@ResourceLock("DB")
+		void dueChildrenReleasedDirectly() throws Exception {
+			long firstId = this.persistTask(Status.DELAYED, null);
+			long secondId = this.persistTask(Status.DELAYED, null);
+			this.setPullMode(true);
+			List<Task> tasks = new ArrayList<>();
+			try (Session session = Database.getSession()) {
+				tasks.add(session.get(Task.class, firstId));
+				tasks.add(session.get(Task.class, secondId));
+			}
+
+			int count = TaskManager.addTasks(tasks);
+
+			Assertions.assertEquals(2, count, "Both tasks should be promoted");
+			try (Session session = Database.getSession()) {
+				for (Task task : tasks) {
+					Assertions.assertEquals(Status.WAITING, task.getStatus(), "In-memory status should be WAITING");
+					Task reloaded = session.get(Task.class, task.getId());
+					Assertions.assertEquals(Status.WAITING, reloaded.getStatus(), "Task should be ready to be claimed");
+					Assertions.assertNull(reloaded.getLeaseExpiry(), "Task shouldn't be claimed yet");
+				}
+			}
+		}
+	}
+
+	@Nested
+	@DisplayName("Device locks (DeviceLockManager, DB-backed)")
+	@TestInstance(Lifecycle.PER_CLASS)
+	class DeviceLockTest {
+
+		@BeforeAll
+		void initDb() throws Exception {
+			Properties config = getDatabaseConfig("tasktest_locks");
+			config.setProperty("netshot.log.file", "CONSOLE");
+			config.setProperty("netshot.log.level", "WARN");
+			Netshot.initConfig(config);
+			Database.update();
+			Database.init();
+		}
+
+		@AfterEach
+		void resetMode() {
+			TaskManager.setMode(TaskManager.Mode.SINGLE);
+		}
+
+		/**
+		 * Lists the keys of the single-key advisory locks currently held on the server.
+		 */
+		private List<Long> getAdvisoryLockKeys() throws Exception {
+			List<Long> keys = new ArrayList<>();
+			try (Connection connection = Database.getConnection(false);
+					PreparedStatement statement = connection.prepareStatement(
+						"SELECT classid, objid FROM pg_locks WHERE locktype = 'advisory' AND objsubid = 1 AND granted");
+					ResultSet result = statement.executeQuery()) {
+				while (result.next()) {
+					keys.add((result.getLong(1) << 32) | result.getLong(2));
+				}
+			}
+			return keys;
+		}
+
+		@Test
+		@DisplayName("A lock excludes the same type on the same device only")
+		@ResourceLock("DB")
+		void localLocks() throws Exception {
+			try (DeviceLockManager.Lock lock = DeviceLockManager.tryLock(LockType.SNAPSHOT, 1)) {
+				Assertions.assertNotNull(lock);
+				Assertions.assertNull(DeviceLockManager.tryLock(LockType.SNAPSHOT, 1),
+					"Same type on the same device should be refused");
+				try (DeviceLockManager.Lock other = DeviceLockManager.tryLock(LockType.DIAGNOSTICS, 1)) {
+					Assertions.assertNotNull(other, "Another type on the same device should be allowed");
+				}
+				try (DeviceLockManager.Lock other = DeviceLockManager.tryLock(LockType.SNAPSHOT, 2)) {
+					Assertions.assertNotNull(other, "Same type on another device should be allowed");
+				}
+			}
+			try (DeviceLockManager.Lock lock = DeviceLockManager.tryLock(LockType.SNAPSHOT, 1)) {
+				Assertions.assertNotNull(lock, "Lock should be available again once closed");
+			}
+		}
+
+		@Test
+		@DisplayName("Cluster-wide locks use the whole 64-bit device ID")
+		@ResourceLock("DB")
+		void clusterLockKeys() throws Exception {
+			TaskManager.setMode(TaskManager.Mode.CLUSTER_MEMBER);
+			long bigId = (1L << 32) + 5;
+			try (DeviceLockManager.Lock bigLock = DeviceLockManager.tryLock(LockType.SNAPSHOT, bigId);
+					DeviceLockManager.Lock smallLock = DeviceLockManager.tryLock(LockType.SNAPSHOT, 5)) {
+				Assertions.assertNotNull(bigLock);
+				Assertions.assertNotNull(smallLock, "IDs differing by 2^32 shouldn't share a lock");
+				List<Long> deviceIds = new ArrayList<>();
+				for (long key : this.getAdvisoryLockKeys()) {
+					deviceIds.add(key & ((1L << 48) - 1));
+				}
+				Assertions.assertTrue(deviceIds.contains(bigId), "Advisory key should hold the full device ID");
+				Assertions.assertTrue(deviceIds.contains(5L));
+			}
+		}
+
+		@Test
+		@DisplayName("A lock taken by another member during a disconnection is reported as lost")
+		@ResourceLock("DB")
+		void lostLock() throws Exception {
+			TaskManager.setMode(TaskManager.Mode.CLUSTER_MEMBER);
+			List<Long> keysBefore = this.getAdvisoryLockKeys();
+			try (DeviceLockManager.Lock lock = DeviceLockManager.tryLock(LockType.SCRIPT, 7)) {
+				Assertions.assertNotNull(lock);
+				lock.checkHeld();
+				List<Long> keys = this.getAdvisoryLockKeys();
+				keys.removeAll(keysBefore);
+				Assertions.assertEquals(1, keys.size());
+				long key = keys.get(0);
+
+				// Lose the lock connection, while another member takes the lock
+				Field connectionField = DeviceLockManager.class.getDeclaredField("lockConnection");
+				connectionField.setAccessible(true);
+				((Connection) connectionField.get(null)).close();
+				try (Connection otherMember = Database.getConnection(false)) {
+					try (PreparedStatement statement = otherMember.prepareStatement("SELECT pg_try_advisory_lock(?)")) {
+						statement.setLong(1, key);
+						try (ResultSet result = statement.executeQuery()) {
+							Assertions.assertTrue(result.next() && result.getBoolean(1));
+						}
+					}
+					Assertions.assertThrows(IllegalStateException.class, lock::checkHeld,
+						"Holder should fail rather than go on without the lock");
+					Assertions.assertTrue(lock.isLost());
+					Assertions.assertNull(DeviceLockManager.tryLock(LockType.SCRIPT, 7),
+						"Lock is still held by the other member");
+				}
+			}
+			try (DeviceLockManager.Lock lock = DeviceLockManager.tryLock(LockType.SCRIPT, 7)) {
+				Assertions.assertNotNull(lock, "Lock should be available once released by the other member");
+			}
+		}
+	}
+
+	@Nested
+	@DisplayName("Task concurrency limits")
+	class TaskLimiterTest {
+
+		@Test
+		@DisplayName("Global limit bounds the number of concurrent tasks and records the wait time")
+		void globalLimit() throws Exception {
+			Properties config = new Properties();
+			config.setProperty("netshot.tasks.limit.global", "2");
+			Netshot.initConfig(config);
+			TaskLimiter.loadConfig();
+			long waitCount = Metrics.timer("tasks.queue.wait.global").getCount();
+
+			AtomicInteger running = new AtomicInteger();
+			AtomicInteger maxRunning = new AtomicInteger();
+			List<Thread> threads = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				threads.add(Thread.ofVirtual().start(() -> {
+					try (TaskLimiter.Permit permit = TaskLimiter.acquire(new TaskLimiter.Limits(null, null))) {
+						maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+						Thread.sleep(20);
+						running.decrementAndGet();
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}));
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			Assertions.assertEquals(2, maxRunning.get(), "No more than 2 tasks should run at once");
+			Assertions.assertEquals(waitCount + 20, Metrics.timer("tasks.queue.wait.global").getCount(),
+				"The wait time should be recorded for each task");
+		}
+
+		@Test
+		@DisplayName("A parent task gives its permit back while waiting for its children")
+		void parentReleasesPermit() throws Exception {
+			Properties config = new Properties();
+			config.setProperty("netshot.tasks.limit.global", "1");
+			Netshot.initConfig(config);
+			TaskLimiter.loadConfig();
+
+			CountDownLatch childDone = new CountDownLatch(1);
+			AtomicBoolean childRan = new AtomicBoolean();
+			Thread parent = Thread.ofVirtual().start(() -> {
+				try (TaskLimiter.Permit permit = TaskLimiter.acquire(new TaskLimiter.Limits(null, null))) {
+					TaskLimiter.releaseCurrentPermit();
+					Thread.ofVirtual().start(() -> {
+						try (TaskLimiter.Permit childPermit = TaskLimiter.acquire(new TaskLimiter.Limits(null, null))) {
+							childRan.set(true);
+						}
+						catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						childDone.countDown();
+					});
+					childDone.await(5, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			parent.join();
+			Assertions.assertTrue(childRan.get(), "The child should run while the parent waits for it");
+			Assertions.assertFalse(TaskLimiter.isBusy(), "The permit shouldn't be released twice");
+			try (TaskLimiter.Permit permit = TaskLimiter.acquire(new TaskLimiter.Limits(null, null))) {
+				Assertions.assertTrue(TaskLimiter.isBusy(), "Only one permit should be available");
+			}
+		}
+	}
+
+	@Nested
+	@DisplayName("Database usage of tasks (DatabaseInstrumentation, DB-backed)")
+	@TestInstance(Lifecycle.PER_CLASS)
+	class DatabaseUsageTest {
+
+		@BeforeAll
+		void initDb() throws Exception {
+			Properties config = getDatabaseConfig("tasktest_dbusage");
+			config.setProperty("netshot.log.file", "CONSOLE");
+			config.setProperty("netshot.log.level", "WARN");
+			config.setProperty("netshot.db.instrumentation.repeatthreshold", "5");
+			Netshot.initConfig(config);
+			DatabaseInstrumentation.loadConfig();
+			Database.update();
+			Database.init();
+		}
+
+		@Test
+		@DisplayName("Repeated statements are flagged as N+1, in the debug log of the task")
+		@ResourceLock("DB")
+		void repeatedStatementsInDebugLog() throws Exception {
+			Task task = new Task("test", "test", "tester", true) {
+				@Override
+				public JobKey getIdentity() {
+					return null;
+				}
+
+				@Override
+				public String getTaskDescription() {
+					return "Test task";
+				}
+
+				@Override
+				public void run() {
+					try (Session session = Database.getSession()) {
+						for (long id = 1; id <= 8; id++) {
+							session
+								.createQuery("from Domain d where d.id = :id", Domain.class)
+								.setParameter("id", id)
+								.uniqueResult();
+						}
+					}
+					try {
+						this.saveDebugLog();
+					}
+					catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+			};
+			DatabaseInstrumentation.begin("tasks", "TestTask", "TestTask_0");
+			try {
+				task.run();
+			}
+			finally {
+				DatabaseInstrumentation.UnitOfWork dbUsage = DatabaseInstrumentation.end();
+				Assertions.assertNotNull(dbUsage);
+				Assertions.assertEquals(1, dbUsage.getRepeatedStatements().size(),
+					"The repeated statement should be flagged");
+				Assertions.assertTrue(dbUsage.getStatementCount() >= 8);
+			}
+			Assertions.assertNotNull(task.getDebugLog(), "The debug log should be saved");
+			String debugLog = task.getDebugLog().getContent();
+			Assertions.assertTrue(debugLog.contains("Database usage: "),
+				"The database usage summary should be in the debug log");
+			Assertions.assertTrue(debugLog.contains("Likely N+1 statement (executed 8 times)"),
+				"The repeated statement should be in the debug log");
+		}
+	}
+
+	@Nested
+	@DisplayName("Task log buffer")
+	class TaskLogBufferTest {
+
+		private String line(int index, int size) {
+			return ("line %d ".formatted(index) + "x".repeat(size)).substring(0, size - 1) + "\n";
+		}
+
+		@Test
+		@DisplayName("Small log is kept in memory")
+		void smallLog() {
+			try (TaskLogBuffer buffer = new TaskLogBuffer(100000, "first\n")) {
+				buffer.append("second\n");
+				Assertions.assertFalse(buffer.isSpilled(), "The log shouldn't be spilled to disk");
+				Assertions.assertEquals("first\nsecond\n", buffer.toString());
+				Assertions.assertEquals(13, buffer.length());
+			}
+		}
+
+		@Test
+		@DisplayName("Big log is spilled to disk, then fully read back")
+		void spilledLog() throws Exception {
+			StringBuilder expected = new StringBuilder();
+			try (TaskLogBuffer buffer = new TaskLogBuffer(Integer.MAX_VALUE)) {
+				int lineCount = TaskLogBuffer.SETTINGS.getMemoryLimit() / 100 + 10;
+				for (int i = 0; i < lineCount; i++) {
+					buffer.append(line(i, 100));
+					expected.append(line(i, 100));
+				}
+				Assertions.assertTrue(buffer.isSpilled(), "The log should be spilled to disk");
+				Assertions.assertEquals(expected.toString(), buffer.toString());
+				DebugLog debugLog = new DebugLog(buffer);
+				Assertions.assertEquals(expected.toString(), debugLog.getContent(),
+					"The debug log doesn't match the task log buffer");
+				Assertions.assertTrue(debugLog.getCompressedText().length < expected.length() / 10,
+					"The debug log should be compressed");
+				buffer.close();
+				Assertions.assertEquals("", buffer.toString(), "The log should be empty once closed");
+			}
+		}
+
+		@Test
+		@DisplayName("Log is truncated when reaching the max size")
+		void truncatedLog() {
+			try (TaskLogBuffer buffer = new TaskLogBuffer(2500)) {
+				for (int i = 0; i < 5; i++) {
+					buffer.append(line(i, 1000));
+				}
+				String log = buffer.toString();
+				Assertions.assertTrue(log.startsWith(line(0, 1000) + line(1, 1000)));
+				Assertions.assertTrue(log.endsWith("[log truncated, max size reached]\n"),
+					"The log should end with the truncation line");
+				Assertions.assertFalse(log.contains("line 2 "), "The log should be truncated");
+			}
+		}
+	}
+
 	private TaskTest() {
 	}
 }
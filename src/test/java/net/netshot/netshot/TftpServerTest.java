@@ -0,0 +1,397 @@
+/**
+ * Copyright 2013-2025 Netshot
+ * 
+ * This file is part of Netshot project.
+ * 
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.netshot.netshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.netshot.netshot.device.NetworkAddress;
+import net.netshot.netshot.device.collector.SshServer.SessionLogBuffer;
+import net.netshot.netshot.device.collector.TftpServer;
+import net.netshot.netshot.device.collector.TransferProtocol;
+import net.netshot.netshot.device.collector.UploadTicket;
+import net.netshot.netshot.utils.StreamDigest;
+
+@DisplayName("Embedded TFTP server tests")
+public class TftpServerTest {
+
+	private static int port;
+
+	@TempDir
+	static Path tempDir;
+
+	/**
+	 * Simple upload ticket accepting any source.
+	 */
+	private static final class TestTicket implements UploadTicket {
+		private final String username;
+		private final Path rootPath;
+		private final List<Path> writtenFiles = new ArrayList<>();
+		private final List<String> writtenHashes = new ArrayList<>();
+		private final CountDownLatch stopped = new CountDownLatch(1);
+
+		TestTicket(String username) {
+			this.username = username;
+			this.rootPath = tempDir.resolve(username);
+		}
+
+		@Override
+		public Owner getOwner() {
+			return null;
+		}
+
+		@Override
+		public Set<TransferProtocol> getAllowedProtocols() {
+			return Set.of(TransferProtocol.TFTP);
+		}
+
+		@Override
+		public String getUsername() {
+			return this.username;
+		}
+
+		@Override
+		public boolean checkPassword(NetworkAddress source, String password) {
+			return false;
+		}
+
+		@Override
+		public boolean checkSource(NetworkAddress source) {
+			return true;
+		}
+
+		@Override
+		public Path getRootPath() {
+			return this.rootPath;
+		}
+
+		@Override
+		public boolean isValid() {
+			return true;
+		}
+
+		@Override
+		public void onSessionStarted(SessionLogBuffer logBuffer) {
+		}
+
+		@Override
+		public void onSessionStopped() {
+			this.stopped.countDown();
+		}
+
+		@Override
+		public synchronized boolean onFileWritten(Path filePath, StreamDigest digest) {
+			this.writtenFiles.add(filePath);
+			this.writtenHashes.add(digest == null ? null : digest.getSha256Hex());
+			return true;
+		}
+
+		synchronized List<Path> getWrittenFiles() {
+			return new ArrayList<>(this.writtenFiles);
+		}
+
+		synchronized List<String> getWrittenHashes() {
+			return new ArrayList<>(this.writtenHashes);
+		}
+	}
+
+	@BeforeAll
+	static void startServer() throws Exception {
+		try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+			port = socket.getLocalPort();
+		}
+		Properties config = new Properties();
+		config.setProperty("netshot.tftpserver.disabled", "false");
+		config.setProperty("netshot.tftpserver.port", Integer.toString(port));
+		config.setProperty("netshot.tftpserver.listenaddress", "127.0.0.1");
+		config.setProperty("netshot.tftpserver.timeout", "300");
+		Netshot.initConfig(config);
+		TftpServer.init();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!TftpServer.isRunning() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		Assertions.assertTrue(TftpServer.isRunning(), "The TFTP server should be running");
+	}
+
+	@AfterAll
+	static void stopServer() {
+		TftpServer.getServer().shutdown();
+	}
+
+	private static void writeString(ByteArrayOutputStream out, String text) {
+		out.writeBytes(text.getBytes(StandardCharsets.US_ASCII));
+		out.write(0);
+	}
+
+	/**
+	 * Upload a file as a TFTP client, in octet mode.
+	 * @return the negotiated options (empty if the server replied with ACK 0)
+	 */
+	private static Map<String, String> upload(String fileName, byte[] data, Map<String, String> options)
+			throws IOException {
+		return upload(fileName, "octet", data, options);
+	}
+
+	/**
+	 * Upload a file as a TFTP client (with window support, as per RFC 7440).
+	 * @return the negotiated options (empty if the server replied with ACK 0)
+	 */
+	private static Map<String, String> upload(String fileName, String mode, byte[] data,
+			Map<String, String> options) throws IOException {
+		try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+			socket.setSoTimeout(500);
+			ByteArrayOutputStream request = new ByteArrayOutputStream();
+			request.write(0);
+			request.write(2);
+			writeString(request, fileName);
+			writeString(request, mode);
+			for (Map.Entry<String, String> option : options.entrySet()) {
+				writeString(request, option.getKey());
+				writeString(request, option.getValue());
+			}
+			byte[] requestBytes = request.toByteArray();
+			InetSocketAddress server = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+			byte[] receiveBytes = new byte[70000];
+			DatagramPacket reply = new DatagramPacket(receiveBytes, receiveBytes.length);
+
+			int retries = 0;
+			while (true) {
+				socket.send(new DatagramPacket(requestBytes, requestBytes.length, server));
+				try {
+					socket.receive(reply);
+					break;
+				}
+				catch (SocketTimeoutException e) {
+					if (++retries > 5) {
+						throw e;
+					}
+				}
+			}
+			SocketAddress peer = reply.getSocketAddress();
+			ByteBuffer buffer = ByteBuffer.wrap(receiveBytes, 0, reply.getLength());
+			short opcode = buffer.getShort();
+			Map<String, String> accepted = new LinkedHashMap<>();
+			if (opcode == 5) {
+				buffer.getShort();
+				throw new IOException("TFTP error: " + new String(receiveBytes, 4, reply.getLength() - 5,
+					StandardCharsets.US_ASCII));
+			}
+			else if (opcode == 6) {
+				String[] fields = new String(receiveBytes, 2, reply.getLength() - 3, StandardCharsets.US_ASCII)
+					.split("\0");
+				for (int i = 0; i + 1 < fields.length; i += 2) {
+					accepted.put(fields[i], fields[i + 1]);
+				}
+			}
+			else if (opcode != 4 || buffer.getShort() != 0) {
+				throw new IOException("Unexpected reply to the write request");
+			}
+			int blockSize = Integer.parseInt(accepted.getOrDefault("blksize", "512"));
+			int windowSize = Integer.parseInt(accepted.getOrDefault("windowsize", "1"));
+
+			int blockCount = data.length / blockSize + 1;
+			int base = 1;
+			retries = 0;
+			while (base <= blockCount) {
+				int end = Math.min(base + windowSize - 1, blockCount);
+				for (int block = base; block <= end; block++) {
+					int offset = (block - 1) * blockSize;
+					int length = Math.min(blockSize, data.length - offset);
+					ByteBuffer packet = ByteBuffer.allocate(4 + length);
+					packet.putShort((short) 3);
+					packet.putShort((short) block);
+					packet.put(data, offset, length);
+					socket.send(new DatagramPacket(packet.array(), packet.capacity(), peer));
+				}
+				try {
+					while (true) {
+						socket.receive(reply);
+						ByteBuffer ack = ByteBuffer.wrap(receiveBytes, 0, reply.getLength());
+						short ackOpcode = ack.getShort();
+						if (ackOpcode == 5) {
+							throw new IOException("TFTP error during transfer");
+						}
+						if (ackOpcode == 4) {
+							int ackBlock = ack.getShort() & 0xFFFF;
+							if (ackBlock >= base - 1) {
+								base = ackBlock + 1;
+								break;
+							}
+						}
+					}
+					retries = 0;
+				}
+				catch (SocketTimeoutException e) {
+					if (++retries > 5) {
+						throw e;
+					}
+				}
+			}
+			return accepted;
+		}
+	}
+
+	private static byte[] randomData(Random random, int size) {
+		byte[] data = new byte[size];
+		random.nextBytes(data);
+		return data;
+	}
+
+	private static void checkReceived(TestTicket ticket, String fileName, byte[] data) throws Exception {
+		Assertions.assertTrue(ticket.stopped.await(5, TimeUnit.SECONDS), "The transfer should be over");
+		Path file = ticket.getRootPath().resolve(fileName);
+		Assertions.assertEquals(List.of(file.toAbsolutePath().normalize()), ticket.getWrittenFiles());
+		Assertions.assertTrue(Arrays.equals(data, Files.readAllBytes(file)),
+			"The received file doesn't match the sent data");
+		Assertions.assertEquals(List.of(DigestUtils.sha256Hex(data)), ticket.getWrittenHashes(),
+			"The hash computed on the fly doesn't match the sent data");
+	}
+
+	@Test
+	@DisplayName("Lock-step transfer without options")
+	void lockStepTransfer() throws Exception {
+		Random random = new Random(1);
+		// Exact multiple of the block size, the last block is then empty
+		for (int size : new int[] { 3000, 1024, 0 }) {
+			TestTicket ticket = new TestTicket("lockstep" + size);
+			TftpServer.getServer().registerUploadTicket(ticket);
+			byte[] data = randomData(random, size);
+			Map<String, String> accepted = upload(ticket.getUsername() + "/startup.cfg", data, Map.of());
+			Assertions.assertTrue(accepted.isEmpty(), "No option should have been acknowledged");
+			checkReceived(ticket, "startup.cfg", data);
+		}
+	}
+
+	@Test
+	@DisplayName("Windowed transfer with blksize and windowsize options")
+	void windowedTransfer() throws Exception {
+		TestTicket ticket = new TestTicket("windowed");
+		TftpServer.getServer().registerUploadTicket(ticket);
+		byte[] data = randomData(new Random(2), 500000);
+		Map<String, String> options = new LinkedHashMap<>();
+		options.put("blksize", "100000");
+		options.put("windowsize", "8");
+		options.put("tsize", Integer.toString(data.length));
+		Map<String, String> accepted = upload("/windowed/backup.bin", data, options);
+		Assertions.assertEquals(Integer.toString(TftpServer.SETTINGS.getMaxBlockSize()), accepted.get("blksize"),
+			"The block size should be capped");
+		Assertions.assertEquals("8", accepted.get("windowsize"));
+		Assertions.assertEquals(Integer.toString(data.length), accepted.get("tsize"));
+		checkReceived(ticket, "backup.bin", data);
+	}
+
+	@Test
+	@DisplayName("Netascii transfer translated to local text")
+	void netasciiTransfer() throws Exception {
+		TestTicket ticket = new TestTicket("netascii");
+		TftpServer.getServer().registerUploadTicket(ticket);
+		StringBuilder sent = new StringBuilder();
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			sent.append("interface Ethernet%d\r\n description carriage\r\0return\r\n".formatted(i));
+			expected.append("interface Ethernet%d\n description carriage\rreturn\n".formatted(i));
+		}
+		// The CR LF sequences are split across blocks, and a lone CR ends the file
+		sent.append("\r");
+		expected.append("\r");
+		byte[] data = sent.toString().getBytes(StandardCharsets.US_ASCII);
+		upload(ticket.getUsername() + "/startup.cfg", "netascii", data, Map.of("blksize", "61"));
+		checkReceived(ticket, "startup.cfg", expected.toString().getBytes(StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	@DisplayName("Write request without matching ticket is rejected")
+	void rejectedTransfer() throws Exception {
+		IOException e = Assertions.assertThrows(IOException.class,
+			() -> upload("unknown/startup.cfg", new byte[10], Map.of()));
+		Assertions.assertTrue(e.getMessage().contains("Access violation"));
+		TestTicket ticket = new TestTicket("escape");
+		TftpServer.getServer().registerUploadTicket(ticket);
+		Assertions.assertThrows(IOException.class,
+			() -> upload("escape/../../startup.cfg", new byte[10], Map.of()));
+	}
+
+	@Test
+	@DisplayName("Load test with hundreds of concurrent clients")
+	void loadTest() throws Exception {
+		final int clientCount = 300;
+		Random random = new Random(3);
+		List<TestTicket> tickets = new ArrayList<>();
+		List<byte[]> contents = new ArrayList<>();
+		for (int i = 0; i < clientCount; i++) {
+			TestTicket ticket = new TestTicket("load" + i);
+			TftpServer.getServer().registerUploadTicket(ticket);
+			tickets.add(ticket);
+			contents.add(randomData(random, 50000 + random.nextInt(100000)));
+		}
+		Assertions.assertTimeoutPreemptively(Duration.ofSeconds(120), () -> {
+			try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+				List<Future<Map<String, String>>> results = new ArrayList<>();
+				for (int i = 0; i < clientCount; i++) {
+					final String fileName = tickets.get(i).getUsername() + "/config.bin";
+					final byte[] data = contents.get(i);
+					// Mix of lock-step and windowed clients
+					final Map<String, String> options = i % 4 == 0
+						? Map.of() : Map.of("blksize", "1428", "windowsize", "16");
+					results.add(executor.submit(() -> upload(fileName, data, options)));
+				}
+				for (Future<Map<String, String>> result : results) {
+					result.get();
+				}
+			}
+			for (int i = 0; i < clientCount; i++) {
+				checkReceived(tickets.get(i), "config.bin", contents.get(i));
+			}
+		});
+	}
+
+}